@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Stress benchmark for alarm batching with a large number of registered alarms.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AlarmManagerPerfTest {
+    private static final String ACTION = "com.android.perftests.core.ALARM";
+    private static final int ALARM_COUNT = 10000;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private AlarmManager mAlarmManager;
+    private PendingIntent[] mOperations;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        mAlarmManager = context.getSystemService(AlarmManager.class);
+        mOperations = new PendingIntent[ALARM_COUNT];
+        final long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ALARM_COUNT; i++) {
+            mOperations[i] = PendingIntent.getBroadcast(context, i, new Intent(ACTION), 0);
+            // Spread the alarms over a day, mixing inexact and exact alarms so that the batch
+            // list holds both large and single-alarm batches.
+            final long when = now + HOUR + (i * 24 * HOUR) / ALARM_COUNT;
+            if ((i & 1) == 0) {
+                mAlarmManager.set(AlarmManager.ELAPSED_REALTIME, when, mOperations[i]);
+            } else {
+                mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME, when, mOperations[i]);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (PendingIntent operation : mOperations) {
+            mAlarmManager.cancel(operation);
+            operation.cancel();
+        }
+    }
+
+    @Test
+    public void timeResetAlarm() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            // Setting an alarm for an existing operation removes the old alarm first.
+            final long when = SystemClock.elapsedRealtime() + 2 * HOUR;
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME, when, mOperations[i]);
+            i = (i + 1) % ALARM_COUNT;
+        }
+    }
+
+    @Test
+    public void timeCancelAndSetAlarm() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mAlarmManager.cancel(mOperations[i]);
+            final long when = SystemClock.elapsedRealtime() + 3 * HOUR;
+            mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME, when, mOperations[i]);
+            i = (i + 1) % ALARM_COUNT;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.perftests.core.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measures the resource loads an app makes while starting, with and without the resources
+ * having been warmed by {@link ResourcesPrefetcher}. Every iteration starts from new caches,
+ * as a new process would.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ResourcesPrefetcherPerfTest {
+
+    private static final int[] LAYOUTS = {
+            R.layout.test_relative_layout,
+            R.layout.test_linear_layout,
+            R.layout.test_simple_view,
+            R.layout.twelve_key_entry,
+    };
+
+    private static final int[] DRAWABLES = {
+            R.drawable.vector_drawable01,
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private File mProfile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mProfile = new File(mContext.getCacheDir(), ResourcesPrefetcher.PROFILE_NAME);
+
+        final ResourcesPrefetcher recorder = new ResourcesPrefetcher(createResources(), mProfile);
+        for (int id : LAYOUTS) {
+            recorder.record(ResourcesPrefetcher.TYPE_LAYOUT, id);
+        }
+        for (int id : DRAWABLES) {
+            recorder.record(ResourcesPrefetcher.TYPE_DRAWABLE, id);
+        }
+        recorder.writeProfileIfChanged();
+    }
+
+    @After
+    public void tearDown() {
+        mProfile.delete();
+    }
+
+    private Resources createResources() {
+        final Resources res = mContext.getResources();
+        return new Resources(res.getAssets(), res.getDisplayMetrics(), res.getConfiguration());
+    }
+
+    private static void loadStartupResources(Resources res) {
+        for (int id : LAYOUTS) {
+            res.getLayout(id).close();
+        }
+        for (int id : DRAWABLES) {
+            res.getDrawable(id, null /* theme */);
+        }
+    }
+
+    @Test
+    public void testStartupLoads() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final Resources res = createResources();
+            state.resumeTiming();
+
+            loadStartupResources(res);
+        }
+    }
+
+    @Test
+    public void testStartupLoadsPrefetched() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final Resources res = createResources();
+            final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(res, mProfile);
+            prefetcher.readProfile();
+            prefetcher.warm();
+            state.resumeTiming();
+
+            loadStartupResources(res);
+
+            state.pauseTiming();
+            res.getImpl().flushLayoutCache();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testPrefetch() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final Resources res = createResources();
+            state.resumeTiming();
+
+            final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(res, mProfile);
+            prefetcher.readProfile();
+            prefetcher.warm();
+
+            state.pauseTiming();
+            res.getImpl().flushLayoutCache();
+            state.resumeTiming();
+        }
+    }
+}
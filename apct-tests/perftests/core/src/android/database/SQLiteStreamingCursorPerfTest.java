@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteStreamingCursor;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares a forward scan of a large table with a regular cursor, which runs the query again
+ * for each window, and with a {@link SQLiteStreamingCursor}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SQLiteStreamingCursorPerfTest {
+    private static final int ROW_COUNT = 100000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static Context getContext() {
+        return InstrumentationRegistry.getTargetContext();
+    }
+
+    private static final String DB_NAME = SQLiteStreamingCursorPerfTest.class.toString();
+
+    private static SQLiteDatabase sDatabase;
+
+    @BeforeClass
+    public static void setup() {
+        getContext().deleteDatabase(DB_NAME);
+        sDatabase = getContext().openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+        // Streaming needs a connection of its own.
+        sDatabase.enableWriteAheadLogging();
+
+        final TableHelper helper = TableHelper.USER;
+        sDatabase.execSQL(helper.createSql());
+        sDatabase.beginTransaction();
+        try {
+            final SQLiteStatement insert = sDatabase.compileStatement(helper.insertSql());
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.clearBindings();
+                final Object[] item = helper.createItem(i);
+                for (int j = 0; j < item.length; j++) {
+                    DatabaseUtils.bindObjectToProgram(insert, j + 1, item[j]);
+                }
+                insert.executeInsert();
+            }
+            insert.close();
+            sDatabase.setTransactionSuccessful();
+        } finally {
+            sDatabase.endTransaction();
+        }
+    }
+
+    @AfterClass
+    public static void teardown() {
+        sDatabase.close();
+        getContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void timeScanRegular() {
+        scan(null);
+    }
+
+    @Test
+    public void timeScanStreaming() {
+        scan(SQLiteStreamingCursor.FACTORY);
+    }
+
+    private void scan(SQLiteDatabase.CursorFactory factory) {
+        final TableHelper helper = TableHelper.USER;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = sDatabase.rawQueryWithFactory(factory, helper.readSql(),
+                    null, null)) {
+                final TableHelper.CursorReader reader = helper.createReader(cursor);
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    reader.read();
+                    rows++;
+                }
+                assertEquals(ROW_COUNT, rows);
+            }
+        }
+    }
+}
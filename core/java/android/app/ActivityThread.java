@@ -45,6 +45,7 @@ import android.content.res.AssetManager;
 import android.content.res.CompatibilityInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.content.res.ResourcesPrefetcher;
 import android.content.res.Resources.Theme;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDebug;
@@ -190,6 +191,8 @@ public final class ActivityThread {
     private static final boolean DEBUG_PROVIDER = false;
     private static final boolean DEBUG_ORDER = false;
     private static final long MIN_TIME_BETWEEN_GCS = 5*1000;
+    /** Time after which the resources prefetcher is cancelled if no frame was drawn. */
+    private static final long RESOURCES_PREFETCH_TIMEOUT_MS = 10*1000;
     private static final int SQLITE_MEM_RELEASED_EVENT_LOG_TAG = 75003;
     private static final int LOG_AM_ON_PAUSE_CALLED = 30021;
     private static final int LOG_AM_ON_RESUME_CALLED = 30022;
@@ -1235,6 +1238,10 @@ public final class ActivityThread {
                 pw.print(assetAlloc);
             }
 
+            pw.println(" ");
+            pw.println(" Resource Caches");
+            mResourcesManager.dumpCaches(pw, "  ");
+
             // Unreachable native memory
             if (dumpUnreachable) {
                 boolean showContents = ((mBoundApplication != null)
@@ -5375,6 +5382,26 @@ public final class ActivityThread {
         Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
     }
 
+    private void setupResourcesPrefetcher(Context context, String processName) {
+        // The system package doesn't have real data directories, and the property allows
+        // measuring launches without prefetching.
+        if ("android".equals(context.getPackageName())
+                || !SystemProperties.getBoolean("debug.resources.prefetch", true)) {
+            return;
+        }
+        // Like the graphics caches, use storage that is available before the user unlocks.
+        final File codeCacheDir = context.createDeviceProtectedStorageContext().getCodeCacheDir();
+        if (codeCacheDir == null) {
+            return;
+        }
+        final ResourcesPrefetcher prefetcher = ResourcesPrefetcher.start(context.getResources(),
+                codeCacheDir, processName);
+        ViewRootImpl.addFirstDrawHandler(prefetcher::finish);
+        // Processes started for a broadcast, service or provider may never draw, and should
+        // neither hold what was warmed nor overwrite the profile of their launches.
+        mH.postDelayed(prefetcher::cancel, RESOURCES_PREFETCH_TIMEOUT_MS);
+    }
+
     private void updateDefaultDensity() {
         final int densityDpi = mCurDefaultDisplayDpi;
         if (!mDensityCompatMode
@@ -5647,6 +5674,7 @@ public final class ActivityThread {
 
         if (!Process.isIsolated()) {
             setupGraphicsSupport(appContext);
+            setupResourcesPrefetcher(appContext, data.processName);
         }
 
         // If we use profiles, setup the dex reporter to notify package manager
@@ -42,6 +42,7 @@ import android.view.DisplayAdjustments;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Objects;
@@ -146,6 +147,22 @@ public class ResourcesManager {
         }
     }
 
+    /**
+     * Prints the resource caches of every ResourcesImpl still in use.
+     */
+    public void dumpCaches(PrintWriter pw, String prefix) {
+        synchronized (this) {
+            for (int i = 0; i < mResourceImpls.size(); i++) {
+                final ResourcesImpl impl = mResourceImpls.valueAt(i).get();
+                if (impl == null) {
+                    continue;
+                }
+                pw.print(prefix); pw.println(mResourceImpls.keyAt(i));
+                impl.dumpCaches(pw, prefix + "  ");
+            }
+        }
+    }
+
     DisplayMetrics getDisplayMetrics() {
         return getDisplayMetrics(Display.DEFAULT_DISPLAY,
                 DisplayAdjustments.DEFAULT_DISPLAY_ADJUSTMENTS);
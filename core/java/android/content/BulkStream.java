@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Moves bulk content provider data that does not fit in a single binder transaction.
+ *
+ * <p>Rows go from the client to the provider through a pipe. A writer thread in the client
+ * marshals them while the client waits for the provider, and the provider unmarshals them as
+ * it consumes them, so neither side needs the whole batch as one Parcel and the pipe blocks the
+ * writer whenever the provider falls behind. The stream is a sequence of records, each an int
+ * byte length, an int item count and that many bytes of marshalled items; a zero length ends
+ * the stream.</p>
+ *
+ * <p>Results that are too large for the reply are returned in a read-only shared memory
+ * region instead.</p>
+ *
+ * @hide
+ */
+public final class BulkStream {
+    private static final String TAG = "BulkStream";
+
+    /**
+     * Transactions larger than this are sent as a stream. The binder buffer is shared by all
+     * transactions in flight for a process, so this is well below the 1MB limit.
+     */
+    public static final int MAX_INLINE_BYTES = 256 * 1024;
+
+    /** A record is flushed to the pipe once it holds this many bytes. */
+    private static final int RECORD_BYTES = 64 * 1024;
+
+    /**
+     * Largest record a reader accepts. A record ends with the item that took it past
+     * {@link #RECORD_BYTES}, and no single item can be larger than a binder transaction.
+     */
+    private static final int MAX_RECORD_BYTES = RECORD_BYTES + 1024 * 1024;
+
+    private static final int RESULTS_INLINE = 0;
+    private static final int RESULTS_SHARED_MEMORY = 1;
+
+    private BulkStream() {
+    }
+
+    /**
+     * Starts writing the given items to a new pipe on a background thread. The read side of the
+     * pipe must be sent to the provider, and {@link Writer#finish()} must be called once the
+     * provider has returned.
+     */
+    public static <T extends Parcelable> Writer startWriting(Iterator<T> items)
+            throws IOException {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createReliablePipe();
+        final Writer writer = new Writer(pipe[0], pipe[1], items);
+        writer.mThread.start();
+        return writer;
+    }
+
+    /**
+     * Returns an iterator over the items sent through the given pipe. The iterator takes
+     * ownership of the pipe and must be closed when the caller is done with it, even if it has
+     * not been read to the end.
+     */
+    public static <T> Reader<T> startReading(ParcelFileDescriptor readSide,
+            Parcelable.Creator<T> creator) {
+        return new Reader<>(readSide, creator);
+    }
+
+    /**
+     * The client side of a stream.
+     */
+    public static final class Writer {
+        private final ParcelFileDescriptor mReadSide;
+        private final ParcelFileDescriptor mWriteSide;
+        private final Iterator<? extends Parcelable> mItems;
+        private final Thread mThread;
+        private volatile RuntimeException mItemsException;
+
+        private Writer(ParcelFileDescriptor readSide, ParcelFileDescriptor writeSide,
+                Iterator<? extends Parcelable> items) {
+            mReadSide = readSide;
+            mWriteSide = writeSide;
+            mItems = items;
+            mThread = new Thread(this::run, "BulkStreamWriter");
+        }
+
+        /**
+         * @return the read side of the pipe, to be sent to the provider.
+         */
+        public ParcelFileDescriptor getReadSide() {
+            return mReadSide;
+        }
+
+        private void run() {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mWriteSide.getFileDescriptor()), RECORD_BYTES));
+                int count = 0;
+                while (true) {
+                    try {
+                        if (!mItems.hasNext()) {
+                            break;
+                        }
+                        mItems.next().writeToParcel(parcel, 0);
+                        if (parcel.dataSize() > MAX_RECORD_BYTES) {
+                            throw new IllegalArgumentException("Item too large: "
+                                    + parcel.dataSize() + " bytes");
+                        }
+                    } catch (RuntimeException e) {
+                        mItemsException = e;
+                        throw e;
+                    }
+                    count += 1;
+                    if (parcel.dataSize() >= RECORD_BYTES) {
+                        writeRecord(out, parcel, count);
+                        count = 0;
+                    }
+                }
+                if (count > 0) {
+                    writeRecord(out, parcel, count);
+                }
+                out.writeInt(0);
+                out.flush();
+                mWriteSide.close();
+            } catch (IOException | RuntimeException e) {
+                // The provider stopped reading, or the items could not be written. Either way
+                // the provider must not mistake what it got so far for the whole batch.
+                Log.w(TAG, "Failed to write bulk stream", e);
+                try {
+                    mWriteSide.closeWithError(e.toString());
+                } catch (IOException ignored) {
+                }
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        private static void writeRecord(DataOutputStream out, Parcel parcel, int count)
+                throws IOException {
+            final byte[] bytes = parcel.marshall();
+            out.writeInt(bytes.length);
+            out.writeInt(count);
+            out.write(bytes);
+            parcel.setDataSize(0);
+            parcel.setDataPosition(0);
+        }
+
+        /**
+         * Waits for the writer thread to exit once the provider has returned. Rethrows any
+         * exception thrown by the items, since it is the cause of whatever the provider
+         * reported.
+         */
+        public void finish() {
+            // Once the provider has closed its copy too, the writer fails on its next write
+            // instead of blocking forever on a pipe nobody reads.
+            IoUtils.closeQuietly(mReadSide);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mThread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            final RuntimeException e = mItemsException;
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The provider side of a stream.
+     */
+    public static final class Reader<T> implements Iterator<T>, AutoCloseable {
+        private final ParcelFileDescriptor mReadSide;
+        private final DataInputStream mIn;
+        private final Parcelable.Creator<T> mCreator;
+        private final Parcel mParcel = Parcel.obtain();
+        private int mRemaining;
+        private boolean mDone;
+        private boolean mClosed;
+
+        private Reader(ParcelFileDescriptor readSide, Parcelable.Creator<T> creator) {
+            mReadSide = readSide;
+            mIn = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(readSide.getFileDescriptor()), RECORD_BYTES));
+            mCreator = creator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mRemaining == 0 && !mDone) {
+                readRecord();
+            }
+            return mRemaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mRemaining -= 1;
+            return mCreator.createFromParcel(mParcel);
+        }
+
+        private void readRecord() {
+            if (mClosed) {
+                throw new IllegalStateException("Stream is closed");
+            }
+            try {
+                final int length = mIn.readInt();
+                if (length == 0) {
+                    mDone = true;
+                    return;
+                }
+                final int count = mIn.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES || count <= 0) {
+                    // Never allocate what a misbehaving client asks for.
+                    mDone = true;
+                    throw new IllegalStateException("Malformed record from client: length "
+                            + length + ", count " + count);
+                }
+                final byte[] bytes = new byte[length];
+                mIn.readFully(bytes);
+                mParcel.unmarshall(bytes, 0, length);
+                mParcel.setDataPosition(0);
+                mRemaining = count;
+            } catch (EOFException e) {
+                // The writer closed the pipe without finishing the stream; report why.
+                try {
+                    mReadSide.checkError();
+                } catch (IOException writerError) {
+                    throw new IllegalStateException("Client failed to send rows", writerError);
+                }
+                throw new IllegalStateException("Client closed the stream early", e);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read rows from client", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed) {
+                mClosed = true;
+                mRemaining = 0;
+                mParcel.recycle();
+                IoUtils.closeQuietly(mReadSide);
+            }
+        }
+    }
+
+    /**
+     * Writes the results of a batch to a reply, in shared memory if they are too large to be
+     * sent inline.
+     */
+    public static void writeResults(Parcel reply, ContentProviderResult[] results) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedArray(results, 0);
+            if (parcel.dataSize() <= MAX_INLINE_BYTES) {
+                reply.writeInt(RESULTS_INLINE);
+                reply.appendFrom(parcel, 0, parcel.dataSize());
+                return;
+            }
+            final byte[] bytes = parcel.marshall();
+            final SharedMemory memory = SharedMemory.create("ContentProviderResults",
+                    bytes.length);
+            try {
+                final ByteBuffer buffer = memory.mapReadWrite();
+                try {
+                    buffer.put(bytes);
+                } finally {
+                    SharedMemory.unmap(buffer);
+                }
+                memory.setProtect(OsConstants.PROT_READ);
+                reply.writeInt(RESULTS_SHARED_MEMORY);
+                // The descriptor is duplicated into the reply, so it is safe to close ours.
+                memory.writeToParcel(reply, 0);
+            } finally {
+                memory.close();
+            }
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("Failed to allocate memory for results", e);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Reads results written by {@link #writeResults}.
+     */
+    public static ContentProviderResult[] readResults(Parcel reply) {
+        if (reply.readInt() == RESULTS_INLINE) {
+            return reply.createTypedArray(ContentProviderResult.CREATOR);
+        }
+        final SharedMemory memory = SharedMemory.CREATOR.createFromParcel(reply);
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final ByteBuffer buffer = memory.mapReadOnly();
+            try {
+                final byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                parcel.unmarshall(bytes, 0, bytes.length);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
+            parcel.setDataPosition(0);
+            return parcel.createTypedArray(ContentProviderResult.CREATOR);
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("Failed to map results", e);
+        } finally {
+            parcel.recycle();
+            memory.close();
+        }
+    }
+}
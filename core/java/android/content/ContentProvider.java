@@ -54,6 +54,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * Content providers are one of the primary building blocks of Android applications, providing
@@ -283,6 +284,35 @@ public abstract class ContentProvider implements ComponentCallbacks2 {
             }
         }
 
+        @Override
+        public int bulkInsertStreaming(String callingPkg, Uri uri,
+                Iterator<ContentValues> values) {
+            validateIncomingUri(uri);
+            uri = maybeGetUriWithoutUserId(uri);
+            if (enforceWritePermission(callingPkg, uri, null) != AppOpsManager.MODE_ALLOWED) {
+                return 0;
+            }
+            final String original = setCallingPackage(callingPkg);
+            try {
+                return ContentProvider.this.bulkInsertStreaming(uri, values);
+            } finally {
+                setCallingPackage(original);
+            }
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatchStreaming(String callingPkg,
+                Iterator<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            // Every operation is checked before any is applied, so the batch is collected
+            // first; only the transport is streamed.
+            final ArrayList<ContentProviderOperation> list = new ArrayList<>();
+            while (operations.hasNext()) {
+                list.add(operations.next());
+            }
+            return applyBatch(callingPkg, list);
+        }
+
         @Override
         public ContentProviderResult[] applyBatch(String callingPkg,
                 ArrayList<ContentProviderOperation> operations)
@@ -1306,6 +1336,28 @@ public abstract class ContentProvider implements ComponentCallbacks2 {
         return numValues;
     }
 
+    /**
+     * Override this to insert rows as they arrive from
+     * {@link ContentResolver#bulkInsertStreaming}, or from a {@link #bulkInsert} call too large
+     * for a single transaction, without holding them all in memory. The default
+     * implementation collects the rows and calls {@link #bulkInsert(Uri, ContentValues[])}.
+     * This method can be called from multiple threads, as described in
+     * <a href="{@docRoot}guide/topics/fundamentals/processes-and-threads.html#Threads">Processes
+     * and Threads</a>.
+     *
+     * @param uri The content:// URI of the insertion request.
+     * @param values The rows to insert. They are read from the caller as the iterator
+     *    advances, and the iterator must not be used after this method returns.
+     * @return The number of values that were inserted.
+     */
+    public int bulkInsertStreaming(@NonNull Uri uri, @NonNull Iterator<ContentValues> values) {
+        final ArrayList<ContentValues> list = new ArrayList<>();
+        while (values.hasNext()) {
+            list.add(values.next());
+        }
+        return bulkInsert(uri, list.toArray(new ContentValues[list.size()]));
+    }
+
     /**
      * Implement this to handle requests to delete one or more rows.
      * The implementation should apply the selection clause when performing
@@ -40,6 +40,7 @@ import dalvik.system.CloseGuard;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -298,6 +299,25 @@ public class ContentProviderClient implements AutoCloseable {
         }
     }
 
+    /** See {@link ContentResolver#bulkInsertStreaming ContentResolver.bulkInsertStreaming} */
+    public int bulkInsertStreaming(@NonNull Uri url, @NonNull Iterator<ContentValues> values)
+            throws RemoteException {
+        Preconditions.checkNotNull(url, "url");
+        Preconditions.checkNotNull(values, "values");
+
+        beforeRemote();
+        try {
+            return mContentProvider.bulkInsertStreaming(mPackageName, url, values);
+        } catch (DeadObjectException e) {
+            if (!mStable) {
+                mContentResolver.unstableProviderDied(mContentProvider);
+            }
+            throw e;
+        } finally {
+            afterRemote();
+        }
+    }
+
     /** See {@link ContentProvider#delete ContentProvider.delete} */
     public int delete(@NonNull Uri url, @Nullable String selection,
             @Nullable String[] selectionArgs) throws RemoteException {
@@ -35,7 +35,10 @@ import android.os.Parcelable;
 import android.os.RemoteException;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * {@hide}
@@ -184,6 +187,38 @@ abstract public class ContentProviderNative extends Binder implements IContentPr
                     return true;
                 }
 
+                case BULK_INSERT_STREAMING_TRANSACTION:
+                {
+                    data.enforceInterface(IContentProvider.descriptor);
+                    String callingPkg = data.readString();
+                    Uri url = Uri.CREATOR.createFromParcel(data);
+                    ParcelFileDescriptor fd = ParcelFileDescriptor.CREATOR.createFromParcel(data);
+
+                    try (BulkStream.Reader<ContentValues> values =
+                            BulkStream.startReading(fd, ContentValues.CREATOR)) {
+                        int count = bulkInsertStreaming(callingPkg, url, values);
+                        reply.writeNoException();
+                        reply.writeInt(count);
+                    }
+                    return true;
+                }
+
+                case APPLY_BATCH_STREAMING_TRANSACTION:
+                {
+                    data.enforceInterface(IContentProvider.descriptor);
+                    String callingPkg = data.readString();
+                    ParcelFileDescriptor fd = ParcelFileDescriptor.CREATOR.createFromParcel(data);
+
+                    try (BulkStream.Reader<ContentProviderOperation> operations =
+                            BulkStream.startReading(fd, ContentProviderOperation.CREATOR)) {
+                        final ContentProviderResult[] results =
+                                applyBatchStreaming(callingPkg, operations);
+                        reply.writeNoException();
+                        BulkStream.writeResults(reply, results);
+                    }
+                    return true;
+                }
+
                 case DELETE_TRANSACTION:
                 {
                     data.enforceInterface(IContentProvider.descriptor);
@@ -492,6 +527,10 @@ final class ContentProviderProxy implements IContentProvider
             data.writeString(callingPkg);
             url.writeToParcel(data, 0);
             data.writeTypedArray(values, 0);
+            if (data.dataSize() > BulkStream.MAX_INLINE_BYTES) {
+                // Too large for one transaction; stream the rows instead of failing.
+                return bulkInsertStreaming(callingPkg, url, Arrays.asList(values).iterator());
+            }
 
             mRemote.transact(IContentProvider.BULK_INSERT_TRANSACTION, data, reply, 0);
 
@@ -517,6 +556,10 @@ final class ContentProviderProxy implements IContentProvider
             for (ContentProviderOperation operation : operations) {
                 operation.writeToParcel(data, 0);
             }
+            if (data.dataSize() > BulkStream.MAX_INLINE_BYTES) {
+                // Too large for one transaction; stream the operations instead of failing.
+                return applyBatchStreaming(callingPkg, operations.iterator());
+            }
             mRemote.transact(IContentProvider.APPLY_BATCH_TRANSACTION, data, reply, 0);
 
             DatabaseUtils.readExceptionWithOperationApplicationExceptionFromParcel(reply);
@@ -529,6 +572,63 @@ final class ContentProviderProxy implements IContentProvider
         }
     }
 
+    @Override
+    public int bulkInsertStreaming(String callingPkg, Uri url, Iterator<ContentValues> values)
+            throws RemoteException {
+        final BulkStream.Writer writer = startWriting(values);
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(IContentProvider.descriptor);
+
+            data.writeString(callingPkg);
+            url.writeToParcel(data, 0);
+            writer.getReadSide().writeToParcel(data, 0);
+
+            mRemote.transact(IContentProvider.BULK_INSERT_STREAMING_TRANSACTION, data, reply, 0);
+
+            DatabaseUtils.readExceptionFromParcel(reply);
+            int count = reply.readInt();
+            return count;
+        } finally {
+            data.recycle();
+            reply.recycle();
+            writer.finish();
+        }
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatchStreaming(String callingPkg,
+            Iterator<ContentProviderOperation> operations)
+                    throws RemoteException, OperationApplicationException {
+        final BulkStream.Writer writer = startWriting(operations);
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(IContentProvider.descriptor);
+            data.writeString(callingPkg);
+            writer.getReadSide().writeToParcel(data, 0);
+
+            mRemote.transact(IContentProvider.APPLY_BATCH_STREAMING_TRANSACTION, data, reply, 0);
+
+            DatabaseUtils.readExceptionWithOperationApplicationExceptionFromParcel(reply);
+            return BulkStream.readResults(reply);
+        } finally {
+            data.recycle();
+            reply.recycle();
+            writer.finish();
+        }
+    }
+
+    private static <T extends Parcelable> BulkStream.Writer startWriting(Iterator<T> items)
+            throws RemoteException {
+        try {
+            return BulkStream.startWriting(items);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to create pipe: " + e.getMessage());
+        }
+    }
+
     @Override
     public int delete(String callingPkg, Uri url, String selection, String[] selectionArgs)
             throws RemoteException {
@@ -66,6 +66,7 @@ import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -367,6 +368,24 @@ public abstract class ContentResolver {
      */
     public static final String QUERY_ARG_LIMIT = "android:query-arg-limit";
 
+    /**
+     * Hint that the caller reads the results of a query once, front to back, so that the
+     * provider may stream the rows into the {@link android.database.CursorWindow} instead of
+     * running the query again each time the caller moves past the end of the window.
+     * The value is a {@code boolean}.
+     *
+     * <li>{@link ContentProvider} implementations: Providers backed by a
+     * {@link android.database.sqlite.SQLiteDatabase} can honor this in
+     * {@link ContentProvider#query(Uri, String[], Bundle, CancellationSignal)} by creating the
+     * Cursor with {@link android.database.sqlite.SQLiteStreamingCursor#FACTORY}. If honored,
+     * {@link #QUERY_ARG_STREAMING} should be included in the array of honored arguments
+     * reflected in {@link Cursor} extras {@link Bundle} under {@link #EXTRA_HONORED_ARGS}.
+     *
+     * <li>Callers should close the Cursor as soon as they have read the results, as a
+     * streaming Cursor holds on to a database connection of the provider while it is open.
+     */
+    public static final String QUERY_ARG_STREAMING = "android:query-arg-streaming";
+
     /**
      * Added to {@link Cursor} extras {@link Bundle} to indicate total row count of
      * recordset when paging is supported. Providers must include this when
@@ -1614,6 +1633,44 @@ public abstract class ContentResolver {
         }
     }
 
+    /**
+     * Inserts multiple rows into a table at the given URL, reading them from an iterator as
+     * the provider consumes them.
+     *
+     * Unlike {@link #bulkInsert}, the number of rows is not limited by the size of a single
+     * binder transaction, and the rows never need to be held in memory all at once: they are
+     * sent through a pipe, and the iterator is only advanced as fast as the provider reads.
+     * When the provider is in another process the iterator is advanced on a background thread.
+     *
+     * This function make no guarantees about the atomicity of the insertions.
+     *
+     * @param url The URL of the table to insert into.
+     * @param values The initial values for the newly inserted rows.
+     * @return the number of newly created rows.
+     */
+    public final int bulkInsertStreaming(@RequiresPermission.Write @NonNull Uri url,
+                @NonNull Iterator<ContentValues> values) {
+        Preconditions.checkNotNull(url, "url");
+        Preconditions.checkNotNull(values, "values");
+        IContentProvider provider = acquireProvider(url);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URL " + url);
+        }
+        try {
+            long startTime = SystemClock.uptimeMillis();
+            int rowsCreated = provider.bulkInsertStreaming(mPackageName, url, values);
+            long durationMillis = SystemClock.uptimeMillis() - startTime;
+            maybeLogUpdateToEventLog(durationMillis, url, "bulkinsert", null /* where */);
+            return rowsCreated;
+        } catch (RemoteException e) {
+            // Arbitrary and not worth documenting, as Activity
+            // Manager will kill this process shortly anyway.
+            return 0;
+        } finally {
+            releaseProvider(provider);
+        }
+    }
+
     /**
      * Deletes row(s) specified by a content URI.
      *
@@ -1921,8 +1978,13 @@ public abstract class ContentResolver {
     public final void registerContentObserver(Uri uri, boolean notifyForDescendents,
             ContentObserver observer, @UserIdInt int userHandle) {
         try {
-            getContentService().registerContentObserver(uri, notifyForDescendents,
-                    observer.getContentObserver(), userHandle, mTargetSdkVersion);
+            if (observer.deliverBatchedNotifications()) {
+                getContentService().registerBatchedContentObserver(uri, notifyForDescendents,
+                        observer.getContentObserver(), userHandle, mTargetSdkVersion);
+            } else {
+                getContentService().registerContentObserver(uri, notifyForDescendents,
+                        observer.getContentObserver(), userHandle, mTargetSdkVersion);
+            }
         } catch (RemoteException e) {
         }
     }
@@ -29,6 +29,7 @@ import android.os.RemoteException;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * The ipc interface to talk to a content provider.
@@ -43,6 +44,12 @@ public interface IContentProvider extends IInterface {
             throws RemoteException;
     public int bulkInsert(String callingPkg, Uri url, ContentValues[] initialValues)
             throws RemoteException;
+    /**
+     * Like {@link #bulkInsert}, but the rows are sent through a pipe as the provider reads
+     * them, so the batch is not limited by the size of a binder transaction.
+     */
+    public int bulkInsertStreaming(String callingPkg, Uri url, Iterator<ContentValues> values)
+            throws RemoteException;
     public int delete(String callingPkg, Uri url, String selection, String[] selectionArgs)
             throws RemoteException;
     public int update(String callingPkg, Uri url, ContentValues values, String selection,
@@ -57,6 +64,13 @@ public interface IContentProvider extends IInterface {
     public ContentProviderResult[] applyBatch(String callingPkg,
             ArrayList<ContentProviderOperation> operations)
                     throws RemoteException, OperationApplicationException;
+    /**
+     * Like {@link #applyBatch}, but the operations are sent through a pipe, so the batch is not
+     * limited by the size of a binder transaction.
+     */
+    public ContentProviderResult[] applyBatchStreaming(String callingPkg,
+            Iterator<ContentProviderOperation> operations)
+                    throws RemoteException, OperationApplicationException;
     public Bundle call(
             String callingPkg, String method, @Nullable String arg, @Nullable Bundle extras)
             throws RemoteException;
@@ -92,4 +106,6 @@ public interface IContentProvider extends IInterface {
     static final int CANONICALIZE_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 24;
     static final int UNCANONICALIZE_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 25;
     static final int REFRESH_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 26;
+    static final int BULK_INSERT_STREAMING_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 27;
+    static final int APPLY_BATCH_STREAMING_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 28;
 }
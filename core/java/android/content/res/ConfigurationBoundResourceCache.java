@@ -18,6 +18,8 @@ package android.content.res;
 
 import android.content.pm.ActivityInfo.Config;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 /**
  * A Cache class which can be used to cache resource objects that are easy to clone but more
  * expensive to inflate.
@@ -25,6 +27,19 @@ import android.content.pm.ActivityInfo.Config;
  * @hide For internal use only.
  */
 public class ConfigurationBoundResourceCache<T> extends ThemedResourceCache<ConstantState<T>> {
+    public ConfigurationBoundResourceCache() {
+    }
+
+    /**
+     * @param retainBudgetBytes the most memory the entries in use that are held strongly may
+     *                          use, as estimated by {@link #getRetainedSize}, or {@code 0} to
+     *                          hold none
+     */
+    @VisibleForTesting
+    public ConfigurationBoundResourceCache(int retainBudgetBytes) {
+        super(retainBudgetBytes);
+    }
+
     /**
      * If the resource is cached, creates and returns a new instance of it.
      *
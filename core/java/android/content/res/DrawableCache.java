@@ -22,6 +22,17 @@ import android.graphics.drawable.Drawable;
  * Class which can be used to cache Drawable resources against a theme.
  */
 class DrawableCache extends ThemedResourceCache<Drawable.ConstantState> {
+    DrawableCache() {
+    }
+
+    /**
+     * @param retainBudgetBytes the most memory the drawables in use that are held strongly
+     *                          may use, or {@code 0} to hold none
+     */
+    DrawableCache(int retainBudgetBytes) {
+        super(retainBudgetBytes);
+    }
+
     /**
      * If the resource is cached, creates and returns a new instance of it.
      *
@@ -44,4 +55,9 @@ class DrawableCache extends ThemedResourceCache<Drawable.ConstantState> {
     public boolean shouldInvalidateEntry(Drawable.ConstantState entry, int configChanges) {
         return Configuration.needNewResources(configChanges, entry.getChangingConfigurations());
     }
+
+    @Override
+    protected int getRetainedSize(Drawable.ConstantState entry) {
+        return entry.getAllocationByteCount();
+    }
 }
@@ -40,6 +40,7 @@ import android.os.LocaleList;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.Trace;
+import android.util.ArrayMap;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -56,6 +57,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -83,6 +85,13 @@ public class ResourcesImpl {
     public static final boolean TRACE_FOR_DETAILED_PRELOAD =
             SystemProperties.getBoolean("debug.trace_resource_preload", false);
 
+    /**
+     * Memory, in kilobytes, the drawables in use may keep alive in the drawable cache of each
+     * ResourcesImpl, so that they are not inflated again after a GC.
+     */
+    private static final int DRAWABLE_CACHE_RETAIN_KB =
+            SystemProperties.getInt("debug.resources.drawable_cache_kb", 512);
+
     /** Used only when TRACE_FOR_DETAILED_PRELOAD is true. */
     private static int sPreloadTracingNumLoadedDrawables;
     private long mPreloadTracingPreloadStartTime;
@@ -110,7 +119,8 @@ public class ResourcesImpl {
 
     // These are protected by mAccessLock.
     private final Configuration mTmpConfig = new Configuration();
-    private final DrawableCache mDrawableCache = new DrawableCache();
+    private final DrawableCache mDrawableCache =
+            new DrawableCache(DRAWABLE_CACHE_RETAIN_KB * 1024);
     private final DrawableCache mColorDrawableCache = new DrawableCache();
     private final ConfigurationBoundResourceCache<ComplexColor> mComplexColorCache =
             new ConfigurationBoundResourceCache<>();
@@ -135,6 +145,10 @@ public class ResourcesImpl {
     private final String[] mCachedXmlBlockFiles = new String[XML_BLOCK_CACHE_SIZE];
     private final XmlBlock[] mCachedXmlBlocks = new XmlBlock[XML_BLOCK_CACHE_SIZE];
 
+    // XML files read ahead by ResourcesPrefetcher, keyed by cookie and file name. Moved into
+    // the cyclical cache when first used. Protected by mCachedXmlBlocks.
+    private final ArrayMap<String, XmlBlock> mPrefetchedXmlBlocks = new ArrayMap<>();
+
 
     final AssetManager mAssets;
     private final DisplayMetrics mMetrics = new DisplayMetrics();
@@ -541,12 +555,73 @@ public class ResourcesImpl {
             }
             Arrays.fill(cachedXmlBlocks, null);
         }
+        clearPrefetchedXmlBlocks();
+    }
+
+    /**
+     * Prints the sizes and hit rates of the resource caches.
+     */
+    public void dumpCaches(@NonNull PrintWriter pw, @NonNull String prefix) {
+        final String innerPrefix = prefix + "  ";
+        pw.print(prefix); pw.println("Drawables:");
+        mDrawableCache.dump(pw, innerPrefix);
+        pw.print(prefix); pw.println("Color drawables:");
+        mColorDrawableCache.dump(pw, innerPrefix);
+        pw.print(prefix); pw.println("Complex colors:");
+        mComplexColorCache.dump(pw, innerPrefix);
+        pw.print(prefix); pw.println("Animators:");
+        mAnimatorCache.dump(pw, innerPrefix);
+        pw.print(prefix); pw.println("State list animators:");
+        mStateListAnimatorCache.dump(pw, innerPrefix);
+    }
+
+    /**
+     * Reads an XML file ahead of {@link #loadXmlResourceParser} asking for it. Meant to be
+     * called off the main thread.
+     *
+     * @return Whether the file could be read.
+     */
+    boolean prefetchXmlBlock(@NonNull String file, int assetCookie) {
+        final String key = assetCookie + ":" + file;
+        synchronized (mCachedXmlBlocks) {
+            if (mPrefetchedXmlBlocks.containsKey(key)) {
+                return true;
+            }
+        }
+        final XmlBlock block;
+        try {
+            block = mAssets.openXmlBlockAsset(assetCookie, file);
+        } catch (IOException e) {
+            return false;
+        }
+        synchronized (mCachedXmlBlocks) {
+            if (!mPrefetchedXmlBlocks.containsKey(key)) {
+                mPrefetchedXmlBlocks.put(key, block);
+                return true;
+            }
+        }
+        block.close();
+        return true;
+    }
+
+    /**
+     * Drops the XML files read ahead that were never used.
+     */
+    void clearPrefetchedXmlBlocks() {
+        synchronized (mCachedXmlBlocks) {
+            for (int i = mPrefetchedXmlBlocks.size() - 1; i >= 0; i--) {
+                mPrefetchedXmlBlocks.valueAt(i).close();
+            }
+            mPrefetchedXmlBlocks.clear();
+        }
     }
 
     @Nullable
     Drawable loadDrawable(@NonNull Resources wrapper, @NonNull TypedValue value, int id,
             int density, @Nullable Resources.Theme theme)
             throws NotFoundException {
+        ResourcesPrefetcher.noteLoaded(this, ResourcesPrefetcher.TYPE_DRAWABLE, id);
+
         // If the drawable's XML lives in our current density qualifier,
         // it's okay to use a scaled version from the cache. Otherwise, we
         // need to actually load the drawable from XML.
@@ -1005,6 +1080,7 @@ public class ResourcesImpl {
             return getColorStateListFromInt(value, key);
         }
 
+        ResourcesPrefetcher.noteLoaded(this, ResourcesPrefetcher.TYPE_COLOR_STATE_LIST, id);
         ComplexColor complexColor = loadComplexColorFromName(wrapper, theme, value, id);
         if (complexColor != null && complexColor instanceof ColorStateList) {
             return (ColorStateList) complexColor;
@@ -1129,6 +1205,9 @@ public class ResourcesImpl {
             @NonNull String type)
             throws NotFoundException {
         if (id != 0) {
+            if ("layout".equals(type)) {
+                ResourcesPrefetcher.noteLoaded(this, ResourcesPrefetcher.TYPE_LAYOUT, id);
+            }
             try {
                 synchronized (mCachedXmlBlocks) {
                     final int[] cachedXmlBlockCookies = mCachedXmlBlockCookies;
@@ -1143,9 +1222,13 @@ public class ResourcesImpl {
                         }
                     }
 
-                    // Not in the cache, create a new block and put it at
-                    // the next slot in the cache.
-                    final XmlBlock block = mAssets.openXmlBlockAsset(assetCookie, file);
+                    // Not in the cache, create a new block, unless it was read ahead,
+                    // and put it at the next slot in the cache.
+                    XmlBlock block = mPrefetchedXmlBlocks.isEmpty() ? null
+                            : mPrefetchedXmlBlocks.remove(assetCookie + ":" + file);
+                    if (block == null) {
+                        block = mAssets.openXmlBlockAsset(assetCookie, file);
+                    }
                     if (block != null) {
                         final int pos = (mLastCachedXmlBlockIndex + 1) % num;
                         mLastCachedXmlBlockIndex = pos;
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.annotation.NonNull;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.util.LongArray;
+import android.util.LongSparseLongArray;
+import android.util.TypedValue;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Records the drawables, color state lists and layouts an app loads until its first frame is
+ * drawn, and loads them on a background thread early in the next launch of the app, so that
+ * the main thread finds them in the caches of {@link ResourcesImpl} instead of reading and
+ * inflating them itself.
+ * <p>
+ * There is a profile per process in the app's code cache directory, which is cleared when the
+ * app is updated, so resource IDs in it always belong to the installed version of the app.
+ * What was warmed is held until the first frame is drawn, after which the regular caches take
+ * over and the profile is rewritten if the app loaded something new. Processes that don't draw
+ * in time, such as ones started for a broadcast, are expected to {@link #cancel} instead.
+ *
+ * @hide
+ */
+public final class ResourcesPrefetcher {
+    private static final String TAG = "ResourcesPrefetcher";
+
+    private static final String PROFILE_PREFIX = "resources_prefetch_";
+    private static final String PROFILE_SUFFIX = ".prof";
+
+    public static final int TYPE_DRAWABLE = 1;
+    public static final int TYPE_COLOR_STATE_LIST = 2;
+    public static final int TYPE_LAYOUT = 3;
+
+    private static final int MAGIC = 0x52505246; // "RPRF"
+    private static final int VERSION = 1;
+
+    /** Most resources recorded in a profile. */
+    @VisibleForTesting
+    public static final int MAX_ENTRIES = 256;
+
+    /** The prefetcher recording what the app loads, or null. */
+    private static volatile ResourcesPrefetcher sRecording;
+
+    private final Resources mResources;
+    private final ResourcesImpl mImpl;
+    private final File mProfile;
+    private Thread mThread;
+
+    private final Object mLock = new Object();
+
+    // Resources loaded this launch, as (type << 32 | id), in the order they were first loaded.
+    @GuardedBy("mLock")
+    private final LongArray mRecorded = new LongArray();
+    @GuardedBy("mLock")
+    private final LongSparseLongArray mRecordedSet = new LongSparseLongArray();
+    @GuardedBy("mLock")
+    private LongArray mProfileEntries = new LongArray();
+    // Warmed drawables and color state lists, held so they survive until they are used.
+    @GuardedBy("mLock")
+    private final ArrayList<Object> mWarmed = new ArrayList<>();
+    @GuardedBy("mLock")
+    private boolean mFinished;
+    @GuardedBy("mLock")
+    private int mWarmedCount;
+    @GuardedBy("mLock")
+    private long mWarmDurationMs;
+
+    @VisibleForTesting
+    public ResourcesPrefetcher(@NonNull Resources resources, @NonNull File profile) {
+        mResources = resources;
+        mImpl = resources.getImpl();
+        mProfile = profile;
+    }
+
+    /**
+     * @return The name of the profile of the given process in the code cache directory.
+     */
+    public static String getProfileName(@NonNull String processName) {
+        return PROFILE_PREFIX + processName + PROFILE_SUFFIX;
+    }
+
+    /**
+     * Starts recording the resources the app loads and warms the ones recorded last time on a
+     * background thread. Call {@link #finish} once the first frame was drawn, or
+     * {@link #cancel} if it wasn't drawn in time.
+     *
+     * @param resources The resources of the app.
+     * @param codeCacheDir The code cache directory of the app.
+     * @param processName The name of the process, which the profile is kept for.
+     */
+    public static ResourcesPrefetcher start(@NonNull Resources resources,
+            @NonNull File codeCacheDir, @NonNull String processName) {
+        final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(resources,
+                new File(codeCacheDir, getProfileName(processName)));
+        prefetcher.mThread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            prefetcher.readProfile();
+            prefetcher.warm();
+        }, TAG);
+        sRecording = prefetcher;
+        prefetcher.mThread.start();
+        return prefetcher;
+    }
+
+    /**
+     * Notes that a resource was loaded. Cheap when nothing is being recorded.
+     */
+    static void noteLoaded(ResourcesImpl impl, int type, int id) {
+        final ResourcesPrefetcher prefetcher = sRecording;
+        if (prefetcher != null && prefetcher.mImpl == impl && id != 0
+                && Thread.currentThread() != prefetcher.mThread) {
+            prefetcher.record(type, id);
+        }
+    }
+
+    @VisibleForTesting
+    public void record(int type, int id) {
+        final long entry = ((long) type << 32) | (id & 0xffffffffL);
+        synchronized (mLock) {
+            if (mFinished || mRecorded.size() >= MAX_ENTRIES
+                    || mRecordedSet.indexOfKey(entry) >= 0) {
+                return;
+            }
+            mRecordedSet.put(entry, mRecorded.size());
+            mRecorded.add(entry);
+        }
+    }
+
+    /**
+     * Stops recording, releases what was warmed and rewrites the profile on the background
+     * thread if the app loaded resources that were not in it.
+     */
+    public void finish() {
+        if (!stop()) {
+            return;
+        }
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            writeProfileIfChanged();
+        }, TAG).start();
+    }
+
+    /**
+     * Stops recording and releases what was warmed, leaving the profile as it is, since what
+     * was loaded did not lead up to a first frame.
+     */
+    public void cancel() {
+        stop();
+    }
+
+    /**
+     * @return Whether this call stopped recording, false if it had already stopped.
+     */
+    private boolean stop() {
+        synchronized (mLock) {
+            if (mFinished) {
+                return false;
+            }
+            mFinished = true;
+            mWarmed.clear();
+        }
+        if (sRecording == this) {
+            sRecording = null;
+        }
+        mImpl.clearPrefetchedXmlBlocks();
+        return true;
+    }
+
+    @VisibleForTesting
+    public void readProfile() {
+        final LongArray entries = new LongArray();
+        if (mProfile.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mProfile)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    final int count = Math.min(in.readInt(), MAX_ENTRIES);
+                    for (int i = 0; i < count; i++) {
+                        entries.add(in.readLong());
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + mProfile, e);
+                entries.clear();
+            }
+        }
+        synchronized (mLock) {
+            mProfileEntries = entries;
+        }
+    }
+
+    /**
+     * Loads the resources in the profile that was read, in the order they were recorded.
+     */
+    @VisibleForTesting
+    public void warm() {
+        final LongArray entries;
+        synchronized (mLock) {
+            entries = mProfileEntries;
+        }
+        if (entries.size() == 0) {
+            return;
+        }
+        Trace.traceBegin(Trace.TRACE_TAG_RESOURCES, "prefetchResources");
+        final long start = SystemClock.uptimeMillis();
+        final TypedValue value = new TypedValue();
+        int warmed = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            synchronized (mLock) {
+                if (mFinished) {
+                    break;
+                }
+            }
+            final long entry = entries.get(i);
+            final Object result = warmEntry((int) (entry >>> 32), (int) entry, value);
+            if (result == null) {
+                continue;
+            }
+            warmed++;
+            synchronized (mLock) {
+                if (!mFinished && result != Boolean.TRUE) {
+                    mWarmed.add(result);
+                }
+            }
+        }
+        synchronized (mLock) {
+            mWarmedCount = warmed;
+            mWarmDurationMs = SystemClock.uptimeMillis() - start;
+        }
+        Trace.traceEnd(Trace.TRACE_TAG_RESOURCES);
+    }
+
+    /**
+     * @return What needs to be held for the resource to stay cached, {@link Boolean#TRUE} if
+     *         nothing needs to be, or null if it could not be loaded.
+     */
+    private Object warmEntry(int type, int id, TypedValue value) {
+        try {
+            switch (type) {
+                case TYPE_DRAWABLE: {
+                    final Drawable dr = mResources.getDrawable(id, null /* theme */);
+                    return dr != null ? dr.getConstantState() : null;
+                }
+                case TYPE_COLOR_STATE_LIST:
+                    return mResources.getColorStateList(id, null /* theme */);
+                case TYPE_LAYOUT:
+                    mResources.getValue(id, value, true /* resolveRefs */);
+                    if (value.string == null) {
+                        return null;
+                    }
+                    return mImpl.prefetchXmlBlock(value.string.toString(), value.assetCookie)
+                            ? Boolean.TRUE : null;
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            // The app may load resources we can't load without its theme, or that are gone.
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    public void writeProfileIfChanged() {
+        final LongArray recorded;
+        synchronized (mLock) {
+            if (sameEntries(mRecorded, mProfileEntries)) {
+                return;
+            }
+            recorded = mRecorded.clone();
+        }
+        final File tmp = new File(mProfile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(recorded.size());
+            for (int i = 0; i < recorded.size(); i++) {
+                out.writeLong(recorded.get(i));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mProfile, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(mProfile)) {
+            Log.w(TAG, "Failed to rename " + tmp);
+            tmp.delete();
+        }
+    }
+
+    private static boolean sameEntries(LongArray a, LongArray b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    public int getRecordedCount() {
+        synchronized (mLock) {
+            return mRecorded.size();
+        }
+    }
+
+    @VisibleForTesting
+    public int getWarmedCount() {
+        synchronized (mLock) {
+            return mWarmedCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "ResourcesPrefetcher{profile=" + mProfileEntries.size()
+                    + " warmed=" + mWarmedCount + " in " + mWarmDurationMs + "ms"
+                    + " recorded=" + mRecorded.size() + "}";
+        }
+    }
+}
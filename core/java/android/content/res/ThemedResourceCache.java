@@ -24,17 +24,83 @@ import android.content.res.Resources.ThemeKey;
 import android.util.LongSparseArray;
 import android.util.ArrayMap;
 
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Data structure used for caching data against themes.
+ * <p>
+ * Entries are spread over a fixed number of shards by key, each with its own lock, so that
+ * threads loading different resources don't wait for each other. Entries are normally held
+ * weakly. When the cache has a retention budget, entries that are used again, or inflated again
+ * after having been collected, are also held strongly, least recently used first out, for as
+ * long as they fit in the budget.
  *
  * @param <T> type of data to cache
  */
 abstract class ThemedResourceCache<T> {
-    private ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> mThemedEntries;
-    private LongSparseArray<WeakReference<T>> mUnthemedEntries;
-    private LongSparseArray<WeakReference<T>> mNullThemedEntries;
+    /** Number of shards, must be a power of two. */
+    private static final int SHARD_COUNT = 8;
+
+    private final Shard<T>[] mShards;
+    private final int mShardRetainBudgetBytes;
+
+    private static final class Shard<T> {
+        @GuardedBy("this")
+        ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> mThemedEntries;
+        @GuardedBy("this")
+        LongSparseArray<WeakReference<T>> mUnthemedEntries;
+        @GuardedBy("this")
+        LongSparseArray<WeakReference<T>> mNullThemedEntries;
+
+        // Strongly held entries and their sizes, least recently used first.
+        @GuardedBy("this")
+        LinkedHashMap<T, Integer> mRetained;
+        @GuardedBy("this")
+        int mRetainedBytes;
+
+        @GuardedBy("this")
+        long mHits;
+        @GuardedBy("this")
+        long mMisses;
+        @GuardedBy("this")
+        long mCollected;
+        @GuardedBy("this")
+        long mEvictions;
+    }
+
+    /**
+     * Creates a cache that holds its entries weakly.
+     */
+    ThemedResourceCache() {
+        this(0);
+    }
+
+    /**
+     * Creates a cache that holds entries in use strongly, up to a budget.
+     *
+     * @param retainBudgetBytes the most memory, as estimated by {@link #getRetainedSize}, the
+     *                          entries held strongly may use, or {@code 0} to hold none
+     */
+    @SuppressWarnings("unchecked")
+    ThemedResourceCache(int retainBudgetBytes) {
+        mShards = new Shard[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            mShards[i] = new Shard<>();
+        }
+        mShardRetainBudgetBytes = Math.max(retainBudgetBytes, 0) / SHARD_COUNT;
+    }
+
+    private Shard<T> getShard(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        h ^= h >>> 16;
+        return mShards[h & (SHARD_COUNT - 1)];
+    }
 
     /**
      * Adds a new theme-dependent entry to the cache.
@@ -63,15 +129,27 @@ abstract class ThemedResourceCache<T> {
             return;
         }
 
-        synchronized (this) {
+        final Shard<T> shard = getShard(key);
+        synchronized (shard) {
             final LongSparseArray<WeakReference<T>> entries;
             if (!usesTheme) {
-                entries = getUnthemedLocked(true);
+                entries = getUnthemedLocked(shard, true);
             } else {
-                entries = getThemedLocked(theme, true);
+                entries = getThemedLocked(shard, theme, true);
             }
             if (entries != null) {
+                final WeakReference<T> previous = entries.get(key);
                 entries.put(key, new WeakReference<>(entry));
+                if (previous != null) {
+                    final T previousEntry = previous.get();
+                    if (previousEntry == null) {
+                        // Inflated again after being collected, worth holding on to.
+                        shard.mCollected++;
+                        retainLocked(shard, entry);
+                    } else if (previousEntry != entry) {
+                        releaseLocked(shard, previousEntry);
+                    }
+                }
             }
         }
     }
@@ -89,27 +167,86 @@ abstract class ThemedResourceCache<T> {
         // exclusive, so we'll give priority to whichever one we think we'll
         // hit first. Since most of the framework drawables are themed, that's
         // probably going to be the themed cache.
-        synchronized (this) {
-            final LongSparseArray<WeakReference<T>> themedEntries = getThemedLocked(theme, false);
+        final Shard<T> shard = getShard(key);
+        synchronized (shard) {
+            final LongSparseArray<WeakReference<T>> themedEntries =
+                    getThemedLocked(shard, theme, false);
             if (themedEntries != null) {
-                final WeakReference<T> themedEntry = themedEntries.get(key);
-                if (themedEntry != null) {
-                    return themedEntry.get();
+                final int index = themedEntries.indexOfKey(key);
+                if (index >= 0) {
+                    return getEntryLocked(shard, themedEntries, index);
                 }
             }
 
-            final LongSparseArray<WeakReference<T>> unthemedEntries = getUnthemedLocked(false);
+            final LongSparseArray<WeakReference<T>> unthemedEntries =
+                    getUnthemedLocked(shard, false);
             if (unthemedEntries != null) {
-                final WeakReference<T> unthemedEntry = unthemedEntries.get(key);
-                if (unthemedEntry != null) {
-                    return unthemedEntry.get();
+                final int index = unthemedEntries.indexOfKey(key);
+                if (index >= 0) {
+                    return getEntryLocked(shard, unthemedEntries, index);
                 }
             }
+
+            shard.mMisses++;
         }
 
         return null;
     }
 
+    @GuardedBy("shard")
+    @Nullable
+    private T getEntryLocked(@NonNull Shard<T> shard,
+            @NonNull LongSparseArray<WeakReference<T>> entries, int index) {
+        final WeakReference<T> ref = entries.valueAt(index);
+        final T entry = ref != null ? ref.get() : null;
+        if (entry == null) {
+            // Keep the cleared reference so that the entry is retained once inflated again.
+            shard.mMisses++;
+            return null;
+        }
+        shard.mHits++;
+        retainLocked(shard, entry);
+        return entry;
+    }
+
+    /**
+     * Holds an entry strongly, or marks it as most recently used if it already is, dropping
+     * the least recently used entries that no longer fit in the budget.
+     */
+    @GuardedBy("shard")
+    private void retainLocked(@NonNull Shard<T> shard, @NonNull T entry) {
+        if (mShardRetainBudgetBytes == 0) {
+            return;
+        }
+        if (shard.mRetained == null) {
+            shard.mRetained = new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+        } else if (shard.mRetained.get(entry) != null) {
+            return;
+        }
+        final int size = getRetainedSize(entry);
+        if (size <= 0 || size > mShardRetainBudgetBytes) {
+            return;
+        }
+        final Iterator<Map.Entry<T, Integer>> it = shard.mRetained.entrySet().iterator();
+        while (shard.mRetainedBytes + size > mShardRetainBudgetBytes && it.hasNext()) {
+            shard.mRetainedBytes -= it.next().getValue();
+            it.remove();
+            shard.mEvictions++;
+        }
+        shard.mRetained.put(entry, size);
+        shard.mRetainedBytes += size;
+    }
+
+    @GuardedBy("shard")
+    private void releaseLocked(@NonNull Shard<T> shard, @NonNull T entry) {
+        if (shard.mRetained != null) {
+            final Integer size = shard.mRetained.remove(entry);
+            if (size != null) {
+                shard.mRetainedBytes -= size;
+            }
+        }
+    }
+
     /**
      * Prunes cache entries that have been invalidated by a configuration
      * change.
@@ -130,40 +267,145 @@ abstract class ThemedResourceCache<T> {
      */
     protected abstract boolean shouldInvalidateEntry(@NonNull T entry, int configChanges);
 
+    /**
+     * Returns an estimate of the memory a cached entry keeps alive. Only entries with a
+     * positive size are held strongly.
+     *
+     * @param entry a cached entry
+     * @return the size of the entry in bytes, or {@code 0} if unknown
+     */
+    protected int getRetainedSize(@NonNull T entry) {
+        return 0;
+    }
+
+    /** @return the number of lookups that found a live entry */
+    public long getHitCount() {
+        long count = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                count += shard.mHits;
+            }
+        }
+        return count;
+    }
+
+    /** @return the number of lookups that found no entry, or one that was collected */
+    public long getMissCount() {
+        long count = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                count += shard.mMisses;
+            }
+        }
+        return count;
+    }
+
+    /** @return the number of entries that were found collected and inflated again */
+    public long getCollectedCount() {
+        long count = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                count += shard.mCollected;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of entries dropped because a configuration change invalidated them
+     *         or they no longer fit in the retention budget
+     */
+    public long getEvictionCount() {
+        long count = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                count += shard.mEvictions;
+            }
+        }
+        return count;
+    }
+
+    /** @return the estimated size of the entries held strongly, in bytes */
+    public int getRetainedBytes() {
+        int bytes = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                bytes += shard.mRetainedBytes;
+            }
+        }
+        return bytes;
+    }
+
+    public void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        int entries = 0;
+        int retained = 0;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                if (shard.mThemedEntries != null) {
+                    for (int i = shard.mThemedEntries.size() - 1; i >= 0; i--) {
+                        entries += shard.mThemedEntries.valueAt(i).size();
+                    }
+                }
+                if (shard.mNullThemedEntries != null) {
+                    entries += shard.mNullThemedEntries.size();
+                }
+                if (shard.mUnthemedEntries != null) {
+                    entries += shard.mUnthemedEntries.size();
+                }
+                if (shard.mRetained != null) {
+                    retained += shard.mRetained.size();
+                }
+            }
+        }
+        pw.print(prefix); pw.print("entries="); pw.print(entries);
+        pw.print(" hits="); pw.print(getHitCount());
+        pw.print(" misses="); pw.print(getMissCount());
+        pw.print(" collected="); pw.print(getCollectedCount());
+        pw.print(" evictions="); pw.println(getEvictionCount());
+        if (mShardRetainBudgetBytes > 0) {
+            pw.print(prefix); pw.print("retained="); pw.print(retained);
+            pw.print(" bytes="); pw.print(getRetainedBytes());
+            pw.print(" budget="); pw.println(mShardRetainBudgetBytes * SHARD_COUNT);
+        }
+    }
+
     /**
      * Returns the cached data for the specified theme, optionally creating a
      * new entry if one does not already exist.
      *
+     * @param shard the shard holding the data
      * @param t the theme for which to return cached data
      * @param create {@code true} to create an entry if one does not already
      *               exist, {@code false} otherwise
      * @return the cached data for the theme, or {@code null} if the cache is
      *         empty and {@code create} was {@code false}
      */
+    @GuardedBy("shard")
     @Nullable
-    private LongSparseArray<WeakReference<T>> getThemedLocked(@Nullable Theme t, boolean create) {
+    private LongSparseArray<WeakReference<T>> getThemedLocked(@NonNull Shard<T> shard,
+            @Nullable Theme t, boolean create) {
         if (t == null) {
-            if (mNullThemedEntries == null && create) {
-                mNullThemedEntries = new LongSparseArray<>(1);
+            if (shard.mNullThemedEntries == null && create) {
+                shard.mNullThemedEntries = new LongSparseArray<>(1);
             }
-            return mNullThemedEntries;
+            return shard.mNullThemedEntries;
         }
 
-        if (mThemedEntries == null) {
+        if (shard.mThemedEntries == null) {
             if (create) {
-                mThemedEntries = new ArrayMap<>(1);
+                shard.mThemedEntries = new ArrayMap<>(1);
             } else {
                 return null;
             }
         }
 
         final ThemeKey key = t.getKey();
-        LongSparseArray<WeakReference<T>> cache = mThemedEntries.get(key);
+        LongSparseArray<WeakReference<T>> cache = shard.mThemedEntries.get(key);
         if (cache == null && create) {
             cache = new LongSparseArray<>(1);
 
             final ThemeKey keyClone = key.clone();
-            mThemedEntries.put(keyClone, cache);
+            shard.mThemedEntries.put(keyClone, cache);
         }
 
         return cache;
@@ -172,17 +414,20 @@ abstract class ThemedResourceCache<T> {
     /**
      * Returns the theme-agnostic cached data.
      *
+     * @param shard the shard holding the data
      * @param create {@code true} to create an entry if one does not already
      *               exist, {@code false} otherwise
      * @return the theme-agnostic cached data, or {@code null} if the cache is
      *         empty and {@code create} was {@code false}
      */
+    @GuardedBy("shard")
     @Nullable
-    private LongSparseArray<WeakReference<T>> getUnthemedLocked(boolean create) {
-        if (mUnthemedEntries == null && create) {
-            mUnthemedEntries = new LongSparseArray<>(1);
+    private LongSparseArray<WeakReference<T>> getUnthemedLocked(@NonNull Shard<T> shard,
+            boolean create) {
+        if (shard.mUnthemedEntries == null && create) {
+            shard.mUnthemedEntries = new LongSparseArray<>(1);
         }
-        return mUnthemedEntries;
+        return shard.mUnthemedEntries;
     }
 
     /**
@@ -194,39 +439,65 @@ abstract class ThemedResourceCache<T> {
      * @return {@code true} if the cache is completely empty after pruning
      */
     private boolean prune(@Config int configChanges) {
-        synchronized (this) {
-            if (mThemedEntries != null) {
-                for (int i = mThemedEntries.size() - 1; i >= 0; i--) {
-                    if (pruneEntriesLocked(mThemedEntries.valueAt(i), configChanges)) {
-                        mThemedEntries.removeAt(i);
+        boolean empty = true;
+        for (Shard<T> shard : mShards) {
+            synchronized (shard) {
+                if (shard.mThemedEntries != null) {
+                    for (int i = shard.mThemedEntries.size() - 1; i >= 0; i--) {
+                        if (pruneEntriesLocked(shard, shard.mThemedEntries.valueAt(i),
+                                configChanges)) {
+                            shard.mThemedEntries.removeAt(i);
+                        }
                     }
                 }
-            }
 
-            pruneEntriesLocked(mNullThemedEntries, configChanges);
-            pruneEntriesLocked(mUnthemedEntries, configChanges);
+                pruneEntriesLocked(shard, shard.mNullThemedEntries, configChanges);
+                pruneEntriesLocked(shard, shard.mUnthemedEntries, configChanges);
+                pruneRetainedLocked(shard, configChanges);
 
-            return mThemedEntries == null && mNullThemedEntries == null
-                    && mUnthemedEntries == null;
+                empty &= shard.mThemedEntries == null && shard.mNullThemedEntries == null
+                        && shard.mUnthemedEntries == null;
+            }
         }
+        return empty;
     }
 
-    private boolean pruneEntriesLocked(@Nullable LongSparseArray<WeakReference<T>> entries,
-            @Config int configChanges) {
+    @GuardedBy("shard")
+    private boolean pruneEntriesLocked(@NonNull Shard<T> shard,
+            @Nullable LongSparseArray<WeakReference<T>> entries, @Config int configChanges) {
         if (entries == null) {
             return true;
         }
 
         for (int i = entries.size() - 1; i >= 0; i--) {
             final WeakReference<T> ref = entries.valueAt(i);
-            if (ref == null || pruneEntryLocked(ref.get(), configChanges)) {
+            final T entry = ref != null ? ref.get() : null;
+            if (entry == null) {
+                entries.removeAt(i);
+            } else if (pruneEntryLocked(entry, configChanges)) {
                 entries.removeAt(i);
+                shard.mEvictions++;
             }
         }
 
         return entries.size() == 0;
     }
 
+    @GuardedBy("shard")
+    private void pruneRetainedLocked(@NonNull Shard<T> shard, @Config int configChanges) {
+        if (shard.mRetained == null || configChanges == 0) {
+            return;
+        }
+        final Iterator<Map.Entry<T, Integer>> it = shard.mRetained.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<T, Integer> retained = it.next();
+            if (shouldInvalidateEntry(retained.getKey(), configChanges)) {
+                shard.mRetainedBytes -= retained.getValue();
+                it.remove();
+            }
+        }
+    }
+
     private boolean pruneEntryLocked(@Nullable T entry, @Config int configChanges) {
         return entry == null || (configChanges != 0
                 && shouldInvalidateEntry(entry, configChanges));
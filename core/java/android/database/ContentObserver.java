@@ -16,10 +16,14 @@
 
 package android.database;
 
+import android.annotation.NonNull;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.UserHandle;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 /**
  * Receives call backs for changes to content.
  * Must be implemented by objects which are added to a {@link ContentObservable}.
@@ -83,6 +87,20 @@ public abstract class ContentObserver {
         return false;
     }
 
+    /**
+     * Returns true if this observer wants changes delivered in batches.
+     *
+     * Subclasses should override this method to return true, and override
+     * {@link #onChange(boolean, Collection)}, to have changes that happen in quick succession
+     * coalesced and delivered in a single call rather than one call per change. This is
+     * read when the observer is registered.
+     *
+     * @return True if changes should be delivered to {@link #onChange(boolean, Collection)}.
+     */
+    public boolean deliverBatchedNotifications() {
+        return false;
+    }
+
     /**
      * This method is called when a content change occurs.
      * <p>
@@ -145,6 +163,32 @@ public abstract class ContentObserver {
         onChange(selfChange, uri);
     }
 
+    /**
+     * This method is called with a batch of content changes, for observers that
+     * return true from {@link #deliverBatchedNotifications()}.
+     * <p>
+     * Subclasses should override this method to handle the batch. The default
+     * implementation calls {@link #onChange(boolean, Uri)} for each Uri.
+     * </p>
+     *
+     * @param selfChange True if these are self-change notifications.
+     * @param uris The distinct Uris that changed, in the order of their first change.
+     */
+    public void onChange(boolean selfChange, @NonNull Collection<Uri> uris) {
+        for (Uri uri : uris) {
+            onChange(selfChange, uri);
+        }
+    }
+
+    /**
+     * Dispatches a batch of changes to the observer, with the user whose content changed.
+     *
+     * @hide
+     */
+    public void onChange(boolean selfChange, @NonNull Collection<Uri> uris, int userId) {
+        onChange(selfChange, uris);
+    }
+
     /**
      * Dispatches a change notification to the observer.
      * <p>
@@ -199,6 +243,15 @@ public abstract class ContentObserver {
         }
     }
 
+    private void dispatchChange(boolean selfChange, Uri[] uris, int userId) {
+        final Collection<Uri> list = Arrays.asList(uris);
+        if (mHandler == null) {
+            onChange(selfChange, list, userId);
+        } else {
+            mHandler.post(() -> onChange(selfChange, list, userId));
+        }
+    }
+
 
     private final class NotificationRunnable implements Runnable {
         private final boolean mSelfChange;
@@ -232,6 +285,14 @@ public abstract class ContentObserver {
             }
         }
 
+        @Override
+        public void onChangeBatch(boolean selfChange, Uri[] uris, int userId) {
+            ContentObserver contentObserver = mContentObserver;
+            if (contentObserver != null) {
+                contentObserver.dispatchChange(selfChange, uris, userId);
+            }
+        }
+
         public void releaseContentObserver() {
             mContentObserver = null;
         }
@@ -90,6 +90,10 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static final String TAG = "SQLiteConnection";
     private static final boolean DEBUG = false;
 
+    // Result flags of nativeExecuteForStreamingCursorWindow.
+    private static final long STREAMING_RESULT_PENDING_ROW = 1L << 32;
+    private static final long STREAMING_RESULT_DONE = 1L << 33;
+
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
@@ -111,6 +115,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private boolean mOnlyAllowReadOnlyOperations;
 
+    // The time at which the pool last handed out this connection.
+    private long mAcquiredTimeMillis;
+
     // The number of times attachCancellationSignal has been called.
     // Because SQLite statement execution can be reentrant, we keep track of how many
     // times we have attempted to attach a cancellation signal to the connection so that
@@ -154,6 +161,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static native long nativeExecuteForCursorWindow(
             long connectionPtr, long statementPtr, long windowPtr,
             int startPos, int requiredPos, boolean countAllRows);
+    private static native long nativeExecuteForStreamingCursorWindow(
+            long connectionPtr, long statementPtr, long windowPtr,
+            boolean hasPendingRow, int skipRows);
     private static native int nativeGetDbLookaside(long connectionPtr);
     private static native void nativeCancel(long connectionPtr);
     private static native void nativeResetCancel(long connectionPtr, boolean cancelable);
@@ -419,8 +429,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         // Update configuration parameters.
         mConfiguration.updateParametersFrom(configuration);
 
-        // Update prepared statement cache size.
-        mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        // Update prepared statement cache size, keeping what the cache has grown to in
+        // adaptive mode.
+        mPreparedStatementCache.resizeFromConfiguration();
 
         // Update foreign key mode.
         if (foreignKeyModeChanged) {
@@ -445,6 +456,17 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mOnlyAllowReadOnlyOperations = readOnly;
     }
 
+    // Called by SQLiteConnectionPool only.
+    // Records when the connection was acquired, to measure how long it is held.
+    void setAcquiredTime(long uptimeMillis) {
+        mAcquiredTimeMillis = uptimeMillis;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    long getAcquiredTime() {
+        return mAcquiredTimeMillis;
+    }
+
     // Called by SQLiteConnectionPool only.
     // Returns true if the prepared statement cache contains the specified SQL.
     boolean isPreparedStatementInCache(String sql) {
@@ -874,8 +896,147 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
+    /**
+     * Prepares a read-only statement whose rows are read into successive windows by
+     * {@link #fillStreamingWindow}.  The statement stays open, without being cached,
+     * until {@link #endStreamingQuery} is called.
+     *
+     * @param sql The SQL statement to execute.
+     * @param bindArgs The arguments to bind, or null if none.
+     * @return The streaming query.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     */
+    StreamingQuery beginStreamingQuery(String sql, Object[] bindArgs) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+
+        final int cookie = mRecentOperations.beginOperation("beginStreamingQuery", sql, bindArgs);
+        try {
+            final long statementPtr = nativePrepareStatement(mConnectionPtr, sql);
+            final PreparedStatement statement;
+            try {
+                final int numParameters = nativeGetParameterCount(mConnectionPtr, statementPtr);
+                final int type = DatabaseUtils.getSqlStatementType(sql);
+                final boolean readOnly = nativeIsReadOnly(mConnectionPtr, statementPtr);
+                statement = obtainPreparedStatement(sql, statementPtr, numParameters, type,
+                        readOnly);
+            } catch (RuntimeException ex) {
+                nativeFinalizeStatement(mConnectionPtr, statementPtr);
+                throw ex;
+            }
+            try {
+                if (!statement.mReadOnly) {
+                    throw new SQLiteException("Cannot stream the results of a statement "
+                            + "that modifies the database.");
+                }
+                bindArguments(statement, bindArgs);
+            } catch (RuntimeException ex) {
+                finalizePreparedStatement(statement);
+                throw ex;
+            }
+            statement.mInUse = true;
+            return new StreamingQuery(statement, bindArgs != null ? bindArgs.clone() : null);
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            mRecentOperations.endOperation(cookie);
+        }
+    }
+
+    /**
+     * Clears the specified {@link CursorWindow} and fills it with the rows of a streaming
+     * query starting at the required position.  Moving forward carries on from the row
+     * where the previous window ended; moving backward runs the query again.
+     *
+     * @param query The streaming query.
+     * @param window The cursor window to clear and fill.
+     * @param requiredPos The position of the first row to put in the window.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The number of rows in the result set if the window holds its last row or the
+     * result set ends before the required position, otherwise -1.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int fillStreamingWindow(StreamingQuery query, CursorWindow window, int requiredPos,
+            CancellationSignal cancellationSignal) {
+        if (window == null) {
+            throw new IllegalArgumentException("window must not be null.");
+        }
+
+        window.acquireReference();
+        try {
+            int filledRows = -1;
+            int count = -1;
+            final PreparedStatement statement = query.mStatement;
+            final int cookie = mRecentOperations.beginOperation("fillStreamingWindow",
+                    statement.mSql, query.mBindArgs);
+            try {
+                if (query.mNeedsReset || requiredPos < query.mNextPos) {
+                    nativeResetStatementAndClearBindings(mConnectionPtr, statement.mStatementPtr);
+                    bindArguments(statement, query.mBindArgs);
+                    query.mNextPos = 0;
+                    query.mHasPendingRow = false;
+                    query.mNeedsReset = false;
+                }
+                applyBlockGuardPolicy(statement);
+                attachCancellationSignal(cancellationSignal);
+                try {
+                    final int startPos = query.mNextPos;
+                    // Until the statement has produced its next row, assume that a failure
+                    // left it in an unknown state.
+                    query.mNeedsReset = true;
+                    final long result = nativeExecuteForStreamingCursorWindow(
+                            mConnectionPtr, statement.mStatementPtr, window.mWindowPtr,
+                            query.mHasPendingRow, requiredPos - startPos);
+                    final int consumedRows = (int) result;
+                    final boolean done = (result & STREAMING_RESULT_DONE) != 0;
+                    query.mNextPos = startPos + consumedRows;
+                    query.mHasPendingRow = (result & STREAMING_RESULT_PENDING_ROW) != 0;
+                    query.mNeedsReset = done;
+                    filledRows = window.getNumRows();
+                    window.setStartPosition(requiredPos);
+                    if (done) {
+                        count = query.mNextPos;
+                    }
+                    return count;
+                } finally {
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } catch (RuntimeException ex) {
+                mRecentOperations.failOperation(cookie, ex);
+                throw ex;
+            } finally {
+                if (mRecentOperations.endOperationDeferLog(cookie)) {
+                    mRecentOperations.logOperation(cookie, "window='" + window
+                            + "', requiredPos=" + requiredPos
+                            + ", filledRows=" + filledRows
+                            + ", count=" + count);
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    /**
+     * Finalizes the statement of a streaming query.
+     *
+     * @param query The streaming query, which must not be used afterwards.
+     */
+    void endStreamingQuery(StreamingQuery query) {
+        final PreparedStatement statement = query.mStatement;
+        statement.mInUse = false;
+        finalizePreparedStatement(statement);
+    }
+
     private PreparedStatement acquirePreparedStatement(String sql) {
         PreparedStatement statement = mPreparedStatementCache.get(sql);
+        mPreparedStatementCache.onLookup(statement != null);
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
@@ -1080,6 +1241,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
         mRecentOperations.dump(printer, verbose);
 
+        mPreparedStatementCache.dumpStats(printer);
         if (verbose) {
             mPreparedStatementCache.dump(printer);
         }
@@ -1171,7 +1333,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return new DbStats(label, pageCount, pageSize, lookaside,
                 mPreparedStatementCache.hitCount(),
                 mPreparedStatementCache.missCount(),
-                mPreparedStatementCache.size());
+                mPreparedStatementCache.size(),
+                mPreparedStatementCache.evictionCount(),
+                mPreparedStatementCache.maxSize());
     }
 
     @Override
@@ -1211,6 +1375,30 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return sql.replaceAll("[\\s]*\\n+[\\s]*", " ");
     }
 
+    /**
+     * A statement that stays open on a connection so that its rows can be read into
+     * successive windows without running it again.
+     */
+    static final class StreamingQuery {
+        private final PreparedStatement mStatement;
+        private final Object[] mBindArgs;
+
+        // The position of the next row that the statement will return.
+        private int mNextPos;
+
+        // True if the statement is on the row at mNextPos, which did not fit in the
+        // previous window.
+        private boolean mHasPendingRow;
+
+        // True if the statement has to be reset before it can be stepped again.
+        private boolean mNeedsReset;
+
+        private StreamingQuery(PreparedStatement statement, Object[] bindArgs) {
+            mStatement = statement;
+            mBindArgs = bindArgs;
+        }
+    }
+
     /**
      * Holder type for a prepared statement.
      *
@@ -1253,10 +1441,69 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private final class PreparedStatementCache
             extends LruCache<String, PreparedStatement> {
+        // In adaptive mode, the miss rate is checked every this many lookups, and the cache
+        // grows if at least this percentage of them missed while statements were evicted.
+        private static final int ADAPTIVE_WINDOW_LOOKUPS = 100;
+        private static final int ADAPTIVE_MISS_PERCENT = 25;
+
+        // Only accessed by the thread that owns the connection.
+        private int mWindowLookups;
+        private int mWindowMisses;
+        private int mWindowStartEvictions;
+
         public PreparedStatementCache(int size) {
             super(size);
         }
 
+        public void onLookup(boolean hit) {
+            if (!mConfiguration.adaptiveSqlCacheSizeEnabled) {
+                return;
+            }
+            mWindowLookups += 1;
+            if (!hit) {
+                mWindowMisses += 1;
+            }
+            if (mWindowLookups < ADAPTIVE_WINDOW_LOOKUPS) {
+                return;
+            }
+
+            // Misses alone may be statements that are only run once; evictions show that
+            // the cache is too small for the statements being reused.
+            final int evictions = evictionCount();
+            final int size = maxSize();
+            if (evictions > mWindowStartEvictions && size > 0
+                    && size < SQLiteDatabase.MAX_SQL_CACHE_SIZE
+                    && mWindowMisses * 100 >= mWindowLookups * ADAPTIVE_MISS_PERCENT) {
+                final int newSize = Math.min(size * 2, SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+                if (DEBUG) {
+                    Log.d(TAG, "Growing prepared statement cache of " + SQLiteConnection.this
+                            + " from " + size + " to " + newSize + " after " + mWindowMisses
+                            + " misses in " + mWindowLookups + " lookups");
+                }
+                resize(newSize);
+            }
+            mWindowLookups = 0;
+            mWindowMisses = 0;
+            mWindowStartEvictions = evictionCount();
+        }
+
+        public void resizeFromConfiguration() {
+            if (mConfiguration.adaptiveSqlCacheSizeEnabled) {
+                resize(Math.max(mConfiguration.maxSqlCacheSize, maxSize()));
+            } else {
+                resize(mConfiguration.maxSqlCacheSize);
+            }
+        }
+
+        public void dumpStats(Printer printer) {
+            printer.println("  Prepared statement cache: size=" + size()
+                    + ", maxSize=" + maxSize()
+                    + (mConfiguration.adaptiveSqlCacheSizeEnabled ? " (adaptive)" : "")
+                    + ", hits=" + hitCount()
+                    + ", misses=" + missCount()
+                    + ", evictions=" + evictionCount());
+        }
+
         @Override
         protected void entryRemoved(boolean evicted, String key,
                 PreparedStatement oldValue, PreparedStatement newValue) {
@@ -1267,7 +1514,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
 
         public void dump(Printer printer) {
-            printer.println("  Prepared statement cache:");
+            printer.println("  Prepared statement cache entries:");
             Map<String, PreparedStatement> cache = snapshot();
             if (!cache.isEmpty()) {
                 int i = 0;
@@ -17,6 +17,7 @@
 package android.database.sqlite;
 
 import android.database.sqlite.SQLiteDebug.DbStats;
+import android.database.sqlite.SQLiteDebug.PoolStats;
 import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
@@ -82,6 +83,11 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
+    // Upper bounds in milliseconds of the buckets of the wait and hold time histograms.
+    // The last bucket holds everything longer.
+    private static final long[] HISTOGRAM_BUCKET_LIMITS_MILLIS =
+            { 0, 1, 4, 16, 64, 256, 1024, 4096 };
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final Object mLock = new Object();
@@ -102,6 +108,27 @@ public final class SQLiteConnectionPool implements Closeable {
     @GuardedBy("mLock")
     private IdleConnectionHandler mIdleConnectionHandler;
 
+    // The pool size that adaptive sizing has grown to, 0 if it has not grown yet.
+    @GuardedBy("mLock")
+    private int mAdaptiveConnectionPoolSize;
+
+    // Statistics about how connections are acquired and held.
+    private final long mStatsStartTime = SystemClock.uptimeMillis();
+    @GuardedBy("mLock")
+    private long mAcquireCount;
+    @GuardedBy("mLock")
+    private long mWaitCount;
+    @GuardedBy("mLock")
+    private final long[] mWaitTimeHistogram = new long[HISTOGRAM_BUCKET_LIMITS_MILLIS.length + 1];
+    @GuardedBy("mLock")
+    private final long[] mHoldTimeHistogram = new long[HISTOGRAM_BUCKET_LIMITS_MILLIS.length + 1];
+    @GuardedBy("mLock")
+    private long mPrimaryHoldTimeMillis;
+    @GuardedBy("mLock")
+    private long mNonPrimaryHoldTimeMillis;
+    @GuardedBy("mLock")
+    private int mPeakNonPrimaryConnections;
+
     // Describes what should happen to an acquired connection when it is returned to the pool.
     enum AcquiredConnectionStatus {
         // The connection should be returned to the pool as usual.
@@ -375,6 +402,44 @@ public final class SQLiteConnectionPool implements Closeable {
         return con;
     }
 
+    /**
+     * Acquires a non-primary connection if one is available without waiting.
+     * <p>
+     * This is used by streaming queries, which hold on to their connection until the
+     * cursor is closed.  Waiting for a connection, or taking the primary connection,
+     * could then deadlock a thread that goes on to use the database while its cursor
+     * is still open.
+     * </p>
+     *
+     * @param sql If not null, try to find a connection that already has
+     * the specified SQL statement in its prepared statement cache.
+     * @param connectionFlags The connection request flags.
+     * @return The connection that was acquired, or null if none is available.
+     *
+     * @throws IllegalStateException if the pool has been closed.
+     * @throws SQLiteException if a database error occurs.
+     */
+    public SQLiteConnection tryAcquireNonPrimaryConnection(String sql, int connectionFlags) {
+        synchronized (mLock) {
+            throwIfClosedLocked();
+
+            // Leave the connections to the sessions that are already waiting for one.
+            if (mConnectionWaiterQueue != null) {
+                return null;
+            }
+
+            final SQLiteConnection con = tryAcquireNonPrimaryConnectionLocked(
+                    sql, connectionFlags); // might throw
+            if (con != null) {
+                recordWaitTimeLocked(0);
+                if (mIdleConnectionHandler != null) {
+                    mIdleConnectionHandler.connectionAcquired(con);
+                }
+            }
+            return con;
+        }
+    }
+
     /**
      * Releases a connection back to the pool.
      * <p>
@@ -398,6 +463,7 @@ public final class SQLiteConnectionPool implements Closeable {
                         + "because the specified connection was not acquired "
                         + "from this pool or has already been released.");
             }
+            recordHoldTimeLocked(connection);
 
             if (!mIsOpen) {
                 closeConnectionAndLogExceptionsLocked(connection);
@@ -667,6 +733,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 connection = tryAcquirePrimaryConnectionLocked(connectionFlags); // might throw
             }
             if (connection != null) {
+                recordWaitTimeLocked(0);
                 return connection;
             }
 
@@ -692,6 +759,11 @@ public final class SQLiteConnectionPool implements Closeable {
             }
 
             nonce = waiter.mNonce;
+            mWaitCount += 1;
+
+            if (!wantPrimaryConnection) {
+                maybeGrowConnectionPoolLocked();
+            }
         }
 
         // Set up the cancellation listener.
@@ -733,8 +805,11 @@ public final class SQLiteConnectionPool implements Closeable {
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
                     if (connection != null || ex != null) {
+                        // The waiter may be reused as soon as it is recycled.
+                        final long startTime = waiter.mStartTime;
                         recycleConnectionWaiterLocked(waiter);
                         if (connection != null) {
+                            recordWaitTimeLocked(SystemClock.uptimeMillis() - startTime);
                             return connection;
                         }
                         throw ex; // rethrow!
@@ -961,8 +1036,13 @@ public final class SQLiteConnectionPool implements Closeable {
         try {
             final boolean readOnly = (connectionFlags & CONNECTION_FLAG_READ_ONLY) != 0;
             connection.setOnlyAllowReadOnlyOperations(readOnly);
+            connection.setAcquiredTime(SystemClock.uptimeMillis());
 
             mAcquiredConnections.put(connection, AcquiredConnectionStatus.NORMAL);
+            if (!connection.isPrimaryConnection()) {
+                mPeakNonPrimaryConnections = Math.max(mPeakNonPrimaryConnections,
+                        countAcquiredNonPrimaryConnectionsLocked());
+            }
         } catch (RuntimeException ex) {
             Log.e(TAG, "Failed to prepare acquired connection for session, closing it: "
                     + connection +", connectionFlags=" + connectionFlags);
@@ -1000,7 +1080,11 @@ public final class SQLiteConnectionPool implements Closeable {
     }
 
     private void setMaxConnectionPoolSizeLocked() {
-        if (!mConfiguration.isInMemoryDb()
+        if (isAdaptiveConnectionPoolSizeLocked()) {
+            // Start with a single non-primary connection and grow as readers have to wait.
+            mMaxConnectionPoolSize = Math.min(Math.max(mAdaptiveConnectionPoolSize, 2),
+                    SQLiteGlobal.getWALConnectionPoolSize());
+        } else if (!mConfiguration.isInMemoryDb()
                 && (mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
             mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
         } else {
@@ -1013,6 +1097,123 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    private boolean isAdaptiveConnectionPoolSizeLocked() {
+        return mConfiguration.adaptiveConnectionPoolSizeEnabled
+                && !mConfiguration.isInMemoryDb()
+                && (mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0;
+    }
+
+    // Can't throw.
+    private void maybeGrowConnectionPoolLocked() {
+        if (!isAdaptiveConnectionPoolSizeLocked()
+                || mMaxConnectionPoolSize >= SQLiteGlobal.getWALConnectionPoolSize()) {
+            return;
+        }
+        // Only grow when all of the allowed connections are in use; otherwise the waiter
+        // is just racing with a connection that is being returned.
+        int openConnections = mAcquiredConnections.size();
+        if (mAvailablePrimaryConnection != null) {
+            openConnections += 1;
+        }
+        if (openConnections < mMaxConnectionPoolSize
+                || !mAvailableNonPrimaryConnections.isEmpty()) {
+            return;
+        }
+        mMaxConnectionPoolSize += 1;
+        mAdaptiveConnectionPoolSize = mMaxConnectionPoolSize;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Grew the connection pool of " + mConfiguration.label + " to "
+                    + mMaxConnectionPoolSize + " connections");
+        }
+        wakeConnectionWaitersLocked();
+    }
+
+    private int countAcquiredNonPrimaryConnectionsLocked() {
+        int count = 0;
+        for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
+            if (!connection.isPrimaryConnection()) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private static int getHistogramBucket(long millis) {
+        int i = 0;
+        while (i < HISTOGRAM_BUCKET_LIMITS_MILLIS.length
+                && millis > HISTOGRAM_BUCKET_LIMITS_MILLIS[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private void recordWaitTimeLocked(long waitMillis) {
+        mAcquireCount += 1;
+        mWaitTimeHistogram[getHistogramBucket(waitMillis)] += 1;
+    }
+
+    private void recordHoldTimeLocked(SQLiteConnection connection) {
+        final long holdMillis = SystemClock.uptimeMillis() - connection.getAcquiredTime();
+        mHoldTimeHistogram[getHistogramBucket(holdMillis)] += 1;
+        if (connection.isPrimaryConnection()) {
+            mPrimaryHoldTimeMillis += holdMillis;
+        } else {
+            mNonPrimaryHoldTimeMillis += holdMillis;
+        }
+    }
+
+    /**
+     * Gets statistics about how connections of this pool are acquired and held.
+     */
+    public PoolStats getPoolStats() {
+        synchronized (mLock) {
+            final long now = SystemClock.uptimeMillis();
+            long primaryHoldTime = mPrimaryHoldTimeMillis;
+            long nonPrimaryHoldTime = mNonPrimaryHoldTimeMillis;
+            // Include the connections that are held right now.
+            for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
+                if (connection.isPrimaryConnection()) {
+                    primaryHoldTime += now - connection.getAcquiredTime();
+                } else {
+                    nonPrimaryHoldTime += now - connection.getAcquiredTime();
+                }
+            }
+            final long elapsed = Math.max(now - mStatsStartTime, 1);
+
+            final PoolStats stats = new PoolStats();
+            stats.dbName = mConfiguration.label;
+            stats.maxConnections = mMaxConnectionPoolSize;
+            stats.acquireCount = mAcquireCount;
+            stats.waitCount = mWaitCount;
+            stats.bucketLimitsMillis = HISTOGRAM_BUCKET_LIMITS_MILLIS.clone();
+            stats.waitTimeHistogram = mWaitTimeHistogram.clone();
+            stats.holdTimeHistogram = mHoldTimeHistogram.clone();
+            stats.primaryUtilization = (int) Math.min(100, primaryHoldTime * 100 / elapsed);
+            stats.nonPrimaryUtilization = mMaxConnectionPoolSize > 1
+                    ? (int) Math.min(100, nonPrimaryHoldTime * 100
+                            / (elapsed * (mMaxConnectionPoolSize - 1)))
+                    : 0;
+            stats.peakNonPrimaryConnections = mPeakNonPrimaryConnections;
+            return stats;
+        }
+    }
+
+    private static String formatHistogram(long[] histogram) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            if (i < HISTOGRAM_BUCKET_LIMITS_MILLIS.length) {
+                sb.append("<=").append(HISTOGRAM_BUCKET_LIMITS_MILLIS[i]);
+            } else {
+                sb.append('>').append(HISTOGRAM_BUCKET_LIMITS_MILLIS[i - 1]);
+            }
+            sb.append(": ").append(histogram[i]);
+        }
+        return sb.toString();
+    }
+
     /**
      * Set up the handler based on the provided looper and timeout.
      */
@@ -1075,7 +1276,8 @@ public final class SQLiteConnectionPool implements Closeable {
         synchronized (mLock) {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
-            printer.println("  Max connections: " + mMaxConnectionPoolSize);
+            printer.println("  Max connections: " + mMaxConnectionPoolSize
+                    + (isAdaptiveConnectionPoolSizeLocked() ? " (adaptive)" : ""));
             if (mConfiguration.isLookasideConfigSet()) {
                 printer.println("  Lookaside config: sz=" + mConfiguration.lookasideSlotSize
                         + " cnt=" + mConfiguration.lookasideSlotCount);
@@ -1084,6 +1286,14 @@ public final class SQLiteConnectionPool implements Closeable {
                 printer.println(
                         "  Idle connection timeout: " + mConfiguration.idleConnectionTimeoutMs);
             }
+            final PoolStats stats = getPoolStats();
+            printer.println("  Acquired " + stats.acquireCount + " times, waited "
+                    + stats.waitCount + " times");
+            printer.println("  Wait time (ms): " + formatHistogram(stats.waitTimeHistogram));
+            printer.println("  Hold time (ms): " + formatHistogram(stats.holdTimeHistogram));
+            printer.println("  Utilization: primary " + stats.primaryUtilization
+                    + "%, non-primary " + stats.nonPrimaryUtilization + "% (peak "
+                    + stats.peakNonPrimaryConnections + " acquired at once)");
             printer.println("  Available primary connection:");
             if (mAvailablePrimaryConnection != null) {
                 mAvailablePrimaryConnection.dump(indentedPrinter, verbose);
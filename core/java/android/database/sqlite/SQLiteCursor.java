@@ -54,6 +54,9 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     /** The number of rows that can fit in the cursor window, 0 if unknown */
     private int mCursorWindowCapacity;
 
+    /** True to read the rows from a statement kept open across windows, if possible */
+    private final boolean mStreaming;
+
     /** A mapping of column names to column indices, to speed up lookups */
     private Map<String, Integer> mColumnNameMap;
 
@@ -91,6 +94,11 @@ public class SQLiteCursor extends AbstractWindowedCursor {
      * @param query the {@link SQLiteQuery} object associated with this cursor object.
      */
     public SQLiteCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+        this(driver, editTable, query, false);
+    }
+
+    SQLiteCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+            boolean streaming) {
         if (query == null) {
             throw new IllegalArgumentException("query object cannot be null");
         }
@@ -103,6 +111,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         mEditTable = editTable;
         mColumnNameMap = null;
         mQuery = query;
+        mStreaming = streaming;
 
         mColumns = query.getColumnNames();
     }
@@ -138,7 +147,14 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         clearOrCreateWindow(getDatabase().getPath());
 
         try {
-            if (mCount == NO_COUNT) {
+            if (mStreaming && mQuery.beginStreaming()) {
+                // Windows start at the required row, as moving back before the rows that
+                // were already read means running the query again.
+                final int count = mQuery.fillStreamingWindow(mWindow, requiredPos);
+                if (mCount == NO_COUNT) {
+                    mCount = count >= 0 ? count : mQuery.countStreamingRows();
+                }
+            } else if (mCount == NO_COUNT) {
                 int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos, 0);
                 mCount = mQuery.fillWindow(mWindow, startPos, requiredPos, true);
                 mCursorWindowCapacity = mWindow.getNumRows();
@@ -197,6 +213,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     @Override
     public void deactivate() {
         super.deactivate();
+        mQuery.endStreaming();
         mDriver.cursorDeactivated();
     }
 
@@ -225,6 +242,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
             }
             mPos = -1;
             mCount = NO_COUNT;
+            mQuery.endStreaming();
 
             mDriver.cursorRequeried(this);
         }
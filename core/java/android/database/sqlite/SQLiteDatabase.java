@@ -28,6 +28,7 @@ import android.database.DatabaseUtils;
 import android.database.DefaultDatabaseErrorHandler;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDebug.DbStats;
+import android.database.sqlite.SQLiteDebug.PoolStats;
 import android.os.CancellationSignal;
 import android.os.Looper;
 import android.os.OperationCanceledException;
@@ -388,6 +389,22 @@ public final class SQLiteDatabase extends SQLiteClosable {
         return mThreadSession.get(); // initialValue() throws if database closed
     }
 
+    /**
+     * Gets the connection pool for a query that reads its rows from a connection of its own,
+     * or null if the query must go through the thread's session instead.
+     */
+    SQLiteConnectionPool getStreamingConnectionPool() {
+        // A separate connection would not see the changes made by a transaction in progress
+        // on this thread.
+        if (getThreadSession().hasTransaction()) {
+            return null;
+        }
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+            return mConnectionPoolLocked;
+        }
+    }
+
     SQLiteSession createSession() {
         final SQLiteConnectionPool pool;
         synchronized (mLock) {
@@ -1896,6 +1913,71 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Sets whether the prepared-statement cache of each connection to this database may
+     * grow on its own.
+     *<p>
+     * When enabled, a connection whose cache keeps evicting statements and has a high miss
+     * rate doubles the cache size, up to {@link #MAX_SQL_CACHE_SIZE}. This helps databases
+     * that run more distinct statements than {@link #setMaxSqlCacheSize} allows for. When
+     * disabled, the caches go back to the size set with {@link #setMaxSqlCacheSize}.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param enabled True to let the cache grow with the workload.
+     */
+    public void setAdaptiveSqlCacheSizeEnabled(boolean enabled) {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            if (mConfigurationLocked.adaptiveSqlCacheSizeEnabled == enabled) {
+                return;
+            }
+
+            mConfigurationLocked.adaptiveSqlCacheSizeEnabled = enabled;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.adaptiveSqlCacheSizeEnabled = !enabled;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets whether the number of connections to this database follows the observed
+     * concurrency.
+     *<p>
+     * With write-ahead logging enabled, a database normally keeps up to a fixed number of
+     * connections for concurrent readers.  When this is enabled, the pool starts with a
+     * single reader connection and only allows another one when a reader has to wait for a
+     * connection, up to the same limit.  This saves the memory of connections that a
+     * database with little concurrency would not use.  It has no effect when write-ahead
+     * logging is disabled.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param enabled True to size the connection pool from the observed concurrency.
+     * @see #enableWriteAheadLogging
+     */
+    public void setAdaptiveConnectionPoolSizeEnabled(boolean enabled) {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            if (mConfigurationLocked.adaptiveConnectionPoolSizeEnabled == enabled) {
+                return;
+            }
+
+            mConfigurationLocked.adaptiveConnectionPoolSizeEnabled = enabled;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.adaptiveConnectionPoolSizeEnabled = !enabled;
+                throw ex;
+            }
+        }
+    }
+
     /**
      * Sets whether foreign key constraints are enabled for the database.
      * <p>
@@ -2120,6 +2202,18 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    static ArrayList<PoolStats> getPoolStats() {
+        ArrayList<PoolStats> poolStatsList = new ArrayList<PoolStats>();
+        for (SQLiteDatabase db : getActiveDatabases()) {
+            synchronized (db.mLock) {
+                if (db.mConnectionPoolLocked != null) {
+                    poolStatsList.add(db.mConnectionPoolLocked.getPoolStats());
+                }
+            }
+        }
+        return poolStatsList;
+    }
+
     private static ArrayList<SQLiteDatabase> getActiveDatabases() {
         ArrayList<SQLiteDatabase> databases = new ArrayList<SQLiteDatabase>();
         synchronized (sActiveDatabases) {
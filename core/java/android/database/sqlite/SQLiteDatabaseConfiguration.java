@@ -83,6 +83,23 @@ public final class SQLiteDatabaseConfiguration {
      */
     public boolean foreignKeyConstraintsEnabled;
 
+    /**
+     * True if the prepared statement cache of each connection may grow beyond
+     * {@link #maxSqlCacheSize} when it has a high miss rate.
+     *
+     * Default is false.
+     */
+    public boolean adaptiveSqlCacheSizeEnabled;
+
+    /**
+     * True if the number of connections of a database with write-ahead logging
+     * enabled should follow the observed concurrency instead of always allowing
+     * {@link SQLiteGlobal#getWALConnectionPoolSize} connections.
+     *
+     * Default is false.
+     */
+    public boolean adaptiveConnectionPoolSizeEnabled;
+
     /**
      * The custom functions to register.
      */
@@ -165,6 +182,8 @@ public final class SQLiteDatabaseConfiguration {
         maxSqlCacheSize = other.maxSqlCacheSize;
         locale = other.locale;
         foreignKeyConstraintsEnabled = other.foreignKeyConstraintsEnabled;
+        adaptiveSqlCacheSizeEnabled = other.adaptiveSqlCacheSizeEnabled;
+        adaptiveConnectionPoolSizeEnabled = other.adaptiveConnectionPoolSizeEnabled;
         customFunctions.clear();
         customFunctions.addAll(other.customFunctions);
         lookasideSlotSize = other.lookasideSlotSize;
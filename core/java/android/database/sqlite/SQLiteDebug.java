@@ -113,6 +113,12 @@ public final class SQLiteDebug {
          * running on the android device
          */
         public ArrayList<DbStats> dbStats;
+
+        /** a list of {@link PoolStats} - one for each connection pool of the databases
+         * opened by the application
+         * @hide
+         */
+        public ArrayList<PoolStats> poolStats;
     }
 
     /**
@@ -136,16 +142,81 @@ public final class SQLiteDebug {
         /** statement cache stats: hits/misses/cachesize */
         public String cache;
 
+        /** number of statement cache lookups that found the statement */
+        public int cacheHits;
+
+        /** number of statement cache lookups that had to prepare the statement */
+        public int cacheMisses;
+
+        /** number of statements evicted from the statement cache to make room for others */
+        public int cacheEvictions;
+
+        /** number of statements in the statement cache */
+        public int cacheSize;
+
+        /** current maximum number of statements in the statement cache */
+        public int cacheMaxSize;
+
         public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
             int hits, int misses, int cachesize) {
+            this(dbName, pageCount, pageSize, lookaside, hits, misses, cachesize, 0, 0);
+        }
+
+        /** @hide */
+        public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
+                int hits, int misses, int cachesize, int evictions, int maxCacheSize) {
             this.dbName = dbName;
             this.pageSize = pageSize / 1024;
             dbSize = (pageCount * pageSize) / 1024;
             this.lookaside = lookaside;
             this.cache = hits + "/" + misses + "/" + cachesize;
+            cacheHits = hits;
+            cacheMisses = misses;
+            cacheEvictions = evictions;
+            cacheSize = cachesize;
+            cacheMaxSize = maxCacheSize;
         }
     }
 
+    /**
+     * contains statistics about the connection pool of a database
+     * @hide
+     */
+    public static class PoolStats {
+        /** name of the database */
+        public String dbName;
+
+        /** current maximum number of connections, including the primary connection */
+        public int maxConnections;
+
+        /** number of times a connection was acquired */
+        public long acquireCount;
+
+        /** number of those acquisitions that had to wait for a connection */
+        public long waitCount;
+
+        /** upper bounds in milliseconds of the histogram buckets; the last bucket
+         * has no upper bound */
+        public long[] bucketLimitsMillis;
+
+        /** number of acquisitions in each bucket of time spent waiting for a connection */
+        public long[] waitTimeHistogram;
+
+        /** number of acquisitions in each bucket of time a connection was held for */
+        public long[] holdTimeHistogram;
+
+        /** percentage of the time since the pool opened that the primary connection
+         * was acquired */
+        public int primaryUtilization;
+
+        /** percentage of the time since the pool opened that the non-primary
+         * connections were acquired, out of the current maximum */
+        public int nonPrimaryUtilization;
+
+        /** largest number of non-primary connections acquired at the same time */
+        public int peakNonPrimaryConnections;
+    }
+
     /**
      * return all pager and database stats for the current process.
      * @return {@link PagerStats}
@@ -155,6 +226,7 @@ public final class SQLiteDebug {
         PagerStats stats = new PagerStats();
         nativeGetPagerStats(stats);
         stats.dbStats = SQLiteDatabase.getDbStats();
+        stats.poolStats = SQLiteDatabase.getPoolStats();
         return stats;
     }
 
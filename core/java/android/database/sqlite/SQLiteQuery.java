@@ -17,6 +17,7 @@
 package android.database.sqlite;
 
 import android.database.CursorWindow;
+import android.database.DatabaseUtils;
 import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
 import android.util.Log;
@@ -33,6 +34,11 @@ public final class SQLiteQuery extends SQLiteProgram {
 
     private final CancellationSignal mCancellationSignal;
 
+    // The connection that a streaming query holds on to, and the pool it came from.
+    private SQLiteConnectionPool mStreamingPool;
+    private SQLiteConnection mStreamingConnection;
+    private SQLiteConnection.StreamingQuery mStreamingQuery;
+
     SQLiteQuery(SQLiteDatabase db, String query, CancellationSignal cancellationSignal) {
         super(db, query, null, cancellationSignal);
 
@@ -77,6 +83,151 @@ public final class SQLiteQuery extends SQLiteProgram {
         }
     }
 
+    /**
+     * Starts reading the rows of this query from a connection that it holds on to
+     * until {@link #endStreaming} is called, so that successive windows can be filled
+     * without running the query again.
+     *
+     * @return True if the query is streaming, false if it is not a SELECT statement or
+     * no connection can be spared, in which case {@link #fillWindow} must be used.
+     *
+     * @throws SQLiteException if an error occurs.
+     */
+    boolean beginStreaming() {
+        if (mStreamingQuery != null) {
+            return true;
+        }
+        if (DatabaseUtils.getSqlStatementType(getSql()) != DatabaseUtils.STATEMENT_SELECT) {
+            return false;
+        }
+
+        acquireReference();
+        try {
+            final SQLiteConnectionPool pool = getDatabase().getStreamingConnectionPool();
+            if (pool == null) {
+                return false;
+            }
+            final SQLiteConnection connection = pool.tryAcquireNonPrimaryConnection(getSql(),
+                    SQLiteConnectionPool.CONNECTION_FLAG_READ_ONLY);
+            if (connection == null) {
+                return false;
+            }
+            try {
+                mStreamingQuery = connection.beginStreamingQuery(getSql(), getBindArgs());
+            } catch (RuntimeException ex) {
+                pool.releaseConnection(connection);
+                throw ex;
+            }
+            mStreamingPool = pool;
+            mStreamingConnection = connection;
+            return true;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Reads the rows of a streaming query into a window, starting at the required position.
+     *
+     * @param window The window to fill into.
+     * @param requiredPos The position of the first row to put in the window.
+     * @return The number of rows of the query if it ended while filling the window,
+     * otherwise -1.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int fillStreamingWindow(CursorWindow window, int requiredPos) {
+        acquireReference();
+        try {
+            return mStreamingConnection.fillStreamingWindow(mStreamingQuery, window,
+                    requiredPos, mCancellationSignal);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption();
+            throw ex;
+        } catch (SQLiteException ex) {
+            Log.e(TAG, "exception: " + ex.getMessage() + "; query: " + getSql());
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Counts the rows of a streaming query.  While the query has rows left to read, the
+     * count is taken from the same snapshot of the database that they are read from.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int countStreamingRows() {
+        acquireReference();
+        try {
+            return (int) mStreamingConnection.executeForLong(
+                    "SELECT COUNT(*) FROM (" + stripStatementEnd(getSql()) + ")",
+                    getBindArgs(), mCancellationSignal);
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Removes the semicolons, comments and whitespace a statement may end with, so that it
+     * can be nested in another one.
+     */
+    private static String stripStatementEnd(String sql) {
+        final int length = sql.length();
+        // The end of the last character that is not part of a comment, a semicolon or
+        // whitespace.
+        int end = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            final char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+            if (c == '-' && next == '-') {
+                final int newline = sql.indexOf('\n', i + 2);
+                i = newline < 0 ? length : newline + 1;
+            } else if (c == '/' && next == '*') {
+                final int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? length : close + 2;
+            } else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                // Quoted strings and identifiers may contain anything else.
+                final int close = sql.indexOf(c == '[' ? ']' : c, i + 1);
+                i = close < 0 ? length : close + 1;
+                end = i;
+            } else {
+                i++;
+                if (c != ';' && !Character.isWhitespace(c)) {
+                    end = i;
+                }
+            }
+        }
+        return sql.substring(0, end);
+    }
+
+    /**
+     * Stops streaming and returns the connection of the query to its pool.
+     */
+    void endStreaming() {
+        if (mStreamingQuery == null) {
+            return;
+        }
+        try {
+            mStreamingConnection.endStreamingQuery(mStreamingQuery);
+        } finally {
+            mStreamingPool.releaseConnection(mStreamingConnection);
+            mStreamingPool = null;
+            mStreamingConnection = null;
+            mStreamingQuery = null;
+        }
+    }
+
+    @Override
+    protected void onAllReferencesReleased() {
+        endStreaming();
+        super.onAllReferencesReleased();
+    }
+
     @Override
     public String toString() {
         return "SQLiteQuery: " + getSql();
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/**
+ * A {@link SQLiteCursor} for reading the results of a query front to back.
+ * <p>
+ * A regular SQLiteCursor runs its query again each time it moves outside of its
+ * {@link android.database.CursorWindow}, stepping over all the rows that come before
+ * the new window.  This cursor instead keeps its statement open and fills each window
+ * with the rows that follow the previous one, so that reading all of the results
+ * steps through them once.  Moving back before the current window runs the query again.
+ * </p><p>
+ * The statement is kept open on a connection of the database's pool that the cursor
+ * holds until it is closed or deactivated, so results are only streamed from databases
+ * with write-ahead logging enabled, outside of a transaction on the calling thread, and
+ * when a connection is available right away.  Otherwise this cursor behaves like a
+ * regular SQLiteCursor.  Close it as soon as the results have been read.
+ * </p><p>
+ * Use {@link #FACTORY} with {@link SQLiteDatabase#rawQueryWithFactory} or
+ * {@link SQLiteQueryBuilder#setCursorFactory} to create streaming cursors.
+ * </p>
+ *
+ * @see android.content.ContentResolver#QUERY_ARG_STREAMING
+ */
+public class SQLiteStreamingCursor extends SQLiteCursor {
+    /**
+     * A {@link SQLiteDatabase.CursorFactory} that creates streaming cursors.
+     */
+    public static final SQLiteDatabase.CursorFactory FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                String editTable, SQLiteQuery query) {
+            return new SQLiteStreamingCursor(masterQuery, editTable, query);
+        }
+    };
+
+    /**
+     * Execute a query and provide access to its result set through a Cursor
+     * interface that streams the rows into its window.
+     *
+     * @param editTable the name of the table used for this query
+     * @param query the {@link SQLiteQuery} object associated with this cursor object.
+     */
+    public SQLiteStreamingCursor(SQLiteCursorDriver driver, String editTable,
+            SQLiteQuery query) {
+        super(driver, editTable, query, true);
+    }
+}
@@ -439,6 +439,9 @@ public class Process {
      * @param appDataDir null-ok the data directory of the app.
      * @param invokeWith null-ok the command to invoke with.
      * @param zygoteArgs Additional arguments to supply to the zygote process.
+     * @param refreshFont Whether the zygote should reload its fonts first.
+     * @param usePool Whether the process may be one the zygote forked ahead of time, which
+     *                saves the time of the fork.
      * 
      * @return An object that describes the result of the attempt to start the process.
      * @throws RuntimeException on fatal start failure
@@ -456,10 +459,12 @@ public class Process {
                                   String appDataDir,
                                   String invokeWith,
                                   String[] zygoteArgs,
-                                  boolean refreshFont) {
+                                  boolean refreshFont,
+                                  boolean usePool) {
         return zygoteProcess.start(processClass, niceName, uid, gid, gids,
                     debugFlags, mountExternal, targetSdkVersion, seInfo,
-                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont);
+                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont,
+                    usePool);
     }
 
     /** @hide */
@@ -477,7 +482,8 @@ public class Process {
                                   boolean refreshFont) {
         return WebViewZygote.getProcess().start(processClass, niceName, uid, gid, gids,
                     debugFlags, mountExternal, targetSdkVersion, seInfo,
-                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont);
+                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont,
+                    false /* usePool */);
     }
 
     /**
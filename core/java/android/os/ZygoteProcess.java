@@ -189,6 +189,8 @@ public class ZygoteProcess {
      * @param appDataDir null-ok the data directory of the app.
      * @param invokeWith null-ok the command to invoke with.
      * @param zygoteArgs Additional arguments to supply to the zygote process.
+     * @param refreshFont Whether the zygote should reload its fonts first.
+     * @param usePool Whether the process may be one the zygote forked ahead of time.
      *
      * @return An object that describes the result of the attempt to start the process.
      * @throws RuntimeException on fatal start failure
@@ -204,11 +206,13 @@ public class ZygoteProcess {
                                                   String appDataDir,
                                                   String invokeWith,
                                                   String[] zygoteArgs,
-                                                  boolean refreshFont) {
+                                                  boolean refreshFont,
+                                                  boolean usePool) {
         try {
             return startViaZygote(processClass, niceName, uid, gid, gids,
                     debugFlags, mountExternal, targetSdkVersion, seInfo,
-                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont);
+                    abi, instructionSet, appDataDir, invokeWith, zygoteArgs, refreshFont,
+                    usePool);
         } catch (ZygoteStartFailedEx ex) {
             Log.e(LOG_TAG,
                     "Starting VM process through Zygote failed");
@@ -340,7 +344,8 @@ public class ZygoteProcess {
                                                       String appDataDir,
                                                       String invokeWith,
                                                       String[] extraArgs,
-                                                      boolean refreshFont)
+                                                      boolean refreshFont,
+                                                      boolean usePool)
                                                       throws ZygoteStartFailedEx {
         ArrayList<String> argsForZygote = new ArrayList<String>();
 
@@ -387,6 +392,9 @@ public class ZygoteProcess {
         if (refreshFont) {
             argsForZygote.add("--refresh-font");
         }
+        if (usePool) {
+            argsForZygote.add("--use-pool");
+        }
 
         // --setgroups is a comma-separated list
         if (gids != null && gids.length > 0) {
@@ -63,8 +63,10 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.ResultReceiver;
 import android.os.ServiceManager;
+import android.os.SharedMemory;
 import android.os.UserHandle;
 import android.speech.tts.TextToSpeech;
+import android.system.ErrnoException;
 import android.text.TextUtils;
 import android.util.AndroidException;
 import android.util.ArrayMap;
@@ -1494,6 +1496,36 @@ public final class Settings {
      */
     public static final String CALL_METHOD_GENERATION_KEY = "_generation";
 
+    /**
+     * @hide - Specifies that the caller of the fast-path call()-based flow wants a
+     * read-only snapshot of the whole settings table. If this key is mapped to a
+     * <code>null</code> string extra in the request bundle, the response bundle may
+     * contain the same key mapped to a {@link android.os.SharedMemory} holding a
+     * {@link SettingsSnapshot}, along with the
+     * {@link #CALL_METHOD_SNAPSHOT_GENERATION_INDEX_KEY} and
+     * {@link #CALL_METHOD_SNAPSHOT_GENERATION_KEY} the snapshot was taken at. The
+     * snapshot stays valid until that generation changes.
+     *
+     * @see #CALL_METHOD_TRACK_GENERATION_KEY
+     */
+    public static final String CALL_METHOD_TRACK_SNAPSHOT_KEY = "_track_snapshot";
+
+    /**
+     * @hide Key with the location in the generation {@link android.util.MemoryIntArray}
+     * of the table a snapshot was taken of. The value is an integer.
+     *
+     * @see #CALL_METHOD_TRACK_SNAPSHOT_KEY
+     */
+    public static final String CALL_METHOD_SNAPSHOT_GENERATION_INDEX_KEY =
+            "_snapshot_generation_index";
+
+    /**
+     * @hide Key with the table generation a snapshot was taken at. The value is an integer.
+     *
+     * @see #CALL_METHOD_TRACK_SNAPSHOT_KEY
+     */
+    public static final String CALL_METHOD_SNAPSHOT_GENERATION_KEY = "_snapshot_generation";
+
     /**
      * @hide - User handle argument extra to the fast-path call()-based requests
      */
@@ -1739,6 +1771,14 @@ public final class Settings {
             mCurrentGeneration = generation;
         }
 
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public int getCurrentGeneration() {
+            return mCurrentGeneration;
+        }
+
         public boolean isGenerationChanged() {
             final int currentGeneration = readCurrentGeneration();
             if (currentGeneration >= 0) {
@@ -1827,6 +1867,11 @@ public final class Settings {
         @GuardedBy("this")
         private GenerationTracker mGenerationTracker;
 
+        // Snapshot of the whole table, valid while the tracked generation is unchanged. Lets the
+        // first read of each setting skip the binder call.
+        @GuardedBy("this")
+        private SettingsSnapshot mSnapshot;
+
         public NameValueCache(Uri uri, String getCommand, String setCommand,
                 ContentProviderHolder providerHolder) {
             mUri = uri;
@@ -1868,8 +1913,17 @@ public final class Settings {
                                         + cr.getPackageName() +" and user:" + userHandle);
                             }
                             mValues.clear();
+                            clearSnapshotLocked();
                         } else if (mValues.containsKey(name)) {
                             return mValues.get(name);
+                        } else if (mSnapshot != null) {
+                            final int index = mSnapshot.indexOf(name);
+                            if (index < 0 || mSnapshot.isAvailable(index)) {
+                                final String value = index >= 0
+                                        ? mSnapshot.getValue(index) : null;
+                                mValues.put(name, value);
+                                return value;
+                            }
                         }
                     }
                 }
@@ -1905,6 +1959,12 @@ public final class Settings {
                                         + userHandle);
                             }
                         }
+                        if (isSelf && mSnapshot == null) {
+                            if (args == null) {
+                                args = new Bundle();
+                            }
+                            args.putString(CALL_METHOD_TRACK_SNAPSHOT_KEY, null);
+                        }
                     }
                     Bundle b;
                     // If we're in system server and in a binder transaction we need to clear the
@@ -1956,11 +2016,13 @@ public final class Settings {
                                                     mGenerationTracker = null;
                                                     generationTracker.destroy();
                                                     mValues.clear();
+                                                    clearSnapshotLocked();
                                                 }
                                             }
                                         });
                                     }
                                 }
+                                maybeSetSnapshotLocked(b);
                                 mValues.put(name, value);
                             }
                         } else {
@@ -2017,12 +2079,43 @@ public final class Settings {
             }
         }
 
+        private void maybeSetSnapshotLocked(Bundle b) {
+            final SharedMemory memory = b.getParcelable(CALL_METHOD_TRACK_SNAPSHOT_KEY);
+            if (memory == null || mGenerationTracker == null) {
+                return;
+            }
+            // Only use the snapshot if it reflects the generation we compare against, otherwise
+            // we could serve values older than the ones we already invalidated.
+            final int index = b.getInt(CALL_METHOD_SNAPSHOT_GENERATION_INDEX_KEY, -1);
+            final int generation = b.getInt(CALL_METHOD_SNAPSHOT_GENERATION_KEY, -1);
+            if (index != mGenerationTracker.getIndex()
+                    || generation != mGenerationTracker.getCurrentGeneration()) {
+                return;
+            }
+            clearSnapshotLocked();
+            try {
+                // The memory is deliberately not closed: in the system server it is the
+                // provider's own instance. Its mapping stays valid until unmapped either way.
+                mSnapshot = new SettingsSnapshot(memory);
+            } catch (ErrnoException | IllegalArgumentException e) {
+                Log.w(TAG, "Can't map settings snapshot for " + mUri, e);
+            }
+        }
+
+        private void clearSnapshotLocked() {
+            if (mSnapshot != null) {
+                mSnapshot.unmap();
+                mSnapshot = null;
+            }
+        }
+
         public void clearGenerationTrackerForTest() {
             synchronized (NameValueCache.this) {
                 if (mGenerationTracker != null) {
                     mGenerationTracker.destroy();
                 }
                 mValues.clear();
+                clearSnapshotLocked();
                 mGenerationTracker = null;
             }
         }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Read-only image of a settings table in shared memory.
+ *
+ * <p>The settings provider publishes one snapshot per table and user, stamped with the table
+ * generation it was taken at. Client processes map it and look up values without a binder call
+ * for as long as the generation they track does not change.</p>
+ *
+ * <p>Layout, all integers big-endian:
+ * <pre>
+ *   int version
+ *   int count
+ *   int[count] offset of each entry, entries sorted by name
+ *   entries: int nameLength, byte[] name, byte state, int valueLength, byte[] value
+ * </pre>
+ * Names and values are UTF-8. A name not listed is not set in the table. A name listed as
+ * unavailable has a value that depends on the caller and must be read from the provider.</p>
+ *
+ * @hide
+ */
+public final class SettingsSnapshot {
+    private static final int VERSION = 1;
+
+    private static final byte STATE_VALUE = 0;
+    private static final byte STATE_NULL = 1;
+    private static final byte STATE_UNAVAILABLE = 2;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    /**
+     * Maps a snapshot created by {@link #create}.
+     *
+     * @throws ErrnoException if the memory cannot be mapped.
+     * @throws IllegalArgumentException if the memory does not hold a snapshot.
+     */
+    public SettingsSnapshot(@NonNull SharedMemory memory) throws ErrnoException {
+        mBuffer = memory.mapReadOnly();
+        if (mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != VERSION) {
+            SharedMemory.unmap(mBuffer);
+            throw new IllegalArgumentException("Not a settings snapshot");
+        }
+        mCount = mBuffer.getInt(4);
+    }
+
+    /**
+     * Unmaps the snapshot. It must not be used afterwards.
+     */
+    public void unmap() {
+        SharedMemory.unmap(mBuffer);
+    }
+
+    /**
+     * @return the index of the entry for the given name, or a negative number if the setting is
+     * not set.
+     */
+    public int indexOf(@NonNull String name) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = readString(entryOffset(mid)).compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
+    }
+
+    /**
+     * @return whether the value of the entry at the given index can be read from the snapshot.
+     */
+    public boolean isAvailable(int index) {
+        return mBuffer.get(stateOffset(index)) != STATE_UNAVAILABLE;
+    }
+
+    /**
+     * @return the value of the entry at the given index, which must be available.
+     */
+    public @Nullable String getValue(int index) {
+        final int stateOffset = stateOffset(index);
+        if (mBuffer.get(stateOffset) != STATE_VALUE) {
+            return null;
+        }
+        return readString(stateOffset + 1);
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index " + index + " count " + mCount);
+        }
+        return mBuffer.getInt(HEADER_SIZE + index * 4);
+    }
+
+    private int stateOffset(int index) {
+        final int offset = entryOffset(index);
+        return offset + 4 + mBuffer.getInt(offset);
+    }
+
+    private String readString(int offset) {
+        final byte[] bytes = new byte[mBuffer.getInt(offset)];
+        final ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a snapshot of a settings table to a new read-only shared memory region.
+     *
+     * @param debugName the name of the shared memory region.
+     * @param values the settings in the table, a {@code null} value meaning the setting is
+     *         present but null.
+     * @param unavailableNames settings whose value depends on the caller.
+     */
+    public static @NonNull SharedMemory create(@NonNull String debugName,
+            @NonNull Map<String, String> values, @NonNull Collection<String> unavailableNames)
+            throws ErrnoException {
+        final TreeSet<String> names = new TreeSet<>(values.keySet());
+        names.addAll(unavailableNames);
+
+        final ArrayList<byte[]> encodedNames = new ArrayList<>(names.size());
+        final ArrayList<byte[]> encodedValues = new ArrayList<>(names.size());
+        int size = HEADER_SIZE + names.size() * 4;
+        for (String name : names) {
+            final byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+            final String value = unavailableNames.contains(name) ? null : values.get(name);
+            final byte[] encodedValue = value != null
+                    ? value.getBytes(StandardCharsets.UTF_8) : null;
+            encodedNames.add(encodedName);
+            encodedValues.add(encodedValue);
+            size += 4 + encodedName.length + 1 + 4
+                    + (encodedValue != null ? encodedValue.length : 0);
+        }
+
+        final SharedMemory memory = SharedMemory.create(debugName, size);
+        final ByteBuffer buffer = memory.mapReadWrite();
+        try {
+            buffer.putInt(VERSION);
+            buffer.putInt(names.size());
+            int entryOffset = HEADER_SIZE + names.size() * 4;
+            int i = 0;
+            for (String name : names) {
+                buffer.putInt(HEADER_SIZE + i * 4, entryOffset);
+                final byte[] encodedName = encodedNames.get(i);
+                final byte[] encodedValue = encodedValues.get(i);
+                buffer.position(entryOffset);
+                buffer.putInt(encodedName.length);
+                buffer.put(encodedName);
+                if (unavailableNames.contains(name)) {
+                    buffer.put(STATE_UNAVAILABLE);
+                    buffer.putInt(0);
+                } else if (encodedValue == null) {
+                    buffer.put(STATE_NULL);
+                    buffer.putInt(0);
+                } else {
+                    buffer.put(STATE_VALUE);
+                    buffer.putInt(encodedValue.length);
+                    buffer.put(encodedValue);
+                }
+                entryOffset = buffer.position();
+                i++;
+            }
+        } finally {
+            SharedMemory.unmap(buffer);
+        }
+        // Clients only ever map the snapshot for reading.
+        memory.setProtect(OsConstants.PROT_READ);
+        return memory;
+    }
+}
@@ -264,6 +264,8 @@ public abstract class NotificationListenerService extends Service {
 
     @GuardedBy("mLock")
     private RankingMap mRankingMap;
+    @GuardedBy("mLock")
+    private boolean mFullRankingRequested;
 
     private INotificationManager mNoMan;
 
@@ -1299,7 +1301,21 @@ public abstract class NotificationListenerService extends Service {
      * @hide
      */
     public final void applyUpdateLocked(NotificationRankingUpdate update) {
-        mRankingMap = new RankingMap(update);
+        final NotificationRankingUpdate base =
+                mRankingMap != null ? mRankingMap.mRankingUpdate : null;
+        if (update.canApplyTo(base)) {
+            if (!update.isDelta()) {
+                mFullRankingRequested = false;
+            }
+        } else if (!mFullRankingRequested) {
+            // The delta is based on an update we never got. Apply it as well as we can and ask
+            // for the full ranking, which replaces whatever is stale.
+            Log.w(TAG, "Ranking update " + update.getVersion() + " is based on "
+                    + update.getBaseVersion() + ", requesting full ranking");
+            mFullRankingRequested = true;
+            mHandler.obtainMessage(MyHandler.MSG_REQUEST_FULL_RANKING_UPDATE).sendToTarget();
+        }
+        mRankingMap = new RankingMap(update.applyTo(base));
     }
 
     /** @hide */
@@ -1811,6 +1827,7 @@ public abstract class NotificationListenerService extends Service {
         public static final int MSG_ON_INTERRUPTION_FILTER_CHANGED = 6;
         public static final int MSG_ON_NOTIFICATION_CHANNEL_MODIFIED = 7;
         public static final int MSG_ON_NOTIFICATION_CHANNEL_GROUP_MODIFIED = 8;
+        public static final int MSG_REQUEST_FULL_RANKING_UPDATE = 9;
 
         public MyHandler(Looper looper) {
             super(looper, null, false);
@@ -1875,6 +1892,14 @@ public abstract class NotificationListenerService extends Service {
                     int modificationType = (int) args.arg4;
                     onNotificationChannelGroupModified(pkgName, user, group, modificationType);
                 } break;
+
+                case MSG_REQUEST_FULL_RANKING_UPDATE: {
+                    try {
+                        getNotificationInterface().requestRankingUpdateFromListener(mWrapper);
+                    } catch (RemoteException ex) {
+                        Log.v(TAG, "Unable to contact notification manager", ex);
+                    }
+                } break;
             }
         }
     }
@@ -18,12 +18,28 @@ package android.service.notification;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.ArraySet;
+
+import java.util.Collections;
 
 /**
+ * The ranking of the notifications visible to a listener.
+ *
+ * <p>An update is either full, or a delta against the previous update sent to the same
+ * listener. A delta still has every key in order, along with the intercepted keys and the
+ * importance of each key, but the bundles only hold the entries of the keys that changed since
+ * its base version. {@link #applyTo} merges it with the update it is based on.</p>
+ *
  * @hide
  */
 public class NotificationRankingUpdate implements Parcelable {
-    // TODO: Support incremental updates.
+    /** The base version of a full update. */
+    public static final int NO_BASE_VERSION = -1;
+
+    private final int mVersion;
+    private final int mBaseVersion;
+    /** The keys whose bundle entries are included in a delta, or null for a full update. */
+    private final String[] mChangedKeys;
     private final String[] mKeys;
     private final String[] mInterceptedKeys;
     private final Bundle mVisibilityOverrides;
@@ -41,6 +57,24 @@ public class NotificationRankingUpdate implements Parcelable {
             int[] importance, Bundle explanation, Bundle overrideGroupKeys,
             Bundle channels, Bundle overridePeople, Bundle snoozeCriteria,
             Bundle showBadge) {
+        this(0, NO_BASE_VERSION, null, keys, interceptedKeys, visibilityOverrides,
+                suppressedVisualEffects, importance, explanation, overrideGroupKeys, channels,
+                overridePeople, snoozeCriteria, showBadge);
+    }
+
+    /**
+     * Creates an update with the given version. If {@code baseVersion} is not
+     * {@link #NO_BASE_VERSION}, the bundles only hold entries for {@code changedKeys}.
+     */
+    public NotificationRankingUpdate(int version, int baseVersion, String[] changedKeys,
+            String[] keys, String[] interceptedKeys,
+            Bundle visibilityOverrides, Bundle suppressedVisualEffects,
+            int[] importance, Bundle explanation, Bundle overrideGroupKeys,
+            Bundle channels, Bundle overridePeople, Bundle snoozeCriteria,
+            Bundle showBadge) {
+        mVersion = version;
+        mBaseVersion = baseVersion;
+        mChangedKeys = baseVersion != NO_BASE_VERSION ? changedKeys : null;
         mKeys = keys;
         mInterceptedKeys = interceptedKeys;
         mVisibilityOverrides = visibilityOverrides;
@@ -55,6 +89,9 @@ public class NotificationRankingUpdate implements Parcelable {
     }
 
     public NotificationRankingUpdate(Parcel in) {
+        mVersion = in.readInt();
+        mBaseVersion = in.readInt();
+        mChangedKeys = mBaseVersion != NO_BASE_VERSION ? in.readStringArray() : null;
         mKeys = in.readStringArray();
         mInterceptedKeys = in.readStringArray();
         mVisibilityOverrides = in.readBundle();
@@ -76,6 +113,11 @@ public class NotificationRankingUpdate implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel out, int flags) {
+        out.writeInt(mVersion);
+        out.writeInt(mBaseVersion);
+        if (mBaseVersion != NO_BASE_VERSION) {
+            out.writeStringArray(mChangedKeys);
+        }
         out.writeStringArray(mKeys);
         out.writeStringArray(mInterceptedKeys);
         out.writeBundle(mVisibilityOverrides);
@@ -100,6 +142,65 @@ public class NotificationRankingUpdate implements Parcelable {
         }
     };
 
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getBaseVersion() {
+        return mBaseVersion;
+    }
+
+    public boolean isDelta() {
+        return mBaseVersion != NO_BASE_VERSION;
+    }
+
+    /**
+     * @return whether this update can be applied to {@code base}: it is either full, or a delta
+     * against the version of {@code base}.
+     */
+    public boolean canApplyTo(NotificationRankingUpdate base) {
+        return !isDelta() || (base != null && base.mVersion == mBaseVersion);
+    }
+
+    /**
+     * Returns the full update obtained by applying this update to {@code base}. Entries of
+     * {@code base} for keys that are gone or changed are dropped. If this is not a delta, or
+     * {@code base} is null, this is returned unchanged; a delta with no base still has the
+     * order, interception and importance of every key.
+     */
+    public NotificationRankingUpdate applyTo(NotificationRankingUpdate base) {
+        if (!isDelta() || base == null) {
+            return this;
+        }
+        final ArraySet<String> keys = new ArraySet<>(mKeys.length);
+        Collections.addAll(keys, mKeys);
+        final ArraySet<String> changed = new ArraySet<>(mChangedKeys.length);
+        Collections.addAll(changed, mChangedKeys);
+        return new NotificationRankingUpdate(mVersion, NO_BASE_VERSION, null, mKeys,
+                mInterceptedKeys,
+                merge(base.mVisibilityOverrides, mVisibilityOverrides, keys, changed),
+                merge(base.mSuppressedVisualEffects, mSuppressedVisualEffects, keys, changed),
+                mImportance,
+                merge(base.mImportanceExplanation, mImportanceExplanation, keys, changed),
+                merge(base.mOverrideGroupKeys, mOverrideGroupKeys, keys, changed),
+                merge(base.mChannels, mChannels, keys, changed),
+                merge(base.mOverridePeople, mOverridePeople, keys, changed),
+                merge(base.mSnoozeCriteria, mSnoozeCriteria, keys, changed),
+                merge(base.mShowBadge, mShowBadge, keys, changed));
+    }
+
+    private static Bundle merge(Bundle base, Bundle delta, ArraySet<String> keys,
+            ArraySet<String> changed) {
+        final Bundle merged = new Bundle(base);
+        for (String key : base.keySet()) {
+            if (changed.contains(key) || !keys.contains(key)) {
+                merged.remove(key);
+            }
+        }
+        merged.putAll(delta);
+        return merged;
+    }
+
     public String[] getOrderedKeys() {
         return mKeys;
     }
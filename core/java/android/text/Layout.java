@@ -257,6 +257,14 @@ public abstract class Layout {
         mSpannedText = text instanceof Spanned;
     }
 
+    /**
+     * Replace the paint used for drawing with one that has identical text metrics, e.g. when a
+     * layout computed with a copy of a TextView's paint is adopted by that TextView.
+     */
+    /* package */ void setPaint(TextPaint paint) {
+        mPaint = paint;
+    }
+
     /**
      * Draw this Layout on the specified Canvas.
      */
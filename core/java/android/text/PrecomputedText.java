@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.annotation.NonNull;
+
+import com.android.internal.util.Preconditions;
+
+import java.util.Objects;
+
+/**
+ * Text whose measurement and line breaking has already been performed for a given set of
+ * layout parameters and width.
+ *
+ * <p>Text shaping and line breaking are expensive for long paragraphs. A PrecomputedText can be
+ * created on a background thread with {@link #create} and later handed to
+ * {@link android.widget.TextView#setPrecomputedText}, which reuses the computed layout instead
+ * of measuring the text again on the UI thread, provided the TextView's text metrics and width
+ * still match the ones used for precomputation.</p>
+ *
+ * <p>The text passed to {@link #create} should not be modified afterwards. Spannable text is
+ * laid out dynamically by TextView to track span changes and does not benefit from
+ * precomputation; pass immutable text such as a {@link String} or {@link SpannedString}
+ * instead. A PrecomputedText should only be set on a single TextView.</p>
+ */
+public final class PrecomputedText {
+
+    /**
+     * The set of parameters which affect text measurement and line breaking. Obtain an instance
+     * matching a TextView from {@link android.widget.TextView#getTextMetricsParams}.
+     */
+    public static final class Params {
+        // The paint is copied so that background measurement never races with UI thread
+        // modifications of the owning TextView's paint.
+        private final @NonNull TextPaint mPaint;
+        private final @NonNull TextDirectionHeuristic mTextDir;
+        private final @NonNull Layout.Alignment mAlignment;
+        private final float mSpacingMult;
+        private final float mSpacingAdd;
+        private final boolean mIncludePad;
+        private final @Layout.BreakStrategy int mBreakStrategy;
+        private final @Layout.HyphenationFrequency int mHyphenationFrequency;
+        private final @Layout.JustificationMode int mJustificationMode;
+        private final int mMaxLines;
+
+        /** @hide */
+        public Params(@NonNull TextPaint paint, @NonNull TextDirectionHeuristic textDir,
+                @NonNull Layout.Alignment alignment, float spacingMult, float spacingAdd,
+                boolean includePad, @Layout.BreakStrategy int breakStrategy,
+                @Layout.HyphenationFrequency int hyphenationFrequency,
+                @Layout.JustificationMode int justificationMode, int maxLines) {
+            mPaint = new TextPaint(Preconditions.checkNotNull(paint));
+            mTextDir = Preconditions.checkNotNull(textDir);
+            mAlignment = Preconditions.checkNotNull(alignment);
+            mSpacingMult = spacingMult;
+            mSpacingAdd = spacingAdd;
+            mIncludePad = includePad;
+            mBreakStrategy = breakStrategy;
+            mHyphenationFrequency = hyphenationFrequency;
+            mJustificationMode = justificationMode;
+            mMaxLines = maxLines;
+        }
+
+        /**
+         * Returns a copy of the paint used for measurement.
+         */
+        public @NonNull TextPaint getTextPaint() {
+            return new TextPaint(mPaint);
+        }
+
+        /**
+         * Returns the text direction heuristic used for measurement.
+         */
+        public @NonNull TextDirectionHeuristic getTextDirection() {
+            return mTextDir;
+        }
+
+        /**
+         * Returns the break strategy used for line breaking.
+         */
+        public @Layout.BreakStrategy int getBreakStrategy() {
+            return mBreakStrategy;
+        }
+
+        /**
+         * Returns the hyphenation frequency used for line breaking.
+         */
+        public @Layout.HyphenationFrequency int getHyphenationFrequency() {
+            return mHyphenationFrequency;
+        }
+
+        /**
+         * Returns true if the given parameters produce the same text measurement and line
+         * breaks as this one.
+         */
+        public boolean isSameTextMetrics(@NonNull Params other) {
+            return mTextDir == other.mTextDir
+                    && mAlignment == other.mAlignment
+                    && mSpacingMult == other.mSpacingMult
+                    && mSpacingAdd == other.mSpacingAdd
+                    && mIncludePad == other.mIncludePad
+                    && mBreakStrategy == other.mBreakStrategy
+                    && mHyphenationFrequency == other.mHyphenationFrequency
+                    && mJustificationMode == other.mJustificationMode
+                    && mMaxLines == other.mMaxLines
+                    && isSamePaintMetrics(mPaint, other.mPaint);
+        }
+
+        private static boolean isSamePaintMetrics(TextPaint a, TextPaint b) {
+            return a.getTextSize() == b.getTextSize()
+                    && a.getTextScaleX() == b.getTextScaleX()
+                    && a.getTextSkewX() == b.getTextSkewX()
+                    && a.getLetterSpacing() == b.getLetterSpacing()
+                    && a.getWordSpacing() == b.getWordSpacing()
+                    && a.getFlags() == b.getFlags()
+                    && Objects.equals(a.getTypeface(), b.getTypeface())
+                    && Objects.equals(a.getTextLocales(), b.getTextLocales())
+                    && TextUtils.equals(a.getFontFeatureSettings(), b.getFontFeatureSettings())
+                    && TextUtils.equals(a.getFontVariationSettings(),
+                            b.getFontVariationSettings());
+        }
+    }
+
+    private final @NonNull CharSequence mText;
+    private final @NonNull Params mParams;
+    private final int mWidth;
+    private final @NonNull StaticLayout mLayout;
+
+    private PrecomputedText(@NonNull CharSequence text, @NonNull Params params, int width,
+            @NonNull StaticLayout layout) {
+        mText = text;
+        mParams = params;
+        mWidth = width;
+        mLayout = layout;
+    }
+
+    /**
+     * Measures the text and computes its line breaks for the given width.
+     *
+     * <p>This method performs the full text shaping and line breaking work and may take a while
+     * for long text. It is safe to call it from a background thread.</p>
+     *
+     * @param text the text to be measured
+     * @param params the parameters that affect text measurement
+     * @param width the layout width in pixels
+     * @return a PrecomputedText holding the measured layout
+     */
+    public static @NonNull PrecomputedText create(@NonNull CharSequence text,
+            @NonNull Params params, int width) {
+        Preconditions.checkNotNull(text);
+        Preconditions.checkNotNull(params);
+        Preconditions.checkArgument(width >= 0, "width must not be negative");
+
+        // Params may be shared between threads, so each layout gets its own paint.
+        final StaticLayout layout = StaticLayout.Builder.obtain(text, 0, text.length(),
+                new TextPaint(params.mPaint), width)
+                .setAlignment(params.mAlignment)
+                .setTextDirection(params.mTextDir)
+                .setLineSpacing(params.mSpacingAdd, params.mSpacingMult)
+                .setIncludePad(params.mIncludePad)
+                .setBreakStrategy(params.mBreakStrategy)
+                .setHyphenationFrequency(params.mHyphenationFrequency)
+                .setJustificationMode(params.mJustificationMode)
+                .setMaxLines(params.mMaxLines)
+                .build();
+        return new PrecomputedText(text, params, width, layout);
+    }
+
+    /**
+     * Returns the text that was measured.
+     */
+    public @NonNull CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * Returns the parameters used for measurement.
+     */
+    public @NonNull Params getParams() {
+        return mParams;
+    }
+
+    /**
+     * Returns the width in pixels the line breaks were computed for.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the precomputed layout, rebound to draw with the given paint. The paint must have
+     * the same text metrics as the one used for precomputation.
+     * @hide
+     */
+    public @NonNull StaticLayout getLayout(@NonNull TextPaint paint) {
+        mLayout.setPaint(paint);
+        return mLayout;
+    }
+}
@@ -20,6 +20,7 @@ import android.os.Looper;
 import android.os.MessageQueue;
 import android.util.Log;
 import android.util.SparseIntArray;
+import android.util.SparseLongArray;
 
 import dalvik.system.CloseGuard;
 
@@ -44,6 +45,11 @@ public abstract class InputEventReceiver {
     // Map from InputEvent sequence numbers to dispatcher sequence numbers.
     private final SparseIntArray mSeqMap = new SparseIntArray();
 
+    private LatencyListener mLatencyListener;
+    // Map from InputEvent sequence numbers to the times they were received, while there is
+    // a latency listener.
+    private final SparseLongArray mReceiveTimes = new SparseLongArray();
+
     private static native long nativeInit(WeakReference<InputEventReceiver> receiver,
             InputChannel inputChannel, MessageQueue messageQueue);
     private static native void nativeDispose(long receiverPtr);
@@ -105,6 +111,18 @@ public abstract class InputEventReceiver {
         mMessageQueue = null;
     }
 
+    /**
+     * Sets a listener to be told when each input event was received and finished, or null to
+     * stop tracking input event times.
+     * Must be called on the same Looper thread to which the receiver is attached.
+     */
+    public final void setLatencyListener(LatencyListener listener) {
+        mLatencyListener = listener;
+        if (listener == null) {
+            mReceiveTimes.clear();
+        }
+    }
+
     /**
      * Called when an input event is received.
      * The recipient should process the input event and then call {@link #finishInputEvent}
@@ -152,6 +170,9 @@ public abstract class InputEventReceiver {
                 int seq = mSeqMap.valueAt(index);
                 mSeqMap.removeAt(index);
                 nativeFinishInputEvent(mReceiverPtr, seq, handled);
+                if (mLatencyListener != null) {
+                    notifyInputEventFinished(event);
+                }
             }
         }
         event.recycleIfNeededAfterDispatch();
@@ -179,10 +200,22 @@ public abstract class InputEventReceiver {
         return false;
     }
 
+    private void notifyInputEventFinished(InputEvent event) {
+        final int index = mReceiveTimes.indexOfKey(event.getSequenceNumber());
+        if (index >= 0) {
+            final long receiveTimeNanos = mReceiveTimes.valueAt(index);
+            mReceiveTimes.removeAt(index);
+            mLatencyListener.onInputEventFinished(event, receiveTimeNanos, System.nanoTime());
+        }
+    }
+
     // Called from native code.
     @SuppressWarnings("unused")
     private void dispatchInputEvent(int seq, InputEvent event, int displayId) {
         mSeqMap.put(event.getSequenceNumber(), seq);
+        if (mLatencyListener != null) {
+            mReceiveTimes.put(event.getSequenceNumber(), System.nanoTime());
+        }
         onInputEvent(event, displayId);
     }
 
@@ -192,6 +225,22 @@ public abstract class InputEventReceiver {
         onBatchedInputEventPending();
     }
 
+    /**
+     * Told the times at which input events were received and finished.
+     */
+    public static interface LatencyListener {
+        /**
+         * Called when an input event is finished, before it is recycled.
+         *
+         * @param event The input event that was finished.
+         * @param receiveTimeNanos When the event was received, in the {@link System#nanoTime()}
+         * time base.
+         * @param finishTimeNanos When the event was finished, in the same time base.
+         */
+        public void onInputEventFinished(InputEvent event, long receiveTimeNanos,
+                long finishTimeNanos);
+    }
+
     public static interface Factory {
         public InputEventReceiver createInputEventReceiver(
                 InputChannel inputChannel, Looper looper);
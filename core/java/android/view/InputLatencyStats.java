@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.PrintWriter;
+
+/**
+ * Histograms of the time input events spend in each stage of the input path, from the time
+ * the event happened to the frame that showed its effect being committed.
+ * <p>
+ * All times are in the {@link System#nanoTime()} time base, which is the base of
+ * {@link InputEvent#getEventTimeNano()}.
+ *
+ * @hide
+ */
+public final class InputLatencyStats implements Parcelable {
+
+    /** From the time the event happened to the app receiving it. */
+    public static final int STAGE_DELIVERY = 0;
+    /** From the app receiving the event to the app finishing it. */
+    public static final int STAGE_HANDLING = 1;
+    /**
+     * From the app receiving the event to the next frame being committed. Recorded once per
+     * frame, for the oldest event the frame shows.
+     */
+    public static final int STAGE_FRAME = 2;
+    /**
+     * From the time the event happened to the next frame being committed. Recorded once per
+     * frame, for the oldest event the frame shows.
+     */
+    public static final int STAGE_TOTAL = 3;
+    private static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = { "delivery", "handling", "frame", "total" };
+
+    /**
+     * Number of events an app records before it reports them. Also the most any stage can
+     * hold in a report.
+     */
+    public static final int MAX_EVENTS_PER_REPORT = 256;
+
+    /** Upper bounds of the buckets, in milliseconds. The last bucket has no bound. */
+    private static final int[] BUCKET_LIMITS_MS = {
+            1, 2, 4, 8, 12, 16, 24, 32, 48, 64, 100, 150, 250, 500 };
+    private static final int BUCKET_COUNT = BUCKET_LIMITS_MS.length + 1;
+
+    private final long[] mBuckets = new long[STAGE_COUNT * BUCKET_COUNT];
+    private final long[] mTotalNanos = new long[STAGE_COUNT];
+    private final long[] mMaxNanos = new long[STAGE_COUNT];
+
+    public InputLatencyStats() {
+    }
+
+    private InputLatencyStats(Parcel in) {
+        in.readLongArray(mBuckets);
+        in.readLongArray(mTotalNanos);
+        in.readLongArray(mMaxNanos);
+    }
+
+    /**
+     * Records the time an event spent in a stage. Negative times, from clocks that don't
+     * agree, are recorded as zero.
+     */
+    public void record(int stage, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets[stage * BUCKET_COUNT + getBucket(nanos)]++;
+        mTotalNanos[stage] += nanos;
+        if (nanos > mMaxNanos[stage]) {
+            mMaxNanos[stage] = nanos;
+        }
+    }
+
+    /** Adds the times recorded in {@param other} to this one. */
+    public void add(InputLatencyStats other) {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] += other.mBuckets[i];
+        }
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mTotalNanos[stage] += other.mTotalNanos[stage];
+            mMaxNanos[stage] = Math.max(mMaxNanos[stage], other.mMaxNanos[stage]);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = 0;
+        }
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mTotalNanos[stage] = 0;
+            mMaxNanos[stage] = 0;
+        }
+    }
+
+    /** @return The number of times recorded for {@param stage}. */
+    public long getCount(int stage) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets[stage * BUCKET_COUNT + i];
+        }
+        return count;
+    }
+
+    /**
+     * @return The upper bound of the bucket the given percentile of the times recorded for
+     *         {@param stage} falls in, in milliseconds, the largest time recorded if it falls in
+     *         the last bucket, or 0 if nothing was recorded.
+     */
+    public long getPercentileMillis(int stage, int percentile) {
+        final long count = getCount(stage);
+        if (count == 0) {
+            return 0;
+        }
+        final long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+            seen += mBuckets[stage * BUCKET_COUNT + i];
+            if (seen >= target) {
+                return BUCKET_LIMITS_MS[i];
+            }
+        }
+        return mMaxNanos[stage] / 1000000;
+    }
+
+    /**
+     * @return Whether these stats could have been recorded by {@link #record} for at most
+     *         {@link #MAX_EVENTS_PER_REPORT} events: no negative counts or times, no stage
+     *         with more events, and totals and maxima that agree with the counts.
+     */
+    public boolean isPlausibleReport() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                final long bucket = mBuckets[stage * BUCKET_COUNT + i];
+                if (bucket < 0) {
+                    return false;
+                }
+                count += bucket;
+            }
+            final long total = mTotalNanos[stage];
+            final long max = mMaxNanos[stage];
+            if (count > MAX_EVENTS_PER_REPORT || total < 0 || max < 0 || max > total) {
+                return false;
+            }
+            if (count == 0 ? total != 0 : total / count > max) {
+                return false;
+            }
+            if (count > 0 && mBuckets[stage * BUCKET_COUNT + getBucket(max)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return Whether nothing was recorded. */
+    public boolean isEmpty() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            if (mBuckets[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getBucket(long nanos) {
+        final long millis = nanos / 1000000;
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+            if (millis < BUCKET_LIMITS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS_MS.length;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            final long count = getCount(stage);
+            pw.print(prefix); pw.print(STAGE_NAMES[stage]); pw.print(": count="); pw.print(count);
+            if (count == 0) {
+                pw.println();
+                continue;
+            }
+            pw.print(" avg="); pw.print(mTotalNanos[stage] / count / 1000); pw.print("us");
+            pw.print(" p50<="); pw.print(getPercentileMillis(stage, 50)); pw.print("ms");
+            pw.print(" p90<="); pw.print(getPercentileMillis(stage, 90)); pw.print("ms");
+            pw.print(" p99<="); pw.print(getPercentileMillis(stage, 99)); pw.print("ms");
+            pw.print(" max="); pw.print(mMaxNanos[stage] / 1000); pw.println("us");
+            pw.print(prefix); pw.print("  buckets(ms):");
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                pw.print(' ');
+                pw.print(i < BUCKET_LIMITS_MS.length ? "<" + BUCKET_LIMITS_MS[i] : "more");
+                pw.print('=');
+                pw.print(mBuckets[stage * BUCKET_COUNT + i]);
+            }
+            pw.println();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLongArray(mBuckets);
+        dest.writeLongArray(mTotalNanos);
+        dest.writeLongArray(mMaxNanos);
+    }
+
+    public static final Parcelable.Creator<InputLatencyStats> CREATOR =
+            new Parcelable.Creator<InputLatencyStats>() {
+        @Override
+        public InputLatencyStats createFromParcel(Parcel in) {
+            return new InputLatencyStats(in);
+        }
+
+        @Override
+        public InputLatencyStats[] newArray(int size) {
+            return new InputLatencyStats[size];
+        }
+    };
+}
@@ -151,6 +151,12 @@ public final class ViewRootImpl implements ViewParent,
      */
     private static final String PROPERTY_PROFILE_RENDERING = "viewroot.profile_rendering";
 
+    /**
+     * Set this system property to false to stop recording how long input events take to reach
+     * the screen and reporting it to the window manager, see {@link InputLatencyStats}.
+     */
+    private static final String PROPERTY_INPUT_LATENCY_STATS = "debug.input.latency_stats";
+
     // properties used by emulator to determine display shape
     public static final String PROPERTY_EMULATOR_WIN_OUTSET_BOTTOM_PX =
             "ro.emu.win_outset_bottom_px";
@@ -428,6 +434,15 @@ public final class ViewRootImpl implements ViewParent,
     private int mPointerIconType = PointerIcon.TYPE_NOT_SPECIFIED;
     private PointerIcon mCustomPointerIcon = null;
 
+    // Input latency not yet reported to the window manager.
+    private final boolean mInputLatencyStatsEnabled;
+    private final InputLatencyStats mInputLatencyStats = new InputLatencyStats();
+    private int mInputLatencyEventCount;
+    // Times of the oldest event finished since the last frame that should show its effect,
+    // or -1 if there is none.
+    private long mInputLatencyPendingEventTime = -1;
+    private long mInputLatencyPendingReceiveTime = -1;
+
     /**
      * see {@link #playSoundEffect(int)}
      */
@@ -510,6 +525,8 @@ public final class ViewRootImpl implements ViewParent,
         mFallbackEventHandler = new PhoneFallbackEventHandler(context);
         mChoreographer = Choreographer.getInstance();
         mDisplayManager = (DisplayManager)context.getSystemService(Context.DISPLAY_SERVICE);
+        mInputLatencyStatsEnabled =
+                SystemProperties.getBoolean(PROPERTY_INPUT_LATENCY_STATS, true);
 
         if (!sCompatibilityDone) {
             sAlwaysAssignFocus = true;
@@ -812,6 +829,9 @@ public final class ViewRootImpl implements ViewParent,
                     }
                     mInputEventReceiver = new WindowInputEventReceiver(mInputChannel,
                             Looper.myLooper());
+                    if (mInputLatencyStatsEnabled) {
+                        mInputEventReceiver.setLatencyListener(mInputLatencyRecorder);
+                    }
                 }
 
                 view.assignParent(this);
@@ -2809,6 +2829,16 @@ public final class ViewRootImpl implements ViewParent,
             Trace.traceEnd(Trace.TRACE_TAG_VIEW);
         }
 
+        if (mInputLatencyPendingReceiveTime >= 0) {
+            final long now = System.nanoTime();
+            mInputLatencyStats.record(InputLatencyStats.STAGE_FRAME,
+                    now - mInputLatencyPendingReceiveTime);
+            mInputLatencyStats.record(InputLatencyStats.STAGE_TOTAL,
+                    now - mInputLatencyPendingEventTime);
+            mInputLatencyPendingEventTime = -1;
+            mInputLatencyPendingReceiveTime = -1;
+        }
+
         // For whatever reason we didn't create a HardwareRenderer, end any
         // hardware animations that are now dangling
         if (mAttachInfo.mPendingAnimatingRenderNodes != null) {
@@ -3501,6 +3531,7 @@ public final class ViewRootImpl implements ViewParent,
             mInputEventReceiver.dispose();
             mInputEventReceiver = null;
         }
+        reportInputLatency();
         try {
             mWindowSession.remove(mWindow);
         } catch (RemoteException e) {
@@ -6781,6 +6812,48 @@ public final class ViewRootImpl implements ViewParent,
     }
     WindowInputEventReceiver mInputEventReceiver;
 
+    final class InputLatencyRecorder implements InputEventReceiver.LatencyListener {
+        @Override
+        public void onInputEventFinished(InputEvent event, long receiveTimeNanos,
+                long finishTimeNanos) {
+            // Batched motion events waited since their oldest sample.
+            long eventTime = event.getEventTimeNano();
+            if (event instanceof MotionEvent) {
+                MotionEvent me = (MotionEvent) event;
+                if (me.getHistorySize() > 0) {
+                    eventTime = me.getHistoricalEventTimeNano(0);
+                }
+            }
+            mInputLatencyStats.record(InputLatencyStats.STAGE_DELIVERY,
+                    receiveTimeNanos - eventTime);
+            mInputLatencyStats.record(InputLatencyStats.STAGE_HANDLING,
+                    finishTimeNanos - receiveTimeNanos);
+
+            // Anything the event invalidated is drawn by the traversal it scheduled.
+            if (mTraversalScheduled && mInputLatencyPendingReceiveTime < 0) {
+                mInputLatencyPendingEventTime = eventTime;
+                mInputLatencyPendingReceiveTime = receiveTimeNanos;
+            }
+
+            if (++mInputLatencyEventCount >= InputLatencyStats.MAX_EVENTS_PER_REPORT) {
+                reportInputLatency();
+            }
+        }
+    }
+    final InputLatencyRecorder mInputLatencyRecorder = new InputLatencyRecorder();
+
+    private void reportInputLatency() {
+        if (mInputLatencyStats.isEmpty()) {
+            return;
+        }
+        try {
+            mWindowSession.reportInputLatency(mWindow, mInputLatencyStats);
+        } catch (RemoteException e) {
+        }
+        mInputLatencyStats.reset();
+        mInputLatencyEventCount = 0;
+    }
+
     final class ConsumeBatchedInputRunnable implements Runnable {
         @Override
         public void run() {
@@ -76,6 +76,7 @@ import android.text.InputFilter;
 import android.text.InputType;
 import android.text.Layout;
 import android.text.ParcelableSpan;
+import android.text.PrecomputedText;
 import android.text.Selection;
 import android.text.SpanWatcher;
 import android.text.Spannable;
@@ -655,6 +656,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
     private int mHyphenationFrequency;
     private int mJustificationMode;
 
+    // Layout measured off the UI thread for the current text, see setPrecomputedText().
+    private PrecomputedText mPrecomputed;
+
     private int mMaximum = Integer.MAX_VALUE;
     private int mMaxMode = LINES;
     private int mMinimum = 0;
@@ -3901,6 +3905,42 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         return mJustificationMode;
     }
 
+    /**
+     * Returns the current parameters which affect text measurement and line breaking. The
+     * returned object can be passed to {@link PrecomputedText#create} on a background thread.
+     *
+     * @see #setPrecomputedText(PrecomputedText)
+     */
+    public @NonNull PrecomputedText.Params getTextMetricsParams() {
+        return new PrecomputedText.Params(mTextPaint, getTextDirectionHeuristic(),
+                getLayoutAlignment(), mSpacingMult, mSpacingAdd, mIncludePad, mBreakStrategy,
+                mHyphenationFrequency, mJustificationMode,
+                mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sets text whose measurement and line breaking has already been done, typically on a
+     * background thread, so that laying out this TextView does not have to measure it again.
+     * <p/>
+     * The precomputed layout is only used while the text metrics returned by
+     * {@link #getTextMetricsParams()} and the available width still match the ones the text was
+     * precomputed with, the text is neither transformed nor ellipsized, and the buffer type is
+     * {@link BufferType#NORMAL}. Otherwise the text is measured again as if it had been set with
+     * {@link #setText(CharSequence)}.
+     *
+     * @param text the precomputed text to be displayed
+     * @throws IllegalArgumentException if the text was precomputed with text metrics that
+     *         differ from this TextView's current ones
+     */
+    public void setPrecomputedText(@NonNull PrecomputedText text) {
+        if (!text.getParams().isSameTextMetrics(getTextMetricsParams())) {
+            throw new IllegalArgumentException(
+                    "PrecomputedText was computed with different text metrics");
+        }
+        mPrecomputed = text;
+        setText(text.getText());
+    }
+
     /**
      * Sets font feature settings. The format is the same as the CSS
      * font-feature-settings attribute:
@@ -5257,6 +5297,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
     private void setText(CharSequence text, BufferType type,
                          boolean notifyBefore, int oldlen) {
         mTextFromResource = false;
+        if (mPrecomputed != null && text != mPrecomputed.getText()) {
+            mPrecomputed = null;
+        }
         if (text == null) {
             text = "";
         }
@@ -7950,6 +7993,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             Layout.Alignment alignment, boolean shouldEllipsize, TruncateAt effectiveEllipsize,
             boolean useSaved) {
         Layout result = null;
+        if (canUsePrecomputedLayout(wantWidth, shouldEllipsize)) {
+            return mPrecomputed.getLayout(mTextPaint);
+        }
         if (mText instanceof Spannable) {
             result = new DynamicLayout(mText, mTransformed, mTextPaint, wantWidth,
                     alignment, mTextDir, mSpacingMult, mSpacingAdd, mIncludePad,
@@ -8015,6 +8061,19 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         return result;
     }
 
+    private boolean canUsePrecomputedLayout(int wantWidth, boolean shouldEllipsize) {
+        if (mPrecomputed == null) {
+            return false;
+        }
+        // Transformed, spannable or ellipsized text gets a layout that the precomputed
+        // StaticLayout cannot stand in for.
+        if (mTransformed != mText || mText instanceof Spannable || shouldEllipsize
+                || mPrecomputed.getWidth() != wantWidth) {
+            return false;
+        }
+        return mPrecomputed.getParams().isSameTextMetrics(getTextMetricsParams());
+    }
+
     private boolean compressText(float width) {
         if (isHardwareAccelerated()) return false;
 
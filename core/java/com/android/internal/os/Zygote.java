@@ -120,6 +120,58 @@ public final class Zygote {
           int[][] rlimits, int mountExternal, String seInfo, String niceName, int[] fdsToClose,
           int[] fdsToIgnore, String instructionSet, String appDataDir);
 
+    /**
+     * Forks a new VM instance that stays a zygote until {@link #specializeAppProcess} turns it
+     * into an app. The child is left without the runtime's daemon threads, so that it can
+     * still change its credentials once it is specialized.
+     *
+     * @param fdsToClose an array of ints, holding one or more POSIX
+     * file descriptor numbers that are to be closed by the child
+     * (and replaced by /dev/null) after forking.  An integer value
+     * of -1 in any entry in the array means "ignore this one".
+     * @param fdsToIgnore null-ok an array of ints, either null or holding
+     * one or more POSIX file descriptor numbers that are to be ignored
+     * in the file descriptor table check.
+     *
+     * @return 0 if this is the child, pid of the child
+     * if this is the parent, or -1 on error.
+     */
+    static int forkPoolProcess(int[] fdsToClose, int[] fdsToIgnore) {
+        VM_HOOKS.preFork();
+        // Resets nice priority for zygote process.
+        resetNicePriority();
+        int pid = nativeForkPoolProcess(fdsToClose, fdsToIgnore);
+        if (pid != 0) {
+            VM_HOOKS.postForkCommon();
+        }
+        return pid;
+    }
+
+    native private static int nativeForkPoolProcess(int[] fdsToClose, int[] fdsToIgnore);
+
+    /**
+     * Turns a process forked by {@link #forkPoolProcess} into an app, as
+     * {@link #forkAndSpecialize} does for the child it forks.
+     *
+     * @see #forkAndSpecialize
+     */
+    static void specializeAppProcess(int uid, int gid, int[] gids, int debugFlags,
+            int[][] rlimits, int mountExternal, String seInfo, String niceName,
+            String instructionSet, String appDataDir) {
+        nativeSpecializeAppProcess(uid, gid, gids, debugFlags, rlimits, mountExternal, seInfo,
+                niceName, instructionSet, appDataDir);
+        // Enable tracing as soon as possible for the child process.
+        Trace.setTracingEnabled(true, debugFlags);
+
+        // Note that this event ends once the app is about to run.
+        Trace.traceBegin(Trace.TRACE_TAG_ACTIVITY_MANAGER, "PostFork");
+        VM_HOOKS.postForkCommon();
+    }
+
+    native private static void nativeSpecializeAppProcess(int uid, int gid, int[] gids,
+            int debugFlags, int[][] rlimits, int mountExternal, String seInfo, String niceName,
+            String instructionSet, String appDataDir);
+
     /**
      * Called to do any initialization before starting an application.
      */
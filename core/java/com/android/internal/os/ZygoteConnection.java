@@ -192,8 +192,26 @@ class ZygoteConnection {
             }
         }
 
+        final ZygoteProcessPool processPool = zygoteServer.getProcessPool();
         if (parsedArgs.refreshFont) {
             Typeface.recreateDefaults();
+            if (processPool != null) {
+                // The processes of the pool were forked with the old fonts.
+                processPool.drain();
+            }
+        }
+
+        if (processPool != null && parsedArgs.usePool && parsedArgs.invokeWith == null
+                && descriptors == null) {
+            pid = processPool.handOff(parsedArgs, rlimits);
+            if (pid > 0) {
+                handleParentProc(pid, null, null);
+                return null;
+            }
+        }
+
+        if (processPool != null) {
+            fdsToIgnore = processPool.addFdsToIgnore(fdsToIgnore);
         }
 
         /**
@@ -235,6 +253,9 @@ class ZygoteConnection {
                 zygoteServer.setForkChild();
 
                 zygoteServer.closeServerSocket();
+                if (processPool != null) {
+                    processPool.closeInChild();
+                }
                 IoUtils.closeQuietly(serverPipeFd);
                 serverPipeFd = null;
 
@@ -334,6 +355,8 @@ class ZygoteConnection {
      *    are the settings for current and max value.</i>
      *   <li> --instruction-set=<i>instruction-set-string</i> which instruction set to use/emulate.
      *   <li> --nice-name=<i>nice name to appear in ps</i>
+     *   <li> --use-pool lets the zygote start the app in a process it forked
+     * ahead of time, if one is waiting.
      *   <li> --runtime-args indicates that the remaining arg list should
      * be handed off to com.android.internal.os.RuntimeInit, rather than
      * processed directly.
@@ -426,6 +449,12 @@ class ZygoteConnection {
          */
         boolean refreshFont;
 
+        /**
+         * From --use-pool. Whether the app may be started in a process of the
+         * {@link ZygoteProcessPool}, if one is waiting.
+         */
+        boolean usePool;
+
         /**
          * Constructs instance and parses args
          * @param args zygote command-line args
@@ -594,6 +623,8 @@ class ZygoteConnection {
                     preloadDefault = true;
                 } else if (arg.equals("--refresh-font")) {
                     refreshFont = true;
+                } else if (arg.equals("--use-pool")) {
+                    usePool = true;
                 } else {
                     break;
                 }
@@ -68,6 +68,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.Security;
 import java.security.Provider;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Startup class for the zygote process.
@@ -88,6 +90,13 @@ public class ZygoteInit {
     private static final String PROPERTY_GFX_DRIVER = "ro.gfx.driver.0";
     private static final String PROPERTY_RUNNING_IN_CONTAINER = "ro.boot.container";
 
+    /**
+     * Number of threads preloading is spread across. 0 or 1 preloads on the main thread only,
+     * -1 picks one thread per CPU, up to {@link #MAX_PRELOAD_THREADS}.
+     */
+    private static final String PROPERTY_PRELOAD_THREADS = "persist.zygote.preload_threads";
+    private static final int MAX_PRELOAD_THREADS = 4;
+
     private static final int LOG_BOOT_PROGRESS_PRELOAD_START = 3020;
     private static final int LOG_BOOT_PROGRESS_PRELOAD_END = 3030;
 
@@ -119,25 +128,53 @@ public class ZygoteInit {
 
     private static boolean sPreloadComplete;
 
+    /** Whether main() has told the runtime to refuse creating threads. */
+    private static boolean sNoThreadCreation;
+
     static void preload(TimingsTraceLog bootTimingsTraceLog) {
         Log.d(TAG, "begin preload");
+        final int preloadThreads = getPreloadThreadCount();
         bootTimingsTraceLog.traceBegin("BeginIcuCachePinning");
         beginIcuCachePinning();
         bootTimingsTraceLog.traceEnd(); // BeginIcuCachePinning
         bootTimingsTraceLog.traceBegin("PreloadClasses");
-        preloadClasses();
+        preloadClasses(bootTimingsTraceLog, preloadThreads);
         bootTimingsTraceLog.traceEnd(); // PreloadClasses
+        PreloadThread nativeThread = null;
+        if (preloadThreads > 1) {
+            // The HALs, the GL driver and the shared libraries are native code that shares no
+            // state with resource preloading, so load them while the resources are decoded.
+            nativeThread = new PreloadThread("PreloadNative", new Runnable() {
+                @Override
+                public void run() {
+                    nativePreloadAppProcessHALs();
+                    preloadOpenGL();
+                    preloadSharedLibraries();
+                }
+            });
+            startPreloadThreads(nativeThread);
+        }
         bootTimingsTraceLog.traceBegin("PreloadResources");
         preloadResources();
         bootTimingsTraceLog.traceEnd(); // PreloadResources
-        Trace.traceBegin(Trace.TRACE_TAG_DALVIK, "PreloadAppProcessHALs");
-        nativePreloadAppProcessHALs();
-        Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
-        Trace.traceBegin(Trace.TRACE_TAG_DALVIK, "PreloadOpenGL");
-        preloadOpenGL();
-        Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
-        preloadSharedLibraries();
+        if (nativeThread != null) {
+            joinPreloadThreads(nativeThread);
+            bootTimingsTraceLog.logDuration(nativeThread.getName(),
+                    nativeThread.getDurationMillis());
+        } else {
+            bootTimingsTraceLog.traceBegin("PreloadAppProcessHALs");
+            nativePreloadAppProcessHALs();
+            bootTimingsTraceLog.traceEnd(); // PreloadAppProcessHALs
+            bootTimingsTraceLog.traceBegin("PreloadOpenGL");
+            preloadOpenGL();
+            bootTimingsTraceLog.traceEnd(); // PreloadOpenGL
+            bootTimingsTraceLog.traceBegin("PreloadSharedLibraries");
+            preloadSharedLibraries();
+            bootTimingsTraceLog.traceEnd(); // PreloadSharedLibraries
+        }
+        bootTimingsTraceLog.traceBegin("PreloadTextResources");
         preloadTextResources();
+        bootTimingsTraceLog.traceEnd(); // PreloadTextResources
         // Ask the WebViewFactory to do any initialization that must run in the zygote process,
         // for memory sharing purposes.
         WebViewFactory.prepareWebViewInZygote();
@@ -148,6 +185,97 @@ public class ZygoteInit {
         sPreloadComplete = true;
     }
 
+    private static int getPreloadThreadCount() {
+        final int threads = SystemProperties.getInt(PROPERTY_PRELOAD_THREADS, 0);
+        if (threads < 0) {
+            return Math.min(Runtime.getRuntime().availableProcessors(), MAX_PRELOAD_THREADS);
+        }
+        return Math.min(threads, MAX_PRELOAD_THREADS);
+    }
+
+    /**
+     * Starts the given threads, lifting the zygote's ban on thread creation until they are
+     * joined with {@link #joinPreloadThreads}. The zygote has to be single threaded again
+     * before it forks.
+     */
+    private static void startPreloadThreads(PreloadThread... threads) {
+        if (sNoThreadCreation) {
+            ZygoteHooks.stopZygoteNoThreadCreation();
+        }
+        for (PreloadThread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits for threads started with {@link #startPreloadThreads} and rethrows what they
+     * failed with.
+     */
+    private static void joinPreloadThreads(PreloadThread... threads) {
+        Throwable failure = null;
+        for (PreloadThread thread : threads) {
+            boolean joined = false;
+            while (!joined) {
+                try {
+                    thread.join();
+                    joined = true;
+                } catch (InterruptedException e) {
+                    // Nothing interrupts the zygote; keep waiting.
+                }
+            }
+            if (failure == null) {
+                failure = thread.getFailure();
+            }
+        }
+        if (sNoThreadCreation) {
+            ZygoteHooks.startZygoteNoThreadCreation();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * A thread that runs part of the preloading and remembers how long it took and what it
+     * failed with, so the main thread can report both once it joins it.
+     */
+    private static final class PreloadThread extends Thread {
+        private final Runnable mTask;
+        private long mDurationMillis;
+        private Throwable mFailure;
+
+        PreloadThread(String name, Runnable task) {
+            super(name);
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            Trace.traceBegin(Trace.TRACE_TAG_DALVIK, getName());
+            final long startTime = SystemClock.elapsedRealtime();
+            try {
+                mTask.run();
+            } catch (Throwable t) {
+                mFailure = t;
+            } finally {
+                mDurationMillis = SystemClock.elapsedRealtime() - startTime;
+                Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
+            }
+        }
+
+        long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        Throwable getFailure() {
+            return mFailure;
+        }
+    }
+
     public static void lazyPreload() {
         Preconditions.checkState(!sPreloadComplete);
         Log.i(TAG, "Lazily preloading resources.");
@@ -235,8 +363,13 @@ public class ZygoteInit {
      *
      * Most classes only cause a few hundred bytes to be allocated, but
      * a few will allocate a dozen Kbytes (in one case, 500+K).
+     *
+     * With more than one thread, the classes are first loaded on all of them and then
+     * initialized in list order on this thread. Loading is what most of the time goes to, and
+     * unlike running static initializers it can't deadlock when done concurrently, since the
+     * initializers of framework classes depend on each other in cycles.
      */
-    private static void preloadClasses() {
+    private static void preloadClasses(TimingsTraceLog bootTimingsTraceLog, int threads) {
         final VMRuntime runtime = VMRuntime.getRuntime();
 
         InputStream is;
@@ -278,7 +411,7 @@ public class ZygoteInit {
             BufferedReader br
                 = new BufferedReader(new InputStreamReader(is), 256);
 
-            int count = 0;
+            final ArrayList<String> classes = new ArrayList<>();
             String line;
             while ((line = br.readLine()) != null) {
                 // Skip comments and blank lines.
@@ -286,7 +419,19 @@ public class ZygoteInit {
                 if (line.startsWith("#") || line.equals("")) {
                     continue;
                 }
+                classes.add(line);
+            }
+
+            if (threads > 1) {
+                bootTimingsTraceLog.traceBegin("PreloadClassesLoad");
+                loadClassesInParallel(classes, threads);
+                bootTimingsTraceLog.traceEnd(); // PreloadClassesLoad
+            }
 
+            bootTimingsTraceLog.traceBegin("PreloadClassesInit");
+            int count = 0;
+            for (int i = 0; i < classes.size(); i++) {
+                line = classes.get(i);
                 Trace.traceBegin(Trace.TRACE_TAG_DALVIK, line);
                 try {
                     if (false) {
@@ -315,6 +460,7 @@ public class ZygoteInit {
                 }
                 Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
             }
+            bootTimingsTraceLog.traceEnd(); // PreloadClassesInit
 
             Log.i(TAG, "...preloaded " + count + " classes in "
                     + (SystemClock.uptimeMillis()-startTime) + "ms.");
@@ -342,6 +488,38 @@ public class ZygoteInit {
         }
     }
 
+    /**
+     * Loads, without initializing, the given classes on the given number of threads,
+     * including this one. Classes that fail to load are reported when they are initialized.
+     */
+    private static void loadClassesInParallel(final ArrayList<String> classes, int threads) {
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable loader = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < classes.size()) {
+                    try {
+                        Class.forName(classes.get(i), false, null);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        // Reported by the initialization pass.
+                    }
+                }
+            }
+        };
+
+        final PreloadThread[] workers = new PreloadThread[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new PreloadThread("PreloadClasses-" + (i + 1), loader);
+        }
+        startPreloadThreads(workers);
+        try {
+            loader.run();
+        } finally {
+            joinPreloadThreads(workers);
+        }
+    }
+
     /**
      * Load in commonly used resources, so they can be shared across
      * processes.
@@ -701,6 +879,7 @@ public class ZygoteInit {
         // Mark zygote start. This ensures that thread creation will throw
         // an error.
         ZygoteHooks.startZygoteNoThreadCreation();
+        sNoThreadCreation = true;
 
         // Zygote goes into its own process group.
         try {
@@ -777,6 +956,7 @@ public class ZygoteInit {
             Seccomp.setPolicy();
 
             ZygoteHooks.stopZygoteNoThreadCreation();
+            sNoThreadCreation = false;
 
             if (startSystemServer) {
                 Runnable r = forkSystemServer(abiList, socketName, zygoteServer);
@@ -789,6 +969,8 @@ public class ZygoteInit {
                 }
             }
 
+            zygoteServer.setProcessPool(new ZygoteProcessPool());
+
             Log.i(TAG, "Accepting command socket connections");
 
             // The select loop returns early in the child process after a fork and
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import static android.system.OsConstants.POLLERR;
+import static android.system.OsConstants.POLLHUP;
+
+import android.app.ActivityManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.Trace;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructPollfd;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import libcore.io.IoUtils;
+
+/**
+ * A pool of processes the zygote forks ahead of time, so that starting an app does not have
+ * to wait for a fork. Each process in the pool waits on a pipe for the arguments of the app
+ * it becomes, and the zygote replies to the start request with its pid as soon as it has
+ * written them.
+ *
+ * The pool is refilled from the select loop of the zygote a while after it was used, so that
+ * the forks don't compete with the app that was just started. Its size is read from
+ * {@link #PROP_POOL_SIZE}: 0 disables the pool, and -1 sizes it by the memory class of the
+ * device.
+ *
+ * Please see {@link ZygoteConnection.Arguments} for the requests that may use the pool.
+ */
+class ZygoteProcessPool {
+    private static final String TAG = "ZygoteProcessPool";
+
+    static final String PROP_POOL_SIZE = "persist.zygote.pool_size";
+
+    private static final int MAX_POOL_SIZE = 5;
+
+    /** How long after the pool was used it is refilled. */
+    private static final long REFILL_DELAY_MILLIS = 500;
+
+    /** Name of the processes in the pool, until they are specialized. */
+    private static final String POOL_PROCESS_NAME = "zygote-pool";
+
+    private static final class Entry {
+        final int pid;
+        final FileDescriptor commandFd;
+
+        Entry(int pid, FileDescriptor commandFd) {
+            this.pid = pid;
+            this.commandFd = commandFd;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private int mTargetSize;
+    /** Uptime at which the pool is to be refilled, or 0 if it isn't. */
+    private long mRefillTime;
+
+    ZygoteProcessPool() {
+        scheduleRefill();
+    }
+
+    /**
+     * Rereads the size of the pool and, if it is short of processes, schedules it to be
+     * refilled. Called after each request the zygote handled.
+     */
+    void scheduleRefill() {
+        updateTargetSize();
+        while (mEntries.size() > mTargetSize) {
+            IoUtils.closeQuietly(mEntries.remove(mEntries.size() - 1).commandFd);
+        }
+        if (mEntries.size() < mTargetSize && mRefillTime == 0) {
+            mRefillTime = SystemClock.uptimeMillis() + REFILL_DELAY_MILLIS;
+        }
+    }
+
+    private void updateTargetSize() {
+        int size = SystemProperties.getInt(PROP_POOL_SIZE, 0);
+        if (size < 0) {
+            size = getDefaultSize();
+        }
+        mTargetSize = Math.min(size, MAX_POOL_SIZE);
+    }
+
+    private static int getDefaultSize() {
+        if (ActivityManager.isLowRamDeviceStatic()) {
+            return 0;
+        }
+        final int memoryClass = ActivityManager.staticGetMemoryClass();
+        if (memoryClass >= 256) {
+            return 3;
+        } else if (memoryClass >= 192) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * @return How long the select loop may wait for a request before it has to refill the
+     *         pool, or -1 if the pool doesn't need refilling.
+     */
+    int getPollTimeoutMillis() {
+        if (mRefillTime == 0) {
+            return -1;
+        }
+        return (int) Math.max(mRefillTime - SystemClock.uptimeMillis(), 0);
+    }
+
+    /**
+     * Forks processes until the pool is full, if it is due to be refilled.
+     *
+     * @return In a process of the pool, the command that runs the app it became. null in the
+     *         zygote.
+     */
+    Runnable refillIfDue(ZygoteServer zygoteServer, ArrayList<ZygoteConnection> peers) {
+        if (mRefillTime == 0 || SystemClock.uptimeMillis() < mRefillTime) {
+            return null;
+        }
+        mRefillTime = 0;
+        if (!ZygoteInit.isPreloadComplete()) {
+            // Processes forked before preloading would load classes and resources themselves.
+            return null;
+        }
+        pruneDeadEntries();
+
+        while (mEntries.size() < mTargetSize) {
+            final FileDescriptor[] pipeFds;
+            try {
+                pipeFds = Os.pipe();
+            } catch (ErrnoException ex) {
+                Log.e(TAG, "Unable to create a pipe for the pool", ex);
+                return null;
+            }
+
+            final int[] fdsToClose = {
+                    zygoteServer.getServerSocketFileDescriptor().getInt$() };
+            final int[] fdsToIgnore = addFdsToIgnore(
+                    new int[] { pipeFds[0].getInt$(), pipeFds[1].getInt$() });
+            final int pid = Zygote.forkPoolProcess(fdsToClose, fdsToIgnore);
+            if (pid == 0) {
+                // In the child.
+                zygoteServer.setForkChild();
+                zygoteServer.closeServerSocket();
+                for (ZygoteConnection peer : peers) {
+                    if (peer != null) {
+                        peer.closeSocket();
+                    }
+                }
+                IoUtils.closeQuietly(pipeFds[1]);
+                closeInChild();
+                return waitForCommand(pipeFds[0]);
+            }
+
+            IoUtils.closeQuietly(pipeFds[0]);
+            if (pid < 0) {
+                Log.e(TAG, "Unable to fork a process for the pool");
+                IoUtils.closeQuietly(pipeFds[1]);
+                return null;
+            }
+            mEntries.add(new Entry(pid, pipeFds[1]));
+        }
+        return null;
+    }
+
+    /**
+     * Drops the processes of the pool that are gone, which closed their end of the pipe.
+     */
+    private void pruneDeadEntries() {
+        if (mEntries.isEmpty()) {
+            return;
+        }
+        final StructPollfd[] pollFds = new StructPollfd[mEntries.size()];
+        for (int i = 0; i < pollFds.length; i++) {
+            pollFds[i] = new StructPollfd();
+            pollFds[i].fd = mEntries.get(i).commandFd;
+        }
+        try {
+            Os.poll(pollFds, 0);
+        } catch (ErrnoException ex) {
+            Log.w(TAG, "Unable to poll the pool", ex);
+            return;
+        }
+        for (int i = pollFds.length - 1; i >= 0; i--) {
+            if ((pollFds[i].revents & (POLLERR | POLLHUP)) != 0) {
+                final Entry entry = mEntries.remove(i);
+                Log.w(TAG, "Process " + entry.pid + " of the pool is gone");
+                IoUtils.closeQuietly(entry.commandFd);
+            }
+        }
+    }
+
+    /**
+     * Turns a process of the pool into the app described by {@code parsedArgs}.
+     *
+     * @return The pid of the process, or -1 if the pool is empty.
+     */
+    int handOff(ZygoteConnection.Arguments parsedArgs, int[][] rlimits) {
+        pruneDeadEntries();
+
+        final byte[] command;
+        try {
+            command = writeCommand(parsedArgs, rlimits);
+        } catch (IOException ex) {
+            Log.e(TAG, "Unable to write the arguments for the pool", ex);
+            return -1;
+        }
+
+        int pid = -1;
+        while (pid < 0 && !mEntries.isEmpty()) {
+            final Entry entry = mEntries.remove(mEntries.size() - 1);
+            try {
+                int offset = 0;
+                while (offset < command.length) {
+                    offset += Os.write(entry.commandFd, command, offset, command.length - offset);
+                }
+                pid = entry.pid;
+            } catch (ErrnoException | InterruptedIOException ex) {
+                Log.w(TAG, "Unable to hand off to process " + entry.pid + " of the pool", ex);
+            } finally {
+                // The process has read its arguments, or will, before it sees the pipe closed.
+                IoUtils.closeQuietly(entry.commandFd);
+            }
+        }
+        scheduleRefill();
+        return pid;
+    }
+
+    /**
+     * Closes the pool in the zygote, letting its processes exit.
+     */
+    void drain() {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            IoUtils.closeQuietly(mEntries.get(i).commandFd);
+        }
+        mEntries.clear();
+        scheduleRefill();
+    }
+
+    /**
+     * Adds the descriptors of the pool to the ones the file descriptor table check has to
+     * ignore when the zygote forks.
+     */
+    int[] addFdsToIgnore(int[] fdsToIgnore) {
+        final int count = fdsToIgnore != null ? fdsToIgnore.length : 0;
+        if (mEntries.isEmpty()) {
+            return fdsToIgnore;
+        }
+        final int[] fds = new int[count + mEntries.size()];
+        if (count > 0) {
+            System.arraycopy(fdsToIgnore, 0, fds, 0, count);
+        }
+        for (int i = 0; i < mEntries.size(); i++) {
+            fds[count + i] = mEntries.get(i).commandFd.getInt$();
+        }
+        return fds;
+    }
+
+    /**
+     * Closes the descriptors of the pool in a process the zygote forked, so that only the
+     * zygote keeps the processes of the pool waiting.
+     */
+    void closeInChild() {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            IoUtils.closeQuietly(mEntries.get(i).commandFd);
+        }
+        mEntries.clear();
+    }
+
+    private static byte[] writeCommand(ZygoteConnection.Arguments args, int[][] rlimits)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(args.uid);
+        out.writeInt(args.gid);
+        writeIntArray(out, args.gids);
+        out.writeInt(args.debugFlags);
+        if (rlimits == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(rlimits.length);
+            for (int[] rlimit : rlimits) {
+                writeIntArray(out, rlimit);
+            }
+        }
+        out.writeInt(args.mountExternal);
+        writeString(out, args.seInfo);
+        writeString(out, args.niceName);
+        writeString(out, args.instructionSet);
+        writeString(out, args.appDataDir);
+        out.writeInt(args.targetSdkVersion);
+        out.writeInt(args.remainingArgs.length);
+        for (String arg : args.remainingArgs) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Waits in a process of the pool for the app it is to become and specializes into it.
+     *
+     * @return The command that runs the app.
+     */
+    private static Runnable waitForCommand(FileDescriptor commandFd) {
+        Process.setArgV0(POOL_PROCESS_NAME);
+
+        final int uid;
+        final int gid;
+        final int[] gids;
+        final int debugFlags;
+        final int[][] rlimits;
+        final int mountExternal;
+        final String seInfo;
+        final String niceName;
+        final String instructionSet;
+        final String appDataDir;
+        final int targetSdkVersion;
+        final String[] remainingArgs;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(commandFd))) {
+            uid = in.readInt();
+            gid = in.readInt();
+            gids = readIntArray(in);
+            debugFlags = in.readInt();
+            final int rlimitCount = in.readInt();
+            if (rlimitCount > ZygoteConnectionConstants.MAX_ZYGOTE_ARGC) {
+                throw new IOException("Too many rlimits: " + rlimitCount);
+            }
+            if (rlimitCount < 0) {
+                rlimits = null;
+            } else {
+                rlimits = new int[rlimitCount][];
+                for (int i = 0; i < rlimitCount; i++) {
+                    rlimits[i] = readIntArray(in);
+                }
+            }
+            mountExternal = in.readInt();
+            seInfo = readString(in);
+            niceName = readString(in);
+            instructionSet = readString(in);
+            appDataDir = readString(in);
+            targetSdkVersion = in.readInt();
+            final int argCount = in.readInt();
+            if (argCount < 0 || argCount > ZygoteConnectionConstants.MAX_ZYGOTE_ARGC) {
+                throw new IOException("Bad argument count: " + argCount);
+            }
+            remainingArgs = new String[argCount];
+            for (int i = 0; i < argCount; i++) {
+                remainingArgs[i] = in.readUTF();
+            }
+        } catch (IOException ex) {
+            // The zygote closed the pool, or went away.
+            System.exit(0);
+            throw new IllegalStateException("System.exit unexpectedly returned", ex);
+        }
+
+        Zygote.specializeAppProcess(uid, gid, gids, debugFlags, rlimits, mountExternal, seInfo,
+                niceName, instructionSet, appDataDir);
+        if (niceName != null) {
+            Process.setArgV0(niceName);
+        }
+
+        // End of the postFork event.
+        Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
+        return ZygoteInit.zygoteInit(targetSdkVersion, remainingArgs, null /* classLoader */);
+    }
+
+    private static void writeIntArray(DataOutputStream out, int[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int value : array) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readIntArray(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > ZygoteConnectionConstants.MAX_ZYGOTE_ARGC) {
+            throw new IOException("Array too long: " + length);
+        }
+        final int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -51,6 +51,9 @@ class ZygoteServer {
      */
     private boolean mIsForkChild;
 
+    /** Processes forked ahead of time for apps to start in, or null. */
+    private ZygoteProcessPool mProcessPool;
+
     ZygoteServer() {
     }
 
@@ -58,6 +61,14 @@ class ZygoteServer {
         mIsForkChild = true;
     }
 
+    void setProcessPool(ZygoteProcessPool processPool) {
+        mProcessPool = processPool;
+    }
+
+    ZygoteProcessPool getProcessPool() {
+        return mProcessPool;
+    }
+
     /**
      * Registers a server socket for zygote command connections
      *
@@ -154,11 +165,22 @@ class ZygoteServer {
                 pollFds[i].fd = fds.get(i);
                 pollFds[i].events = (short) POLLIN;
             }
+            final int timeoutMillis =
+                    mProcessPool != null ? mProcessPool.getPollTimeoutMillis() : -1;
+            final int readyCount;
             try {
-                Os.poll(pollFds, -1);
+                readyCount = Os.poll(pollFds, timeoutMillis);
             } catch (ErrnoException ex) {
                 throw new RuntimeException("poll failed", ex);
             }
+            if (readyCount == 0) {
+                // Nothing to do but to refill the pool.
+                final Runnable command = mProcessPool.refillIfDue(this, peers);
+                if (mIsForkChild) {
+                    return command;
+                }
+                continue;
+            }
             for (int i = pollFds.length - 1; i >= 0; --i) {
                 if ((pollFds[i].revents & POLLIN) == 0) {
                     continue;
@@ -187,6 +209,10 @@ class ZygoteServer {
                                 throw new IllegalStateException("command != null");
                             }
 
+                            if (mProcessPool != null) {
+                                mProcessPool.scheduleRefill();
+                            }
+
                             // We don't know whether the remote side of the socket was closed or
                             // not until we attempt to read from it from processOneCommand. This shows up as
                             // a regular POLLIN event in our regular processing loop.
@@ -769,6 +769,113 @@ static jlong nativeExecuteForCursorWindow(JNIEnv* env, jclass clazz,
     return result;
 }
 
+// Result flags of nativeExecuteForStreamingCursorWindow, above the 32 bits of the row count.
+static const jlong STREAMING_RESULT_PENDING_ROW = 1LL << 32;
+static const jlong STREAMING_RESULT_DONE = 1LL << 33;
+
+// Fills the window with the rows that follow the current position of the statement, without
+// resetting it unless the result set ends, so that the next call carries on from where this
+// one stopped. If hasPendingRow is true, the statement is positioned on a row that did not fit
+// into the previous window. The first skipRows rows are stepped over.
+static jlong nativeExecuteForStreamingCursorWindow(JNIEnv* env, jclass clazz,
+        jlong connectionPtr, jlong statementPtr, jlong windowPtr,
+        jboolean hasPendingRow, jint skipRows) {
+    SQLiteConnection* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    sqlite3_stmt* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+
+    status_t status = window->clear();
+    if (status) {
+        String8 msg;
+        msg.appendFormat("Failed to clear the cursor window, status=%d", status);
+        throw_sqlite3_exception(env, connection->db, msg.string());
+        return 0;
+    }
+
+    int numColumns = sqlite3_column_count(statement);
+    status = window->setNumColumns(numColumns);
+    if (status) {
+        String8 msg;
+        msg.appendFormat("Failed to set the cursor window column count to %d, status=%d",
+                numColumns, status);
+        throw_sqlite3_exception(env, connection->db, msg.string());
+        return 0;
+    }
+
+    int retryCount = 0;
+    int consumedRows = 0;
+    int addedRows = 0;
+    bool haveRow = hasPendingRow;
+    bool pendingRow = false;
+    bool done = false;
+    bool gotException = false;
+    while (!gotException) {
+        if (!haveRow) {
+            int err = sqlite3_step(statement);
+            if (err == SQLITE_ROW) {
+                retryCount = 0;
+            } else if (err == SQLITE_DONE) {
+                LOG_WINDOW("Processed all rows");
+                done = true;
+                break;
+            } else if (err == SQLITE_LOCKED || err == SQLITE_BUSY) {
+                LOG_WINDOW("Database locked, retrying");
+                if (retryCount > 50) {
+                    ALOGE("Bailing on database busy retry");
+                    throw_sqlite3_exception(env, connection->db, "retrycount exceeded");
+                    gotException = true;
+                } else {
+                    usleep(1000);
+                    retryCount++;
+                }
+                continue;
+            } else {
+                throw_sqlite3_exception(env, connection->db);
+                gotException = true;
+                break;
+            }
+        }
+        haveRow = false;
+
+        if (skipRows > 0) {
+            skipRows -= 1;
+            consumedRows += 1;
+            continue;
+        }
+
+        CopyRowResult cpr = copyRow(env, window, statement, numColumns, consumedRows, addedRows);
+        if (cpr == CPR_OK) {
+            addedRows += 1;
+            consumedRows += 1;
+        } else if (cpr == CPR_FULL && addedRows) {
+            // Leave the statement on this row for the next window.
+            pendingRow = true;
+            break;
+        } else if (cpr == CPR_FULL) {
+            throw_sqlite3_exception_errcode(env, SQLITE_TOOBIG,
+                    "Row too big to fit into CursorWindow");
+            gotException = true;
+        } else {
+            gotException = true;
+        }
+    }
+
+    LOG_WINDOW("Streamed %d rows from statement %p, adding %d rows to the window in %d bytes",
+            consumedRows, statement, addedRows, window->size() - window->freeSpace());
+    if (done || gotException) {
+        sqlite3_reset(statement);
+    }
+
+    jlong result = jlong(consumedRows);
+    if (pendingRow) {
+        result |= STREAMING_RESULT_PENDING_ROW;
+    }
+    if (done) {
+        result |= STREAMING_RESULT_DONE;
+    }
+    return result;
+}
+
 static jint nativeGetDbLookaside(JNIEnv* env, jobject clazz, jlong connectionPtr) {
     SQLiteConnection* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
 
@@ -846,6 +953,8 @@ static const JNINativeMethod sMethods[] =
             (void*)nativeExecuteForLastInsertedRowId },
     { "nativeExecuteForCursorWindow", "(JJJIIZ)J",
             (void*)nativeExecuteForCursorWindow },
+    { "nativeExecuteForStreamingCursorWindow", "(JJJZI)J",
+            (void*)nativeExecuteForStreamingCursorWindow },
     { "nativeGetDbLookaside", "(J)I",
             (void*)nativeGetDbLookaside },
     { "nativeCancel", "(J)V",
@@ -483,15 +483,9 @@ static void FillFileDescriptorVector(JNIEnv* env,
   }
 }
 
-// Utility routine to fork zygote and specialize the child process.
-static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
-                                     jint debug_flags, jobjectArray javaRlimits,
-                                     jlong permittedCapabilities, jlong effectiveCapabilities,
-                                     jint mount_external,
-                                     jstring java_se_info, jstring java_se_name,
-                                     bool is_system_server, jintArray fdsToClose,
-                                     jintArray fdsToIgnore,
-                                     jstring instructionSet, jstring dataDir) {
+// Utility routine to fork zygote. The child is left running as the zygote until it is
+// specialized with SpecializeCommon.
+static pid_t ForkCommon(JNIEnv* env, jintArray fdsToClose, jintArray fdsToIgnore) {
   SetSigChldHandler();
 
   sigset_t sigchld;
@@ -544,7 +538,26 @@ static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArra
       ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
       RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
     }
+  } else if (pid > 0) {
+    // the parent process
+
+    // We blocked SIGCHLD prior to a fork, we unblock it here.
+    if (sigprocmask(SIG_UNBLOCK, &sigchld, nullptr) == -1) {
+      ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
+      RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
+    }
+  }
+  return pid;
+}
 
+// Utility routine to turn a child of the zygote into the process it was forked for.
+static void SpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
+                             jint debug_flags, jobjectArray javaRlimits,
+                             jlong permittedCapabilities, jlong effectiveCapabilities,
+                             jint mount_external,
+                             jstring java_se_info, jstring java_se_name,
+                             bool is_system_server,
+                             jstring instructionSet, jstring dataDir) {
     // Keep capabilities across UID change, unless we're staying root.
     if (uid != 0) {
       EnableKeepCapabilities(env);
@@ -587,7 +600,7 @@ static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArra
             if (rc == -EROFS) {
                 ALOGW("createProcessGroup failed, kernel missing CONFIG_CGROUP_CPUACCT?");
             } else {
-                ALOGE("createProcessGroup(%d, %d) failed: %s", uid, pid, strerror(-rc));
+                ALOGE("createProcessGroup(%d, %d) failed: %s", uid, getpid(), strerror(-rc));
             }
         }
     }
@@ -671,32 +684,28 @@ static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArra
     if (env->ExceptionCheck()) {
       RuntimeAbort(env, __LINE__, "Error calling post fork hooks.");
     }
-  } else if (pid > 0) {
-    // the parent process
+}
 
-    // We blocked SIGCHLD prior to a fork, we unblock it here.
-    if (sigprocmask(SIG_UNBLOCK, &sigchld, nullptr) == -1) {
-      ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
-      RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
-    }
+// Utility routine to fork zygote and specialize the child process.
+static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
+                                     jint debug_flags, jobjectArray javaRlimits,
+                                     jlong permittedCapabilities, jlong effectiveCapabilities,
+                                     jint mount_external,
+                                     jstring java_se_info, jstring java_se_name,
+                                     bool is_system_server, jintArray fdsToClose,
+                                     jintArray fdsToIgnore,
+                                     jstring instructionSet, jstring dataDir) {
+  pid_t pid = ForkCommon(env, fdsToClose, fdsToIgnore);
+  if (pid == 0) {
+    SpecializeCommon(env, uid, gid, javaGids, debug_flags, javaRlimits,
+                     permittedCapabilities, effectiveCapabilities, mount_external,
+                     java_se_info, java_se_name, is_system_server, instructionSet, dataDir);
   }
   return pid;
 }
-}  // anonymous namespace
-
-namespace android {
-
-static void com_android_internal_os_Zygote_nativePreApplicationInit(JNIEnv*, jclass) {
-  PreApplicationInit();
-}
 
-static jint com_android_internal_os_Zygote_nativeForkAndSpecialize(
-        JNIEnv* env, jclass, jint uid, jint gid, jintArray gids,
-        jint debug_flags, jobjectArray rlimits,
-        jint mount_external, jstring se_info, jstring se_name,
-        jintArray fdsToClose,
-        jintArray fdsToIgnore,
-        jstring instructionSet, jstring appDataDir) {
+// Returns the capabilities an app process with the given ids is granted.
+static jlong CalculateCapabilities(JNIEnv* env, jint uid, jint gid, jintArray gids) {
     jlong capabilities = 0;
 
     // Grant CAP_WAKE_ALARM to the Bluetooth process.
@@ -732,11 +741,44 @@ static jint com_android_internal_os_Zygote_nativeForkAndSpecialize(
       capabilities |= (1LL << CAP_BLOCK_SUSPEND);
     }
 
+    return capabilities;
+}
+}  // anonymous namespace
+
+namespace android {
+
+static void com_android_internal_os_Zygote_nativePreApplicationInit(JNIEnv*, jclass) {
+  PreApplicationInit();
+}
+
+static jint com_android_internal_os_Zygote_nativeForkAndSpecialize(
+        JNIEnv* env, jclass, jint uid, jint gid, jintArray gids,
+        jint debug_flags, jobjectArray rlimits,
+        jint mount_external, jstring se_info, jstring se_name,
+        jintArray fdsToClose,
+        jintArray fdsToIgnore,
+        jstring instructionSet, jstring appDataDir) {
+    jlong capabilities = CalculateCapabilities(env, uid, gid, gids);
     return ForkAndSpecializeCommon(env, uid, gid, gids, debug_flags,
             rlimits, capabilities, capabilities, mount_external, se_info,
             se_name, false, fdsToClose, fdsToIgnore, instructionSet, appDataDir);
 }
 
+static jint com_android_internal_os_Zygote_nativeForkPoolProcess(
+        JNIEnv* env, jclass, jintArray fdsToClose, jintArray fdsToIgnore) {
+    return ForkCommon(env, fdsToClose, fdsToIgnore);
+}
+
+static void com_android_internal_os_Zygote_nativeSpecializeAppProcess(
+        JNIEnv* env, jclass, jint uid, jint gid, jintArray gids,
+        jint debug_flags, jobjectArray rlimits,
+        jint mount_external, jstring se_info, jstring se_name,
+        jstring instructionSet, jstring appDataDir) {
+    jlong capabilities = CalculateCapabilities(env, uid, gid, gids);
+    SpecializeCommon(env, uid, gid, gids, debug_flags, rlimits, capabilities, capabilities,
+            mount_external, se_info, se_name, false, instructionSet, appDataDir);
+}
+
 static jint com_android_internal_os_Zygote_nativeForkSystemServer(
         JNIEnv* env, jclass, uid_t uid, gid_t gid, jintArray gids,
         jint debug_flags, jobjectArray rlimits, jlong permittedCapabilities,
@@ -819,6 +861,11 @@ static const JNINativeMethod gMethods[] = {
     { "nativeForkAndSpecialize",
       "(II[II[[IILjava/lang/String;Ljava/lang/String;[I[ILjava/lang/String;Ljava/lang/String;)I",
       (void *) com_android_internal_os_Zygote_nativeForkAndSpecialize },
+    { "nativeForkPoolProcess", "([I[I)I",
+      (void *) com_android_internal_os_Zygote_nativeForkPoolProcess },
+    { "nativeSpecializeAppProcess",
+      "(II[II[[IILjava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V",
+      (void *) com_android_internal_os_Zygote_nativeSpecializeAppProcess },
     { "nativeForkSystemServer", "(II[II[[IJJ)I",
       (void *) com_android_internal_os_Zygote_nativeForkSystemServer },
     { "nativeAllowFileAcrossFork", "(Ljava/lang/String;)V",
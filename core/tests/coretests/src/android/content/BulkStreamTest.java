@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Run with: bit FrameworksCoreTests:android.content.BulkStreamTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BulkStreamTest {
+    private static final int ROW_COUNT = 20000;
+
+    private static ContentValues row(int i) {
+        final ContentValues values = new ContentValues();
+        values.put("_id", i);
+        values.put("name", "row " + i);
+        return values;
+    }
+
+    /** Generates rows lazily, so the batch is never held in memory as a whole. */
+    private static Iterator<ContentValues> rows(int count, int failAt) {
+        return new Iterator<ContentValues>() {
+            private int mNext;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < count;
+            }
+
+            @Override
+            public ContentValues next() {
+                if (mNext == failAt) {
+                    throw new IllegalArgumentException("bad row " + mNext);
+                }
+                return row(mNext++);
+            }
+        };
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final BulkStream.Writer writer = BulkStream.startWriting(rows(ROW_COUNT, -1));
+        // Read through a dup, as the provider would.
+        try (BulkStream.Reader<ContentValues> reader = BulkStream.startReading(
+                writer.getReadSide().dup(), ContentValues.CREATOR)) {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                assertEquals(row(i), reader.next());
+            }
+            assertFalse(reader.hasNext());
+            try {
+                reader.next();
+                fail("Expected end of stream");
+            } catch (NoSuchElementException expected) {
+            }
+        } finally {
+            writer.finish();
+        }
+    }
+
+    @Test
+    public void testReaderClosedEarly() throws Exception {
+        final BulkStream.Writer writer = BulkStream.startWriting(rows(ROW_COUNT, -1));
+        try (BulkStream.Reader<ContentValues> reader = BulkStream.startReading(
+                writer.getReadSide().dup(), ContentValues.CREATOR)) {
+            assertEquals(row(0), reader.next());
+        }
+        // The writer must not stay blocked on a pipe that nobody reads.
+        writer.finish();
+    }
+
+    @Test
+    public void testWriterFailure() throws Exception {
+        final BulkStream.Writer writer = BulkStream.startWriting(rows(ROW_COUNT, 5000));
+        try (BulkStream.Reader<ContentValues> reader = BulkStream.startReading(
+                writer.getReadSide().dup(), ContentValues.CREATOR)) {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            fail("Expected the reader to report the failed stream");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            writer.finish();
+            fail("Expected the writer to rethrow the row failure");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testMalformedRecord() throws Exception {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        try (DataOutputStream out = new DataOutputStream(
+                new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]))) {
+            // A length no writer produces, which the reader must not try to allocate.
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(1);
+        }
+        try (BulkStream.Reader<ContentValues> reader = BulkStream.startReading(pipe[0],
+                ContentValues.CREATOR)) {
+            reader.hasNext();
+            fail("Expected the reader to reject the record");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testResultsInline() {
+        assertResultsRoundTrip(10);
+    }
+
+    @Test
+    public void testResultsSharedMemory() {
+        // Far more than fits inline, so the results go through shared memory.
+        assertResultsRoundTrip(ROW_COUNT);
+    }
+
+    private static void assertResultsRoundTrip(int count) {
+        final ContentProviderResult[] results = new ContentProviderResult[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = (i & 1) == 0
+                    ? new ContentProviderResult(Uri.parse("content://test/rows/" + i))
+                    : new ContentProviderResult(i);
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            BulkStream.writeResults(parcel, results);
+            parcel.writeInt(42);
+            parcel.setDataPosition(0);
+            final ContentProviderResult[] read = BulkStream.readResults(parcel);
+            assertEquals(42, parcel.readInt());
+            assertEquals(count, read.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals(results[i].uri, read[i].uri);
+                assertEquals(results[i].count, read[i].count);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
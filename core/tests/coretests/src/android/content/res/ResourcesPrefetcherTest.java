@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import static android.content.res.ResourcesPrefetcher.TYPE_COLOR_STATE_LIST;
+import static android.content.res.ResourcesPrefetcher.TYPE_DRAWABLE;
+import static android.content.res.ResourcesPrefetcher.TYPE_LAYOUT;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.frameworks.coretests.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Internal tests for {@link ResourcesPrefetcher}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ResourcesPrefetcherTest {
+
+    private Context mContext;
+    private File mProfile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getContext();
+        mProfile = new File(mContext.getCacheDir(),
+                ResourcesPrefetcher.getProfileName(mContext.getPackageName()));
+        mProfile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mProfile.delete();
+    }
+
+    /** @return Resources with caches of their own. */
+    private Resources createResources() {
+        final Resources res = mContext.getResources();
+        return new Resources(res.getAssets(), res.getDisplayMetrics(), res.getConfiguration());
+    }
+
+    private ResourcesPrefetcher recordSample() {
+        final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(createResources(), mProfile);
+        prefetcher.readProfile();
+        prefetcher.record(TYPE_DRAWABLE, R.drawable.gettysburg);
+        prefetcher.record(TYPE_COLOR_STATE_LIST, R.color.color1);
+        prefetcher.record(TYPE_LAYOUT, R.layout.activity_text_view);
+        prefetcher.record(TYPE_DRAWABLE, R.drawable.gettysburg);
+        return prefetcher;
+    }
+
+    @Test
+    public void testRecordAndWarm() {
+        final ResourcesPrefetcher recorder = recordSample();
+        assertEquals(3, recorder.getRecordedCount());
+        recorder.writeProfileIfChanged();
+        assertTrue(mProfile.exists());
+
+        final Resources res = createResources();
+        final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(res, mProfile);
+        prefetcher.readProfile();
+        prefetcher.warm();
+        assertEquals(3, prefetcher.getWarmedCount());
+
+        // The warmed layout is handed out once and then cached as usual.
+        final XmlResourceParser parser = res.getLayout(R.layout.activity_text_view);
+        assertNotNull(parser);
+        parser.close();
+        prefetcher.finish();
+    }
+
+    @Test
+    public void testUnchangedProfileNotRewritten() {
+        recordSample().writeProfileIfChanged();
+        final ResourcesPrefetcher prefetcher = recordSample();
+        assertTrue(mProfile.delete());
+        prefetcher.writeProfileIfChanged();
+        assertFalse(mProfile.exists());
+    }
+
+    @Test
+    public void testMissingResourcesSkipped() {
+        final ResourcesPrefetcher recorder = new ResourcesPrefetcher(createResources(), mProfile);
+        recorder.record(TYPE_DRAWABLE, 0x7f7fffff);
+        recorder.record(TYPE_LAYOUT, R.drawable.gettysburg);
+        recorder.record(TYPE_DRAWABLE, R.drawable.gettysburg);
+        recorder.writeProfileIfChanged();
+
+        final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(createResources(), mProfile);
+        prefetcher.readProfile();
+        prefetcher.warm();
+        assertEquals(1, prefetcher.getWarmedCount());
+    }
+
+    @Test
+    public void testRecordingIsBounded() {
+        final ResourcesPrefetcher recorder = new ResourcesPrefetcher(createResources(), mProfile);
+        for (int i = 0; i < ResourcesPrefetcher.MAX_ENTRIES * 2; i++) {
+            recorder.record(TYPE_DRAWABLE, 0x7f010000 + i);
+        }
+        assertEquals(ResourcesPrefetcher.MAX_ENTRIES, recorder.getRecordedCount());
+    }
+
+    @Test
+    public void testCorruptProfileIgnored() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mProfile)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        final ResourcesPrefetcher prefetcher = new ResourcesPrefetcher(createResources(), mProfile);
+        prefetcher.readProfile();
+        prefetcher.warm();
+        assertEquals(0, prefetcher.getWarmedCount());
+    }
+}
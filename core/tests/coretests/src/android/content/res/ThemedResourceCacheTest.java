@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.pm.ActivityInfo;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Internal tests for the statistics and retention of {@link ThemedResourceCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ThemedResourceCacheTest {
+
+    // Each of the eight shards gets an eighth of the budget.
+    private static final int SHARD_BUDGET = 100;
+
+    // Keys that fall in the same shard.
+    private static final long KEY_A = 1;
+    private static final long KEY_B = 9;
+
+    @Test
+    public void testHitsAndMisses() {
+        final SizedCache cache = new SizedCache(0);
+        assertNull(cache.get(KEY_A, null));
+        cache.put(KEY_A, null, new SizedConstantState(10, 0));
+        assertEquals(10, (int) cache.getInstance(KEY_A, null, null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testEntriesInUseRetainedWithinBudget() {
+        final SizedCache cache = new SizedCache(SHARD_BUDGET * 8);
+        final SizedConstantState a = new SizedConstantState(60, 0);
+        final SizedConstantState b = new SizedConstantState(60, 0);
+        cache.put(KEY_A, null, a);
+        cache.put(KEY_B, null, b);
+        // Entries are only held strongly once they are used again.
+        assertEquals(0, cache.getRetainedBytes());
+
+        assertSame(a, cache.get(KEY_A, null));
+        assertEquals(60, cache.getRetainedBytes());
+
+        // Both don't fit in the shard, so the least recently used one is dropped.
+        assertSame(b, cache.get(KEY_B, null));
+        assertEquals(60, cache.getRetainedBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+        // Entries larger than the budget of a shard are never held.
+        cache.put(KEY_A, null, new SizedConstantState(SHARD_BUDGET + 1, 0));
+        cache.get(KEY_A, null);
+        assertEquals(60, cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testReplacedEntryReleased() {
+        final SizedCache cache = new SizedCache(SHARD_BUDGET * 8);
+        cache.put(KEY_A, null, new SizedConstantState(60, 0));
+        cache.get(KEY_A, null);
+        assertEquals(60, cache.getRetainedBytes());
+
+        cache.put(KEY_A, null, new SizedConstantState(30, 0));
+        assertEquals(0, cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testConfigurationChangeEvicts() {
+        final SizedCache cache = new SizedCache(SHARD_BUDGET * 8);
+        cache.put(KEY_A, null, new SizedConstantState(40, ActivityInfo.CONFIG_ORIENTATION));
+        cache.put(KEY_B, null, new SizedConstantState(40, 0));
+        cache.get(KEY_A, null);
+        cache.get(KEY_B, null);
+        assertEquals(80, cache.getRetainedBytes());
+
+        cache.onConfigurationChange(ActivityInfo.CONFIG_ORIENTATION);
+        assertNull(cache.get(KEY_A, null));
+        assertEquals(40, cache.getRetainedBytes());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    private static class SizedCache extends ConfigurationBoundResourceCache<Integer> {
+        SizedCache(int retainBudgetBytes) {
+            super(retainBudgetBytes);
+        }
+
+        @Override
+        protected int getRetainedSize(ConstantState<Integer> entry) {
+            return ((SizedConstantState) entry).mSize;
+        }
+    }
+
+    private static class SizedConstantState extends ConstantState<Integer> {
+        final int mSize;
+        final int mChangingConf;
+
+        SizedConstantState(int size, int changingConf) {
+            mSize = size;
+            mChangingConf = changingConf;
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return mChangingConf;
+        }
+
+        @Override
+        public Integer newInstance() {
+            return mSize;
+        }
+    }
+}
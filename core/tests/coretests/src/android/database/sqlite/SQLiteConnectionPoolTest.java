@@ -18,6 +18,7 @@ package android.database.sqlite;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import android.content.Context;
 import android.os.HandlerThread;
@@ -88,4 +89,51 @@ public class SQLiteConnectionPoolTest {
         pool.close();
         thread.quit();
     }
+
+    @Test
+    public void testPoolStats() {
+        SQLiteConnectionPool pool = SQLiteConnectionPool.open(mTestConf);
+        pool.disableIdleConnectionHandler();
+        for (int i = 0; i < 5; i++) {
+            SQLiteConnection c = pool.acquireConnection("pragma user_version", 0, null);
+            pool.releaseConnection(c);
+        }
+        SQLiteDebug.PoolStats stats = pool.getPoolStats();
+        assertEquals(5, stats.acquireCount);
+        assertEquals(0, stats.waitCount);
+        assertEquals("All acquisitions should be immediate", 5, stats.waitTimeHistogram[0]);
+        assertEquals(stats.bucketLimitsMillis.length + 1, stats.holdTimeHistogram.length);
+        long holds = 0;
+        for (long count : stats.holdTimeHistogram) {
+            holds += count;
+        }
+        assertEquals(5, holds);
+        assertEquals(1, stats.maxConnections);
+        pool.close();
+    }
+
+    @Test
+    public void testAdaptiveConnectionPoolSize() {
+        assumeTrue(SQLiteGlobal.getWALConnectionPoolSize() >= 3);
+        mTestConf.openFlags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        mTestConf.adaptiveConnectionPoolSizeEnabled = true;
+        SQLiteConnectionPool pool = SQLiteConnectionPool.open(mTestConf);
+        pool.disableIdleConnectionHandler();
+        assertEquals(2, pool.getPoolStats().maxConnections);
+
+        // The first reader gets a non-primary connection and the second the primary one.
+        final int flags = SQLiteConnectionPool.CONNECTION_FLAG_READ_ONLY;
+        SQLiteConnection c1 = pool.acquireConnection("pragma user_version", flags, null);
+        SQLiteConnection c2 = pool.acquireConnection("pragma user_version", flags, null);
+        // A third reader has to wait, so the pool grows instead.
+        SQLiteConnection c3 = pool.acquireConnection("pragma user_version", flags, null);
+        SQLiteDebug.PoolStats stats = pool.getPoolStats();
+        assertEquals(3, stats.maxConnections);
+        assertEquals(1, stats.waitCount);
+        assertEquals(2, stats.peakNonPrimaryConnections);
+        pool.releaseConnection(c1);
+        pool.releaseConnection(c2);
+        pool.releaseConnection(c3);
+        pool.close();
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDebug.DbStats;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Tests for the prepared statement cache statistics and adaptive sizing of
+ * {@link SQLiteConnection}.
+ *
+ * <p>Run with:  bit FrameworksCoreTests:android.database.sqlite.SQLiteConnectionStatementCacheTest
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SQLiteConnectionStatementCacheTest {
+    private static final int INITIAL_CACHE_SIZE = 2;
+    private static final int STATEMENT_COUNT = 10;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setup() {
+        final Context context = InstrumentationRegistry.getContext();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(
+                context.getDatabasePath("statement_cache_test"), null);
+        mDatabase.setMaxSqlCacheSize(INITIAL_CACHE_SIZE);
+    }
+
+    @After
+    public void teardown() {
+        final String path = mDatabase.getPath();
+        mDatabase.close();
+        SQLiteDatabase.deleteDatabase(new File(path));
+    }
+
+    private void runStatements(int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < STATEMENT_COUNT; i++) {
+                assertEquals(i, DatabaseUtils.longForQuery(mDatabase, "SELECT " + i, null));
+            }
+        }
+    }
+
+    private DbStats getStats() {
+        for (DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (mDatabase.getPath().equals(stats.dbName)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testFixedSize() {
+        runStatements(50);
+        final DbStats stats = getStats();
+        assertNotNull(stats);
+        assertEquals(INITIAL_CACHE_SIZE, stats.cacheMaxSize);
+        assertTrue(stats.cacheSize <= INITIAL_CACHE_SIZE);
+        assertTrue(stats.cacheMisses > 0);
+        assertTrue(stats.cacheEvictions > 0);
+        assertEquals(stats.cacheHits + "/" + stats.cacheMisses + "/" + stats.cacheSize,
+                stats.cache);
+    }
+
+    @Test
+    public void testAdaptiveGrowth() {
+        mDatabase.setAdaptiveSqlCacheSizeEnabled(true);
+        runStatements(50);
+        DbStats stats = getStats();
+        assertNotNull(stats);
+        assertTrue(stats.cacheMaxSize > STATEMENT_COUNT);
+        assertTrue(stats.cacheMaxSize <= SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+
+        // Once every statement fits, the rounds only hit the cache.
+        final int misses = stats.cacheMisses;
+        runStatements(10);
+        stats = getStats();
+        // Collecting the stats runs a few statements of its own.
+        assertTrue(stats.cacheMisses - misses < STATEMENT_COUNT);
+
+        mDatabase.setAdaptiveSqlCacheSizeEnabled(false);
+        assertEquals(INITIAL_CACHE_SIZE, getStats().cacheMaxSize);
+    }
+}
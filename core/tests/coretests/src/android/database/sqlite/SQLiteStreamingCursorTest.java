@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Tests for {@link SQLiteStreamingCursor}
+ *
+ * <p>Run with:  bit FrameworksCoreTests:android.database.sqlite.SQLiteStreamingCursorTest
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SQLiteStreamingCursorTest {
+    // Enough rows of this size to need several windows.
+    private static final int ROW_COUNT = 2000;
+    private static final int BLOB_SIZE = 4096;
+
+    private SQLiteDatabase mDatabase;
+    private File mDatabaseFile;
+
+    @Before
+    public void setup() {
+        final Context context = InstrumentationRegistry.getContext();
+        mDatabaseFile = context.getDatabasePath("streaming_cursor_test");
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        mDatabase.enableWriteAheadLogging();
+        mDatabase.execSQL("CREATE TABLE t (id INTEGER PRIMARY KEY, data BLOB)");
+        mDatabase.beginTransaction();
+        try {
+            final SQLiteStatement insert = mDatabase.compileStatement(
+                    "INSERT INTO t (id, data) VALUES (?, ?)");
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.bindLong(1, i);
+                insert.bindBlob(2, new byte[BLOB_SIZE]);
+                insert.executeInsert();
+            }
+            insert.close();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void teardown() {
+        mDatabase.close();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+    }
+
+    private Cursor query(String sql, String... args) {
+        return mDatabase.rawQueryWithFactory(SQLiteStreamingCursor.FACTORY, sql, args, null);
+    }
+
+    @Test
+    public void testForwardScan() {
+        try (Cursor cursor = query("SELECT id, data FROM t ORDER BY id")) {
+            assertTrue(cursor instanceof SQLiteStreamingCursor);
+            assertEquals(ROW_COUNT, cursor.getCount());
+            int expected = 0;
+            while (cursor.moveToNext()) {
+                assertEquals(expected, cursor.getInt(0));
+                assertEquals(BLOB_SIZE, cursor.getBlob(1).length);
+                expected++;
+            }
+            assertEquals(ROW_COUNT, expected);
+            assertTrue(cursor.isAfterLast());
+        }
+    }
+
+    @Test
+    public void testRandomAccess() {
+        try (Cursor cursor = query("SELECT id, data FROM t WHERE id >= ? ORDER BY id", "10")) {
+            assertEquals(ROW_COUNT - 10, cursor.getCount());
+            assertTrue(cursor.moveToLast());
+            assertEquals(ROW_COUNT - 1, cursor.getInt(0));
+            // Moving back before the current window runs the query again.
+            assertTrue(cursor.moveToFirst());
+            assertEquals(10, cursor.getInt(0));
+            assertTrue(cursor.moveToPosition(1000));
+            assertEquals(1010, cursor.getInt(0));
+            assertFalse(cursor.moveToPosition(ROW_COUNT));
+        }
+    }
+
+    @Test
+    public void testTrailingSemicolon() {
+        try (Cursor cursor = query("SELECT id FROM t WHERE id < 100; ")) {
+            assertEquals(100, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void testTrailingComments() {
+        try (Cursor cursor = query("SELECT id FROM t WHERE id < 100 -- ids; ')'\n")) {
+            assertEquals(100, cursor.getCount());
+        }
+        try (Cursor cursor = query(
+                "SELECT id FROM t /* rows */ WHERE id < 100 AND '--;' != ')' /* ) */")) {
+            assertEquals(100, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void testDoesNotBlockWrites() {
+        try (Cursor cursor = query("SELECT id, data FROM t ORDER BY id")) {
+            assertTrue(cursor.moveToFirst());
+            // The cursor holds a connection of its own, so the primary connection is free.
+            mDatabase.execSQL("DELETE FROM t WHERE id = 0");
+            // The cursor keeps reading from the snapshot it started with.
+            assertEquals(ROW_COUNT, cursor.getCount());
+            assertEquals(0, cursor.getInt(0));
+        }
+        assertEquals(ROW_COUNT - 1, DatabaseUtils.longForQuery(mDatabase,
+                "SELECT COUNT(*) FROM t", null));
+    }
+
+    @Test
+    public void testInTransaction() {
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.execSQL("DELETE FROM t WHERE id < 100");
+            // Queries in a transaction must see its changes, so they do not stream.
+            try (Cursor cursor = query("SELECT id FROM t ORDER BY id")) {
+                assertEquals(ROW_COUNT - 100, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                assertEquals(100, cursor.getInt(0));
+            }
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SharedMemory;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.system.ErrnoException;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SettingsSnapshotTest {
+    private SharedMemory mMemory;
+    private SettingsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        final ArrayMap<String, String> values = new ArrayMap<>();
+        values.put("screen_brightness", "102");
+        values.put("adb_enabled", "1");
+        values.put("null_setting", null);
+        values.put("unicode", "été ☃");
+        values.put("android_id", "0123456789abcdef");
+        final ArraySet<String> unavailable = new ArraySet<>();
+        unavailable.add("android_id");
+        unavailable.add("bluetooth_address");
+        mMemory = SettingsSnapshot.create("test", values, unavailable);
+        mSnapshot = new SettingsSnapshot(mMemory);
+    }
+
+    @After
+    public void tearDown() {
+        mSnapshot.unmap();
+        mMemory.close();
+    }
+
+    @Test
+    public void testValues() {
+        assertEquals("102", mSnapshot.getValue(mSnapshot.indexOf("screen_brightness")));
+        assertEquals("1", mSnapshot.getValue(mSnapshot.indexOf("adb_enabled")));
+        assertEquals("été ☃", mSnapshot.getValue(mSnapshot.indexOf("unicode")));
+
+        final int nullIndex = mSnapshot.indexOf("null_setting");
+        assertTrue(nullIndex >= 0);
+        assertTrue(mSnapshot.isAvailable(nullIndex));
+        assertNull(mSnapshot.getValue(nullIndex));
+    }
+
+    @Test
+    public void testMissingSetting() {
+        assertTrue(mSnapshot.indexOf("not_a_setting") < 0);
+        assertTrue(mSnapshot.indexOf("") < 0);
+        assertTrue(mSnapshot.indexOf("zzz") < 0);
+    }
+
+    @Test
+    public void testUnavailableSettings() {
+        // Values of unavailable settings must not leak into the snapshot.
+        final int index = mSnapshot.indexOf("android_id");
+        assertTrue(index >= 0);
+        assertFalse(mSnapshot.isAvailable(index));
+        assertNull(mSnapshot.getValue(index));
+
+        final int unsetIndex = mSnapshot.indexOf("bluetooth_address");
+        assertTrue(unsetIndex >= 0);
+        assertFalse(mSnapshot.isAvailable(unsetIndex));
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        final ByteBuffer buffer = mMemory.mapReadOnly();
+        try {
+            buffer.put(0, (byte) 1);
+            fail("Snapshot should be read-only");
+        } catch (ReadOnlyBufferException expected) {
+        } finally {
+            SharedMemory.unmap(buffer);
+        }
+        try {
+            mMemory.mapReadWrite();
+            fail("Snapshot should not be mappable for writing");
+        } catch (ErrnoException expected) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PrecomputedTextTest {
+    private static final CharSequence TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing "
+            + "elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.";
+    private static final int WIDTH = 200;
+
+    private static PrecomputedText.Params createParams(TextPaint paint) {
+        return new PrecomputedText.Params(paint, TextDirectionHeuristics.FIRSTSTRONG_LTR,
+                Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, Layout.BREAK_STRATEGY_SIMPLE,
+                Layout.HYPHENATION_FREQUENCY_NONE, Layout.JUSTIFICATION_MODE_NONE,
+                Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testCreate_matchesStaticLayout() throws Exception {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(32.0f);
+        final PrecomputedText[] result = new PrecomputedText[1];
+        final Thread worker = new Thread(() -> {
+            result[0] = PrecomputedText.create(TEXT, createParams(paint), WIDTH);
+        });
+        worker.start();
+        worker.join();
+
+        final StaticLayout expected = StaticLayout.Builder.obtain(TEXT, 0, TEXT.length(), paint,
+                WIDTH).build();
+        final StaticLayout layout = result[0].getLayout(paint);
+        assertSame(TEXT, result[0].getText());
+        assertEquals(WIDTH, result[0].getWidth());
+        assertSame(paint, layout.getPaint());
+        assertEquals(expected.getLineCount(), layout.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals(expected.getLineEnd(i), layout.getLineEnd(i));
+            assertEquals(expected.getLineWidth(i), layout.getLineWidth(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void testParams_isSameTextMetrics() {
+        final TextPaint paint = new TextPaint();
+        final PrecomputedText.Params params = createParams(paint);
+        assertTrue(params.isSameTextMetrics(createParams(paint)));
+
+        // Color does not affect measurement.
+        final TextPaint colored = new TextPaint(paint);
+        colored.setColor(0xFFFF0000);
+        assertTrue(params.isSameTextMetrics(createParams(colored)));
+
+        final TextPaint larger = new TextPaint(paint);
+        larger.setTextSize(paint.getTextSize() * 2);
+        assertFalse(params.isSameTextMetrics(createParams(larger)));
+
+        final PrecomputedText.Params highQuality = new PrecomputedText.Params(paint,
+                TextDirectionHeuristics.FIRSTSTRONG_LTR, Layout.Alignment.ALIGN_NORMAL, 1.0f,
+                0.0f, true, Layout.BREAK_STRATEGY_HIGH_QUALITY,
+                Layout.HYPHENATION_FREQUENCY_NONE, Layout.JUSTIFICATION_MODE_NONE,
+                Integer.MAX_VALUE);
+        assertFalse(params.isSameTextMetrics(highQuality));
+    }
+}
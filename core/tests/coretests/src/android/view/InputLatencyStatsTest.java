@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static android.view.InputLatencyStats.STAGE_DELIVERY;
+import static android.view.InputLatencyStats.STAGE_TOTAL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Internal tests for {@link InputLatencyStats}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class InputLatencyStatsTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testPercentiles() {
+        final InputLatencyStats stats = new InputLatencyStats();
+        assertTrue(stats.isEmpty());
+        assertEquals(0, stats.getPercentileMillis(STAGE_DELIVERY, 50));
+
+        for (int i = 0; i < 90; i++) {
+            stats.record(STAGE_DELIVERY, 3 * MS);
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.record(STAGE_DELIVERY, 20 * MS);
+        }
+        assertFalse(stats.isEmpty());
+        assertEquals(100, stats.getCount(STAGE_DELIVERY));
+        assertEquals(0, stats.getCount(STAGE_TOTAL));
+        assertEquals(4, stats.getPercentileMillis(STAGE_DELIVERY, 50));
+        assertEquals(4, stats.getPercentileMillis(STAGE_DELIVERY, 90));
+        assertEquals(24, stats.getPercentileMillis(STAGE_DELIVERY, 99));
+    }
+
+    @Test
+    public void testOutliers() {
+        final InputLatencyStats stats = new InputLatencyStats();
+        stats.record(STAGE_TOTAL, -5 * MS);
+        stats.record(STAGE_TOTAL, 2000 * MS);
+        assertEquals(1, stats.getPercentileMillis(STAGE_TOTAL, 50));
+        // Times past the last bucket are reported as the largest time recorded.
+        assertEquals(2000, stats.getPercentileMillis(STAGE_TOTAL, 100));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        final InputLatencyStats a = new InputLatencyStats();
+        final InputLatencyStats b = new InputLatencyStats();
+        a.record(STAGE_DELIVERY, MS);
+        b.record(STAGE_DELIVERY, 70 * MS);
+        b.record(STAGE_TOTAL, 10 * MS);
+        a.add(b);
+        assertEquals(2, a.getCount(STAGE_DELIVERY));
+        assertEquals(1, a.getCount(STAGE_TOTAL));
+        assertEquals(100, a.getPercentileMillis(STAGE_DELIVERY, 100));
+
+        a.reset();
+        assertTrue(a.isEmpty());
+        assertEquals(1, b.getCount(STAGE_DELIVERY));
+    }
+
+    @Test
+    public void testPlausibleReport() {
+        final InputLatencyStats stats = new InputLatencyStats();
+        assertTrue(stats.isPlausibleReport());
+        for (int i = 0; i < InputLatencyStats.MAX_EVENTS_PER_REPORT; i++) {
+            stats.record(STAGE_DELIVERY, i * MS);
+        }
+        stats.record(STAGE_TOTAL, -5 * MS);
+        assertTrue(stats.isPlausibleReport());
+
+        stats.record(STAGE_DELIVERY, MS);
+        assertFalse(stats.isPlausibleReport());
+    }
+
+    @Test
+    public void testForgedReport() {
+        final InputLatencyStats stats = new InputLatencyStats();
+        stats.record(STAGE_DELIVERY, 7 * MS);
+        final Parcel parcel = Parcel.obtain();
+        try {
+            stats.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final long[] buckets = parcel.createLongArray();
+            final long[] totals = parcel.createLongArray();
+            final long[] maxima = parcel.createLongArray();
+
+            // A count that cannot be right, with a total that matches nothing recorded.
+            buckets[0] = -1;
+            totals[STAGE_DELIVERY] = 1000 * MS;
+            parcel.setDataPosition(0);
+            parcel.writeLongArray(buckets);
+            parcel.writeLongArray(totals);
+            parcel.writeLongArray(maxima);
+            parcel.setDataPosition(0);
+            assertFalse(InputLatencyStats.CREATOR.createFromParcel(parcel).isPlausibleReport());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testParcel() {
+        final InputLatencyStats stats = new InputLatencyStats();
+        stats.record(STAGE_DELIVERY, 7 * MS);
+        stats.record(STAGE_TOTAL, 40 * MS);
+
+        final Parcel parcel = Parcel.obtain();
+        try {
+            stats.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final InputLatencyStats copy = InputLatencyStats.CREATOR.createFromParcel(parcel);
+            assertEquals(1, copy.getCount(STAGE_DELIVERY));
+            assertEquals(8, copy.getPercentileMillis(STAGE_DELIVERY, 50));
+            assertEquals(48, copy.getPercentileMillis(STAGE_TOTAL, 50));
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
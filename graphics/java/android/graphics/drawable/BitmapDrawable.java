@@ -1011,6 +1011,11 @@ public class BitmapDrawable extends Drawable {
             return mChangingConfigurations
                     | (mTint != null ? mTint.getChangingConfigurations() : 0);
         }
+
+        @Override
+        public int getAllocationByteCount() {
+            return mBitmap != null ? mBitmap.getAllocationByteCount() : 0;
+        }
     }
 
     /**
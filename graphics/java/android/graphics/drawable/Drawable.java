@@ -1446,6 +1446,17 @@ public abstract class Drawable {
         public boolean canApplyTheme() {
             return false;
         }
+
+        /**
+         * Return an estimate of the memory, in bytes, this constant state
+         * keeps alive, or 0 if unknown. Used to bound the drawables a
+         * resource cache holds on to.
+         *
+         * @hide
+         */
+        public int getAllocationByteCount() {
+            return 0;
+        }
     }
 
     /**
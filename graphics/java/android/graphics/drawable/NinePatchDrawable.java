@@ -652,6 +652,11 @@ public class NinePatchDrawable extends Drawable {
             return mChangingConfigurations
                     | (mTint != null ? mTint.getChangingConfigurations() : 0);
         }
+
+        @Override
+        public int getAllocationByteCount() {
+            return mNinePatch != null ? mNinePatch.getBitmap().getAllocationByteCount() : 0;
+        }
     }
 
     private void computeBitmapSize() {
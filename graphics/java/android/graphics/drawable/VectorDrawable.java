@@ -984,6 +984,12 @@ public class VectorDrawable extends Drawable {
                     | (mTint != null ? mTint.getChangingConfigurations() : 0);
         }
 
+        @Override
+        public int getAllocationByteCount() {
+            return NATIVE_ALLOCATION_SIZE + mAllocationOfAllNodes
+                    + mLastHWCachePixelCount * 4 + mLastSWCachePixelCount * 4;
+        }
+
         public boolean isStateful() {
             return (mTint != null && mTint.isStateful())
                     || (mRootGroup != null && mRootGroup.isStateful());
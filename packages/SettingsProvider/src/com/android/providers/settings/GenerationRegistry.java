@@ -44,6 +44,10 @@ final class GenerationRegistry {
     @GuardedBy("mLock")
     private MemoryIntArray mBackingStore;
 
+    // Bumped every time the backing store is created, since generations start over with it.
+    @GuardedBy("mLock")
+    private int mBackingStoreSerial;
+
     public GenerationRegistry(Object lock) {
         mLock = lock;
     }
@@ -91,6 +95,42 @@ final class GenerationRegistry {
         }
     }
 
+    /**
+     * Adds the generation a table snapshot is taken at to a call result.
+     *
+     * @return the generation, or -1 if the table's generation is not tracked.
+     */
+    public int addSnapshotGenerationData(Bundle bundle, int key) {
+        synchronized (mLock) {
+            MemoryIntArray backingStore = getBackingStoreLocked();
+            try {
+                if (backingStore != null) {
+                    final int index = getKeyIndexLocked(key, mKeyToIndexMap, backingStore);
+                    if (index >= 0) {
+                        final int generation = backingStore.get(index);
+                        bundle.putInt(Settings.CALL_METHOD_SNAPSHOT_GENERATION_INDEX_KEY, index);
+                        bundle.putInt(Settings.CALL_METHOD_SNAPSHOT_GENERATION_KEY, generation);
+                        return generation;
+                    }
+                }
+            } catch (IOException e) {
+                Slog.e(LOG_TAG, "Error adding snapshot generation data", e);
+                destroyBackingStore();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a number that changes whenever the backing store is recreated, after which
+     * generations read before are no longer comparable with new ones.
+     */
+    public int getBackingStoreSerial() {
+        synchronized (mLock) {
+            return mBackingStoreSerial;
+        }
+    }
+
     public void onUserRemoved(int userId) {
         synchronized (mLock) {
             MemoryIntArray backingStore = getBackingStoreLocked();
@@ -120,6 +160,7 @@ final class GenerationRegistry {
             final int size = 1 + 2 + 10 + 2 * UserManager.getMaxSupportedUsers();
             try {
                 mBackingStore = new MemoryIntArray(size);
+                mBackingStoreSerial++;
                 if (DEBUG) {
                     Slog.e(LOG_TAG, "Created backing store " + mBackingStore);
                 }
@@ -55,11 +55,14 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.SELinux;
 import android.os.ServiceManager;
+import android.os.SharedMemory;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.os.UserManagerInternal;
 import android.provider.Settings;
 import android.provider.Settings.Global;
+import android.provider.SettingsSnapshot;
+import android.system.ErrnoException;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
@@ -67,6 +70,7 @@ import android.util.ByteStringUtils;
 import android.util.Slog;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 import android.util.proto.ProtoOutputStream;
 
 import com.android.internal.annotations.GuardedBy;
@@ -87,6 +91,7 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -258,6 +263,23 @@ public class SettingsProvider extends ContentProvider {
         Settings.System.getCloneFromParentOnValueSettings(sSystemCloneFromParentOnDependency);
     }
 
+    // Secure settings whose value depends on the caller, so they are left out of the table
+    // snapshots shared with all clients.
+    private static final Set<String> sSecureSnapshotUnavailableSettings = new ArraySet<>();
+    static {
+        sSecureSnapshotUnavailableSettings.add(Settings.Secure.ANDROID_ID);
+        sSecureSnapshotUnavailableSettings.add(Settings.Secure.LOCATION_PROVIDERS_ALLOWED);
+        sSecureSnapshotUnavailableSettings.add("bluetooth_address");
+        sSecureSnapshotUnavailableSettings.addAll(sSecureCloneToManagedSettings);
+    }
+
+    // System settings whose value depends on the caller, see above.
+    private static final Set<String> sSystemSnapshotUnavailableSettings = new ArraySet<>();
+    static {
+        sSystemSnapshotUnavailableSettings.addAll(sSystemCloneToManagedSettings);
+        sSystemSnapshotUnavailableSettings.addAll(sSystemCloneFromParentOnDependency.keySet());
+    }
+
     private final Object mLock = new Object();
 
     @GuardedBy("mLock")
@@ -338,17 +360,23 @@ public class SettingsProvider extends ContentProvider {
         switch (method) {
             case Settings.CALL_METHOD_GET_GLOBAL: {
                 Setting setting = getGlobalSetting(name);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return maybeAddSnapshotForCallResult(
+                        packageValueForCallResult(setting, isTrackingGeneration(args)),
+                        SETTINGS_TYPE_GLOBAL, UserHandle.USER_SYSTEM, args);
             }
 
             case Settings.CALL_METHOD_GET_SECURE: {
                 Setting setting = getSecureSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return maybeAddSnapshotForCallResult(
+                        packageValueForCallResult(setting, isTrackingGeneration(args)),
+                        SETTINGS_TYPE_SECURE, requestingUserId, args);
             }
 
             case Settings.CALL_METHOD_GET_SYSTEM: {
                 Setting setting = getSystemSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return maybeAddSnapshotForCallResult(
+                        packageValueForCallResult(setting, isTrackingGeneration(args)),
+                        SETTINGS_TYPE_SYSTEM, requestingUserId, args);
             }
 
             case Settings.CALL_METHOD_PUT_GLOBAL: {
@@ -1900,6 +1928,29 @@ public class SettingsProvider extends ContentProvider {
         return result;
     }
 
+    private Bundle maybeAddSnapshotForCallResult(Bundle result, int type, int userId,
+            Bundle args) {
+        if (!isTrackingSnapshot(args)) {
+            return result;
+        }
+        // Snapshots are only handed out for the caller's own tables, and not to instant apps
+        // which may only see some settings.
+        if (type != SETTINGS_TYPE_GLOBAL && userId != UserHandle.getCallingUserId()) {
+            return result;
+        }
+        if (UserHandle.getAppId(Binder.getCallingUid()) >= Process.FIRST_APPLICATION_UID
+                && getCallingApplicationInfoOrThrow().isInstantApp()) {
+            return result;
+        }
+        final Bundle snapshotResult = new Bundle(result);
+        synchronized (mLock) {
+            if (!mSettingsRegistry.addSnapshotDataLocked(snapshotResult, type, userId)) {
+                return result;
+            }
+        }
+        return snapshotResult;
+    }
+
     private static int getRequestingUserId(Bundle args) {
         final int callingUserId = UserHandle.getCallingUserId();
         return (args != null) ? args.getInt(Settings.CALL_METHOD_USER_KEY, callingUserId)
@@ -1910,6 +1961,10 @@ public class SettingsProvider extends ContentProvider {
         return args != null && args.containsKey(Settings.CALL_METHOD_TRACK_GENERATION_KEY);
     }
 
+    private boolean isTrackingSnapshot(Bundle args) {
+        return args != null && args.containsKey(Settings.CALL_METHOD_TRACK_SNAPSHOT_KEY);
+    }
+
     private static String getSettingValue(Bundle args) {
         return (args != null) ? args.getString(Settings.NameValueTable.VALUE) : null;
     }
@@ -2131,6 +2186,13 @@ public class SettingsProvider extends ContentProvider {
 
         private GenerationRegistry mGenerationRegistry;
 
+        // Table snapshots shared with clients, keyed like mSettingsStates, and the generation
+        // each was taken at.
+        private final SparseArray<SharedMemory> mSnapshots = new SparseArray<>();
+        private final SparseIntArray mSnapshotGenerations = new SparseIntArray();
+        // Generation backing store the cached snapshots were taken against.
+        private int mSnapshotsBackingStoreSerial;
+
         private final Handler mHandler;
 
         private final BackupManager mBackupManager;
@@ -2385,6 +2447,81 @@ public class SettingsProvider extends ContentProvider {
 
             // Nuke generation tracking data
             mGenerationRegistry.onUserRemoved(userId);
+            removeSnapshotLocked(makeKey(SETTINGS_TYPE_SECURE, userId));
+            removeSnapshotLocked(makeKey(SETTINGS_TYPE_SYSTEM, userId));
+        }
+
+        /**
+         * Adds a snapshot of the given table to a call result, along with the generation it
+         * reflects.
+         *
+         * @return whether a snapshot was added.
+         */
+        public boolean addSnapshotDataLocked(Bundle bundle, int type, int userId) {
+            final int key = makeKey(type, userId);
+            final SettingsState settingsState = peekSettingsStateLocked(key);
+            if (settingsState == null) {
+                return false;
+            }
+            final int generation = mGenerationRegistry.addSnapshotGenerationData(bundle, key);
+            if (generation < 0) {
+                return false;
+            }
+            final int backingStoreSerial = mGenerationRegistry.getBackingStoreSerial();
+            if (backingStoreSerial != mSnapshotsBackingStoreSerial) {
+                // Generations started over with a new backing store, so the cached generations
+                // may match again although the tables changed.
+                mSnapshots.clear();
+                mSnapshotGenerations.clear();
+                mSnapshotsBackingStoreSerial = backingStoreSerial;
+            }
+            SharedMemory snapshot = mSnapshots.get(key);
+            if (snapshot == null || mSnapshotGenerations.get(key) != generation) {
+                // The previous snapshot may still be in flight to a client, so it is not closed
+                // here but once it is no longer referenced.
+                snapshot = createSnapshotLocked(settingsState, type, key);
+                if (snapshot == null) {
+                    removeSnapshotLocked(key);
+                    return false;
+                }
+                mSnapshots.put(key, snapshot);
+                mSnapshotGenerations.put(key, generation);
+            }
+            bundle.putParcelable(Settings.CALL_METHOD_TRACK_SNAPSHOT_KEY, snapshot);
+            return true;
+        }
+
+        private SharedMemory createSnapshotLocked(SettingsState settingsState, int type,
+                int key) {
+            final List<String> names = settingsState.getSettingNamesLocked();
+            final ArrayMap<String, String> values = new ArrayMap<>(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                final Setting setting = settingsState.getSettingLocked(names.get(i));
+                values.put(setting.getName(), !setting.isNull() ? setting.getValue() : null);
+            }
+            final Set<String> unavailable;
+            switch (type) {
+                case SETTINGS_TYPE_SECURE:
+                    unavailable = sSecureSnapshotUnavailableSettings;
+                    break;
+                case SETTINGS_TYPE_SYSTEM:
+                    unavailable = sSystemSnapshotUnavailableSettings;
+                    break;
+                default:
+                    unavailable = Collections.emptySet();
+            }
+            try {
+                return SettingsSnapshot.create("settings_" + keyToString(key), values,
+                        unavailable);
+            } catch (ErrnoException e) {
+                Slog.e(LOG_TAG, "Error creating settings snapshot", e);
+                return null;
+            }
+        }
+
+        private void removeSnapshotLocked(int key) {
+            mSnapshots.remove(key);
+            mSnapshotGenerations.delete(key);
         }
 
         public boolean insertSettingLocked(int type, int userId, String name, String value,
@@ -27,6 +27,7 @@ import android.content.pm.PackageManagerInternal;
 import android.content.pm.Signature;
 import android.os.Binder;
 import android.os.Build;
+import android.os.FileUtils;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -37,6 +38,7 @@ import android.providers.settings.GlobalSettingsProto;
 import android.providers.settings.SettingsOperationProto;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.Base64;
 import android.util.Slog;
@@ -55,12 +57,16 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -68,8 +74,16 @@ import java.util.Set;
 
 /**
  * This class contains the state for one type of settings. It is responsible
- * for saving the state asynchronously to an XML file after a mutation and
- * loading the from an XML file on construction.
+ * for saving the state asynchronously to disk after a mutation and loading
+ * it on construction.
+ * <p>
+ * The state is stored in a binary file next to the legacy XML file, plus an
+ * append-only change log of the settings written since. A write only appends
+ * the settings changed since the previous write to the log; once the log gets
+ * long the whole state is rewritten on the persistence thread and the log is
+ * dropped. A legacy XML file is read if there is no binary state yet, and
+ * deleted once the binary state has been written.
+ * </p>
  * <p>
  * This class uses the same lock as the settings provider to ensure that
  * multiple changes made by the settings provider, e,g, upgrade, bulk insert,
@@ -90,6 +104,27 @@ final class SettingsState {
     private static final long WRITE_SETTINGS_DELAY_MILLIS = 200;
     private static final long MAX_WRITE_SETTINGS_DELAY_MILLIS = 2000;
 
+    // The change log is compacted into the state file once it holds more records than this
+    // or than there are settings, whichever is larger.
+    private static final int MIN_CHANGE_LOG_RECORDS_BEFORE_COMPACTION = 100;
+
+    private static final String BINARY_STATE_FILE_SUFFIX = ".bin";
+    private static final String CHANGE_LOG_FILE_SUFFIX = ".log";
+    private static final String LEGACY_STATE_FILE_SUFFIX = ".xml";
+
+    // Both files store the generation of the state file after the magic.
+    private static final int STATE_FILE_MAGIC = 0x53535431; // "SST1"
+    private static final int CHANGE_LOG_MAGIC = 0x53534c31; // "SSL1"
+
+    // Lengths that stand for a null string and for one stored as UTF-16.
+    private static final int STRING_NULL = -1;
+    private static final int STRING_UTF16 = -2;
+
+    private static final byte RECORD_VERSION = 1;
+    private static final byte RECORD_PUT = 2;
+    private static final byte RECORD_DELETE = 3;
+    private static final byte RECORD_COMMIT = 4;
+
     public static final int MAX_BYTES_PER_APP_PACKAGE_UNLIMITED = -1;
     public static final int MAX_BYTES_PER_APP_PACKAGE_LIMITED = 20000;
 
@@ -164,6 +199,39 @@ final class SettingsState {
     @GuardedBy("mLock")
     private final File mStatePersistFile;
 
+    private final File mBinaryStateFile;
+
+    private final File mChangeLogFile;
+
+    // Settings changed since the last write, appended to the change log on the next write.
+    @GuardedBy("mLock")
+    private final ArraySet<String> mChangedSettings = new ArraySet<>();
+
+    // Whether the next write rewrites the whole state instead of appending to the change log.
+    @GuardedBy("mLock")
+    private boolean mFullWriteNeeded = true;
+
+    // Snapshots taken for writing, in the order they were taken, so that concurrent writes
+    // still reach the disk in order.
+    @GuardedBy("mPendingWrites")
+    private final ArrayList<PendingWrite> mPendingWrites = new ArrayList<>();
+
+    @GuardedBy("mWriteLock")
+    private int mChangeLogRecordCount;
+
+    @GuardedBy("mWriteLock")
+    private int mStateFileSettingCount;
+
+    // Bumped by every write of the state file. The change log records the generation it
+    // applies to, so that a log left behind by a crash right after a state file write is
+    // not replayed over the newer state.
+    @GuardedBy("mWriteLock")
+    private int mStateFileGeneration;
+
+    // Set when an append failed, as the log may now end in a partial batch.
+    @GuardedBy("mWriteLock")
+    private boolean mChangeLogBroken;
+
     private final Setting mNullSetting = new Setting(null, null, false, null, null) {
         @Override
         public boolean isNull() {
@@ -203,6 +271,8 @@ final class SettingsState {
         mContext = context;
         mLock = lock;
         mStatePersistFile = file;
+        mBinaryStateFile = getBinaryStateFile(file);
+        mChangeLogFile = getChangeLogFile(file);
         mKey = key;
         mHandler = new MyHandler(looper);
         if (maxBytesPerAppPackage == MAX_BYTES_PER_APP_PACKAGE_LIMITED) {
@@ -255,6 +325,7 @@ final class SettingsState {
             Setting setting = mSettings.valueAt(i);
             if (packageName.equals(setting.packageName)) {
                 mSettings.removeAt(i);
+                mChangedSettings.add(name);
                 removedSomething = true;
             }
         }
@@ -309,6 +380,7 @@ final class SettingsState {
             mSettings.put(name, newSetting);
             updateMemoryUsagePerPackageLocked(newSetting.getPackageName(), oldValue,
                     newSetting.getValue(), oldDefaultValue, newSetting.getDefaultValue());
+            mChangedSettings.add(name);
             scheduleWriteIfNeededLocked();
         }
     }
@@ -340,6 +412,7 @@ final class SettingsState {
         updateMemoryUsagePerPackageLocked(packageName, oldValue, value,
                 oldDefaultValue, newState.getDefaultValue());
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -364,6 +437,7 @@ final class SettingsState {
 
         addHistoricalOperationLocked(HISTORICAL_OPERATION_DELETE, oldState);
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -393,6 +467,7 @@ final class SettingsState {
 
         addHistoricalOperationLocked(HISTORICAL_OPERATION_RESET, oldSetting);
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -569,71 +644,261 @@ final class SettingsState {
     }
 
     private void doWriteState() {
-        boolean wroteState = false;
-        final int version;
-        final ArrayMap<String, Setting> settings;
-
         synchronized (mLock) {
-            version = mVersion;
-            settings = new ArrayMap<>(mSettings);
+            final boolean full = mFullWriteNeeded;
+            final ArrayMap<String, Setting> settings;
+            if (full) {
+                settings = new ArrayMap<>(mSettings);
+            } else {
+                // Only the settings changed since the last write, null meaning deleted.
+                final int changedCount = mChangedSettings.size();
+                settings = new ArrayMap<>(changedCount);
+                for (int i = 0; i < changedCount; i++) {
+                    final String name = mChangedSettings.valueAt(i);
+                    final Setting setting = mSettings.get(name);
+                    settings.put(name, setting != null ? new Setting(setting) : null);
+                }
+            }
+            mChangedSettings.clear();
+            mFullWriteNeeded = false;
             mDirty = false;
             mWriteScheduled = false;
+            synchronized (mPendingWrites) {
+                mPendingWrites.add(new PendingWrite(mVersion, settings, full));
+            }
         }
 
+        boolean wroteState = false;
         synchronized (mWriteLock) {
+            final ArrayList<PendingWrite> writes;
+            synchronized (mPendingWrites) {
+                writes = new ArrayList<>(mPendingWrites);
+                mPendingWrites.clear();
+            }
+            if (writes.isEmpty()) {
+                // A concurrent write already took our snapshot.
+                return;
+            }
+
             if (DEBUG_PERSISTENCE) {
                 Slog.i(LOG_TAG, "[PERSIST START]");
             }
 
-            AtomicFile destination = new AtomicFile(mStatePersistFile);
-            FileOutputStream out = null;
-            try {
-                out = destination.startWrite();
+            // Everything before the last full snapshot is superseded by it.
+            int lastFullWrite = -1;
+            for (int i = writes.size() - 1; i >= 0; i--) {
+                if (writes.get(i).full) {
+                    lastFullWrite = i;
+                    break;
+                }
+            }
+            boolean success = true;
+            if (lastFullWrite >= 0) {
+                success = writeStateFileLocked(writes.get(lastFullWrite));
+            }
+            if (success && lastFullWrite + 1 < writes.size()) {
+                success = appendToChangeLogLocked(
+                        writes.subList(lastFullWrite + 1, writes.size()));
+            }
+
+            if (success) {
+                wroteState = true;
+                if (mChangeLogRecordCount > Math.max(MIN_CHANGE_LOG_RECORDS_BEFORE_COMPACTION,
+                        mStateFileSettingCount)) {
+                    mHandler.obtainMessage(MyHandler.MSG_COMPACT_SETTINGS).sendToTarget();
+                }
+            } else {
+                // Make sure the next write starts over from a full state file.
+                mHandler.obtainMessage(MyHandler.MSG_REQUEST_FULL_WRITE).sendToTarget();
+            }
+
+            if (DEBUG_PERSISTENCE) {
+                Slog.i(LOG_TAG, "[PERSIST END]");
+            }
+        }
 
-                XmlSerializer serializer = Xml.newSerializer();
-                serializer.setOutput(out, StandardCharsets.UTF_8.name());
-                serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                        true);
-                serializer.startDocument(null, true);
-                serializer.startTag(null, TAG_SETTINGS);
-                serializer.attribute(null, ATTR_VERSION, String.valueOf(version));
+        if (wroteState) {
+            synchronized (mLock) {
+                addHistoricalOperationLocked(HISTORICAL_OPERATION_PERSIST, null);
+            }
+        }
+    }
 
-                final int settingCount = settings.size();
-                for (int i = 0; i < settingCount; i++) {
-                    Setting setting = settings.valueAt(i);
+    private boolean writeStateFileLocked(PendingWrite write) {
+        AtomicFile destination = new AtomicFile(mBinaryStateFile);
+        final int generation = mStateFileGeneration + 1;
+        FileOutputStream out = null;
+        try {
+            final ArrayList<Setting> settings = new ArrayList<>(write.settings.size());
+            for (int i = 0; i < write.settings.size(); i++) {
+                final Setting setting = write.settings.valueAt(i);
+                if (isPersistable(setting)) {
+                    settings.add(setting);
+                }
+            }
+            out = destination.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(STATE_FILE_MAGIC);
+            data.writeInt(generation);
+            data.writeInt(write.version);
+            data.writeInt(settings.size());
+            for (int i = 0; i < settings.size(); i++) {
+                writeSetting(data, settings.get(i));
+            }
+            data.flush();
+            destination.finishWrite(out);
+        } catch (Throwable t) {
+            Slog.wtf(LOG_TAG, "Failed to write settings, restoring backup", t);
+            destination.failWrite(out);
+            return false;
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
 
-                    writeSingleSetting(mVersion, serializer, setting.getId(), setting.getName(),
-                            setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
-                            setting.getTag(), setting.isDefaultFromSystem());
+        // Everything in the change log and the legacy file is now part of the state file.
+        // Should we crash before deleting the log, its older generation keeps it from being
+        // replayed.
+        mStateFileGeneration = generation;
+        mChangeLogFile.delete();
+        mChangeLogRecordCount = 0;
+        mChangeLogBroken = false;
+        mStateFileSettingCount = write.settings.size();
+        final AtomicFile legacyFile = new AtomicFile(mStatePersistFile);
+        if (legacyFile.exists()) {
+            legacyFile.delete();
+        }
+        return true;
+    }
 
+    private boolean appendToChangeLogLocked(List<PendingWrite> writes) {
+        if (mChangeLogBroken || !mBinaryStateFile.exists()) {
+            return false;
+        }
+        final boolean newLog = !mChangeLogFile.exists();
+        FileOutputStream out = null;
+        int recordCount = 0;
+        try {
+            out = new FileOutputStream(mChangeLogFile, true);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            if (newLog) {
+                data.writeInt(CHANGE_LOG_MAGIC);
+                data.writeInt(mStateFileGeneration);
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                final PendingWrite write = writes.get(i);
+                data.writeByte(RECORD_VERSION);
+                data.writeInt(write.version);
+                final int settingCount = write.settings.size();
+                for (int j = 0; j < settingCount; j++) {
+                    final Setting setting = write.settings.valueAt(j);
+                    if (setting != null) {
+                        if (!isPersistable(setting)) {
+                            continue;
+                        }
+                        data.writeByte(RECORD_PUT);
+                        writeSetting(data, setting);
+                    } else {
+                        data.writeByte(RECORD_DELETE);
+                        writeString(data, write.settings.keyAt(j));
+                    }
                     if (DEBUG_PERSISTENCE) {
-                        Slog.i(LOG_TAG, "[PERSISTED]" + setting.getName() + "="
-                                + setting.getValue());
+                        Slog.i(LOG_TAG, "[PERSISTED]" + write.settings.keyAt(j) + "="
+                                + (setting != null ? setting.getValue() : "(deleted)"));
                     }
                 }
+                // Changes are only applied on read once their batch is complete.
+                data.writeByte(RECORD_COMMIT);
+                recordCount += settingCount;
+            }
+            data.flush();
+            FileUtils.sync(out);
+        } catch (IOException e) {
+            Slog.e(LOG_TAG, "Failed to append to settings change log " + mChangeLogFile, e);
+            mChangeLogBroken = true;
+            return false;
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+        mChangeLogRecordCount += recordCount;
+        return true;
+    }
 
-                serializer.endTag(null, TAG_SETTINGS);
-                serializer.endDocument();
-                destination.finishWrite(out);
+    private static boolean isPersistable(Setting setting) {
+        // This shouldn't happen, see writeSingleSetting().
+        return setting.getId() != null && setting.getName() != null
+                && setting.getPackageName() != null;
+    }
 
-                wroteState = true;
+    private static void writeSetting(DataOutputStream out, Setting setting) throws IOException {
+        writeString(out, setting.getName());
+        writeString(out, setting.getValue());
+        writeString(out, setting.getDefaultValue());
+        writeString(out, setting.getPackageName());
+        writeString(out, setting.getTag());
+        writeString(out, setting.getId());
+        out.writeBoolean(setting.isDefaultFromSystem());
+    }
 
-                if (DEBUG_PERSISTENCE) {
-                    Slog.i(LOG_TAG, "[PERSIST END]");
-                }
-            } catch (Throwable t) {
-                Slog.wtf(LOG_TAG, "Failed to write settings, restoring backup", t);
-                destination.failWrite(out);
-            } finally {
-                IoUtils.closeQuietly(out);
-            }
+    private Setting readSetting(ByteBuffer in) {
+        final String name = readString(in);
+        final String value = readString(in);
+        final String defaultValue = readString(in);
+        final String packageName = readString(in);
+        final String tag = readString(in);
+        final String id = readString(in);
+        final boolean fromSystem = in.get() != 0;
+        return new Setting(name, value, defaultValue, packageName, tag, fromSystem, id);
+    }
+
+    // Strings are stored as length-prefixed UTF-8, except for the few with broken surrogate
+    // pairs, which UTF-8 can't hold. Those are stored as UTF-16 so that they survive as-is.
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(STRING_NULL);
+            return;
         }
+        final byte[] bytes;
+        if (hasBrokenSurrogatePair(s)) {
+            out.writeInt(STRING_UTF16);
+            bytes = toBytes(s);
+        } else {
+            bytes = s.getBytes(StandardCharsets.UTF_8);
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
 
-        if (wroteState) {
-            synchronized (mLock) {
-                addHistoricalOperationLocked(HISTORICAL_OPERATION_PERSIST, null);
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == STRING_NULL) {
+            return null;
+        }
+        final boolean utf16 = length == STRING_UTF16;
+        if (utf16) {
+            length = in.getInt();
+        }
+        if (length < 0) {
+            throw new IllegalStateException("Bad string length " + length);
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return utf16 ? fromBytes(bytes) : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean hasBrokenSurrogatePair(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                return true;
             }
         }
+        return false;
     }
 
     static void writeSingleSetting(int version, XmlSerializer serializer, String id,
@@ -704,25 +969,185 @@ final class SettingsState {
     }
 
     private void readStateSyncLocked() {
-        FileInputStream in;
+        if (!readBinaryStateLocked()) {
+            FileInputStream in;
+            try {
+                in = new AtomicFile(mStatePersistFile).openRead();
+            } catch (FileNotFoundException fnfe) {
+                Slog.i(LOG_TAG, "No settings state " + mStatePersistFile);
+                addHistoricalOperationLocked(HISTORICAL_OPERATION_INITIALIZE, null);
+                return;
+            }
+            try {
+                XmlPullParser parser = Xml.newPullParser();
+                parser.setInput(in, StandardCharsets.UTF_8.name());
+                parseStateLocked(parser);
+            } catch (XmlPullParserException | IOException e) {
+                String message = "Failed parsing settings file: " + mStatePersistFile;
+                Slog.wtf(LOG_TAG, message);
+                throw new IllegalStateException(message, e);
+            } finally {
+                IoUtils.closeQuietly(in);
+            }
+            Slog.i(LOG_TAG, "Migrating settings state " + mStatePersistFile);
+        }
+        if (mFullWriteNeeded) {
+            // Migrate from the legacy file or compact the change log.
+            scheduleWriteIfNeededLocked();
+        }
+    }
+
+    /**
+     * Reads the binary state file and applies the change log on top of it.
+     *
+     * @return whether there was a binary state file.
+     */
+    private boolean readBinaryStateLocked() {
+        final byte[] state;
         try {
-            in = new AtomicFile(mStatePersistFile).openRead();
-        } catch (FileNotFoundException fnfe) {
-            Slog.i(LOG_TAG, "No settings state " + mStatePersistFile);
-            addHistoricalOperationLocked(HISTORICAL_OPERATION_INITIALIZE, null);
-            return;
+            state = new AtomicFile(mBinaryStateFile).readFully();
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            String message = "Failed reading settings file: " + mBinaryStateFile;
+            Slog.wtf(LOG_TAG, message);
+            throw new IllegalStateException(message, e);
         }
+        final int generation;
         try {
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setInput(in, StandardCharsets.UTF_8.name());
-            parseStateLocked(parser);
-        } catch (XmlPullParserException | IOException e) {
-            String message = "Failed parsing settings file: " + mStatePersistFile;
+            final ByteBuffer in = ByteBuffer.wrap(state);
+            if (in.getInt() != STATE_FILE_MAGIC) {
+                throw new IllegalStateException("Bad magic");
+            }
+            generation = in.getInt();
+            mVersion = in.getInt();
+            final int settingCount = in.getInt();
+            for (int i = 0; i < settingCount; i++) {
+                final Setting setting = readSetting(in);
+                mSettings.put(setting.getName(), setting);
+
+                if (DEBUG_PERSISTENCE) {
+                    Slog.i(LOG_TAG, "[RESTORED] " + setting.getName() + "="
+                            + setting.getValue());
+                }
+            }
+        } catch (BufferUnderflowException | IllegalStateException
+                | IllegalArgumentException e) {
+            String message = "Failed parsing settings file: " + mBinaryStateFile;
             Slog.wtf(LOG_TAG, message);
             throw new IllegalStateException(message, e);
-        } finally {
-            IoUtils.closeQuietly(in);
         }
+        mFullWriteNeeded = false;
+        synchronized (mWriteLock) {
+            mStateFileSettingCount = mSettings.size();
+            mStateFileGeneration = generation;
+        }
+        readChangeLogLocked(generation);
+        return true;
+    }
+
+    private void readChangeLogLocked(int stateFileGeneration) {
+        final byte[] log;
+        try {
+            log = new AtomicFile(mChangeLogFile).readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Slog.wtf(LOG_TAG, "Failed reading settings change log: " + mChangeLogFile, e);
+            mFullWriteNeeded = true;
+            return;
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(log);
+        final ArrayMap<String, Setting> batch = new ArrayMap<>();
+        int batchVersion = mVersion;
+        int recordCount = 0;
+        try {
+            if (in.getInt() != CHANGE_LOG_MAGIC) {
+                throw new IllegalStateException("Bad magic");
+            }
+            final int generation = in.getInt();
+            if (generation != stateFileGeneration) {
+                // Already part of the state file. Appending to it would hide new changes too.
+                Slog.w(LOG_TAG, "Dropping stale settings change log: " + mChangeLogFile);
+                mChangeLogFile.delete();
+                return;
+            }
+            while (in.hasRemaining()) {
+                final byte type = in.get();
+                switch (type) {
+                    case RECORD_VERSION: {
+                        batchVersion = in.getInt();
+                    } break;
+
+                    case RECORD_PUT: {
+                        final Setting setting = readSetting(in);
+                        batch.put(setting.getName(), setting);
+                    } break;
+
+                    case RECORD_DELETE: {
+                        batch.put(readString(in), null);
+                    } break;
+
+                    case RECORD_COMMIT: {
+                        mVersion = batchVersion;
+                        for (int i = 0; i < batch.size(); i++) {
+                            final Setting setting = batch.valueAt(i);
+                            if (setting != null) {
+                                mSettings.put(batch.keyAt(i), setting);
+                            } else {
+                                mSettings.remove(batch.keyAt(i));
+                            }
+                        }
+                        recordCount += batch.size();
+                        batch.clear();
+                    } break;
+
+                    default: {
+                        throw new IllegalStateException("Unknown record type " + type);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                throw new BufferUnderflowException();
+            }
+        } catch (BufferUnderflowException | IllegalStateException
+                | IllegalArgumentException e) {
+            // A crash while appending leaves a partial batch at the end, which is dropped.
+            // Nothing can be appended after it, so start over from a full state file.
+            Slog.w(LOG_TAG, "Dropping incomplete settings change log tail: " + mChangeLogFile);
+            mFullWriteNeeded = true;
+        }
+
+        synchronized (mWriteLock) {
+            mChangeLogRecordCount = recordCount;
+            if (recordCount > Math.max(MIN_CHANGE_LOG_RECORDS_BEFORE_COMPACTION,
+                    mStateFileSettingCount)) {
+                mFullWriteNeeded = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the binary state file stored alongside the given legacy XML state file.
+     */
+    static File getBinaryStateFile(File file) {
+        return new File(file.getParentFile(), getStateFileBaseName(file)
+                + BINARY_STATE_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the change log stored alongside the given legacy XML state file.
+     */
+    static File getChangeLogFile(File file) {
+        return new File(file.getParentFile(), getStateFileBaseName(file)
+                + CHANGE_LOG_FILE_SUFFIX);
+    }
+
+    private static String getStateFileBaseName(File file) {
+        final String name = file.getName();
+        return name.endsWith(LEGACY_STATE_FILE_SUFFIX)
+                ? name.substring(0, name.length() - LEGACY_STATE_FILE_SUFFIX.length()) : name;
     }
 
     /**
@@ -732,7 +1157,7 @@ final class SettingsState {
      */
     public static boolean stateFileExists(File file) {
         AtomicFile stateFile = new AtomicFile(file);
-        return stateFile.exists();
+        return stateFile.exists() || new AtomicFile(getBinaryStateFile(file)).exists();
     }
 
     private void parseStateLocked(XmlPullParser parser)
@@ -792,6 +1217,8 @@ final class SettingsState {
 
     private final class MyHandler extends Handler {
         public static final int MSG_PERSIST_SETTINGS = 1;
+        public static final int MSG_COMPACT_SETTINGS = 2;
+        public static final int MSG_REQUEST_FULL_WRITE = 3;
 
         public MyHandler(Looper looper) {
             super(looper);
@@ -808,10 +1235,39 @@ final class SettingsState {
                     }
                 }
                 break;
+
+                case MSG_COMPACT_SETTINGS: {
+                    synchronized (mLock) {
+                        mFullWriteNeeded = true;
+                    }
+                    doWriteState();
+                }
+                break;
+
+                case MSG_REQUEST_FULL_WRITE: {
+                    synchronized (mLock) {
+                        mFullWriteNeeded = true;
+                        scheduleWriteIfNeededLocked();
+                    }
+                }
+                break;
             }
         }
     }
 
+    private static final class PendingWrite {
+        final int version;
+        // All settings for a full write, otherwise the changed ones with null for deleted.
+        final ArrayMap<String, Setting> settings;
+        final boolean full;
+
+        PendingWrite(int version, ArrayMap<String, Setting> settings, boolean full) {
+            this.version = version;
+            this.settings = settings;
+            this.full = full;
+        }
+    }
+
     private class HistoricalOperation {
         final long mTimestamp;
         final String mOperation;
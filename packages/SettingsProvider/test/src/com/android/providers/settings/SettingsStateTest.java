@@ -123,7 +123,7 @@ public class SettingsStateTest extends AndroidTestCase {
      */
     public void testReadWrite() {
         final File file = new File(getContext().getCacheDir(), "setting.xml");
-        file.delete();
+        deleteStateFiles(file);
         final Object lock = new Object();
 
         final SettingsState ssWriter = new SettingsState(getContext(), lock, file, 1,
@@ -153,7 +153,7 @@ public class SettingsStateTest extends AndroidTestCase {
      */
     public void testUpgrade() throws Exception {
         final File file = new File(getContext().getCacheDir(), "setting.xml");
-        file.delete();
+        deleteStateFiles(file);
         final Object lock = new Object();
         final PrintStream os = new PrintStream(new FileOutputStream(file));
         os.print(
@@ -182,4 +182,78 @@ public class SettingsStateTest extends AndroidTestCase {
             assertEquals("p2", s.getPackageName());
         }
     }
+
+    /**
+     * Make sure the legacy XML file is migrated to the binary state file.
+     */
+    public void testMigrateFromXml() throws Exception {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        deleteStateFiles(file);
+        final Object lock = new Object();
+        final PrintStream os = new PrintStream(new FileOutputStream(file));
+        os.print(
+                "<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>" +
+                "<settings version=\"121\">" +
+                "  <setting id=\"0\" name=\"k0\" value=\"v0\" package=\"p0\" />" +
+                "</settings>");
+        os.close();
+
+        final SettingsState ss = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            ss.persistSyncLocked();
+        }
+        assertTrue(SettingsState.getBinaryStateFile(file).exists());
+        assertFalse(file.exists());
+        assertTrue(SettingsState.stateFileExists(file));
+
+        final SettingsState ssReader = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            assertEquals(121, ssReader.getVersionLocked());
+            assertEquals("v0", ssReader.getSettingLocked("k0").getValue());
+            assertEquals("p0", ssReader.getSettingLocked("k0").getPackageName());
+        }
+    }
+
+    /**
+     * Make sure changes written after the state file are replayed from the change log.
+     */
+    public void testChangeLog() {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        deleteStateFiles(file);
+        final Object lock = new Object();
+
+        final SettingsState ssWriter = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            ssWriter.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+            ssWriter.insertSettingLocked("k1", "v1", null, false, "p1");
+            ssWriter.insertSettingLocked("k2", "v2", null, false, "p2");
+            ssWriter.persistSyncLocked();
+
+            // Only these changes go to the change log.
+            ssWriter.insertSettingLocked("k1", "v1b", null, false, "p1");
+            ssWriter.deleteSettingLocked("k2");
+            ssWriter.insertSettingLocked("k3", CRAZY_STRING, null, false, "p3");
+            ssWriter.persistSyncLocked();
+        }
+        assertTrue(SettingsState.getChangeLogFile(file).exists());
+
+        final SettingsState ssReader = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            assertEquals(SettingsState.SETTINGS_VERSION_NEW_ENCODING,
+                    ssReader.getVersionLocked());
+            assertEquals("v1b", ssReader.getSettingLocked("k1").getValue());
+            assertTrue(ssReader.getSettingLocked("k2").isNull());
+            assertEquals(CRAZY_STRING, ssReader.getSettingLocked("k3").getValue());
+        }
+    }
+
+    private static void deleteStateFiles(File file) {
+        file.delete();
+        SettingsState.getBinaryStateFile(file).delete();
+        SettingsState.getChangeLogFile(file).delete();
+    }
 }
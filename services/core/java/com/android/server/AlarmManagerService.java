@@ -436,6 +436,16 @@ class AlarmManagerService extends SystemService {
             return (end >= whenElapsed) && (start <= maxWhen);
         }
 
+        boolean hasRtcAlarm() {
+            for (int i = alarms.size() - 1; i >= 0; i--) {
+                final int type = alarms.get(i).type;
+                if (type == RTC || type == RTC_WAKEUP) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         boolean add(Alarm alarm) {
             boolean newStart = false;
             // narrows the batch if necessary; presumes that canHold(alarm) is true
@@ -778,6 +788,10 @@ class AlarmManagerService extends SystemService {
         final int N = mAlarmBatches.size();
         for (int i = 0; i < N; i++) {
             Batch b = mAlarmBatches.get(i);
+            if (b.start > maxWhen) {
+                // Batches are sorted by start time, so no later batch can hold the alarm either.
+                break;
+            }
             if ((b.flags&AlarmManager.FLAG_STANDALONE) == 0 && b.canHold(whenElapsed, maxWhen)) {
                 return i;
             }
@@ -785,10 +799,57 @@ class AlarmManagerService extends SystemService {
         return -1;
     }
 
-    // The RTC clock has moved arbitrarily, so we need to recalculate all the batching
-    void rebatchAllAlarms() {
+    // Remove the batch at the given index if any of its alarms were removed, remembering it
+    // in changedBatches when it still holds alarms whose batching must be redone.
+    ArrayList<Batch> takeChangedBatchLocked(int index, boolean didRemove,
+            ArrayList<Batch> changedBatches) {
+        if (didRemove) {
+            final Batch b = mAlarmBatches.remove(index);
+            if (b.size() > 0) {
+                if (changedBatches == null) {
+                    changedBatches = new ArrayList<>();
+                }
+                changedBatches.add(b);
+            }
+        }
+        return changedBatches;
+    }
+
+    // Re-add the alarms of batches that have been taken out of mAlarmBatches.  Removing alarms
+    // only ever widens a batch's bounds, so the remaining batches are still valid and only the
+    // alarms that shared a batch with a removed alarm need to be coalesced again.
+    void rebatchChangedBatchesLocked(ArrayList<Batch> changedBatches, boolean doValidate) {
+        if (changedBatches == null) {
+            return;
+        }
+        final long nowElapsed = SystemClock.elapsedRealtime();
+        for (int batchNum = changedBatches.size() - 1; batchNum >= 0; batchNum--) {
+            final Batch batch = changedBatches.get(batchNum);
+            final int N = batch.size();
+            for (int i = 0; i < N; i++) {
+                reAddAlarmLocked(batch.get(i), nowElapsed, doValidate);
+            }
+        }
+    }
+
+    // The RTC clock has moved, so only batches holding RTC alarms need to be recalculated;
+    // ELAPSED_REALTIME alarms are unaffected by wall clock changes.
+    void rebatchRtcAlarms() {
         synchronized (mLock) {
-            rebatchAllAlarmsLocked(true);
+            if (mPendingIdleUntil != null) {
+                // The idle until time may depend on an RTC wake from idle alarm, so rebatch
+                // everything to recompute it.
+                rebatchAllAlarmsLocked(true);
+                return;
+            }
+            ArrayList<Batch> changedBatches = null;
+            for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
+                changedBatches = takeChangedBatchLocked(i, mAlarmBatches.get(i).hasRtcAlarm(),
+                        changedBatches);
+            }
+            rebatchChangedBatchesLocked(changedBatches, true);
+            rescheduleKernelAlarmsLocked();
+            updateNextAlarmClockLocked();
         }
     }
 
@@ -2050,12 +2111,12 @@ class AlarmManagerService extends SystemService {
 
     private void removeLocked(PendingIntent operation, IAlarmListener directReceiver) {
         boolean didRemove = false;
+        ArrayList<Batch> changedBatches = null;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(operation, directReceiver);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
+            final boolean removed = b.remove(operation, directReceiver);
+            changedBatches = takeChangedBatchLocked(i, removed, changedBatches);
+            didRemove |= removed;
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (mPendingWhileIdleAlarms.get(i).matches(operation, directReceiver)) {
@@ -2069,14 +2130,23 @@ class AlarmManagerService extends SystemService {
                 Slog.v(TAG, "remove(operation) changed bounds; rebatching");
             }
             boolean restorePending = false;
+            boolean idleStateChanged = false;
             if (mPendingIdleUntil != null && mPendingIdleUntil.matches(operation, directReceiver)) {
                 mPendingIdleUntil = null;
                 restorePending = true;
+                idleStateChanged = true;
             }
             if (mNextWakeFromIdle != null && mNextWakeFromIdle.matches(operation, directReceiver)) {
                 mNextWakeFromIdle = null;
+                idleStateChanged = true;
+            }
+            rebatchChangedBatchesLocked(changedBatches, true);
+            if (idleStateChanged) {
+                // The idle until time depends on every wake from idle alarm.
+                rebatchAllAlarmsLocked(true);
+            } else {
+                rescheduleKernelAlarmsLocked();
             }
-            rebatchAllAlarmsLocked(true);
             if (restorePending) {
                 restorePendingWhileIdleAlarmsLocked();
             }
@@ -2086,12 +2156,12 @@ class AlarmManagerService extends SystemService {
 
     void removeLocked(String packageName) {
         boolean didRemove = false;
+        ArrayList<Batch> changedBatches = null;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(packageName);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
+            final boolean removed = b.remove(packageName);
+            changedBatches = takeChangedBatchLocked(i, removed, changedBatches);
+            didRemove |= removed;
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             final Alarm a = mPendingWhileIdleAlarms.get(i);
@@ -2105,7 +2175,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
+            rebatchChangedBatchesLocked(changedBatches, true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2113,12 +2183,12 @@ class AlarmManagerService extends SystemService {
 
     void removeForStoppedLocked(int uid) {
         boolean didRemove = false;
+        ArrayList<Batch> changedBatches = null;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.removeForStopped(uid);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
+            final boolean removed = b.removeForStopped(uid);
+            changedBatches = takeChangedBatchLocked(i, removed, changedBatches);
+            didRemove |= removed;
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             final Alarm a = mPendingWhileIdleAlarms.get(i);
@@ -2132,7 +2202,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
+            rebatchChangedBatchesLocked(changedBatches, true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2140,12 +2210,12 @@ class AlarmManagerService extends SystemService {
 
     void removeUserLocked(int userHandle) {
         boolean didRemove = false;
+        ArrayList<Batch> changedBatches = null;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(userHandle);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
+            final boolean removed = b.remove(userHandle);
+            changedBatches = takeChangedBatchLocked(i, removed, changedBatches);
+            didRemove |= removed;
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (UserHandle.getUserId(mPendingWhileIdleAlarms.get(i).creatorUid)
@@ -2164,7 +2234,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(user) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
+            rebatchChangedBatchesLocked(changedBatches, true);
             rescheduleKernelAlarmsLocked();
             updateNextAlarmClockLocked();
         }
@@ -2651,7 +2721,7 @@ class AlarmManagerService extends SystemService {
                         }
                         removeImpl(mTimeTickSender);
                         removeImpl(mDateChangeSender);
-                        rebatchAllAlarms();
+                        rebatchRtcAlarms();
                         mClockReceiver.scheduleTimeTickEvent();
                         mClockReceiver.scheduleDateChangedEvent();
                         synchronized (mLock) {
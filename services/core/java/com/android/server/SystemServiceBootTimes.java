@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.os.Build;
+import android.os.SystemProperties;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Slog;
+import android.util.SparseLongArray;
+import android.util.Xml;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.XmlUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Keeps how long every system service took to be created, to start and to handle each boot
+ * phase, over the last {@link #MAX_BOOTS} boots, and flags the services that got slower than
+ * they usually are. The build fingerprint is kept with every boot, so the history shows which
+ * OTA a regression came with. Dumped by "dumpsys activity boot-times".
+ *
+ * @hide
+ */
+public class SystemServiceBootTimes {
+    private static final String TAG = "SystemServiceBootTimes";
+
+    /** Key of the time a service took to be constructed. */
+    static final int KEY_CREATE = -2;
+    /** Key of the time a service took in onStart. Boot phases are keyed by their number. */
+    static final int KEY_START = -1;
+
+    @VisibleForTesting
+    static final int MAX_BOOTS = 10;
+
+    /**
+     * How much slower than its median over earlier boots, in percent, a service has to get to
+     * be flagged.
+     */
+    private static final String PROPERTY_REGRESSION_PERCENT = "persist.sys.boot_regression_pct";
+    private static final int DEFAULT_REGRESSION_PERCENT = 50;
+    /** Regressions smaller than this are noise. */
+    @VisibleForTesting
+    static final long MIN_REGRESSION_MS = 20;
+    /** Earlier boots a service needs timings from before it can be flagged. */
+    @VisibleForTesting
+    static final int MIN_BASELINE_BOOTS = 2;
+
+    private static final int VERSION = 1;
+
+    private final AtomicFile mFile;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Boot mCurrent;
+    // Earlier boots, oldest first, or null until read.
+    @GuardedBy("mLock")
+    private ArrayList<Boot> mHistory;
+    @GuardedBy("mLock")
+    private boolean mCompleted;
+    @GuardedBy("mLock")
+    private SystemServiceGraph mServiceGraph;
+
+    /**
+     * Timings of one boot: for every service, the milliseconds spent per key.
+     */
+    @VisibleForTesting
+    static final class Boot {
+        final String fingerprint;
+        final long time;
+        boolean runtimeRestart;
+        final ArrayMap<String, SparseLongArray> durations = new ArrayMap<>();
+
+        Boot(String fingerprint, long time, boolean runtimeRestart) {
+            this.fingerprint = fingerprint;
+            this.time = time;
+            this.runtimeRestart = runtimeRestart;
+        }
+
+        void add(String service, int key, long durationMs) {
+            SparseLongArray serviceDurations = durations.get(service);
+            if (serviceDurations == null) {
+                serviceDurations = new SparseLongArray();
+                durations.put(service, serviceDurations);
+            }
+            serviceDurations.put(key, serviceDurations.get(key) + durationMs);
+        }
+
+        long get(String service, int key) {
+            final SparseLongArray serviceDurations = durations.get(service);
+            return serviceDurations != null ? serviceDurations.get(key, -1) : -1;
+        }
+
+        long getTotal() {
+            long total = 0;
+            for (int i = 0; i < durations.size(); i++) {
+                final SparseLongArray serviceDurations = durations.valueAt(i);
+                for (int j = 0; j < serviceDurations.size(); j++) {
+                    total += serviceDurations.valueAt(j);
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * A service that took longer for something than it usually does.
+     */
+    @VisibleForTesting
+    static final class Regression {
+        final String service;
+        final int key;
+        final long durationMs;
+        final long baselineMs;
+
+        Regression(String service, int key, long durationMs, long baselineMs) {
+            this.service = service;
+            this.key = key;
+            this.durationMs = durationMs;
+            this.baselineMs = baselineMs;
+        }
+
+        @Override
+        public String toString() {
+            return service + " " + keyToString(key) + ": " + durationMs + " ms, usually "
+                    + baselineMs + " ms";
+        }
+    }
+
+    SystemServiceBootTimes(File file) {
+        mFile = new AtomicFile(file);
+        mCurrent = new Boot(Build.FINGERPRINT, System.currentTimeMillis(), false);
+    }
+
+    /**
+     * Notes how long a service took for something during this boot. Ignored once boot has
+     * completed.
+     */
+    void noteDuration(String service, int key, long durationMs) {
+        if (durationMs <= 0) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mCompleted) {
+                mCurrent.add(service, key, durationMs);
+            }
+        }
+    }
+
+    /**
+     * Stops recording, flags the services that got slower and adds this boot to the history
+     * on a background thread.
+     *
+     * @param graph The steps startup ran as, or null.
+     */
+    void bootCompleted(boolean runtimeRestart, SystemServiceGraph graph) {
+        synchronized (mLock) {
+            if (mCompleted) {
+                return;
+            }
+            mCompleted = true;
+            mCurrent.runtimeRestart = runtimeRestart;
+            mServiceGraph = graph;
+        }
+        BackgroundThread.getHandler().post(() -> {
+            final ArrayList<Regression> regressions;
+            synchronized (mLock) {
+                regressions = findRegressions(mCurrent, getHistoryLocked(),
+                        getRegressionPercent());
+            }
+            for (int i = 0; i < regressions.size(); i++) {
+                Slog.w(TAG, "Boot regression: " + regressions.get(i));
+            }
+            writeHistory();
+        });
+    }
+
+    private static int getRegressionPercent() {
+        return SystemProperties.getInt(PROPERTY_REGRESSION_PERCENT, DEFAULT_REGRESSION_PERCENT);
+    }
+
+    /**
+     * Compares a boot against the median of earlier boots of the same kind.
+     *
+     * @param percent How much slower something has to get to be flagged.
+     */
+    @VisibleForTesting
+    static ArrayList<Regression> findRegressions(Boot boot, ArrayList<Boot> history,
+            int percent) {
+        final ArrayList<Regression> regressions = new ArrayList<>();
+        final long[] samples = new long[history.size()];
+        for (int i = 0; i < boot.durations.size(); i++) {
+            final String service = boot.durations.keyAt(i);
+            final SparseLongArray serviceDurations = boot.durations.valueAt(i);
+            for (int j = 0; j < serviceDurations.size(); j++) {
+                final int key = serviceDurations.keyAt(j);
+                final long duration = serviceDurations.valueAt(j);
+                int count = 0;
+                for (int k = 0; k < history.size(); k++) {
+                    final Boot earlier = history.get(k);
+                    // A runtime restart skips much of what a full boot does.
+                    if (earlier.runtimeRestart == boot.runtimeRestart) {
+                        final long sample = earlier.get(service, key);
+                        if (sample >= 0) {
+                            samples[count++] = sample;
+                        }
+                    }
+                }
+                if (count < MIN_BASELINE_BOOTS) {
+                    continue;
+                }
+                Arrays.sort(samples, 0, count);
+                final long baseline = samples[count / 2];
+                if (duration - baseline >= MIN_REGRESSION_MS
+                        && duration * 100 > baseline * (100 + percent)) {
+                    regressions.add(new Regression(service, key, duration, baseline));
+                }
+            }
+        }
+        return regressions;
+    }
+
+    @GuardedBy("mLock")
+    private ArrayList<Boot> getHistoryLocked() {
+        if (mHistory == null) {
+            mHistory = readHistory();
+        }
+        return mHistory;
+    }
+
+    private ArrayList<Boot> readHistory() {
+        final ArrayList<Boot> history = new ArrayList<>();
+        final FileInputStream stream;
+        try {
+            stream = mFile.openRead();
+        } catch (FileNotFoundException e) {
+            return history;
+        }
+        try {
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(stream, StandardCharsets.UTF_8.name());
+            XmlUtils.beginDocument(parser, "boots");
+            if (XmlUtils.readIntAttribute(parser, "v", 0) != VERSION) {
+                return history;
+            }
+            final int outerDepth = parser.getDepth();
+            while (XmlUtils.nextElementWithin(parser, outerDepth)) {
+                if ("boot".equals(parser.getName())) {
+                    history.add(readBoot(parser));
+                }
+            }
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            Slog.w(TAG, "Failed reading " + mFile.getBaseFile(), e);
+            history.clear();
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+            }
+        }
+        return history;
+    }
+
+    private static Boot readBoot(XmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        final Boot boot = new Boot(XmlUtils.readStringAttribute(parser, "fp"),
+                XmlUtils.readLongAttribute(parser, "t"),
+                XmlUtils.readBooleanAttribute(parser, "rr"));
+        final int bootDepth = parser.getDepth();
+        while (XmlUtils.nextElementWithin(parser, bootDepth)) {
+            if (!"s".equals(parser.getName())) {
+                continue;
+            }
+            final String service = XmlUtils.readStringAttribute(parser, "n");
+            final int serviceDepth = parser.getDepth();
+            while (XmlUtils.nextElementWithin(parser, serviceDepth)) {
+                if ("d".equals(parser.getName())) {
+                    boot.add(service, XmlUtils.readIntAttribute(parser, "k"),
+                            XmlUtils.readLongAttribute(parser, "ms"));
+                }
+            }
+        }
+        return boot;
+    }
+
+    private void writeHistory() {
+        synchronized (mLock) {
+            final ArrayList<Boot> history = getHistoryLocked();
+            final ArrayList<Boot> boots = new ArrayList<>(history.subList(
+                    Math.max(0, history.size() - (MAX_BOOTS - 1)), history.size()));
+            boots.add(mCurrent);
+
+            FileOutputStream stream = null;
+            try {
+                stream = mFile.startWrite();
+                final XmlSerializer out = new FastXmlSerializer();
+                out.setOutput(stream, StandardCharsets.UTF_8.name());
+                out.startDocument(null, true);
+                out.startTag(null, "boots");
+                XmlUtils.writeIntAttribute(out, "v", VERSION);
+                for (int i = 0; i < boots.size(); i++) {
+                    writeBoot(out, boots.get(i));
+                }
+                out.endTag(null, "boots");
+                out.endDocument();
+                mFile.finishWrite(stream);
+            } catch (IOException e) {
+                Slog.w(TAG, "Failed writing " + mFile.getBaseFile(), e);
+                if (stream != null) {
+                    mFile.failWrite(stream);
+                }
+            }
+        }
+    }
+
+    private static void writeBoot(XmlSerializer out, Boot boot) throws IOException {
+        out.startTag(null, "boot");
+        out.attribute(null, "fp", boot.fingerprint);
+        XmlUtils.writeLongAttribute(out, "t", boot.time);
+        XmlUtils.writeBooleanAttribute(out, "rr", boot.runtimeRestart);
+        for (int i = 0; i < boot.durations.size(); i++) {
+            out.startTag(null, "s");
+            out.attribute(null, "n", boot.durations.keyAt(i));
+            final SparseLongArray serviceDurations = boot.durations.valueAt(i);
+            for (int j = 0; j < serviceDurations.size(); j++) {
+                out.startTag(null, "d");
+                XmlUtils.writeIntAttribute(out, "k", serviceDurations.keyAt(j));
+                XmlUtils.writeLongAttribute(out, "ms", serviceDurations.valueAt(j));
+                out.endTag(null, "d");
+            }
+            out.endTag(null, "s");
+        }
+        out.endTag(null, "boot");
+    }
+
+    private static String keyToString(int key) {
+        switch (key) {
+            case KEY_CREATE:
+                return "create";
+            case KEY_START:
+                return "onStart";
+            default:
+                return "phase" + key;
+        }
+    }
+
+    void dump(PrintWriter pw, String[] args) {
+        final boolean all = args != null && Arrays.asList(args).contains("--all");
+        final int percent = getRegressionPercent();
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        synchronized (mLock) {
+            final ArrayList<Boot> history = getHistoryLocked();
+            pw.print("System service boot timings ("); pw.print(mCompleted ? "" : "not ");
+            pw.println("completed)");
+
+            pw.print("  Regressions (");
+            pw.print(percent); pw.print("% and "); pw.print(MIN_REGRESSION_MS);
+            pw.println(" ms over the median of earlier boots):");
+            final ArrayList<Regression> regressions = findRegressions(mCurrent, history,
+                    percent);
+            for (int i = 0; i < regressions.size(); i++) {
+                pw.print("    "); pw.println(regressions.get(i));
+            }
+
+            pw.println("  Boots (newest first, --all for every service):");
+            dumpBoot(pw, mCurrent, format, true);
+            for (int i = history.size() - 1; i >= 0; i--) {
+                dumpBoot(pw, history.get(i), format, all);
+            }
+
+            if (mServiceGraph != null) {
+                pw.println("  Startup steps of this boot:");
+                mServiceGraph.dump(pw, "    ");
+            }
+        }
+    }
+
+    private static void dumpBoot(PrintWriter pw, Boot boot, SimpleDateFormat format,
+            boolean details) {
+        pw.print("    "); pw.print(format.format(new Date(boot.time)));
+        pw.print(" "); pw.print(boot.fingerprint);
+        if (boot.runtimeRestart) {
+            pw.print(" (runtime restart)");
+        }
+        pw.print(" total="); pw.print(boot.getTotal()); pw.println(" ms");
+        if (!details) {
+            return;
+        }
+        for (int i = 0; i < boot.durations.size(); i++) {
+            pw.print("      "); pw.print(boot.durations.keyAt(i)); pw.print(":");
+            final SparseLongArray serviceDurations = boot.durations.valueAt(i);
+            for (int j = 0; j < serviceDurations.size(); j++) {
+                pw.print(" "); pw.print(keyToString(serviceDurations.keyAt(j)));
+                pw.print("="); pw.print(serviceDurations.valueAt(j));
+            }
+            pw.println();
+        }
+    }
+}
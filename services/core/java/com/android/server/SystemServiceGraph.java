@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.ArrayMap;
+import android.util.Slog;
+import android.util.SparseArray;
+import android.util.TimingsTraceLog;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+/**
+ * Runs the steps of system server startup in the order their declared dependencies require.
+ * <p>
+ * A step is either run on the thread declaring it, in declaration order, or handed to
+ * {@link SystemServerInitThreadPool} as soon as the steps it depends on have finished, so that
+ * work nothing on the main thread needs yet overlaps with it. Steps can only depend on steps
+ * declared before them, which keeps the graph acyclic. A step can also be required to finish
+ * before a boot phase, which {@link SystemServiceManager#startBootPhase} then waits for.
+ * <p>
+ * When every step became ready, started and finished is recorded, so the chain of steps that
+ * boot time actually waited on can be reported as a critical path once boot completes.
+ *
+ * @hide
+ */
+public final class SystemServiceGraph {
+    private static final String TAG = "SystemServiceGraph";
+
+    private final TimingsTraceLog mTraceLog;
+    private final Thread mTraceLogThread;
+    private final String mAsyncTraceTag;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final ArrayMap<String, Step> mSteps = new ArrayMap<>();
+    // Steps in declaration order.
+    @GuardedBy("mLock")
+    private final ArrayList<Step> mOrder = new ArrayList<>();
+    // Asynchronous steps waiting for their dependencies.
+    @GuardedBy("mLock")
+    private final ArrayList<Step> mPending = new ArrayList<>();
+    // Names of the steps that have to finish before each boot phase.
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayList<String>> mPhasePrerequisites = new SparseArray<>();
+    // The serial step that finished last on each thread.
+    @GuardedBy("mLock")
+    private final ArrayMap<Thread, Step> mLastSerialSteps = new ArrayMap<>();
+
+    private static final class Step {
+        final String name;
+        final Runnable runnable;
+        final boolean async;
+        final Step[] dependencies;
+        // The last serial step that had finished on the declaring thread when this was declared.
+        final Step previous;
+
+        long declareTime;
+        long readyTime = -1;
+        long startTime = -1;
+        long endTime = -1;
+        boolean done;
+        Throwable failure;
+
+        Step(String name, Runnable runnable, boolean async, Step[] dependencies, Step previous) {
+            this.name = name;
+            this.runnable = runnable;
+            this.async = async;
+            this.dependencies = dependencies;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * @param traceLog Log steps run on the calling thread are traced in.
+     * @param asyncTraceTag Tag steps run on other threads log their timings with.
+     */
+    public SystemServiceGraph(TimingsTraceLog traceLog, String asyncTraceTag) {
+        mTraceLog = traceLog;
+        mTraceLogThread = Thread.currentThread();
+        mAsyncTraceTag = asyncTraceTag;
+    }
+
+    /**
+     * Runs a step on the calling thread once the steps it depends on have finished.
+     *
+     * @throws IllegalStateException if a step it depends on failed.
+     */
+    public void run(String name, Runnable runnable, String... dependencies) {
+        final Step step;
+        synchronized (mLock) {
+            step = declareLocked(name, runnable, false, dependencies);
+            waitForDependenciesLocked(step);
+            step.readyTime = SystemClock.elapsedRealtime();
+        }
+        final Throwable dependencyFailure = getDependencyFailure(step);
+        if (dependencyFailure != null) {
+            finish(step, dependencyFailure);
+            throw new IllegalStateException(name + " failed", dependencyFailure);
+        }
+        execute(step);
+    }
+
+    /**
+     * Runs a step on {@link SystemServerInitThreadPool} once the steps it depends on have
+     * finished. Failures are reported to the steps depending on it, and to {@link #waitFor}.
+     */
+    public void runAsync(String name, Runnable runnable, String... dependencies) {
+        synchronized (mLock) {
+            mPending.add(declareLocked(name, runnable, true, dependencies));
+        }
+        dispatchReadySteps();
+    }
+
+    /**
+     * Makes {@link SystemServiceManager#startBootPhase} wait for the given step before it
+     * starts the given phase or any later one.
+     */
+    public void requireBeforePhase(int phase, String name) {
+        synchronized (mLock) {
+            getStepLocked(name);
+            ArrayList<String> names = mPhasePrerequisites.get(phase);
+            if (names == null) {
+                names = new ArrayList<>();
+                mPhasePrerequisites.put(phase, names);
+            }
+            names.add(name);
+        }
+    }
+
+    /**
+     * @return The steps that have to finish before the given boot phase starts.
+     */
+    String[] getPhasePrerequisites(int phase) {
+        synchronized (mLock) {
+            final ArrayList<String> names = new ArrayList<>();
+            for (int i = 0; i < mPhasePrerequisites.size(); i++) {
+                if (mPhasePrerequisites.keyAt(i) <= phase) {
+                    names.addAll(mPhasePrerequisites.valueAt(i));
+                }
+            }
+            return names.toArray(new String[names.size()]);
+        }
+    }
+
+    /**
+     * Waits for a step to finish.
+     *
+     * @throws IllegalStateException if the step failed.
+     */
+    public void waitFor(String name) {
+        final Step step;
+        synchronized (mLock) {
+            step = getStepLocked(name);
+            while (!step.done) {
+                waitLocked();
+            }
+        }
+        if (step.failure != null) {
+            throw new IllegalStateException(name + " failed", step.failure);
+        }
+    }
+
+    /**
+     * Waits for every step declared so far to finish, whether it failed or not.
+     */
+    public void waitForAll() {
+        synchronized (mLock) {
+            for (int i = 0; i < mOrder.size(); i++) {
+                while (!mOrder.get(i).done) {
+                    waitLocked();
+                }
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private Step declareLocked(String name, Runnable runnable, boolean async,
+            String[] dependencies) {
+        // A service started twice gets a step per start; dependencies name the first one.
+        if (mSteps.containsKey(name)) {
+            int i = 2;
+            while (mSteps.containsKey(name + "#" + i)) {
+                i++;
+            }
+            name = name + "#" + i;
+        }
+        final Step[] steps = new Step[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            steps[i] = getStepLocked(dependencies[i]);
+        }
+        final Step step = new Step(name, runnable, async, steps,
+                mLastSerialSteps.get(Thread.currentThread()));
+        step.declareTime = SystemClock.elapsedRealtime();
+        mSteps.put(name, step);
+        mOrder.add(step);
+        return step;
+    }
+
+    @GuardedBy("mLock")
+    private Step getStepLocked(String name) {
+        final Step step = mSteps.get(name);
+        if (step == null) {
+            throw new IllegalArgumentException("Step " + name + " has not been declared");
+        }
+        return step;
+    }
+
+    @GuardedBy("mLock")
+    private static boolean dependenciesDoneLocked(Step step) {
+        for (Step dependency : step.dependencies) {
+            if (!dependency.done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private void waitForDependenciesLocked(Step step) {
+        while (!dependenciesDoneLocked(step)) {
+            waitLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void waitLocked() {
+        try {
+            mLock.wait();
+        } catch (InterruptedException e) {
+            // Nothing interrupts system server startup; keep waiting.
+        }
+    }
+
+    private Throwable getDependencyFailure(Step step) {
+        synchronized (mLock) {
+            for (Step dependency : step.dependencies) {
+                if (dependency.failure != null) {
+                    return dependency.failure;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void dispatchReadySteps() {
+        final ArrayList<Step> ready = new ArrayList<>();
+        synchronized (mLock) {
+            for (int i = 0; i < mPending.size(); i++) {
+                final Step step = mPending.get(i);
+                if (dependenciesDoneLocked(step)) {
+                    step.readyTime = SystemClock.elapsedRealtime();
+                    ready.add(step);
+                    mPending.remove(i--);
+                }
+            }
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            final Step step = ready.get(i);
+            final Throwable dependencyFailure = getDependencyFailure(step);
+            if (dependencyFailure != null) {
+                Slog.e(TAG, "Not running " + step.name + ": a step it depends on failed");
+                finish(step, dependencyFailure);
+            } else {
+                SystemServerInitThreadPool.get().submit(() -> execute(step), step.name);
+            }
+        }
+    }
+
+    private void execute(Step step) {
+        // TimingsTraceLog keeps a stack of sections, so only one thread may use each.
+        final TimingsTraceLog traceLog = Thread.currentThread() == mTraceLogThread
+                ? mTraceLog
+                : new TimingsTraceLog(mAsyncTraceTag, Trace.TRACE_TAG_SYSTEM_SERVER);
+        synchronized (mLock) {
+            step.startTime = SystemClock.elapsedRealtime();
+        }
+        Slog.i(TAG, step.name);
+        traceLog.traceBegin(step.name);
+        Throwable failure = null;
+        try {
+            step.runnable.run();
+        } catch (Throwable t) {
+            failure = t;
+            if (step.async) {
+                Slog.e(TAG, "Failure in " + step.name, t);
+            }
+        } finally {
+            traceLog.traceEnd();
+            finish(step, failure);
+        }
+        if (!step.async) {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    private void finish(Step step, Throwable failure) {
+        synchronized (mLock) {
+            step.endTime = SystemClock.elapsedRealtime();
+            step.failure = failure;
+            step.done = true;
+            if (!step.async) {
+                mLastSerialSteps.put(Thread.currentThread(), step);
+            }
+            mLock.notifyAll();
+        }
+        dispatchReadySteps();
+    }
+
+    /**
+     * @return The step that kept the given one from starting any earlier.
+     */
+    @GuardedBy("mLock")
+    private static Step getCriticalPredecessorLocked(Step step) {
+        Step latest = step.previous;
+        for (Step dependency : step.dependencies) {
+            if (latest == null || dependency.endTime > latest.endTime) {
+                latest = dependency;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Prints every step, and the chain of steps that led up to the last one to finish.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        synchronized (mLock) {
+            if (mOrder.isEmpty()) {
+                return;
+            }
+            final long base = mOrder.get(0).declareTime;
+            Step last = null;
+            pw.print(prefix); pw.println("Steps (start, duration and wait in ms):");
+            for (int i = 0; i < mOrder.size(); i++) {
+                final Step step = mOrder.get(i);
+                pw.print(prefix); pw.print("  "); pw.print(step.name);
+                pw.print(step.async ? " async" : "");
+                if (!step.done) {
+                    pw.println(" pending");
+                    continue;
+                }
+                if (step.startTime >= 0) {
+                    pw.print(" start="); pw.print(step.startTime - base);
+                    pw.print(" took="); pw.print(step.endTime - step.startTime);
+                }
+                pw.print(" waited="); pw.print(getWaitTime(step));
+                pw.println(step.failure != null ? " FAILED" : "");
+                if (last == null || step.endTime >= last.endTime) {
+                    last = step;
+                }
+            }
+            if (last == null) {
+                return;
+            }
+
+            final ArrayList<Step> path = new ArrayList<>();
+            for (Step step = last; step != null; step = getCriticalPredecessorLocked(step)) {
+                path.add(step);
+            }
+            pw.print(prefix); pw.print("Critical path ("); pw.print(last.endTime - base);
+            pw.println(" ms):");
+            for (int i = path.size() - 1; i >= 0; i--) {
+                final Step step = path.get(i);
+                pw.print(prefix); pw.print("  "); pw.print(step.name);
+                pw.print(" took="); pw.print(step.startTime >= 0
+                        ? step.endTime - step.startTime : 0);
+                pw.print(" waited="); pw.println(getWaitTime(step));
+            }
+        }
+    }
+
+    /**
+     * @return How long a step waited for its dependencies and, if asynchronous, for a thread.
+     */
+    private static long getWaitTime(Step step) {
+        final long start = step.startTime >= 0 ? step.startTime : step.endTime;
+        return start - step.declareTime;
+    }
+
+    /**
+     * Logs what {@link #dump} prints.
+     */
+    public void logCriticalPath() {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        dump(pw, "");
+        pw.flush();
+        for (String line : sw.toString().split("\n")) {
+            Slog.i(TAG, line);
+        }
+    }
+}
@@ -18,13 +18,20 @@ package com.android.server;
 
 import android.annotation.NonNull;
 import android.content.Context;
+import android.os.Environment;
 import android.os.SystemClock;
 import android.os.Trace;
+import android.util.IntArray;
 import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.File;
+import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages creating, starting, and other lifecycle events of
@@ -40,13 +47,38 @@ public class SystemServiceManager {
     private boolean mSafeMode;
     private boolean mRuntimeRestarted;
 
-    // Services that should receive lifecycle events.
-    private final ArrayList<SystemService> mServices = new ArrayList<SystemService>();
+    // Services that should receive lifecycle events. Services may be started on the init
+    // thread pool while other services start, so registering must not disturb iteration.
+    private final CopyOnWriteArrayList<SystemService> mServices =
+            new CopyOnWriteArrayList<SystemService>();
+
+    // The order services were asked to start in, for each of mServices. Services started on the
+    // init thread pool are registered in that order too, so lifecycle events reach them in the
+    // same order on every boot.
+    @GuardedBy("mServices")
+    private final IntArray mServiceOrder = new IntArray();
+    @GuardedBy("mServices")
+    private int mNextServiceOrder;
 
     private int mCurrentPhase = -1;
 
+    // Steps of startup until boot completes, or null.
+    private volatile SystemServiceGraph mServiceGraph;
+
+    // How long services took to start and to handle boot phases, across boots.
+    private final SystemServiceBootTimes mBootTimes;
+
     SystemServiceManager(Context context) {
         mContext = context;
+        mBootTimes = new SystemServiceBootTimes(
+                new File(Environment.getDataSystemDirectory(), "boot_timings.xml"));
+    }
+
+    /**
+     * Dumps how long services took to start and to handle boot phases, across boots.
+     */
+    public void dumpBootTimes(PrintWriter pw, String[] args) {
+        mBootTimes.dump(pw, args);
     }
 
     /**
@@ -78,8 +110,51 @@ public class SystemServiceManager {
      * @return The service instance, never null.
      * @throws RuntimeException if the service fails to start.
      */
-    @SuppressWarnings("unchecked")
     public <T extends SystemService> T startService(Class<T> serviceClass) {
+        final SystemServiceGraph graph = mServiceGraph;
+        if (graph == null) {
+            return createAndStartService(serviceClass);
+        }
+        final int order = nextServiceOrder();
+        final ArrayList<T> service = new ArrayList<>(1);
+        graph.run(serviceClass.getName(),
+                () -> service.add(createAndStartService(serviceClass, order)));
+        return service.get(0);
+    }
+
+    /**
+     * Creates and starts a system service on {@link SystemServerInitThreadPool} once the given
+     * steps have finished, and makes the next boot phase wait for it. Only for services whose
+     * constructor and onStart don't depend on the thread they run on, for example by creating
+     * Handlers for its Looper. The service still gets lifecycle events in the order this was
+     * called in. Starts the service right away once boot has completed.
+     *
+     * @param serviceClass A Java class that implements the SystemService interface.
+     * @param dependencies The names of the steps the service needs to start, such as the class
+     *         names of other services.
+     */
+    public void startServiceAsync(Class<? extends SystemService> serviceClass,
+            String... dependencies) {
+        final SystemServiceGraph graph = mServiceGraph;
+        if (graph == null) {
+            createAndStartService(serviceClass, nextServiceOrder());
+            return;
+        }
+        final int order = nextServiceOrder();
+        final String name = serviceClass.getName();
+        graph.runAsync(name, () -> createAndStartService(serviceClass, order), dependencies);
+        graph.requireBeforePhase(mCurrentPhase + 1, name);
+    }
+
+    private int nextServiceOrder() {
+        synchronized (mServices) {
+            return mNextServiceOrder++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends SystemService> T createAndStartService(Class<T> serviceClass,
+            int order) {
         try {
             final String name = serviceClass.getName();
             Slog.i(TAG, "Starting " + name);
@@ -91,6 +166,7 @@ public class SystemServiceManager {
                         + ": service must extend " + SystemService.class.getName());
             }
             final T service;
+            long time = SystemClock.elapsedRealtime();
             try {
                 Constructor<T> constructor = serviceClass.getConstructor(Context.class);
                 service = constructor.newInstance(mContext);
@@ -107,8 +183,10 @@ public class SystemServiceManager {
                 throw new RuntimeException("Failed to create service " + name
                         + ": service constructor threw an exception", ex);
             }
+            mBootTimes.noteDuration(name, SystemServiceBootTimes.KEY_CREATE,
+                    SystemClock.elapsedRealtime() - time);
 
-            startService(service);
+            startServiceInternal(service, order);
             return service;
         } finally {
             Trace.traceEnd(Trace.TRACE_TAG_SYSTEM_SERVER);
@@ -116,8 +194,25 @@ public class SystemServiceManager {
     }
 
     public void startService(@NonNull final SystemService service) {
-        // Register it.
-        mServices.add(service);
+        final int order = nextServiceOrder();
+        final SystemServiceGraph graph = mServiceGraph;
+        if (graph != null) {
+            graph.run(service.getClass().getName(), () -> startServiceInternal(service, order));
+        } else {
+            startServiceInternal(service, order);
+        }
+    }
+
+    private void startServiceInternal(@NonNull final SystemService service, int order) {
+        // Register it, after the services that were asked to start before it.
+        synchronized (mServices) {
+            int index = mServiceOrder.size();
+            while (index > 0 && mServiceOrder.get(index - 1) > order) {
+                index--;
+            }
+            mServiceOrder.add(index, order);
+            mServices.add(index, service);
+        }
         // Start it.
         long time = SystemClock.elapsedRealtime();
         try {
@@ -126,12 +221,16 @@ public class SystemServiceManager {
             throw new RuntimeException("Failed to start service " + service.getClass().getName()
                     + ": onStart threw an exception", ex);
         }
-        warnIfTooLong(SystemClock.elapsedRealtime() - time, service, "onStart");
+        final long duration = SystemClock.elapsedRealtime() - time;
+        mBootTimes.noteDuration(service.getClass().getName(), SystemServiceBootTimes.KEY_START,
+                duration);
+        warnIfTooLong(duration, service, "onStart");
     }
 
     /**
      * Starts the specified boot phase for all system services that have been started up to
-     * this point.
+     * this point. If startup runs from a {@link SystemServiceGraph}, waits for the steps that
+     * are required to finish before the phase first.
      *
      * @param phase The boot phase to start.
      */
@@ -142,25 +241,44 @@ public class SystemServiceManager {
         mCurrentPhase = phase;
 
         Slog.i(TAG, "Starting phase " + mCurrentPhase);
-        try {
-            Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, "OnBootPhase " + phase);
-            final int serviceLen = mServices.size();
-            for (int i = 0; i < serviceLen; i++) {
-                final SystemService service = mServices.get(i);
-                long time = SystemClock.elapsedRealtime();
-                Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, service.getClass().getName());
-                try {
-                    service.onBootPhase(mCurrentPhase);
-                } catch (Exception ex) {
-                    throw new RuntimeException("Failed to boot service "
-                            + service.getClass().getName()
-                            + ": onBootPhase threw an exception during phase "
-                            + mCurrentPhase, ex);
-                }
-                warnIfTooLong(SystemClock.elapsedRealtime() - time, service, "onBootPhase");
+        final SystemServiceGraph graph = mServiceGraph;
+        if (graph != null) {
+            graph.run("OnBootPhase " + phase, () -> dispatchBootPhase(phase),
+                    graph.getPhasePrerequisites(phase));
+            if (phase >= SystemService.PHASE_BOOT_COMPLETED) {
+                graph.logCriticalPath();
+                mServiceGraph = null;
+            }
+        } else {
+            try {
+                Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, "OnBootPhase " + phase);
+                dispatchBootPhase(phase);
+            } finally {
                 Trace.traceEnd(Trace.TRACE_TAG_SYSTEM_SERVER);
             }
-        } finally {
+        }
+        if (phase >= SystemService.PHASE_BOOT_COMPLETED) {
+            mBootTimes.bootCompleted(mRuntimeRestarted, graph);
+        }
+    }
+
+    private void dispatchBootPhase(int phase) {
+        final int serviceLen = mServices.size();
+        for (int i = 0; i < serviceLen; i++) {
+            final SystemService service = mServices.get(i);
+            long time = SystemClock.elapsedRealtime();
+            Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, service.getClass().getName());
+            try {
+                service.onBootPhase(phase);
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to boot service "
+                        + service.getClass().getName()
+                        + ": onBootPhase threw an exception during phase "
+                        + phase, ex);
+            }
+            final long duration = SystemClock.elapsedRealtime() - time;
+            mBootTimes.noteDuration(service.getClass().getName(), phase, duration);
+            warnIfTooLong(duration, service, "onBootPhase");
             Trace.traceEnd(Trace.TRACE_TAG_SYSTEM_SERVER);
         }
     }
@@ -291,6 +409,14 @@ public class SystemServiceManager {
         mRuntimeRestarted = runtimeRestarted;
     }
 
+    /**
+     * Runs service starts and boot phases as steps of the given graph until boot completes,
+     * so that they are part of its critical path.
+     */
+    void setServiceGraph(SystemServiceGraph graph) {
+        mServiceGraph = graph;
+    }
+
     private void warnIfTooLong(long duration, SystemService service, String operation) {
         if (duration > SERVICE_CALL_WARN_TIME_MS) {
             Slog.w(TAG, "Service " + service.getClass().getName() + " took " + duration + " ms in "
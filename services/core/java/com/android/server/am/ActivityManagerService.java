@@ -549,6 +549,9 @@ public class ActivityManagerService extends IActivityManager.Stub
     // Maximum number of persisted Uri grants a package is allowed
     static final int MAX_PERSISTED_URI_GRANTS = 128;
 
+    // Number of task snapshots to start loading ahead of Recents in getTaskSnapshot()
+    static final int PREFETCH_TASK_SNAPSHOT_COUNT = 3;
+
     static final int MY_PID = myPid();
 
     static final String[] EMPTY_STRING_ARRAY = new String[0];
@@ -3949,10 +3952,13 @@ public class ActivityManagerService extends IActivityManager.Stub
                         app.info.targetSdkVersion, seInfo, requiredAbi, instructionSet,
                         app.info.dataDir, null, entryPointArgs, refreshFont);
             } else {
+                // Activity launches are what the user waits for, so they get the processes
+                // the zygote forked ahead of time.
+                final boolean usePool = "activity".equals(hostingType) && invokeWith == null;
                 startResult = Process.start(entryPoint,
                         app.processName, uid, uid, gids, debugFlags, mountExternal,
                         app.info.targetSdkVersion, seInfo, requiredAbi, instructionSet,
-                        app.info.dataDir, invokeWith, entryPointArgs, refreshFont);
+                        app.info.dataDir, invokeWith, entryPointArgs, refreshFont, usePool);
             }
             checkTime(startTime, "startProcess: returned from zygote!");
             Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
@@ -10335,6 +10341,9 @@ public class ActivityManagerService extends IActivityManager.Stub
         final long ident = Binder.clearCallingIdentity();
         try {
             final TaskRecord task;
+            final int[] nextTaskIds = new int[PREFETCH_TASK_SNAPSHOT_COUNT];
+            final int[] nextUserIds = new int[PREFETCH_TASK_SNAPSHOT_COUNT];
+            final int nextCount;
             synchronized (this) {
                 task = mStackSupervisor.anyTaskForIdLocked(taskId,
                         MATCH_TASK_IN_STACKS_OR_RECENT_TASKS, INVALID_STACK_ID);
@@ -10342,6 +10351,13 @@ public class ActivityManagerService extends IActivityManager.Stub
                     Slog.w(TAG, "getTaskSnapshot: taskId=" + taskId + " not found");
                     return null;
                 }
+                nextCount = mRecentTasks.getTasksAfterLocked(task, nextTaskIds, nextUserIds);
+            }
+            // Recents asks for the snapshots in list order while scrolling, so start decoding the
+            // next ones while this one is being loaded.
+            if (nextCount > 0) {
+                mWindowManager.prefetchTaskSnapshots(Arrays.copyOf(nextTaskIds, nextCount),
+                        Arrays.copyOf(nextUserIds, nextCount), reducedResolution);
             }
             // Don't call this while holding the lock as this operation might hit the disk.
             return task.getSnapshot(reducedResolution);
@@ -15142,6 +15158,10 @@ public class ActivityManagerService extends IActivityManager.Stub
                 synchronized (this) {
                     dumpActivityStarterLocked(pw, dumpPackage);
                 }
+            } else if ("boot-times".equals(cmd)) {
+                // Not under the AMS lock, the boot timings have their own.
+                mSystemServiceManager.dumpBootTimes(pw,
+                        Arrays.copyOfRange(args, opti, args.length));
             } else if ("recents".equals(cmd) || "r".equals(cmd)) {
                 synchronized (this) {
                     dumpRecentsLocked(fd, pw, args, opti, true, dumpPackage);
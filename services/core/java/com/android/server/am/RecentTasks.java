@@ -260,6 +260,26 @@ class RecentTasks extends ArrayList<TaskRecord> {
         return null;
     }
 
+    /**
+     * Collects the tasks that follow {@code task} in the list, which is the order Recents shows
+     * them in when scrolling back in time.
+     *
+     * @return The number of tasks written to {@code outTaskIds} and {@code outUserIds}.
+     */
+    int getTasksAfterLocked(TaskRecord task, int[] outTaskIds, int[] outUserIds) {
+        final int index = indexOf(task);
+        if (index < 0) {
+            return 0;
+        }
+        final int count = Math.min(outTaskIds.length, size() - index - 1);
+        for (int i = 0; i < count; i++) {
+            final TaskRecord next = get(index + 1 + i);
+            outTaskIds[i] = next.taskId;
+            outUserIds[i] = next.userId;
+        }
+        return count;
+    }
+
     /** Remove recent tasks for a user. */
     void removeTasksForUserLocked(int userId) {
         if(userId <= 0) {
@@ -60,6 +60,7 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.IndentingPrintWriter;
@@ -130,6 +131,7 @@ public final class ContentService extends IContentService.Stub {
     private boolean mFactoryTest;
 
     private final ObserverNode mRootNode = new ObserverNode("");
+    private final ObserverBatcher mObserverBatcher;
 
     private SyncManager mSyncManager = null;
     private final Object mSyncManagerLock = new Object();
@@ -240,6 +242,7 @@ public final class ContentService extends IContentService.Stub {
                 pw.print(" Total number of nodes: "); pw.println(counts[0]);
                 pw.print(" Total number of observers: "); pw.println(counts[1]);
             }
+            mObserverBatcher.dump(pw);
 
             synchronized (mCache) {
                 pw.println();
@@ -276,6 +279,8 @@ public final class ContentService extends IContentService.Stub {
     /*package*/ ContentService(Context context, boolean factoryTest) {
         mContext = context;
         mFactoryTest = factoryTest;
+        mObserverBatcher = new ObserverBatcher(BackgroundThread.get().getLooper(),
+                this::removeDeadObserver);
 
         // Let the package manager query for the sync adapters for a given authority
         // as we grant default permissions to sync adapters for specific authorities.
@@ -319,6 +324,23 @@ public final class ContentService extends IContentService.Stub {
     @Override
     public void registerContentObserver(Uri uri, boolean notifyForDescendants,
             IContentObserver observer, int userHandle, int targetSdkVersion) {
+        registerContentObserver(uri, notifyForDescendants, observer, userHandle,
+                targetSdkVersion, false /* batched */);
+    }
+
+    /**
+     * Like {@link #registerContentObserver}, but changes are coalesced for a short time and
+     * delivered to {@link IContentObserver#onChangeBatch}.
+     */
+    @Override
+    public void registerBatchedContentObserver(Uri uri, boolean notifyForDescendants,
+            IContentObserver observer, int userHandle, int targetSdkVersion) {
+        registerContentObserver(uri, notifyForDescendants, observer, userHandle,
+                targetSdkVersion, true /* batched */);
+    }
+
+    private void registerContentObserver(Uri uri, boolean notifyForDescendants,
+            IContentObserver observer, int userHandle, int targetSdkVersion, boolean batched) {
         if (observer == null || uri == null) {
             throw new IllegalArgumentException("You must pass a valid uri and observer");
         }
@@ -346,10 +368,11 @@ public final class ContentService extends IContentService.Stub {
         }
 
         synchronized (mRootNode) {
-            mRootNode.addObserverLocked(uri, observer, notifyForDescendants, mRootNode,
-                    uid, pid, userHandle);
+            mRootNode.addObserverLocked(uri, observer, notifyForDescendants, batched,
+                    mRootNode, uid, pid, userHandle);
             if (false) Log.v(TAG, "Registered observer " + observer + " at " + uri +
-                    " with notifyForDescendants " + notifyForDescendants);
+                    " with notifyForDescendants " + notifyForDescendants
+                    + " batched " + batched);
         }
     }
 
@@ -368,6 +391,7 @@ public final class ContentService extends IContentService.Stub {
             mRootNode.removeObserverLocked(observer);
             if (false) Log.v(TAG, "Unregistered observer " + observer);
         }
+        mObserverBatcher.removeObserver(observer);
     }
 
     /**
@@ -424,26 +448,16 @@ public final class ContentService extends IContentService.Stub {
             final int numCalls = calls.size();
             for (int i=0; i<numCalls; i++) {
                 ObserverCall oc = calls.get(i);
+                if (oc.mBatched) {
+                    mObserverBatcher.add(oc, uri, userHandle);
+                    continue;
+                }
                 try {
                     oc.mObserver.onChange(oc.mSelfChange, uri, userHandle);
                     if (DEBUG) Slog.d(TAG, "Notified " + oc.mObserver + " of " + "update at "
                             + uri);
                 } catch (RemoteException ex) {
-                    synchronized (mRootNode) {
-                        Log.w(TAG, "Found dead observer, removing");
-                        IBinder binder = oc.mObserver.asBinder();
-                        final ArrayList<ObserverNode.ObserverEntry> list
-                                = oc.mNode.mObservers;
-                        int numList = list.size();
-                        for (int j=0; j<numList; j++) {
-                            ObserverNode.ObserverEntry oe = list.get(j);
-                            if (oe.observer.asBinder() == binder) {
-                                list.remove(j);
-                                j--;
-                                numList--;
-                            }
-                        }
-                    }
+                    removeDeadObserver(oc.mNode, oc.mObserver);
                 }
             }
             if ((flags&ContentResolver.NOTIFY_SYNC_TO_NETWORK) != 0) {
@@ -463,6 +477,23 @@ public final class ContentService extends IContentService.Stub {
         }
     }
 
+    private void removeDeadObserver(ObserverNode node, IContentObserver observer) {
+        synchronized (mRootNode) {
+            Log.w(TAG, "Found dead observer, removing");
+            IBinder binder = observer.asBinder();
+            final ArrayList<ObserverNode.ObserverEntry> list = node.mObservers;
+            int numList = list.size();
+            for (int j=0; j<numList; j++) {
+                ObserverNode.ObserverEntry oe = list.get(j);
+                if (oe.observer.asBinder() == binder) {
+                    list.remove(j);
+                    j--;
+                    numList--;
+                }
+            }
+        }
+    }
+
     private int checkUriPermission(Uri uri, int pid, int uid, int modeFlags, int userHandle) {
         try {
             return ActivityManager.getService().checkUriPermission(
@@ -490,12 +521,15 @@ public final class ContentService extends IContentService.Stub {
         final IContentObserver mObserver;
         final boolean mSelfChange;
         final int mObserverUserId;
+        final boolean mBatched;
 
-        ObserverCall(ObserverNode node, IContentObserver observer, boolean selfChange, int observerUserId) {
+        ObserverCall(ObserverNode node, IContentObserver observer, boolean selfChange,
+                int observerUserId, boolean batched) {
             mNode = node;
             mObserver = observer;
             mSelfChange = selfChange;
             mObserverUserId = observerUserId;
+            mBatched = batched;
         }
     }
 
@@ -1251,10 +1285,11 @@ public final class ContentService extends IContentService.Stub {
             public final int uid;
             public final int pid;
             public final boolean notifyForDescendants;
+            public final boolean batched;
             private final int userHandle;
             private final Object observersLock;
 
-            public ObserverEntry(IContentObserver o, boolean n, Object observersLock,
+            public ObserverEntry(IContentObserver o, boolean n, boolean b, Object observersLock,
                                  int _uid, int _pid, int _userHandle) {
                 this.observersLock = observersLock;
                 observer = o;
@@ -1262,6 +1297,7 @@ public final class ContentService extends IContentService.Stub {
                 pid = _pid;
                 userHandle = _userHandle;
                 notifyForDescendants = n;
+                batched = b;
                 try {
                     observer.asBinder().linkToDeath(this, 0);
                 } catch (RemoteException e) {
@@ -1282,7 +1318,9 @@ public final class ContentService extends IContentService.Stub {
                 pw.print(prefix); pw.print(name); pw.print(": pid=");
                 pw.print(pid); pw.print(" uid=");
                 pw.print(uid); pw.print(" user=");
-                pw.print(userHandle); pw.print(" target=");
+                pw.print(userHandle);
+                if (batched) pw.print(" batched");
+                pw.print(" target=");
                 pw.println(Integer.toHexString(System.identityHashCode(
                         observer != null ? observer.asBinder() : null)));
             }
@@ -1354,17 +1392,24 @@ public final class ContentService extends IContentService.Stub {
         public void addObserverLocked(Uri uri, IContentObserver observer,
                                       boolean notifyForDescendants, Object observersLock,
                                       int uid, int pid, int userHandle) {
-            addObserverLocked(uri, 0, observer, notifyForDescendants, observersLock,
+            addObserverLocked(uri, 0, observer, notifyForDescendants, false, observersLock,
+                    uid, pid, userHandle);
+        }
+
+        public void addObserverLocked(Uri uri, IContentObserver observer,
+                                      boolean notifyForDescendants, boolean batched,
+                                      Object observersLock, int uid, int pid, int userHandle) {
+            addObserverLocked(uri, 0, observer, notifyForDescendants, batched, observersLock,
                     uid, pid, userHandle);
         }
 
         private void addObserverLocked(Uri uri, int index, IContentObserver observer,
-                                       boolean notifyForDescendants, Object observersLock,
-                                       int uid, int pid, int userHandle) {
+                                       boolean notifyForDescendants, boolean batched,
+                                       Object observersLock, int uid, int pid, int userHandle) {
             // If this is the leaf node add the observer
             if (index == countUriSegments(uri)) {
-                mObservers.add(new ObserverEntry(observer, notifyForDescendants, observersLock,
-                        uid, pid, userHandle));
+                mObservers.add(new ObserverEntry(observer, notifyForDescendants, batched,
+                        observersLock, uid, pid, userHandle));
                 return;
             }
 
@@ -1378,7 +1423,7 @@ public final class ContentService extends IContentService.Stub {
                 ObserverNode node = mChildren.get(i);
                 if (node.mName.equals(segment)) {
                     node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
+                            batched, observersLock, uid, pid, userHandle);
                     return;
                 }
             }
@@ -1387,7 +1432,7 @@ public final class ContentService extends IContentService.Stub {
             ObserverNode node = new ObserverNode(segment);
             mChildren.add(node);
             node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                    observersLock, uid, pid, userHandle);
+                    batched, observersLock, uid, pid, userHandle);
         }
 
         public boolean removeObserverLocked(IContentObserver observer) {
@@ -1462,7 +1507,7 @@ public final class ContentService extends IContentService.Stub {
                             + " flags=" + Integer.toHexString(flags)
                             + " desc=" + entry.notifyForDescendants);
                     calls.add(new ObserverCall(this, entry.observer, selfChange,
-                            UserHandle.getUserId(entry.uid)));
+                            UserHandle.getUserId(entry.uid), entry.batched));
                 }
             }
         }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.content.ContentService.ObserverCall;
+import com.android.server.content.ContentService.ObserverNode;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Coalesces change notifications for observers that asked for them in batches.
+ *
+ * <p>The first change for an observer opens a batch that is delivered
+ * {@link #BATCH_WINDOW_MILLIS} later, with every distinct Uri that changed in the meantime, in
+ * a single {@link IContentObserver#onChangeBatch} call. Notifications with a different
+ * self-change flag or user go into separate batches. A batch that reaches
+ * {@link #MAX_BATCH_SIZE} Uris is delivered right away, so that the call stays well within
+ * the binder transaction limit.</p>
+ */
+final class ObserverBatcher {
+    static final long BATCH_WINDOW_MILLIS = 50;
+    static final int MAX_BATCH_SIZE = 256;
+
+    private static final int MSG_DELIVER = 1;
+
+    interface Callback {
+        /**
+         * Called when a batch could not be delivered because the observer died.
+         */
+        void onObserverDied(ObserverNode node, IContentObserver observer);
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final Callback mCallback;
+
+    /** Open batches, by observer binder. There is rarely more than one per observer. */
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, ArrayList<Batch>> mPending = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private long mNotificationCount;
+    @GuardedBy("mLock")
+    private long mDeliveredUriCount;
+    @GuardedBy("mLock")
+    private long mBatchCount;
+
+    private static final class Batch {
+        final IBinder binder;
+        final IContentObserver observer;
+        final ObserverNode node;
+        final boolean selfChange;
+        final int userId;
+        final LinkedHashSet<Uri> uris = new LinkedHashSet<>();
+        boolean delivered;
+
+        Batch(ObserverCall call, int userId) {
+            binder = call.mObserver.asBinder();
+            observer = call.mObserver;
+            node = call.mNode;
+            selfChange = call.mSelfChange;
+            this.userId = userId;
+        }
+    }
+
+    ObserverBatcher(Looper looper, Callback callback) {
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_DELIVER) {
+                    deliver((Batch) msg.obj);
+                }
+            }
+        };
+        mCallback = callback;
+    }
+
+    /**
+     * Queues the change of the given Uri for the observer of the given call.
+     */
+    public void add(ObserverCall call, Uri uri, int userId) {
+        synchronized (mLock) {
+            mNotificationCount++;
+            final IBinder binder = call.mObserver.asBinder();
+            ArrayList<Batch> batches = mPending.get(binder);
+            if (batches == null) {
+                batches = new ArrayList<>(1);
+                mPending.put(binder, batches);
+            }
+            Batch batch = null;
+            for (int i = 0; i < batches.size(); i++) {
+                final Batch b = batches.get(i);
+                if (b.selfChange == call.mSelfChange && b.userId == userId) {
+                    batch = b;
+                    break;
+                }
+            }
+            if (batch == null) {
+                batch = new Batch(call, userId);
+                batches.add(batch);
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DELIVER, batch),
+                        BATCH_WINDOW_MILLIS);
+            }
+            batch.uris.add(uri);
+            if (batch.uris.size() >= MAX_BATCH_SIZE) {
+                removeLocked(batch);
+                mHandler.sendMessage(mHandler.obtainMessage(MSG_DELIVER, batch));
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void removeLocked(Batch batch) {
+        final ArrayList<Batch> batches = mPending.get(batch.binder);
+        if (batches != null && batches.remove(batch) && batches.isEmpty()) {
+            mPending.remove(batch.binder);
+        }
+    }
+
+    private void deliver(Batch batch) {
+        final Uri[] uris;
+        synchronized (mLock) {
+            // A batch that filled up is delivered early; its timer then finds it done.
+            if (batch.delivered) {
+                return;
+            }
+            batch.delivered = true;
+            removeLocked(batch);
+            uris = batch.uris.toArray(new Uri[batch.uris.size()]);
+            mDeliveredUriCount += uris.length;
+            mBatchCount++;
+        }
+        try {
+            batch.observer.onChangeBatch(batch.selfChange, uris, batch.userId);
+        } catch (RemoteException e) {
+            mCallback.onObserverDied(batch.node, batch.observer);
+        }
+    }
+
+    /**
+     * Drops the open batches of an observer that unregistered.
+     */
+    public void removeObserver(IContentObserver observer) {
+        synchronized (mLock) {
+            final ArrayList<Batch> batches = mPending.remove(observer.asBinder());
+            if (batches != null) {
+                for (int i = 0; i < batches.size(); i++) {
+                    final Batch batch = batches.get(i);
+                    batch.delivered = true;
+                    mHandler.removeMessages(MSG_DELIVER, batch);
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getPendingObserverCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.print(" Batched notifications: "); pw.print(mNotificationCount);
+            pw.print(" (distinct Uris delivered: "); pw.print(mDeliveredUriCount);
+            pw.print(", callbacks: "); pw.print(mBatchCount);
+            pw.print(", observers pending: "); pw.print(mPending.size());
+            pw.println(")");
+        }
+    }
+}
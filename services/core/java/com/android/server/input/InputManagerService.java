@@ -86,6 +86,7 @@ import android.provider.Settings.SettingNotFoundException;
 import android.text.TextUtils;
 import android.util.Slog;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 import android.util.Xml;
 import android.view.Display;
 import android.view.IInputFilter;
@@ -94,6 +95,7 @@ import android.view.IWindow;
 import android.view.InputChannel;
 import android.view.InputDevice;
 import android.view.InputEvent;
+import android.view.InputLatencyStats;
 import android.view.KeyEvent;
 import android.view.PointerIcon;
 import android.view.Surface;
@@ -159,6 +161,14 @@ public class InputManagerService extends IInputManager.Stub
     private final List<TabletModeChangedListenerRecord> mTempTabletModeChangedListenersToNotify =
             new ArrayList<>();
 
+    // Input latency reported by app windows since boot.
+    private final Object mInputLatencyLock = new Object();
+    private final InputLatencyStats mInputLatencyStats =
+            new InputLatencyStats(); // guarded by mInputLatencyLock
+    private long mInputLatencyReportCount; // guarded by mInputLatencyLock
+    private final SparseLongArray mInputLatencyReportCountByUid =
+            new SparseLongArray(); // guarded by mInputLatencyLock
+
     // Persistent data store.  Must be locked each time during use.
     private final PersistentDataStore mDataStore = new PersistentDataStore();
 
@@ -1567,6 +1577,17 @@ public class InputManagerService extends IInputManager.Stub
         nativeSetInputWindows(mPtr, windowHandles);
     }
 
+    /**
+     * Adds the input latency a window recorded to the histogram shown by dumpsys input.
+     */
+    public void reportInputLatency(int uid, InputLatencyStats stats) {
+        synchronized (mInputLatencyLock) {
+            mInputLatencyStats.add(stats);
+            mInputLatencyReportCount++;
+            mInputLatencyReportCountByUid.put(uid, mInputLatencyReportCountByUid.get(uid) + 1);
+        }
+    }
+
     public void setFocusedApplication(InputApplicationHandle application) {
         nativeSetFocusedApplication(mPtr, application);
     }
@@ -1807,6 +1828,17 @@ public class InputManagerService extends IInputManager.Stub
             }
         });
         pw.println();
+        synchronized (mInputLatencyLock) {
+            pw.println("  Input Latency: reports=" + mInputLatencyReportCount);
+            mInputLatencyStats.dump(pw, "    ");
+            pw.print("    reports by uid:");
+            for (int i = 0; i < mInputLatencyReportCountByUid.size(); i++) {
+                pw.print(" " + mInputLatencyReportCountByUid.keyAt(i) + "="
+                        + mInputLatencyReportCountByUid.valueAt(i));
+            }
+            pw.println();
+        }
+        pw.println();
         synchronized(mDataStore) {
             mDataStore.dump(pw, "  ");
         }
@@ -65,6 +65,7 @@ import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManagerInternal;
 import android.provider.Settings;
+import android.util.ArraySet;
 import android.util.KeyValueListParser;
 import android.util.Slog;
 import android.util.SparseArray;
@@ -145,6 +146,11 @@ public final class JobSchedulerService extends com.android.server.SystemService
      * when ready to execute them.
      */
     final ArrayList<JobStatus> mPendingJobs = new ArrayList<>();
+    /**
+     * Same jobs as {@link #mPendingJobs}, for cheap membership checks which happen for every
+     * job on each pass over the job store.  Only modify through the *PendingJob*Locked methods.
+     */
+    final ArraySet<JobStatus> mPendingJobSet = new ArraySet<>();
 
     int[] mStartedUsers = EmptyArray.INT;
 
@@ -490,6 +496,40 @@ public final class JobSchedulerService extends com.android.server.SystemService
         array.add(where, newItem);
     }
 
+    private void addPendingJobLocked(JobStatus job) {
+        mJobPackageTracker.notePending(job);
+        addOrderedItem(mPendingJobs, job, mEnqueueTimeComparator);
+        mPendingJobSet.add(job);
+    }
+
+    private void addPendingJobsLocked(List<JobStatus> jobs) {
+        noteJobsPending(jobs);
+        mPendingJobs.addAll(jobs);
+        if (mPendingJobs.size() > 1) {
+            mPendingJobs.sort(mEnqueueTimeComparator);
+        }
+        mPendingJobSet.addAll(jobs);
+    }
+
+    private boolean removePendingJobLocked(JobStatus job) {
+        if (mPendingJobSet.remove(job)) {
+            mPendingJobs.remove(job);
+            mJobPackageTracker.noteNonpending(job);
+            return true;
+        }
+        return false;
+    }
+
+    private void clearPendingJobsLocked() {
+        noteJobsNonpending(mPendingJobs);
+        mPendingJobs.clear();
+        mPendingJobSet.clear();
+    }
+
+    private boolean isPendingLocked(JobStatus job) {
+        return mPendingJobSet.contains(job);
+    }
+
     /**
      * Cleans up outstanding jobs when a package is removed. Even if it's being replaced later we
      * still clean up. On reinstall the package will have a new uid.
@@ -710,8 +750,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
             if (isReadyToBeExecutedLocked(jobStatus)) {
                 // This is a new job, we can just immediately put it on the pending
                 // list and try to run it.
-                mJobPackageTracker.notePending(jobStatus);
-                addOrderedItem(mPendingJobs, jobStatus, mEnqueueTimeComparator);
+                addPendingJobLocked(jobStatus);
                 maybeRunPendingJobsLocked();
             }
         }
@@ -819,9 +858,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         cancelled.unprepareLocked(ActivityManager.getService());
         stopTrackingJobLocked(cancelled, incomingJob, true /* writeBack */);
         // Remove from pending queue.
-        if (mPendingJobs.remove(cancelled)) {
-            mJobPackageTracker.noteNonpending(cancelled);
-        }
+        removePendingJobLocked(cancelled);
         // Cancel if running.
         stopJobOnServiceContextLocked(cancelled, JobParameters.REASON_CANCELED, reason);
         reportActiveLocked();
@@ -1313,8 +1350,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
                         // runNow can be null, which is a controller's way of indicating that its
                         // state is such that all ready jobs should be run immediately.
                         if (runNow != null && isReadyToBeExecutedLocked(runNow)) {
-                            mJobPackageTracker.notePending(runNow);
-                            addOrderedItem(mPendingJobs, runNow, mEnqueueTimeComparator);
+                            addPendingJobLocked(runNow);
                         } else {
                             queueReadyJobsForExecutionLocked();
                         }
@@ -1363,8 +1399,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
         if (DEBUG) {
             Slog.d(TAG, "queuing all ready jobs for execution:");
         }
-        noteJobsNonpending(mPendingJobs);
-        mPendingJobs.clear();
+        clearPendingJobsLocked();
         stopNonReadyActiveJobsLocked();
         mJobs.forEachJob(mReadyQueueFunctor);
         mReadyQueueFunctor.postProcess();
@@ -1397,11 +1432,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
 
         public void postProcess() {
             if (newReadyJobs != null) {
-                noteJobsPending(newReadyJobs);
-                mPendingJobs.addAll(newReadyJobs);
-                if (mPendingJobs.size() > 1) {
-                    mPendingJobs.sort(mEnqueueTimeComparator);
-                }
+                addPendingJobsLocked(newReadyJobs);
             }
             newReadyJobs = null;
         }
@@ -1486,11 +1517,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
                 if (DEBUG) {
                     Slog.d(TAG, "maybeQueueReadyJobsForExecutionLocked: Running jobs.");
                 }
-                noteJobsPending(runnableJobs);
-                mPendingJobs.addAll(runnableJobs);
-                if (mPendingJobs.size() > 1) {
-                    mPendingJobs.sort(mEnqueueTimeComparator);
-                }
+                addPendingJobsLocked(runnableJobs);
             } else {
                 if (DEBUG) {
                     Slog.d(TAG, "maybeQueueReadyJobsForExecutionLocked: Not running anything.");
@@ -1517,8 +1544,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
     private void maybeQueueReadyJobsForExecutionLocked() {
         if (DEBUG) Slog.d(TAG, "Maybe queuing ready jobs...");
 
-        noteJobsNonpending(mPendingJobs);
-        mPendingJobs.clear();
+        clearPendingJobsLocked();
         stopNonReadyActiveJobsLocked();
         mJobs.forEachJob(mMaybeQueueFunctor);
         mMaybeQueueFunctor.postProcess();
@@ -1563,7 +1589,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
             return false;
         }
 
-        final boolean jobPending = mPendingJobs.contains(job);
+        final boolean jobPending = isPendingLocked(job);
         final boolean jobActive = isCurrentlyActiveLocked(job);
 
         if (DEBUG) {
@@ -1768,9 +1794,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
                     if (!mActiveServices.get(i).executeRunnableJob(pendingJob)) {
                         Slog.d(TAG, "Error executing " + pendingJob);
                     }
-                    if (mPendingJobs.remove(pendingJob)) {
-                        mJobPackageTracker.noteNonpending(pendingJob);
-                    }
+                    removePendingJobLocked(pendingJob);
                 }
             }
             if (!preservePreferredUid) {
@@ -2193,7 +2217,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
                 }
 
                 boolean printed = false;
-                if (mPendingJobs.contains(js)) {
+                if (isPendingLocked(js)) {
                     pw.print("pending");
                     printed = true;
                 }
@@ -2356,7 +2380,7 @@ public final class JobSchedulerService extends com.android.server.SystemService
                     pw.print(" user=");
                     pw.print(ArrayUtils.contains(mStartedUsers, job.getUserId()));
                     pw.print(" !pending=");
-                    pw.print(!mPendingJobs.contains(job));
+                    pw.print(!isPendingLocked(job));
                     pw.print(" !active=");
                     pw.print(!isCurrentlyActiveLocked(job));
                     pw.print(" !backingup=");
@@ -22,6 +22,7 @@ import android.content.ComponentName;
 import android.app.job.JobInfo;
 import android.content.Context;
 import android.os.Environment;
+import android.os.FileUtils;
 import android.os.Handler;
 import android.os.PersistableBundle;
 import android.os.Process;
@@ -42,14 +43,22 @@ import com.android.server.IoThread;
 import com.android.server.job.JobSchedulerInternal.JobStorePersistStats;
 import com.android.server.job.controllers.JobStatus;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -62,6 +71,11 @@ import org.xmlpull.v1.XmlSerializer;
  * reference, so none of the functions in this class should make a copy.
  * Also handles read/write of persisted jobs.
  *
+ * Persisted jobs live in jobs.xml plus an append-only journal of job add/remove records written
+ * since jobs.xml was last written. Scheduling or cancelling a persisted job only appends a small
+ * record to the journal; once the journal grows past {@link #MAX_JOURNAL_RECORDS} it is folded
+ * back into jobs.xml.
+ *
  * Note on locking:
  *      All callers to this class must <strong>lock on the class object they are calling</strong>.
  *      This is important b/c {@link com.android.server.job.JobStore.WriteJobsMapToDiskRunnable}
@@ -75,6 +89,10 @@ public final class JobStore {
     /** Threshold to adjust how often we want to write to the db. */
     private static final int MAX_OPS_BEFORE_WRITE = 1;
 
+    /** Number of journal records after which the journal is compacted into the jobs file. */
+    @VisibleForTesting
+    static final int MAX_JOURNAL_RECORDS = 128;
+
     final Object mLock;
     final JobSet mJobSet; // per-caller-uid tracking
     final Context mContext;
@@ -87,6 +105,17 @@ public final class JobStore {
 
     private static final Object sSingletonLock = new Object();
     private final AtomicFile mJobsFile;
+    private final File mJournalFile;
+    /** Journal records waiting to be appended to {@link #mJournalFile}. Guarded by mLock. */
+    private final ArrayList<JournalRecord> mPendingJournalRecords = new ArrayList<>();
+    /** Records in {@link #mJournalFile}. Only accessed on the IO thread. */
+    private int mJournalRecordCount;
+    /**
+     * Generation of the jobs file on disk, bumped by every full write. The journal is stamped
+     * with the generation it applies to, so that a journal left behind by a crash right after a
+     * full write is not replayed over the newer jobs file. Only accessed on the IO thread.
+     */
+    private int mJobsFileGeneration;
     /** Handler backed by IoThread for writing to disk. */
     private final Handler mIoHandler = IoThread.getHandler();
     private static JobStore sSingleton;
@@ -126,6 +155,7 @@ public final class JobStore {
         File jobDir = new File(systemDir, "job");
         jobDir.mkdirs();
         mJobsFile = new AtomicFile(new File(jobDir, "jobs.xml"));
+        mJournalFile = new File(jobDir, "jobs.journal");
 
         mJobSet = new JobSet();
 
@@ -140,10 +170,15 @@ public final class JobStore {
         // an incorrect historical timestamp.  That's fine; at worst we'll reboot with
         // a *correct* timestamp, see a bunch of overdue jobs, and run them; then
         // settle into normal operation.
-        mXmlTimestamp = mJobsFile.getLastModifiedTime();
+        mXmlTimestamp = Math.max(mJobsFile.getLastModifiedTime(), mJournalFile.lastModified());
         mRtcGood = (System.currentTimeMillis() > mXmlTimestamp);
 
         readJobMapFromDisk(mJobSet, mRtcGood);
+
+        if (mJournalFile.exists()) {
+            // Fold the journal left over from the last boot into the jobs file.
+            mIoHandler.post(mWriteRunnable);
+        }
     }
 
     public boolean jobTimesInflatedValid() {
@@ -187,7 +222,7 @@ public final class JobStore {
         boolean replaced = mJobSet.remove(jobStatus);
         mJobSet.add(jobStatus);
         if (jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            appendToJournalAsync(new JournalRecord(JournalRecord.TYPE_ADD, jobStatus));
         }
         if (DEBUG) {
             Slog.d(TAG, "Added job status to store: " + jobStatus);
@@ -225,7 +260,7 @@ public final class JobStore {
             return false;
         }
         if (writeBack && jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            appendToJournalAsync(new JournalRecord(JournalRecord.TYPE_REMOVE, jobStatus));
         }
         return removed;
     }
@@ -311,21 +346,125 @@ public final class JobStore {
         }
     }
 
+    /**
+     * Records the addition or removal of a persisted job in the journal, instead of writing
+     * out every job again.
+     */
+    private void appendToJournalAsync(JournalRecord record) {
+        mPendingJournalRecords.add(record);
+        mIoHandler.removeCallbacks(mJournalRunnable);
+        mIoHandler.post(mJournalRunnable);
+    }
+
     @VisibleForTesting
     public void readJobMapFromDisk(JobSet jobSet, boolean rtcGood) {
         new ReadJobMapFromDiskRunnable(jobSet, rtcGood).run();
     }
 
     /**
-     * Runnable that writes {@link #mJobSet} out to xml.
+     * A persisted job being added to or removed from the store. Jobs are identified by their
+     * calling uid and job id, the same key as in {@link JobSet}.
+     */
+    private static final class JournalRecord {
+        static final byte TYPE_ADD = 1;
+        static final byte TYPE_REMOVE = 2;
+
+        final byte type;
+        final int uid;
+        final int jobId;
+        /** Copy of the added job, so it can be serialized outside of the lock. */
+        final JobStatus job;
+
+        JournalRecord(byte type, JobStatus jobStatus) {
+            this.type = type;
+            this.uid = jobStatus.getUid();
+            this.jobId = jobStatus.getJobId();
+            this.job = (type == TYPE_ADD) ? new JobStatus(jobStatus) : null;
+        }
+    }
+
+    /**
+     * Version of the journal format, written at the start of the journal file followed by the
+     * generation of the jobs file the journal applies to.
+     */
+    private static final int JOURNAL_VERSION = 2;
+
+    /**
+     * Runnable that appends pending {@link JournalRecord}s to the journal file, compacting the
+     * journal into the jobs file when it gets too long.
+     * Each record is the record type byte, the uid and the job id, followed for additions by
+     * the length and bytes of a jobs file holding just the added job.
+     * NOTE: This Runnable locks on mLock
+     */
+    private final Runnable mJournalRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final List<JournalRecord> records;
+            synchronized (mLock) {
+                if (mPendingJournalRecords.isEmpty()) {
+                    return;
+                }
+                records = new ArrayList<>(mPendingJournalRecords);
+                mPendingJournalRecords.clear();
+            }
+            if (mJournalRecordCount + records.size() > MAX_JOURNAL_RECORDS) {
+                // The full write below also covers the records we just took.
+                mWriteRunnable.run();
+                return;
+            }
+            final long startElapsed = SystemClock.elapsedRealtime();
+            final boolean newJournal = !mJournalFile.exists();
+            try (FileOutputStream fos = new FileOutputStream(mJournalFile, !newJournal);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                if (newJournal) {
+                    out.writeInt(JOURNAL_VERSION);
+                    out.writeInt(mJobsFileGeneration);
+                    mJournalRecordCount = 0;
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    final JournalRecord record = records.get(i);
+                    out.writeByte(record.type);
+                    out.writeInt(record.uid);
+                    out.writeInt(record.jobId);
+                    if (record.type == JournalRecord.TYPE_ADD) {
+                        final List<JobStatus> job = new ArrayList<>(1);
+                        job.add(record.job);
+                        final byte[] data = mWriteRunnable.serializeJobs(job,
+                                mJobsFileGeneration);
+                        out.writeInt(data.length);
+                        out.write(data);
+                    }
+                }
+                out.flush();
+                FileUtils.sync(fos);
+                mJournalRecordCount += records.size();
+            } catch (IOException | XmlPullParserException e) {
+                // The journal may now end in a torn record, so write out everything instead.
+                Slog.w(TAG, "Error appending to job journal, rewriting jobs file.", e);
+                mWriteRunnable.run();
+                return;
+            }
+            if (DEBUG) {
+                Slog.v(TAG, "Appended " + records.size() + " journal records, took "
+                        + (SystemClock.elapsedRealtime() - startElapsed) + "ms");
+            }
+        }
+    };
+
+    /**
+     * Runnable that writes {@link #mJobSet} out to xml and truncates the journal.
      * NOTE: This Runnable locks on mLock
      */
-    private final Runnable mWriteRunnable = new Runnable() {
+    private final WriteJobsMapToDiskRunnable mWriteRunnable = new WriteJobsMapToDiskRunnable();
+
+    private final class WriteJobsMapToDiskRunnable implements Runnable {
         @Override
         public void run() {
             final long startElapsed = SystemClock.elapsedRealtime();
             final List<JobStatus> storeCopy = new ArrayList<JobStatus>();
             synchronized (mLock) {
+                // Everything still waiting for the journal is part of this snapshot.
+                mPendingJournalRecords.clear();
                 // Clone the jobs so we can release the lock before writing.
                 mJobSet.forEachJob(new JobStatusFunctor() {
                     @Override
@@ -348,26 +487,10 @@ public final class JobStore {
             int numSystemJobs = 0;
             int numSyncJobs = 0;
             try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                XmlSerializer out = new FastXmlSerializer();
-                out.setOutput(baos, StandardCharsets.UTF_8.name());
-                out.startDocument(null, true);
-                out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-
-                out.startTag(null, "job-info");
-                out.attribute(null, "version", Integer.toString(JOBS_FILE_VERSION));
+                final int generation = mJobsFileGeneration + 1;
+                final byte[] data = serializeJobs(jobList, generation);
                 for (int i=0; i<jobList.size(); i++) {
                     JobStatus jobStatus = jobList.get(i);
-                    if (DEBUG) {
-                        Slog.d(TAG, "Saving job " + jobStatus.getJobId());
-                    }
-                    out.startTag(null, "job");
-                    addAttributesToJobTag(out, jobStatus);
-                    writeConstraintsToXml(out, jobStatus);
-                    writeExecutionCriteriaToXml(out, jobStatus);
-                    writeBundleToXml(jobStatus.getJob().getExtras(), out);
-                    out.endTag(null, "job");
-
                     numJobs++;
                     if (jobStatus.getUid() == Process.SYSTEM_UID) {
                         numSystemJobs++;
@@ -376,14 +499,18 @@ public final class JobStore {
                         }
                     }
                 }
-                out.endTag(null, "job-info");
-                out.endDocument();
 
                 // Write out to disk in one fell swoop.
                 FileOutputStream fos = mJobsFile.startWrite();
-                fos.write(baos.toByteArray());
+                fos.write(data);
                 mJobsFile.finishWrite(fos);
                 mDirtyOperations = 0;
+
+                // Everything in the journal is now part of the jobs file. Should we crash before
+                // deleting it, its older generation keeps it from being replayed.
+                mJobsFileGeneration = generation;
+                mJournalFile.delete();
+                mJournalRecordCount = 0;
             } catch (IOException e) {
                 if (DEBUG) {
                     Slog.v(TAG, "Error writing out job data.", e);
@@ -399,6 +526,38 @@ public final class JobStore {
             }
         }
 
+        /**
+         * @param generation Generation of the jobs file the jobs are written to.
+         * @return the given jobs serialized in the jobs file format.
+         */
+        byte[] serializeJobs(List<JobStatus> jobList, int generation)
+                throws IOException, XmlPullParserException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            XmlSerializer out = new FastXmlSerializer();
+            out.setOutput(baos, StandardCharsets.UTF_8.name());
+            out.startDocument(null, true);
+            out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+
+            out.startTag(null, "job-info");
+            out.attribute(null, "version", Integer.toString(JOBS_FILE_VERSION));
+            out.attribute(null, "generation", Integer.toString(generation));
+            for (int i=0; i<jobList.size(); i++) {
+                JobStatus jobStatus = jobList.get(i);
+                if (DEBUG) {
+                    Slog.d(TAG, "Saving job " + jobStatus.getJobId());
+                }
+                out.startTag(null, "job");
+                addAttributesToJobTag(out, jobStatus);
+                writeConstraintsToXml(out, jobStatus);
+                writeExecutionCriteriaToXml(out, jobStatus);
+                writeBundleToXml(jobStatus.getJob().getExtras(), out);
+                out.endTag(null, "job");
+            }
+            out.endTag(null, "job-info");
+            out.endDocument();
+            return baos.toByteArray();
+        }
+
         /** Write out a tag with data comprising the required fields and priority of this job and
          * its client.
          */
@@ -527,7 +686,7 @@ public final class JobStore {
                 out.endTag(null, XML_TAG_ONEOFF);
             }
         }
-    };
+    }
 
     /**
      * Translate the supplied RTC times to the elapsed timebase, with clamping appropriate
@@ -560,6 +719,8 @@ public final class JobStore {
     private final class ReadJobMapFromDiskRunnable implements Runnable {
         private final JobSet jobSet;
         private final boolean rtcGood;
+        /** Generation of the last jobs file read by {@link #readJobMapImpl}. */
+        private int generation;
 
         /**
          * @param jobSet Reference to the (empty) set of JobStatus objects that back the JobStore,
@@ -575,37 +736,50 @@ public final class JobStore {
             int numJobs = 0;
             int numSystemJobs = 0;
             int numSyncJobs = 0;
+            // Jobs keyed by uid and job id, so that journal records can replace or remove them.
+            final LinkedHashMap<Long, JobStatus> jobs = new LinkedHashMap<>();
+            int fileGeneration = 0;
             try {
-                List<JobStatus> jobs;
                 FileInputStream fis = mJobsFile.openRead();
+                List<JobStatus> fileJobs;
                 synchronized (mLock) {
-                    jobs = readJobMapImpl(fis, rtcGood);
-                    if (jobs != null) {
-                        long now = SystemClock.elapsedRealtime();
-                        IActivityManager am = ActivityManager.getService();
-                        for (int i=0; i<jobs.size(); i++) {
-                            JobStatus js = jobs.get(i);
-                            js.prepareLocked(am);
-                            js.enqueueTime = now;
-                            this.jobSet.add(js);
-
-                            numJobs++;
-                            if (js.getUid() == Process.SYSTEM_UID) {
-                                numSystemJobs++;
-                                if (isSyncJob(js)) {
-                                    numSyncJobs++;
-                                }
-                            }
-                        }
-                    }
+                    fileJobs = readJobMapImpl(fis, rtcGood);
                 }
                 fis.close();
+                fileGeneration = generation;
+                if (fileJobs != null) {
+                    for (int i=0; i<fileJobs.size(); i++) {
+                        final JobStatus js = fileJobs.get(i);
+                        jobs.put(journalKey(js.getUid(), js.getJobId()), js);
+                    }
+                }
             } catch (FileNotFoundException e) {
                 if (DEBUG) {
                     Slog.d(TAG, "Could not find jobs file, probably there was nothing to load.");
                 }
             } catch (XmlPullParserException | IOException e) {
                 Slog.wtf(TAG, "Error jobstore xml.", e);
+            }
+            mJobsFileGeneration = fileGeneration;
+            replayJournal(jobs, fileGeneration);
+            try {
+                synchronized (mLock) {
+                    long now = SystemClock.elapsedRealtime();
+                    IActivityManager am = ActivityManager.getService();
+                    for (JobStatus js : jobs.values()) {
+                        js.prepareLocked(am);
+                        js.enqueueTime = now;
+                        this.jobSet.add(js);
+
+                        numJobs++;
+                        if (js.getUid() == Process.SYSTEM_UID) {
+                            numSystemJobs++;
+                            if (isSyncJob(js)) {
+                                numSyncJobs++;
+                            }
+                        }
+                    }
+                }
             } finally {
                 if (mPersistInfo.countAllJobsLoaded < 0) { // Only set them once.
                     mPersistInfo.countAllJobsLoaded = numJobs;
@@ -616,7 +790,73 @@ public final class JobStore {
             Slog.i(TAG, "Read " + numJobs + " jobs");
         }
 
-        private List<JobStatus> readJobMapImpl(FileInputStream fis, boolean rtcIsGood)
+        private long journalKey(int uid, int jobId) {
+            return ((long) uid << 32) | (jobId & 0xffffffffL);
+        }
+
+        /**
+         * Applies the records of the journal, which were written after the jobs file, to the
+         * jobs read from the jobs file. A torn record at the end of the journal, left by a crash
+         * while appending, is ignored, and so is a journal that was already folded into a jobs
+         * file of a later generation.
+         */
+        private void replayJournal(LinkedHashMap<Long, JobStatus> jobs, int fileGeneration) {
+            int numRecords = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(mJournalFile)))) {
+                final int version = in.readInt();
+                if (version != JOURNAL_VERSION) {
+                    Slog.w(TAG, "Invalid journal version " + version + ", ignoring journal.");
+                    return;
+                }
+                final int journalGeneration = in.readInt();
+                if (journalGeneration != fileGeneration) {
+                    Slog.w(TAG, "Ignoring journal of generation " + journalGeneration
+                            + ", jobs file is at generation " + fileGeneration);
+                    return;
+                }
+                while (true) {
+                    final byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final Long key = journalKey(in.readInt(), in.readInt());
+                    if (type == JournalRecord.TYPE_ADD) {
+                        final byte[] data = new byte[in.readInt()];
+                        in.readFully(data);
+                        final List<JobStatus> added;
+                        synchronized (mLock) {
+                            added = readJobMapImpl(new ByteArrayInputStream(data), rtcGood);
+                        }
+                        jobs.remove(key);
+                        if (added != null && added.size() == 1) {
+                            jobs.put(key, added.get(0));
+                        } else {
+                            Slog.d(TAG, "Error reading job from journal.");
+                        }
+                    } else if (type == JournalRecord.TYPE_REMOVE) {
+                        jobs.remove(key);
+                    } else {
+                        Slog.w(TAG, "Unknown journal record type " + type + ", stopping replay.");
+                        break;
+                    }
+                    numRecords++;
+                }
+            } catch (FileNotFoundException e) {
+                // No changes since the jobs file was written.
+            } catch (EOFException e) {
+                Slog.w(TAG, "Ignoring truncated journal record after " + numRecords + " records.");
+            } catch (XmlPullParserException | IOException e) {
+                Slog.wtf(TAG, "Error reading job journal.", e);
+            }
+            if (numRecords > 0) {
+                Slog.i(TAG, "Replayed " + numRecords + " journal records");
+            }
+        }
+
+        private List<JobStatus> readJobMapImpl(InputStream fis, boolean rtcIsGood)
                 throws XmlPullParserException, IOException {
             XmlPullParser parser = Xml.newPullParser();
             parser.setInput(fis, StandardCharsets.UTF_8.name());
@@ -648,6 +888,13 @@ public final class JobStore {
                     Slog.e(TAG, "Invalid version number, aborting jobs file read.");
                     return null;
                 }
+                final String generationString = parser.getAttributeValue(null, "generation");
+                try {
+                    generation = generationString != null ? Integer.parseInt(generationString) : 0;
+                } catch (NumberFormatException e) {
+                    Slog.e(TAG, "Invalid generation " + generationString + ", assuming 0.");
+                    generation = 0;
+                }
                 eventType = parser.next();
                 do {
                     // Read each <job/>
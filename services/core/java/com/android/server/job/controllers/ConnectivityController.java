@@ -29,8 +29,10 @@ import android.os.Process;
 import android.os.UserHandle;
 import android.util.ArraySet;
 import android.util.Slog;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.job.JobSchedulerService;
 import com.android.server.job.StateChangedListener;
 
@@ -55,6 +57,12 @@ public final class ConnectivityController extends StateController implements
 
     @GuardedBy("mLock")
     private final ArraySet<JobStatus> mTrackedJobs = new ArraySet<>();
+    /**
+     * Tracked jobs keyed by source UID, so that per-UID policy changes only visit the jobs of
+     * that UID and the network state is queried once per UID rather than once per job.
+     */
+    @GuardedBy("mLock")
+    private final SparseArray<ArraySet<JobStatus>> mTrackedJobsByUid = new SparseArray<>();
 
     /** Singleton. */
     private static ConnectivityController mSingleton;
@@ -69,6 +77,12 @@ public final class ConnectivityController extends StateController implements
         }
     }
 
+    @VisibleForTesting
+    public static ConnectivityController getForTesting(StateChangedListener stateChangedListener,
+            Context context) {
+        return new ConnectivityController(stateChangedListener, context, new Object());
+    }
+
     private ConnectivityController(StateChangedListener stateChangedListener, Context context,
             Object lock) {
         super(stateChangedListener, context, lock);
@@ -85,8 +99,15 @@ public final class ConnectivityController extends StateController implements
     @Override
     public void maybeStartTrackingJobLocked(JobStatus jobStatus, JobStatus lastJob) {
         if (jobStatus.hasConnectivityConstraint()) {
-            updateConstraintsSatisfied(jobStatus);
+            updateConstraintsSatisfied(jobStatus, getUidConnectivity(jobStatus));
             mTrackedJobs.add(jobStatus);
+            final int uid = jobStatus.getSourceUid();
+            ArraySet<JobStatus> uidJobs = mTrackedJobsByUid.get(uid);
+            if (uidJobs == null) {
+                uidJobs = new ArraySet<>();
+                mTrackedJobsByUid.put(uid, uidJobs);
+            }
+            uidJobs.add(jobStatus);
             jobStatus.setTrackingController(JobStatus.TRACKING_CONNECTIVITY);
         }
     }
@@ -96,28 +117,61 @@ public final class ConnectivityController extends StateController implements
             boolean forUpdate) {
         if (jobStatus.clearTrackingController(JobStatus.TRACKING_CONNECTIVITY)) {
             mTrackedJobs.remove(jobStatus);
+            final int uid = jobStatus.getSourceUid();
+            final ArraySet<JobStatus> uidJobs = mTrackedJobsByUid.get(uid);
+            if (uidJobs != null && uidJobs.remove(jobStatus) && uidJobs.isEmpty()) {
+                mTrackedJobsByUid.remove(uid);
+            }
         }
     }
 
-    private boolean updateConstraintsSatisfied(JobStatus jobStatus) {
-        final int jobUid = jobStatus.getSourceUid();
-        final boolean ignoreBlocked = (jobStatus.getFlags() & JobInfo.FLAG_WILL_BE_FOREGROUND) != 0;
-        final NetworkInfo info = mConnManager.getActiveNetworkInfoForUid(jobUid, ignoreBlocked);
-        final Network network = mConnManager.getActiveNetworkForUid(jobUid, ignoreBlocked);
+    /**
+     * Connectivity state of the default network as seen by one UID.
+     */
+    private static final class UidConnectivity {
+        final boolean connected;
+        final boolean validated;
+        final boolean metered;
+        final boolean unmetered;
+        final boolean notRoaming;
+
+        UidConnectivity(NetworkInfo info, NetworkCapabilities capabilities) {
+            validated = (capabilities != null)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+            connected = (info != null) && info.isConnected();
+            metered = connected && (capabilities != null)
+                    && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            unmetered = connected && (capabilities != null)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            notRoaming = connected && (info != null)
+                    && !info.isRoaming();
+        }
+    }
+
+    private static boolean ignoresBlocked(JobStatus jobStatus) {
+        return (jobStatus.getFlags() & JobInfo.FLAG_WILL_BE_FOREGROUND) != 0;
+    }
+
+    private UidConnectivity getUidConnectivity(JobStatus jobStatus) {
+        return getUidConnectivity(jobStatus.getSourceUid(), ignoresBlocked(jobStatus));
+    }
+
+    private UidConnectivity getUidConnectivity(int uid, boolean ignoreBlocked) {
+        final NetworkInfo info = mConnManager.getActiveNetworkInfoForUid(uid, ignoreBlocked);
+        final Network network = mConnManager.getActiveNetworkForUid(uid, ignoreBlocked);
         final NetworkCapabilities capabilities = (network != null)
                 ? mConnManager.getNetworkCapabilities(network) : null;
+        return new UidConnectivity(info, capabilities);
+    }
 
-        final boolean validated = (capabilities != null)
-                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
-        final boolean connected = (info != null) && info.isConnected();
+    private boolean updateConstraintsSatisfied(JobStatus jobStatus, UidConnectivity state) {
+        final int jobUid = jobStatus.getSourceUid();
+        final boolean connected = state.connected;
+        final boolean validated = state.validated;
         final boolean connectionUsable = connected && validated;
-
-        final boolean metered = connected && (capabilities != null)
-                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
-        final boolean unmetered = connected && (capabilities != null)
-                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
-        final boolean notRoaming = connected && (info != null)
-                && !info.isRoaming();
+        final boolean metered = state.metered;
+        final boolean unmetered = state.unmetered;
+        final boolean notRoaming = state.notRoaming;
 
         boolean changed = false;
         changed |= jobStatus.setConnectivityConstraintSatisfied(connectionUsable);
@@ -153,10 +207,15 @@ public final class ConnectivityController extends StateController implements
     private void updateTrackedJobs(int uid) {
         synchronized (mLock) {
             boolean changed = false;
-            for (int i = mTrackedJobs.size()-1; i >= 0; i--) {
-                final JobStatus js = mTrackedJobs.valueAt(i);
-                if (uid == -1 || uid == js.getSourceUid()) {
-                    changed |= updateConstraintsSatisfied(js);
+            if (uid == -1) {
+                for (int i = mTrackedJobsByUid.size() - 1; i >= 0; i--) {
+                    changed |= updateUidJobsLocked(mTrackedJobsByUid.keyAt(i),
+                            mTrackedJobsByUid.valueAt(i));
+                }
+            } else {
+                final ArraySet<JobStatus> uidJobs = mTrackedJobsByUid.get(uid);
+                if (uidJobs != null) {
+                    changed = updateUidJobsLocked(uid, uidJobs);
                 }
             }
             if (changed) {
@@ -165,6 +224,29 @@ public final class ConnectivityController extends StateController implements
         }
     }
 
+    private boolean updateUidJobsLocked(int uid, ArraySet<JobStatus> uidJobs) {
+        // Jobs of one UID only differ in whether they ignore network blocking, so the network
+        // state needs to be queried at most twice.
+        UidConnectivity state = null;
+        UidConnectivity ignoringBlockedState = null;
+        boolean changed = false;
+        for (int i = uidJobs.size() - 1; i >= 0; i--) {
+            final JobStatus js = uidJobs.valueAt(i);
+            if (ignoresBlocked(js)) {
+                if (ignoringBlockedState == null) {
+                    ignoringBlockedState = getUidConnectivity(uid, true);
+                }
+                changed |= updateConstraintsSatisfied(js, ignoringBlockedState);
+            } else {
+                if (state == null) {
+                    state = getUidConnectivity(uid, false);
+                }
+                changed |= updateConstraintsSatisfied(js, state);
+            }
+        }
+        return changed;
+    }
+
     /**
      * We know the network has just come up. We want to run any jobs that are ready.
      */
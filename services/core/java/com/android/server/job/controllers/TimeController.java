@@ -52,6 +52,11 @@ public final class TimeController extends StateController {
     private AlarmManager mAlarmService = null;
     /** List of tracked jobs, sorted asc. by deadline */
     private final List<JobStatus> mTrackedJobs = new LinkedList<>();
+    /**
+     * Tracked jobs whose delay has not been satisfied yet, sorted asc. by earliest run time, so
+     * that a delay alarm only has to look at the jobs whose delay actually expired.
+     */
+    private final List<JobStatus> mTrackedDelayJobs = new LinkedList<>();
     /** Singleton. */
     private static TimeController mSingleton;
 
@@ -106,6 +111,9 @@ public final class TimeController extends StateController {
                 it.next();
             }
             it.add(job);
+            if (job.hasTimingDelayConstraint()) {
+                addDelayJobLocked(job);
+            }
             job.setTrackingController(JobStatus.TRACKING_TIME);
             maybeUpdateAlarmsLocked(
                     job.hasTimingDelayConstraint() ? job.getEarliestRunTime() : Long.MAX_VALUE,
@@ -122,6 +130,7 @@ public final class TimeController extends StateController {
     public void maybeStopTrackingJobLocked(JobStatus job, JobStatus incomingJob,
             boolean forUpdate) {
         if (job.clearTrackingController(JobStatus.TRACKING_TIME)) {
+            mTrackedDelayJobs.remove(job);
             if (mTrackedJobs.remove(job)) {
                 checkExpiredDelaysAndResetAlarm();
                 checkExpiredDeadlinesAndResetAlarm();
@@ -129,6 +138,22 @@ public final class TimeController extends StateController {
         }
     }
 
+    private void addDelayJobLocked(JobStatus job) {
+        final long earliestRunTime = job.getEarliestRunTime();
+        boolean isInsert = false;
+        ListIterator<JobStatus> it = mTrackedDelayJobs.listIterator(mTrackedDelayJobs.size());
+        while (it.hasPrevious()) {
+            if (it.previous().getEarliestRunTime() <= earliestRunTime) {
+                isInsert = true;
+                break;
+            }
+        }
+        if (isInsert) {
+            it.next();
+        }
+        it.add(job);
+    }
+
     /**
      * Determines whether this controller can stop tracking the given job.
      * The controller is no longer interested in a job once its time constraint is satisfied, and
@@ -168,6 +193,8 @@ public final class TimeController extends StateController {
                 if (evaluateDeadlineConstraint(job, nowElapsedMillis)) {
                     mStateChangedListener.onRunJobNow(job);
                     it.remove();
+                    // The deadline also satisfies the delay constraint.
+                    mTrackedDelayJobs.remove(job);
                 } else {  // Sorted by expiry time, so take the next one and stop.
                     nextExpiryTime = job.getLatestRunTimeElapsed();
                     nextExpiryUid = job.getSourceUid();
@@ -201,27 +228,22 @@ public final class TimeController extends StateController {
             long nextDelayTime = Long.MAX_VALUE;
             int nextDelayUid = 0;
             boolean ready = false;
-            Iterator<JobStatus> it = mTrackedJobs.iterator();
+            Iterator<JobStatus> it = mTrackedDelayJobs.iterator();
             while (it.hasNext()) {
                 final JobStatus job = it.next();
-                if (!job.hasTimingDelayConstraint()) {
-                    continue;
+                if (!evaluateTimingDelayConstraint(job, nowElapsedMillis)) {
+                    // Sorted by delay time, so this is the next upcoming delay time for the
+                    // alarm and every later job is still waiting as well.
+                    nextDelayTime = job.getEarliestRunTime();
+                    nextDelayUid = job.getSourceUid();
+                    break;
+                }
+                it.remove();
+                if (canStopTrackingJobLocked(job)) {
+                    mTrackedJobs.remove(job);
                 }
-                if (evaluateTimingDelayConstraint(job, nowElapsedMillis)) {
-                    if (canStopTrackingJobLocked(job)) {
-                        it.remove();
-                    }
-                    if (job.isReady()) {
-                        ready = true;
-                    }
-                } else if (!job.isConstraintSatisfied(JobStatus.CONSTRAINT_TIMING_DELAY)) {
-                    // If this job still doesn't have its delay constraint satisfied,
-                    // then see if it is the next upcoming delay time for the alarm.
-                    final long jobDelayTime = job.getEarliestRunTime();
-                    if (nextDelayTime > jobDelayTime) {
-                        nextDelayTime = jobDelayTime;
-                        nextDelayUid = job.getSourceUid();
-                    }
+                if (job.isReady()) {
+                    ready = true;
                 }
             }
             if (ready) {
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import android.app.NotificationChannel;
+import android.os.Parcel;
+import android.service.notification.NotificationRankingUpdate;
+import android.service.notification.SnoozeCriterion;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Remembers the ranking last sent to a notification listener, so that the next
+ * {@link NotificationRankingUpdate} only needs the entries of the notifications whose ranking
+ * changed since.
+ *
+ * <p>Updates are built with {@link #beginUpdate}, then {@link #update} for every notification
+ * visible to the listener, in order, then {@link #finishUpdate}. Not thread safe; callers hold
+ * the notification lock.</p>
+ */
+final class ListenerRankingState {
+    private int mVersion;
+    /** Whether the listener was sent a full update since the last {@link #reset}. */
+    private boolean mSynced;
+    private ArrayMap<String, Snapshot> mSent = new ArrayMap<>();
+    private ArrayMap<String, Snapshot> mNext = new ArrayMap<>();
+
+    private long mFullUpdateCount;
+    private long mDeltaUpdateCount;
+    private long mSentEntryCount;
+    private long mSkippedEntryCount;
+
+    /** The parts of a notification's ranking that are only sent when they change. */
+    private static final class Snapshot {
+        final CharSequence explanation;
+        final int suppressedVisualEffects;
+        final int visibilityOverride;
+        final String overrideGroupKey;
+        // Channels are modified in place, so keep a copy to compare against.
+        final NotificationChannel channel;
+        final ArrayList<String> overridePeople;
+        final ArrayList<SnoozeCriterion> snoozeCriteria;
+        final boolean showBadge;
+
+        Snapshot(NotificationRecord record) {
+            explanation = record.getImportanceExplanation();
+            suppressedVisualEffects = record.getSuppressedVisualEffects();
+            visibilityOverride = record.getPackageVisibilityOverride();
+            overrideGroupKey = record.sbn.getOverrideGroupKey();
+            channel = copyOf(record.getChannel());
+            overridePeople = copyOf(record.getPeopleOverride());
+            snoozeCriteria = copyOf(record.getSnoozeCriteria());
+            showBadge = record.canShowBadge();
+        }
+
+        boolean matches(NotificationRecord record) {
+            return suppressedVisualEffects == record.getSuppressedVisualEffects()
+                    && visibilityOverride == record.getPackageVisibilityOverride()
+                    && showBadge == record.canShowBadge()
+                    && TextUtils.equals(explanation, record.getImportanceExplanation())
+                    && Objects.equals(overrideGroupKey, record.sbn.getOverrideGroupKey())
+                    && Objects.equals(channel, record.getChannel())
+                    && Objects.equals(overridePeople, record.getPeopleOverride())
+                    && Objects.equals(snoozeCriteria, record.getSnoozeCriteria());
+        }
+
+        private static NotificationChannel copyOf(NotificationChannel channel) {
+            if (channel == null) {
+                return null;
+            }
+            final Parcel parcel = Parcel.obtain();
+            try {
+                channel.writeToParcel(parcel, 0);
+                parcel.setDataPosition(0);
+                return NotificationChannel.CREATOR.createFromParcel(parcel);
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        private static <T> ArrayList<T> copyOf(ArrayList<T> list) {
+            return list != null ? new ArrayList<>(list) : null;
+        }
+    }
+
+    /**
+     * Starts building an update.
+     *
+     * @return the version the update is based on, or
+     * {@link NotificationRankingUpdate#NO_BASE_VERSION} if it must be a full update.
+     */
+    int beginUpdate() {
+        mNext.clear();
+        return mSynced ? mVersion : NotificationRankingUpdate.NO_BASE_VERSION;
+    }
+
+    /**
+     * Records the ranking of a notification visible to the listener.
+     *
+     * @return whether its entries must be included in the update being built.
+     */
+    boolean update(NotificationRecord record) {
+        final String key = record.getKey();
+        final Snapshot sent = mSynced ? mSent.get(key) : null;
+        if (sent != null && sent.matches(record)) {
+            mNext.put(key, sent);
+            mSkippedEntryCount++;
+            return false;
+        }
+        mNext.put(key, new Snapshot(record));
+        mSentEntryCount++;
+        return true;
+    }
+
+    /**
+     * Finishes the update being built, assuming it will be delivered.
+     *
+     * @return the version of the update.
+     */
+    int finishUpdate() {
+        if (mSynced) {
+            mDeltaUpdateCount++;
+        } else {
+            mFullUpdateCount++;
+        }
+        // Notifications that are gone are dropped along with the old map.
+        final ArrayMap<String, Snapshot> sent = mSent;
+        mSent = mNext;
+        mNext = sent;
+        mNext.clear();
+        mSynced = true;
+        return ++mVersion;
+    }
+
+    /**
+     * Makes the next update a full one, because the listener is new or lost track of the
+     * updates it was sent.
+     */
+    void reset() {
+        mSynced = false;
+        mSent.clear();
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print("version="); pw.print(mVersion);
+        pw.print(" full="); pw.print(mFullUpdateCount);
+        pw.print(" delta="); pw.print(mDeltaUpdateCount);
+        pw.print(" entriesSent="); pw.print(mSentEntryCount);
+        pw.print(" entriesSkipped="); pw.println(mSkippedEntryCount);
+    }
+}
@@ -327,8 +327,14 @@ public class NotificationManagerService extends SystemService {
     @GuardedBy("mNotificationLock")
     final ArrayMap<String, NotificationRecord> mNotificationsByKey = new ArrayMap<>();
     @GuardedBy("mNotificationLock")
+    final NotificationRecordIndex mNotificationIndex =
+            new NotificationRecordIndex(mNotificationList);
+    @GuardedBy("mNotificationLock")
     final ArrayList<NotificationRecord> mEnqueuedNotifications = new ArrayList<>();
     @GuardedBy("mNotificationLock")
+    final NotificationRecordIndex mEnqueuedIndex =
+            new NotificationRecordIndex(mEnqueuedNotifications);
+    @GuardedBy("mNotificationLock")
     final ArrayMap<Integer, ArrayMap<String, String>> mAutobundledSummaries = new ArrayMap<>();
     final ArrayList<ToastRecord> mToastQueue = new ArrayList<>();
     final ArrayMap<String, NotificationRecord> mSummaryByGroupKey = new ArrayMap<>();
@@ -1139,7 +1145,9 @@ public class NotificationManagerService extends SystemService {
 
     void clearNotifications() {
         mEnqueuedNotifications.clear();
+        mEnqueuedIndex.clear();
         mNotificationList.clear();
+        mNotificationIndex.clear();
         mNotificationsByKey.clear();
         mSummaryByGroupKey.clear();
     }
@@ -1147,6 +1155,7 @@ public class NotificationManagerService extends SystemService {
     @VisibleForTesting
     void addNotification(NotificationRecord r) {
         mNotificationList.add(r);
+        mNotificationIndex.add(r);
         mNotificationsByKey.put(r.sbn.getKey(), r);
         if (r.sbn.isGroup()) {
             mSummaryByGroupKey.put(r.getGroupKey(), r);
@@ -1156,6 +1165,7 @@ public class NotificationManagerService extends SystemService {
     @VisibleForTesting
     void addEnqueuedNotification(NotificationRecord r) {
         mEnqueuedNotifications.add(r);
+        mEnqueuedIndex.add(r);
     }
 
     @VisibleForTesting
@@ -2486,6 +2496,15 @@ public class NotificationManagerService extends SystemService {
             }
         }
 
+        @Override
+        public void requestRankingUpdateFromListener(INotificationListener token) {
+            synchronized (mNotificationLock) {
+                final ManagedServiceInfo info = mListeners.checkServiceTokenLocked(token);
+                if (info == null) return;
+                mListeners.notifyFullRankingUpdateLocked(info);
+            }
+        }
+
         @Override
         public int getZenMode() {
             return mZenModeHelper.getZenMode();
@@ -2942,14 +2961,10 @@ public class NotificationManagerService extends SystemService {
             try {
                 synchronized (mNotificationLock) {
                     mAssistants.checkServiceTokenLocked(token);
-                    int N = mEnqueuedNotifications.size();
-                    for (int i = 0; i < N; i++) {
-                        final NotificationRecord n = mEnqueuedNotifications.get(i);
-                        if (Objects.equals(adjustment.getKey(), n.getKey())
-                                && Objects.equals(adjustment.getUser(), n.getUserId())) {
-                            applyAdjustment(n, adjustment);
-                            break;
-                        }
+                    final NotificationRecord n = adjustment.getKey() != null
+                            ? mEnqueuedIndex.getByKey(adjustment.getKey()) : null;
+                    if (n != null && Objects.equals(adjustment.getUser(), n.getUserId())) {
+                        applyAdjustment(n, adjustment);
                     }
                 }
             } finally {
@@ -3350,6 +3365,8 @@ public class NotificationManagerService extends SystemService {
 
                 pw.println("\n  Notification listeners:");
                 mListeners.dump(pw, filter);
+                pw.println("    Ranking updates:");
+                mListeners.dumpRankingStatesLocked(pw);
                 pw.print("    mListenerHints: "); pw.println(mListenerHints);
                 pw.print("    mListenersDisablingEffects: (");
                 N = mListenersDisablingEffects.size();
@@ -3452,7 +3469,7 @@ public class NotificationManagerService extends SystemService {
             // initially *and* force remove FLAG_FOREGROUND_SERVICE.
             sbn.getNotification().flags =
                     (r.mOriginalFlags & ~Notification.FLAG_FOREGROUND_SERVICE);
-            mRankingHelper.sort(mNotificationList);
+            mRankingHelper.sortIncrementally(mNotificationList, r);
             mListeners.notifyPostedLocked(sbn, sbn /* oldSbn */);
         }
     };
@@ -3678,11 +3695,12 @@ public class NotificationManagerService extends SystemService {
     protected int getNotificationCountLocked(String pkg, int userId, int excludedId,
             String excludedTag) {
         int count = 0;
-        final int N = mNotificationList.size();
-        for (int i = 0; i < N; i++) {
-            final NotificationRecord existing = mNotificationList.get(i);
-            if (existing.sbn.getPackageName().equals(pkg)
-                    && existing.sbn.getUserId() == userId) {
+        final ArraySet<NotificationRecord> posted =
+                mNotificationIndex.getByPackageAndUser(pkg, userId);
+        if (posted != null) {
+            final int N = posted.size();
+            for (int i = 0; i < N; i++) {
+                final NotificationRecord existing = posted.valueAt(i);
                 if (existing.sbn.getId() == excludedId
                         && TextUtils.equals(existing.sbn.getTag(), excludedTag)) {
                     continue;
@@ -3690,13 +3708,10 @@ public class NotificationManagerService extends SystemService {
                 count++;
             }
         }
-        final int M = mEnqueuedNotifications.size();
-        for (int i = 0; i < M; i++) {
-            final NotificationRecord existing = mEnqueuedNotifications.get(i);
-            if (existing.sbn.getPackageName().equals(pkg)
-                    && existing.sbn.getUserId() == userId) {
-                count++;
-            }
+        final ArraySet<NotificationRecord> enqueued =
+                mEnqueuedIndex.getByPackageAndUser(pkg, userId);
+        if (enqueued != null) {
+            count += enqueued.size();
         }
         return count;
     }
@@ -3811,6 +3826,7 @@ public class NotificationManagerService extends SystemService {
         public void run() {
             synchronized (mNotificationLock) {
                 mEnqueuedNotifications.add(r);
+                mEnqueuedIndex.add(r);
                 scheduleTimeoutLocked(r);
 
                 final StatusBarNotification n = r.sbn;
@@ -3875,15 +3891,7 @@ public class NotificationManagerService extends SystemService {
         public void run() {
             synchronized (mNotificationLock) {
                 try {
-                    NotificationRecord r = null;
-                    int N = mEnqueuedNotifications.size();
-                    for (int i = 0; i < N; i++) {
-                        final NotificationRecord enqueued = mEnqueuedNotifications.get(i);
-                        if (Objects.equals(key, enqueued.getKey())) {
-                            r = enqueued;
-                            break;
-                        }
-                    }
+                    final NotificationRecord r = mEnqueuedIndex.getByKey(key);
                     if (r == null) {
                         Slog.i(TAG, "Cannot find enqueued record for key: " + key);
                         return;
@@ -3894,10 +3902,13 @@ public class NotificationManagerService extends SystemService {
                     int index = indexOfNotificationLocked(n.getKey());
                     if (index < 0) {
                         mNotificationList.add(r);
+                        mNotificationIndex.add(r);
                         mUsageStats.registerPostedByApp(r);
                     } else {
                         old = mNotificationList.get(index);
                         mNotificationList.set(index, r);
+                        mNotificationIndex.remove(old);
+                        mNotificationIndex.add(r);
                         mUsageStats.registerUpdatedByApp(r, old);
                         // Make sure we don't lose the foreground service state.
                         notification.flags |=
@@ -3915,7 +3926,7 @@ public class NotificationManagerService extends SystemService {
                     }
 
                     applyZenModeLocked(r);
-                    mRankingHelper.sort(mNotificationList);
+                    mRankingHelper.sortIncrementally(mNotificationList, r);
 
                     if (notification.getSmallIcon() != null) {
                         StatusBarNotification oldSbn = (old != null) ? old.sbn : null;
@@ -3950,13 +3961,10 @@ public class NotificationManagerService extends SystemService {
 
                     buzzBeepBlinkLocked(r);
                 } finally {
-                    int N = mEnqueuedNotifications.size();
-                    for (int i = 0; i < N; i++) {
-                        final NotificationRecord enqueued = mEnqueuedNotifications.get(i);
-                        if (Objects.equals(key, enqueued.getKey())) {
-                            mEnqueuedNotifications.remove(i);
-                            break;
-                        }
+                    final NotificationRecord enqueued = mEnqueuedIndex.getByKey(key);
+                    if (enqueued != null) {
+                        mEnqueuedNotifications.remove(enqueued);
+                        mEnqueuedIndex.remove(enqueued);
                     }
                 }
             }
@@ -4397,18 +4405,18 @@ public class NotificationManagerService extends SystemService {
             if (record == null) {
                 return;
             }
-            int indexBefore = findNotificationRecordIndexLocked(record);
             boolean interceptBefore = record.isIntercepted();
             float contactAffinityBefore = record.getContactAffinity();
             int visibilityBefore = record.getPackageVisibilityOverride();
             recon.applyChangesLocked(record);
             applyZenModeLocked(record);
-            mRankingHelper.sort(mNotificationList);
-            int indexAfter = findNotificationRecordIndexLocked(record);
+            // Only this record's signals changed, so the others keep their relative order.
+            final boolean moved =
+                    !mRankingHelper.sortIncrementally(mNotificationList, record).isEmpty();
             boolean interceptAfter = record.isIntercepted();
             float contactAffinityAfter = record.getContactAffinity();
             int visibilityAfter = record.getPackageVisibilityOverride();
-            changed = indexBefore != indexAfter || interceptBefore != interceptAfter
+            changed = moved || interceptBefore != interceptAfter
                     || visibilityBefore != visibilityAfter;
             if (interceptBefore && !interceptAfter
                     && Float.compare(contactAffinityBefore, contactAffinityAfter) != 0) {
@@ -4482,11 +4490,6 @@ public class NotificationManagerService extends SystemService {
         }
     }
 
-    @GuardedBy("mNotificationLock")
-    private int findNotificationRecordIndexLocked(NotificationRecord target) {
-        return mRankingHelper.indexOf(mNotificationList, target);
-    }
-
     private void handleSendRankingUpdate() {
         synchronized (mNotificationLock) {
             mListeners.notifyRankingUpdateLocked();
@@ -4623,15 +4626,15 @@ public class NotificationManagerService extends SystemService {
         // effectively the same notification.
         boolean wasPosted = false;
         NotificationRecord recordInList = null;
-        if ((recordInList = findNotificationByListLocked(mNotificationList, r.getKey()))
-                != null) {
+        if ((recordInList = mNotificationIndex.getByKey(r.getKey())) != null) {
             mNotificationList.remove(recordInList);
+            mNotificationIndex.remove(recordInList);
             mNotificationsByKey.remove(recordInList.sbn.getKey());
             wasPosted = true;
         }
-        while ((recordInList = findNotificationByListLocked(mEnqueuedNotifications, r.getKey()))
-                != null) {
+        while ((recordInList = mEnqueuedIndex.getByKey(r.getKey())) != null) {
             mEnqueuedNotifications.remove(recordInList);
+            mEnqueuedIndex.remove(recordInList);
         }
         return wasPosted;
     }
@@ -4878,9 +4881,28 @@ public class NotificationManagerService extends SystemService {
             int callingUid, int callingPid, String pkg, boolean nullPkgIndicatesUserSwitch,
             String channelId, FlagChecker flagChecker, boolean includeCurrentProfiles, int userId,
             boolean sendDelete, int reason, String listenerName, boolean wasPosted) {
+        final NotificationRecordIndex index = getIndexLocked(notificationList);
+        // When cancelling for a package, only its records need a look.
+        ArraySet<NotificationRecord> candidates = null;
+        if (pkg != null && !includeCurrentProfiles) {
+            candidates = new ArraySet<>();
+            if (channelId != null) {
+                index.collectByChannel(pkg, channelId, userId, candidates);
+            } else {
+                index.collectByPackage(pkg, userId, candidates);
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+        }
+        int remaining = candidates != null ? candidates.size() : notificationList.size();
         ArrayList<NotificationRecord> canceledNotifications = null;
-        for (int i = notificationList.size() - 1; i >= 0; --i) {
+        for (int i = notificationList.size() - 1; i >= 0 && remaining > 0; --i) {
             NotificationRecord r = notificationList.get(i);
+            if (candidates != null && !candidates.contains(r)) {
+                continue;
+            }
+            remaining--;
             if (includeCurrentProfiles) {
                 if (!notificationMatchesCurrentProfiles(r, userId)) {
                     continue;
@@ -4905,6 +4927,7 @@ public class NotificationManagerService extends SystemService {
                 canceledNotifications = new ArrayList<>();
             }
             notificationList.remove(i);
+            index.remove(r);
             mNotificationsByKey.remove(r.getKey());
             canceledNotifications.add(r);
             cancelNotificationLocked(r, sendDelete, reason, wasPosted, listenerName);
@@ -5006,8 +5029,21 @@ public class NotificationManagerService extends SystemService {
         final String pkg = parentNotification.sbn.getPackageName();
         final int userId = parentNotification.getUserId();
         final int reason = REASON_GROUP_SUMMARY_CANCELED;
-        for (int i = notificationList.size() - 1; i >= 0; i--) {
+        final NotificationRecordIndex index = getIndexLocked(notificationList);
+        final ArraySet<NotificationRecord> group =
+                index.getGroup(parentNotification.getGroupKey());
+        if (group == null) {
+            return;
+        }
+        // Copied, since the group shrinks as its children are cancelled.
+        final ArraySet<NotificationRecord> members = new ArraySet<>(group);
+        int remaining = members.size();
+        for (int i = notificationList.size() - 1; i >= 0 && remaining > 0; i--) {
             final NotificationRecord childR = notificationList.get(i);
+            if (!members.contains(childR)) {
+                continue;
+            }
+            remaining--;
             final StatusBarNotification childSbn = childR.sbn;
             if ((childSbn.isGroup() && !childSbn.getNotification().isGroupSummary()) &&
                     childR.getGroupKey().equals(parentNotification.getGroupKey())
@@ -5016,6 +5052,7 @@ public class NotificationManagerService extends SystemService {
                 EventLogTags.writeNotificationCancel(callingUid, callingPid, pkg, childSbn.getId(),
                         childSbn.getTag(), userId, 0, 0, reason, listenerName);
                 notificationList.remove(i);
+                index.remove(childR);
                 mNotificationsByKey.remove(childR.getKey());
                 cancelNotificationLocked(childR, sendDelete, reason, wasPosted, listenerName);
             }
@@ -5077,11 +5114,14 @@ public class NotificationManagerService extends SystemService {
     private @NonNull List<NotificationRecord> findGroupNotificationByListLocked(
             ArrayList<NotificationRecord> list, String pkg, String groupKey, int userId) {
         List<NotificationRecord> records = new ArrayList<>();
-        final int len = list.size();
+        final ArraySet<NotificationRecord> group = getIndexLocked(list).getGroup(groupKey);
+        if (group == null) {
+            return records;
+        }
+        final int len = group.size();
         for (int i = 0; i < len; i++) {
-            NotificationRecord r = list.get(i);
-            if (notificationMatchesUserId(r, userId) && r.getGroupKey().equals(groupKey)
-                    && r.sbn.getPackageName().equals(pkg)) {
+            NotificationRecord r = group.valueAt(i);
+            if (notificationMatchesUserId(r, userId) && r.sbn.getPackageName().equals(pkg)) {
                 records.add(r);
             }
         }
@@ -5119,38 +5159,29 @@ public class NotificationManagerService extends SystemService {
     @GuardedBy("mNotificationLock")
     private NotificationRecord findNotificationByListLocked(ArrayList<NotificationRecord> list,
             String pkg, String tag, int id, int userId) {
-        final int len = list.size();
-        for (int i = 0; i < len; i++) {
-            NotificationRecord r = list.get(i);
-            if (notificationMatchesUserId(r, userId) && r.sbn.getId() == id &&
-                    TextUtils.equals(r.sbn.getTag(), tag) && r.sbn.getPackageName().equals(pkg)) {
-                return r;
-            }
-        }
-        return null;
+        return getIndexLocked(list).find(pkg, tag, id, userId);
     }
 
     @GuardedBy("mNotificationLock")
     private NotificationRecord findNotificationByListLocked(ArrayList<NotificationRecord> list,
             String key) {
-        final int N = list.size();
-        for (int i = 0; i < N; i++) {
-            if (key.equals(list.get(i).getKey())) {
-                return list.get(i);
-            }
-        }
-        return null;
+        return getIndexLocked(list).getByKey(key);
     }
 
     @GuardedBy("mNotificationLock")
     int indexOfNotificationLocked(String key) {
-        final int N = mNotificationList.size();
-        for (int i = 0; i < N; i++) {
-            if (key.equals(mNotificationList.get(i).getKey())) {
-                return i;
-            }
+        final NotificationRecord r = mNotificationIndex.getByKey(key);
+        return r != null ? mNotificationList.indexOf(r) : -1;
+    }
+
+    @GuardedBy("mNotificationLock")
+    private NotificationRecordIndex getIndexLocked(ArrayList<NotificationRecord> list) {
+        if (list == mNotificationList) {
+            return mNotificationIndex;
+        } else if (list == mEnqueuedNotifications) {
+            return mEnqueuedIndex;
         }
-        return -1;
+        throw new IllegalArgumentException("Not a notification list");
     }
 
     private void updateNotificationPulse() {
@@ -5255,14 +5286,18 @@ public class NotificationManagerService extends SystemService {
 
     /**
      * Generates a NotificationRankingUpdate from 'sbns', considering only
-     * notifications visible to the given listener.
+     * notifications visible to the given listener. Once the listener has been sent a full
+     * update, only the entries that changed since the previous update are included.
      */
     @GuardedBy("mNotificationLock")
     private NotificationRankingUpdate makeRankingUpdateLocked(ManagedServiceInfo info) {
+        final ListenerRankingState state = mListeners.getRankingStateLocked(info);
+        final int baseVersion = state.beginUpdate();
         final int N = mNotificationList.size();
         ArrayList<String> keys = new ArrayList<String>(N);
         ArrayList<String> interceptedKeys = new ArrayList<String>(N);
         ArrayList<Integer> importance = new ArrayList<>(N);
+        ArrayList<String> changedKeys = new ArrayList<String>(N);
         Bundle overrideGroupKeys = new Bundle();
         Bundle visibilityOverrides = new Bundle();
         Bundle suppressedVisualEffects = new Bundle();
@@ -5279,13 +5314,17 @@ public class NotificationManagerService extends SystemService {
             final String key = record.sbn.getKey();
             keys.add(key);
             importance.add(record.getImportance());
-            if (record.getImportanceExplanation() != null) {
-                explanation.putCharSequence(key, record.getImportanceExplanation());
-            }
             if (record.isIntercepted()) {
                 interceptedKeys.add(key);
 
             }
+            if (!state.update(record)) {
+                continue;
+            }
+            changedKeys.add(key);
+            if (record.getImportanceExplanation() != null) {
+                explanation.putCharSequence(key, record.getImportanceExplanation());
+            }
             suppressedVisualEffects.putInt(key, record.getSuppressedVisualEffects());
             if (record.getPackageVisibilityOverride()
                     != NotificationListenerService.Ranking.VISIBILITY_NO_OVERRIDE) {
@@ -5304,9 +5343,11 @@ public class NotificationManagerService extends SystemService {
         for (int i = 0; i < M; i++) {
             importanceAr[i] = importance.get(i);
         }
-        return new NotificationRankingUpdate(keysAr, interceptedKeysAr, visibilityOverrides,
-                suppressedVisualEffects, importanceAr, explanation, overrideGroupKeys,
-                channels, overridePeople, snoozeCriteria, showBadge);
+        final int version = state.finishUpdate();
+        return new NotificationRankingUpdate(version, baseVersion,
+                changedKeys.toArray(new String[changedKeys.size()]), keysAr, interceptedKeysAr,
+                visibilityOverrides, suppressedVisualEffects, importanceAr, explanation,
+                overrideGroupKeys, channels, overridePeople, snoozeCriteria, showBadge);
     }
 
     boolean hasCompanionDevice(ManagedServiceInfo info) {
@@ -5498,6 +5539,9 @@ public class NotificationManagerService extends SystemService {
         static final String TAG_ENABLED_NOTIFICATION_LISTENERS = "enabled_listeners";
 
         private final ArraySet<ManagedServiceInfo> mLightTrimListeners = new ArraySet<>();
+        @GuardedBy("mNotificationLock")
+        private final ArrayMap<ManagedServiceInfo, ListenerRankingState> mRankingStates =
+                new ArrayMap<>();
 
         public NotificationListeners(IPackageManager pm) {
             super(getContext(), mNotificationLock, mUserProfiles, pm);
@@ -5532,6 +5576,7 @@ public class NotificationManagerService extends SystemService {
             final INotificationListener listener = (INotificationListener) info.service;
             final NotificationRankingUpdate update;
             synchronized (mNotificationLock) {
+                getRankingStateLocked(info).reset();
                 update = makeRankingUpdateLocked(info);
             }
             try {
@@ -5549,6 +5594,37 @@ public class NotificationManagerService extends SystemService {
                 updateEffectsSuppressorLocked();
             }
             mLightTrimListeners.remove(removed);
+            mRankingStates.remove(removed);
+        }
+
+        @GuardedBy("mNotificationLock")
+        ListenerRankingState getRankingStateLocked(ManagedServiceInfo info) {
+            ListenerRankingState state = mRankingStates.get(info);
+            if (state == null) {
+                state = new ListenerRankingState();
+                mRankingStates.put(info, state);
+            }
+            return state;
+        }
+
+        /**
+         * asynchronously send a full ranking update to a listener that lost track of the deltas
+         */
+        @GuardedBy("mNotificationLock")
+        public void notifyFullRankingUpdateLocked(ManagedServiceInfo info) {
+            getRankingStateLocked(info).reset();
+            final NotificationRankingUpdate update = makeRankingUpdateLocked(info);
+            mHandler.post(() -> notifyRankingUpdate(info, update));
+        }
+
+        @GuardedBy("mNotificationLock")
+        void dumpRankingStatesLocked(PrintWriter pw) {
+            final int N = mRankingStates.size();
+            for (int i = 0; i < N; i++) {
+                pw.print("      "); pw.print(mRankingStates.keyAt(i).component);
+                pw.println(':');
+                mRankingStates.valueAt(i).dump(pw, "        ");
+            }
         }
 
         @GuardedBy("mNotificationLock")
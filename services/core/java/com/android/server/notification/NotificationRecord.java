@@ -113,6 +113,7 @@ public final class NotificationRecord {
     private int mPackagePriority;
 
     private int mAuthoritativeRank;
+    private int mGroupProxyRank;
     private String mGlobalSortKey;
     private int mPackageVisibility;
     private int mUserImportance = IMPORTANCE_UNSPECIFIED;
@@ -136,6 +137,15 @@ public final class NotificationRecord {
     private String mChannelIdLogTag;
 
     private final List<Adjustment> mAdjustments;
+    // The indexes this record is in, told when its group key changes. Rarely more than one.
+    private ArrayList<GroupKeyObserver> mGroupKeyObservers;
+
+    /**
+     * Told when the group key of a record changes, which happens when the group is overridden.
+     */
+    interface GroupKeyObserver {
+        void onGroupKeyChanged(NotificationRecord r, String oldGroupKey);
+    }
 
     @VisibleForTesting
     public NotificationRecord(Context context, StatusBarNotification sbn,
@@ -354,7 +364,7 @@ public final class NotificationRecord {
         mCreationTimeMs = previous.mCreationTimeMs;
         mVisibleSinceMs = previous.mVisibleSinceMs;
         if (previous.sbn.getOverrideGroupKey() != null && !sbn.isAppGroup()) {
-            sbn.setOverrideGroupKey(previous.sbn.getOverrideGroupKey());
+            setOverrideGroupKey(previous.sbn.getOverrideGroupKey());
         }
         // Don't copy importance information or mGlobalSortKey, recompute them.
     }
@@ -802,13 +812,41 @@ public final class NotificationRecord {
         return mAuthoritativeRank;
     }
 
+    /** The authoritative rank of this record's group proxy in its global sort key. */
+    public void setGroupProxyRank(int groupProxyRank) {
+        mGroupProxyRank = groupProxyRank;
+    }
+
+    public int getGroupProxyRank() {
+        return mGroupProxyRank;
+    }
+
     public String getGroupKey() {
         return sbn.getGroupKey();
     }
 
     public void setOverrideGroupKey(String overrideGroupKey) {
+        final String oldGroupKey = getGroupKey();
         sbn.setOverrideGroupKey(overrideGroupKey);
         mGroupLogTag = null;
+        if (mGroupKeyObservers != null && !oldGroupKey.equals(getGroupKey())) {
+            for (int i = mGroupKeyObservers.size() - 1; i >= 0; i--) {
+                mGroupKeyObservers.get(i).onGroupKeyChanged(this, oldGroupKey);
+            }
+        }
+    }
+
+    void addGroupKeyObserver(GroupKeyObserver observer) {
+        if (mGroupKeyObservers == null) {
+            mGroupKeyObservers = new ArrayList<>(1);
+        }
+        mGroupKeyObservers.add(observer);
+    }
+
+    void removeGroupKeyObserver(GroupKeyObserver observer) {
+        if (mGroupKeyObservers != null) {
+            mGroupKeyObservers.remove(observer);
+        }
     }
 
     private String getGroupLogTag() {
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import android.app.NotificationChannel;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Indexes the records of a notification list by key, by package and user, by group key and by
+ * channel, so that finding the records a query matches takes time proportional to the number
+ * of records of the package or group rather than to the length of the list.
+ *
+ * <p>The index must be told about every record added to or removed from the list. It follows
+ * group key changes on its own. Queries use the same user matching as
+ * NotificationManagerService: {@link UserHandle#USER_ALL} on either side matches any user.
+ * Not thread safe; callers hold the notification lock.</p>
+ */
+final class NotificationRecordIndex implements NotificationRecord.GroupKeyObserver {
+    private final ArrayList<NotificationRecord> mList;
+
+    private final ArrayMap<String, NotificationRecord> mByKey = new ArrayMap<>();
+    // Later records with the same key as one in mByKey, in the order they were added. Only
+    // the enqueued list can hold more than one record per key, and only briefly.
+    private final ArrayMap<String, ArrayList<NotificationRecord>> mDuplicateKeys =
+            new ArrayMap<>();
+    // package -> user id -> records
+    private final ArrayMap<String, SparseArray<ArraySet<NotificationRecord>>> mByPackage =
+            new ArrayMap<>();
+    private final ArrayMap<String, ArraySet<NotificationRecord>> mByGroupKey = new ArrayMap<>();
+    // package -> channel id -> records
+    private final ArrayMap<String, ArrayMap<String, ArraySet<NotificationRecord>>> mByChannel =
+            new ArrayMap<>();
+
+    /**
+     * @param list the list being indexed, used to order records that match the same query.
+     */
+    NotificationRecordIndex(ArrayList<NotificationRecord> list) {
+        mList = list;
+    }
+
+    void add(NotificationRecord r) {
+        final String key = r.getKey();
+        if (mByKey.containsKey(key)) {
+            ArrayList<NotificationRecord> duplicates = mDuplicateKeys.get(key);
+            if (duplicates == null) {
+                duplicates = new ArrayList<>(1);
+                mDuplicateKeys.put(key, duplicates);
+            }
+            duplicates.add(r);
+        } else {
+            mByKey.put(key, r);
+        }
+
+        final String pkg = r.sbn.getPackageName();
+        SparseArray<ArraySet<NotificationRecord>> users = mByPackage.get(pkg);
+        if (users == null) {
+            users = new SparseArray<>(1);
+            mByPackage.put(pkg, users);
+        }
+        ArraySet<NotificationRecord> records = users.get(r.getUserId());
+        if (records == null) {
+            records = new ArraySet<>();
+            users.put(r.getUserId(), records);
+        }
+        records.add(r);
+
+        addToSet(mByGroupKey, r.getGroupKey(), r);
+
+        final String channelId = getChannelId(r);
+        if (channelId != null) {
+            ArrayMap<String, ArraySet<NotificationRecord>> channels = mByChannel.get(pkg);
+            if (channels == null) {
+                channels = new ArrayMap<>(1);
+                mByChannel.put(pkg, channels);
+            }
+            addToSet(channels, channelId, r);
+        }
+
+        r.addGroupKeyObserver(this);
+    }
+
+    void remove(NotificationRecord r) {
+        r.removeGroupKeyObserver(this);
+
+        final String key = r.getKey();
+        final ArrayList<NotificationRecord> duplicates = mDuplicateKeys.get(key);
+        if (mByKey.get(key) == r) {
+            if (duplicates != null) {
+                mByKey.put(key, duplicates.remove(0));
+                if (duplicates.isEmpty()) {
+                    mDuplicateKeys.remove(key);
+                }
+            } else {
+                mByKey.remove(key);
+            }
+        } else if (duplicates != null && duplicates.remove(r) && duplicates.isEmpty()) {
+            mDuplicateKeys.remove(key);
+        }
+
+        final String pkg = r.sbn.getPackageName();
+        final SparseArray<ArraySet<NotificationRecord>> users = mByPackage.get(pkg);
+        if (users != null) {
+            final ArraySet<NotificationRecord> records = users.get(r.getUserId());
+            if (records != null && records.remove(r) && records.isEmpty()) {
+                users.remove(r.getUserId());
+                if (users.size() == 0) {
+                    mByPackage.remove(pkg);
+                }
+            }
+        }
+
+        removeFromSet(mByGroupKey, r.getGroupKey(), r);
+
+        final String channelId = getChannelId(r);
+        final ArrayMap<String, ArraySet<NotificationRecord>> channels = mByChannel.get(pkg);
+        if (channelId != null && channels != null) {
+            removeFromSet(channels, channelId, r);
+            if (channels.isEmpty()) {
+                mByChannel.remove(pkg);
+            }
+        }
+    }
+
+    void clear() {
+        for (int i = mByPackage.size() - 1; i >= 0; i--) {
+            final SparseArray<ArraySet<NotificationRecord>> users = mByPackage.valueAt(i);
+            for (int j = users.size() - 1; j >= 0; j--) {
+                final ArraySet<NotificationRecord> records = users.valueAt(j);
+                for (int k = records.size() - 1; k >= 0; k--) {
+                    records.valueAt(k).removeGroupKeyObserver(this);
+                }
+            }
+        }
+        mByKey.clear();
+        mDuplicateKeys.clear();
+        mByPackage.clear();
+        mByGroupKey.clear();
+        mByChannel.clear();
+    }
+
+    @Override
+    public void onGroupKeyChanged(NotificationRecord r, String oldGroupKey) {
+        removeFromSet(mByGroupKey, oldGroupKey, r);
+        addToSet(mByGroupKey, r.getGroupKey(), r);
+    }
+
+    /**
+     * @return the record with the given key that was added first, or null.
+     */
+    NotificationRecord getByKey(String key) {
+        return mByKey.get(key);
+    }
+
+    /**
+     * @return the first record in the list with the given package, tag, id and user, or null.
+     */
+    NotificationRecord find(String pkg, String tag, int id, int userId) {
+        final SparseArray<ArraySet<NotificationRecord>> users = mByPackage.get(pkg);
+        if (users == null) {
+            return null;
+        }
+        NotificationRecord found = null;
+        int foundIndex = -1;
+        for (int i = users.size() - 1; i >= 0; i--) {
+            if (!matchesUser(users.keyAt(i), userId)) {
+                continue;
+            }
+            final ArraySet<NotificationRecord> records = users.valueAt(i);
+            for (int j = records.size() - 1; j >= 0; j--) {
+                final NotificationRecord r = records.valueAt(j);
+                if (r.sbn.getId() != id || !TextUtils.equals(r.sbn.getTag(), tag)) {
+                    continue;
+                }
+                if (found == null) {
+                    found = r;
+                    continue;
+                }
+                // Several records match, typically for USER_ALL; keep the one listed first.
+                if (foundIndex < 0) {
+                    foundIndex = mList.indexOf(found);
+                }
+                final int index = mList.indexOf(r);
+                if (index < foundIndex) {
+                    found = r;
+                    foundIndex = index;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the records posted by the given package for exactly the given user, or null if
+     * there are none. The set must not be modified.
+     */
+    ArraySet<NotificationRecord> getByPackageAndUser(String pkg, int userId) {
+        final SparseArray<ArraySet<NotificationRecord>> users = mByPackage.get(pkg);
+        return users != null ? users.get(userId) : null;
+    }
+
+    /**
+     * Adds the records of the given package and user to {@code out}.
+     */
+    void collectByPackage(String pkg, int userId, Collection<NotificationRecord> out) {
+        final SparseArray<ArraySet<NotificationRecord>> users = mByPackage.get(pkg);
+        if (users == null) {
+            return;
+        }
+        for (int i = users.size() - 1; i >= 0; i--) {
+            if (matchesUser(users.keyAt(i), userId)) {
+                out.addAll(users.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the records of the given package, channel and user to {@code out}.
+     */
+    void collectByChannel(String pkg, String channelId, int userId,
+            Collection<NotificationRecord> out) {
+        final ArrayMap<String, ArraySet<NotificationRecord>> channels = mByChannel.get(pkg);
+        final ArraySet<NotificationRecord> records =
+                channels != null ? channels.get(channelId) : null;
+        if (records == null) {
+            return;
+        }
+        for (int i = records.size() - 1; i >= 0; i--) {
+            final NotificationRecord r = records.valueAt(i);
+            if (matchesUser(r.getUserId(), userId)) {
+                out.add(r);
+            }
+        }
+    }
+
+    /**
+     * @return the records with the given group key, or null if there are none. The set must
+     * not be modified.
+     */
+    ArraySet<NotificationRecord> getGroup(String groupKey) {
+        return mByGroupKey.get(groupKey);
+    }
+
+    private static boolean matchesUser(int recordUserId, int userId) {
+        return userId == UserHandle.USER_ALL
+                || recordUserId == UserHandle.USER_ALL
+                || recordUserId == userId;
+    }
+
+    private static String getChannelId(NotificationRecord r) {
+        final NotificationChannel channel = r.getChannel();
+        return channel != null ? channel.getId() : null;
+    }
+
+    private static void addToSet(ArrayMap<String, ArraySet<NotificationRecord>> map, String key,
+            NotificationRecord r) {
+        ArraySet<NotificationRecord> records = map.get(key);
+        if (records == null) {
+            records = new ArraySet<>(1);
+            map.put(key, records);
+        }
+        records.add(r);
+    }
+
+    private static void removeFromSet(ArrayMap<String, ArraySet<NotificationRecord>> map,
+            String key, NotificationRecord r) {
+        final ArraySet<NotificationRecord> records = map.get(key);
+        if (records != null && records.remove(r) && records.isEmpty()) {
+            map.remove(key);
+        }
+    }
+}
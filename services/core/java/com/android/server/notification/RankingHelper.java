@@ -38,6 +38,7 @@ import android.provider.Settings.Secure;
 import android.service.notification.NotificationListenerService.Ranking;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Slog;
 import android.util.SparseBooleanArray;
 
@@ -54,6 +55,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.Map;
@@ -87,9 +89,18 @@ public class RankingHelper implements RankingConfig {
     private final NotificationSignalExtractor[] mSignalExtractors;
     private final NotificationComparator mPreliminaryComparator;
     private final GlobalSortKeyComparator mFinalComparator = new GlobalSortKeyComparator();
+    // The preliminary order with ties broken by key, so that the individual ranking does not
+    // depend on the order the list was in, and inserting a changed record ranks it exactly
+    // where a full sort would.
+    private final Comparator<NotificationRecord> mRankingComparator = (left, right) -> {
+        final int result = mPreliminaryComparator.compare(left, right);
+        return result != 0 ? result : left.getKey().compareTo(right.getKey());
+    };
 
     private final ArrayMap<String, Record> mRecords = new ArrayMap<>(); // pkg|uid => Record
     private final ArrayMap<String, NotificationRecord> mProxyByGroupTmp = new ArrayMap<>();
+    private final ArrayList<NotificationRecord> mRankedTmp = new ArrayList<>();
+    private final ArraySet<NotificationRecord> mDirtyTmp = new ArraySet<>();
     private final ArrayMap<String, Record> mRestoredWithoutUids = new ArrayMap<>(); // pkg => Record
 
     private final Context mContext;
@@ -426,7 +437,7 @@ public class RankingHelper implements RankingConfig {
         }
 
         // rank each record individually
-        Collections.sort(notificationList, mPreliminaryComparator);
+        Collections.sort(notificationList, mRankingComparator);
 
         synchronized (mProxyByGroupTmp) {
             // record individual ranking result and nominate proxies for each group
@@ -444,32 +455,7 @@ public class RankingHelper implements RankingConfig {
             for (int i = 0; i < N; i++) {
                 final NotificationRecord record = notificationList.get(i);
                 NotificationRecord groupProxy = mProxyByGroupTmp.get(record.getGroupKey());
-                String groupSortKey = record.getNotification().getSortKey();
-
-                // We need to make sure the developer provided group sort key (gsk) is handled
-                // correctly:
-                //   gsk="" < gsk=non-null-string < gsk=null
-                //
-                // We enforce this by using different prefixes for these three cases.
-                String groupSortKeyPortion;
-                if (groupSortKey == null) {
-                    groupSortKeyPortion = "nsk";
-                } else if (groupSortKey.equals("")) {
-                    groupSortKeyPortion = "esk";
-                } else {
-                    groupSortKeyPortion = "gsk=" + groupSortKey;
-                }
-
-                boolean isGroupSummary = record.getNotification().isGroupSummary();
-                record.setGlobalSortKey(
-                        String.format("intrsv=%c:grnk=0x%04x:gsmry=%c:%s:rnk=0x%04x",
-                        record.isRecentlyIntrusive()
-                                && record.getImportance() > NotificationManager.IMPORTANCE_MIN
-                                ? '0' : '1',
-                        groupProxy.getAuthoritativeRank(),
-                        isGroupSummary ? '0' : '1',
-                        groupSortKeyPortion,
-                        record.getAuthoritativeRank()));
+                updateGlobalSortKey(record, groupProxy.getAuthoritativeRank());
             }
             mProxyByGroupTmp.clear();
         }
@@ -478,6 +464,165 @@ public class RankingHelper implements RankingConfig {
         Collections.sort(notificationList, mFinalComparator);
     }
 
+    private static void updateGlobalSortKey(NotificationRecord record, int groupProxyRank) {
+        String groupSortKey = record.getNotification().getSortKey();
+
+        // We need to make sure the developer provided group sort key (gsk) is handled
+        // correctly:
+        //   gsk="" < gsk=non-null-string < gsk=null
+        //
+        // We enforce this by using different prefixes for these three cases.
+        String groupSortKeyPortion;
+        if (groupSortKey == null) {
+            groupSortKeyPortion = "nsk";
+        } else if (groupSortKey.equals("")) {
+            groupSortKeyPortion = "esk";
+        } else {
+            groupSortKeyPortion = "gsk=" + groupSortKey;
+        }
+
+        boolean isGroupSummary = record.getNotification().isGroupSummary();
+        record.setGroupProxyRank(groupProxyRank);
+        record.setGlobalSortKey(
+                String.format("intrsv=%c:grnk=0x%04x:gsmry=%c:%s:rnk=0x%04x",
+                record.isRecentlyIntrusive()
+                        && record.getImportance() > NotificationManager.IMPORTANCE_MIN
+                        ? '0' : '1',
+                groupProxyRank,
+                isGroupSummary ? '0' : '1',
+                groupSortKeyPortion,
+                record.getAuthoritativeRank()));
+    }
+
+    /**
+     * Re-ranks a list that was ranked by an earlier {@link #sort} after only the given record
+     * was added or changed. See {@link #sortIncrementally(ArrayList, Collection)}.
+     */
+    public ArraySet<String> sortIncrementally(ArrayList<NotificationRecord> notificationList,
+            NotificationRecord changed) {
+        return sortIncrementally(notificationList, Collections.singletonList(changed));
+    }
+
+    /**
+     * Re-ranks a list that was ranked by an earlier {@link #sort} after only the given records
+     * were added or changed, or others were removed. The result is the same as a full
+     * {@link #sort}, but the records whose signals did not change keep their relative order,
+     * so only the changed records are compared, and only the records whose global sort key
+     * changed are repositioned. Records that were never ranked are treated as changed. If
+     * the signals of other records may have changed, use {@link #sort}.
+     *
+     * @return the keys of the records whose position in the list changed, or that were not
+     *     ranked before.
+     */
+    public ArraySet<String> sortIncrementally(ArrayList<NotificationRecord> notificationList,
+            Collection<NotificationRecord> changed) {
+        final int N = notificationList.size();
+        final ArrayMap<NotificationRecord, Integer> indexBefore = new ArrayMap<>(N);
+        final ArraySet<String> moved = new ArraySet<>();
+        for (int i = 0; i < N; i++) {
+            final NotificationRecord record = notificationList.get(i);
+            indexBefore.put(record, i);
+            if (record.getGlobalSortKey() == null) {
+                moved.add(record.getKey());
+            }
+        }
+        if (changed.size() * 4 > N || !reposition(notificationList, changed)) {
+            // Cheaper to start over, or the list was not ranked by an earlier sort.
+            sort(notificationList);
+        }
+        for (int i = 0; i < N; i++) {
+            final NotificationRecord record = notificationList.get(i);
+            if (indexBefore.get(record) != i) {
+                moved.add(record.getKey());
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * @return false if the records outside of {@code changed} do not have distinct ranks from
+     *     an earlier sort, in which case the list is left as it was.
+     */
+    private boolean reposition(ArrayList<NotificationRecord> notificationList,
+            Collection<NotificationRecord> changed) {
+        final int N = notificationList.size();
+        synchronized (mProxyByGroupTmp) {
+            final ArrayList<NotificationRecord> ranked = mRankedTmp;
+            final ArraySet<NotificationRecord> dirty = mDirtyTmp;
+            try {
+                // The unchanged records, in their previous individual ranking.
+                for (int i = 0; i < N; i++) {
+                    final NotificationRecord record = notificationList.get(i);
+                    if (record.getGlobalSortKey() == null || changed.contains(record)) {
+                        dirty.add(record);
+                    } else {
+                        ranked.add(record);
+                    }
+                }
+                Collections.sort(ranked, (left, right) ->
+                        Integer.compare(left.getAuthoritativeRank(), right.getAuthoritativeRank()));
+                for (int i = 1; i < ranked.size(); i++) {
+                    if (ranked.get(i - 1).getAuthoritativeRank()
+                            == ranked.get(i).getAuthoritativeRank()) {
+                        return false;
+                    }
+                }
+
+                // Rank the changed records individually against the others.
+                for (int i = 0; i < dirty.size(); i++) {
+                    final NotificationRecord record = dirty.valueAt(i);
+                    final int index = Collections.binarySearch(ranked, record,
+                            mRankingComparator);
+                    ranked.add(index < 0 ? -index - 1 : index, record);
+                }
+
+                // Only records whose rank or group proxy rank moved need a new sort key.
+                for (int i = 0; i < N; i++) {
+                    final NotificationRecord record = ranked.get(i);
+                    if (record.getAuthoritativeRank() != i) {
+                        record.setAuthoritativeRank(i);
+                        dirty.add(record);
+                    }
+                }
+                // Same nomination as in sort(): the last record of each group is its proxy.
+                for (int i = N - 1; i >= 0; i--) {
+                    final NotificationRecord record = ranked.get(i);
+                    if (mProxyByGroupTmp.get(record.getGroupKey()) == null) {
+                        mProxyByGroupTmp.put(record.getGroupKey(), record);
+                    }
+                }
+                for (int i = 0; i < N; i++) {
+                    final NotificationRecord record = ranked.get(i);
+                    final int proxyRank =
+                            mProxyByGroupTmp.get(record.getGroupKey()).getAuthoritativeRank();
+                    if (dirty.contains(record) || record.getGroupProxyRank() != proxyRank) {
+                        updateGlobalSortKey(record, proxyRank);
+                        dirty.add(record);
+                    }
+                }
+
+                // The other records keep their sort keys, and so their relative order.
+                if (dirty.size() * 4 > N) {
+                    // Mostly sorted already, which the merge sort handles in linear time.
+                    Collections.sort(notificationList, mFinalComparator);
+                } else {
+                    notificationList.removeAll(dirty);
+                    for (int i = 0; i < dirty.size(); i++) {
+                        final NotificationRecord record = dirty.valueAt(i);
+                        final int index = Collections.binarySearch(notificationList, record,
+                                mFinalComparator);
+                        notificationList.add(index < 0 ? -index - 1 : index, record);
+                    }
+                }
+                return true;
+            } finally {
+                ranked.clear();
+                dirty.clear();
+                mProxyByGroupTmp.clear();
+            }
+        }
+    }
+
     public int indexOf(ArrayList<NotificationRecord> notificationList, NotificationRecord target) {
         return Collections.binarySearch(notificationList, target, mFinalComparator);
     }
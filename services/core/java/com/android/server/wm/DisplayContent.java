@@ -175,6 +175,9 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
     private WindowState mTmpWindow2;
     private WindowAnimator mTmpWindowAnimator;
     private boolean mTmpRecoveringMemory;
+
+    /** The number of windows the last {@link #applySurfaceChangesTransaction} went over. */
+    int mSurfacePlacementVisitedWindows;
     private boolean mUpdateImeTarget;
     private boolean mTmpInitial;
     private int mMaxUiWidth;
@@ -602,6 +605,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                     mService.mInputMethodTarget);
 
     private final Consumer<WindowState> mApplySurfaceChangesTransaction = w -> {
+        mSurfacePlacementVisitedWindows++;
         final WindowSurfacePlacer surfacePlacer = mService.mWindowPlacerLocked;
         final boolean obscuredChanged = w.mObscured !=
                 mTmpApplySurfaceChangesTransactionState.obscured;
@@ -2786,6 +2790,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         resetDimming();
 
         mTmpRecoveringMemory = recoveringMemory;
+        mSurfacePlacementVisitedWindows = 0;
         forAllWindows(mApplySurfaceChangesTransaction, true /* traverseTopToBottom */);
 
         mService.mDisplayManagerInternal.setDisplayProperties(mDisplayId,
@@ -81,6 +81,11 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
     private int mInputWindowHandleCount;
     private InputWindowHandle mFocusedInputWindowHandle;
 
+    // The input windows and focus last published, for readers that don't hold the WM lock.
+    private volatile InputWindowsSnapshot mSnapshot = InputWindowsSnapshot.EMPTY;
+    private long mInputWindowsSentCount;
+    private long mInputWindowsSkippedCount;
+
     private boolean mAddInputConsumerHandle;
     private boolean mAddPipInputConsumerHandle;
     private boolean mAddWallpaperInputConsumerHandle;
@@ -348,6 +353,34 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         mFocusedInputWindowHandle = null;
     }
 
+    /**
+     * Sends the input windows to native code unless they are the same as the ones last sent, and
+     * publishes a new snapshot if the windows or the input focus changed.
+     */
+    private void publishInputWindowsLw() {
+        final InputWindowsSnapshot last = mSnapshot;
+        final boolean windowsChanged = !last.hasSameWindows(mInputWindowHandles,
+                mInputWindowHandleCount, mFocusedInputWindowHandle);
+        if (windowsChanged) {
+            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            mInputWindowsSentCount++;
+        } else {
+            mInputWindowsSkippedCount++;
+        }
+        if (windowsChanged || last.focusedWindow != mInputFocus) {
+            mSnapshot = new InputWindowsSnapshot(last.sequence + 1, mInputFocus,
+                    mInputWindowHandles, mInputWindowHandleCount, mFocusedInputWindowHandle);
+        }
+    }
+
+    /**
+     * @return The input windows and focus as of the last update. May be called without holding
+     *         the window manager lock.
+     */
+    InputWindowsSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
     void setUpdateInputWindowsNeededLw() {
         mUpdateInputWindowsNeeded = true;
     }
@@ -589,6 +622,9 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (mInputFreezeReason != null) {
             pw.println(prefix + "mInputFreezeReason=" + mInputFreezeReason);
         }
+        pw.print(prefix); pw.print("mInputWindowsSent="); pw.print(mInputWindowsSentCount);
+        pw.print(" mInputWindowsSkipped="); pw.println(mInputWindowsSkippedCount);
+        mSnapshot.dump(pw, prefix + "  ");
         final Set<String> inputConsumerKeys = mInputConsumers.keySet();
         if (!inputConsumerKeys.isEmpty()) {
             pw.println(prefix + "InputConsumers:");
@@ -628,8 +664,7 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
                 addInputWindowHandle(wallpaperInputConsumer.mWindowHandle);
             }
 
-            // Send windows to native code.
-            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            publishInputWindowsLw();
 
             clearInputWindowHandlesLw();
         }
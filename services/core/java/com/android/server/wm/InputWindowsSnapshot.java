@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm;
+
+import android.graphics.Region;
+import android.os.IBinder;
+import android.text.TextUtils;
+import android.view.InputChannel;
+
+import com.android.server.input.InputApplicationHandle;
+import com.android.server.input.InputWindowHandle;
+
+import java.io.PrintWriter;
+
+/**
+ * Immutable copy of the input windows and input focus last published by {@link InputMonitor}.
+ * A new snapshot replaces the old one every time the input windows are updated, so it can be
+ * read without holding the window manager lock.
+ * <p>
+ * {@link InputWindowHandle}s are reused and modified in place, so the snapshot keeps a copy of
+ * the values the input dispatcher was sent, which is what lets the monitor tell whether the
+ * next update changes anything.
+ * <p>
+ * Test class: {@link InputMonitorTests}
+ */
+final class InputWindowsSnapshot {
+
+    static final InputWindowsSnapshot EMPTY = new InputWindowsSnapshot();
+
+    /** Incremented every time a new snapshot is published. */
+    final long sequence;
+
+    /** The window with input focus, or null. */
+    final WindowState focusedWindow;
+
+    /** The client token of {@link #focusedWindow}, or null. */
+    final IBinder focusedWindowToken;
+
+    private final InputWindowHandle mFocusedHandle;
+    private final HandleState[] mStates;
+
+    private InputWindowsSnapshot() {
+        sequence = 0;
+        focusedWindow = null;
+        focusedWindowToken = null;
+        mFocusedHandle = null;
+        mStates = new HandleState[0];
+    }
+
+    InputWindowsSnapshot(long sequence, WindowState focusedWindow,
+            InputWindowHandle[] handles, int count, InputWindowHandle focusedHandle) {
+        this.sequence = sequence;
+        this.focusedWindow = focusedWindow;
+        focusedWindowToken = focusedWindow != null ? focusedWindow.mClient.asBinder() : null;
+        mFocusedHandle = focusedHandle;
+        mStates = new HandleState[count];
+        for (int i = 0; i < count; i++) {
+            mStates[i] = new HandleState(handles[i]);
+        }
+    }
+
+    /**
+     * @return Whether sending {@param handles} to the input dispatcher would not change anything
+     *         it was sent for this snapshot.
+     */
+    boolean hasSameWindows(InputWindowHandle[] handles, int count,
+            InputWindowHandle focusedHandle) {
+        if (count != mStates.length || focusedHandle != mFocusedHandle) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!mStates[i].matches(handles[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getWindowCount() {
+        return mStates.length;
+    }
+
+    /**
+     * @return The window state of the input window at {@param index}, top to bottom, or null if
+     *         it is not a {@link WindowState}, e.g. an input consumer.
+     */
+    WindowState getWindow(int index) {
+        final Object windowState = mStates[index].handle.windowState;
+        return windowState instanceof WindowState ? (WindowState) windowState : null;
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print("sequence="); pw.print(sequence);
+        pw.print(" windows="); pw.print(mStates.length);
+        pw.print(" focus="); pw.println(focusedWindow);
+    }
+
+    /** The values of an {@link InputWindowHandle} that are sent to the input dispatcher. */
+    private static final class HandleState {
+        final InputWindowHandle handle;
+        final InputChannel inputChannel;
+        final String name;
+        final int layoutParamsFlags;
+        final int layoutParamsType;
+        final long dispatchingTimeoutNanos;
+        final int frameLeft;
+        final int frameTop;
+        final int frameRight;
+        final int frameBottom;
+        final float scaleFactor;
+        final Region touchableRegion;
+        final boolean visible;
+        final boolean canReceiveKeys;
+        final boolean hasFocus;
+        final boolean hasWallpaper;
+        final boolean paused;
+        final int layer;
+        final int ownerPid;
+        final int ownerUid;
+        final int inputFeatures;
+        final String applicationName;
+        final long applicationDispatchingTimeoutNanos;
+
+        HandleState(InputWindowHandle h) {
+            handle = h;
+            inputChannel = h.inputChannel;
+            name = h.name;
+            layoutParamsFlags = h.layoutParamsFlags;
+            layoutParamsType = h.layoutParamsType;
+            dispatchingTimeoutNanos = h.dispatchingTimeoutNanos;
+            frameLeft = h.frameLeft;
+            frameTop = h.frameTop;
+            frameRight = h.frameRight;
+            frameBottom = h.frameBottom;
+            scaleFactor = h.scaleFactor;
+            touchableRegion = new Region(h.touchableRegion);
+            visible = h.visible;
+            canReceiveKeys = h.canReceiveKeys;
+            hasFocus = h.hasFocus;
+            hasWallpaper = h.hasWallpaper;
+            paused = h.paused;
+            layer = h.layer;
+            ownerPid = h.ownerPid;
+            ownerUid = h.ownerUid;
+            inputFeatures = h.inputFeatures;
+            final InputApplicationHandle app = h.inputApplicationHandle;
+            applicationName = app != null ? app.name : null;
+            applicationDispatchingTimeoutNanos = app != null ? app.dispatchingTimeoutNanos : 0;
+        }
+
+        boolean matches(InputWindowHandle h) {
+            final InputApplicationHandle app = h.inputApplicationHandle;
+            return handle == h
+                    && inputChannel == h.inputChannel
+                    && layoutParamsFlags == h.layoutParamsFlags
+                    && layoutParamsType == h.layoutParamsType
+                    && dispatchingTimeoutNanos == h.dispatchingTimeoutNanos
+                    && frameLeft == h.frameLeft
+                    && frameTop == h.frameTop
+                    && frameRight == h.frameRight
+                    && frameBottom == h.frameBottom
+                    && scaleFactor == h.scaleFactor
+                    && visible == h.visible
+                    && canReceiveKeys == h.canReceiveKeys
+                    && hasFocus == h.hasFocus
+                    && hasWallpaper == h.hasWallpaper
+                    && paused == h.paused
+                    && layer == h.layer
+                    && ownerPid == h.ownerPid
+                    && ownerUid == h.ownerUid
+                    && inputFeatures == h.inputFeatures
+                    && TextUtils.equals(name, h.name)
+                    && touchableRegion.equals(h.touchableRegion)
+                    && (app == null
+                            ? applicationName == null && applicationDispatchingTimeoutNanos == 0
+                            : TextUtils.equals(applicationName, app.name)
+                                    && applicationDispatchingTimeoutNanos
+                                            == app.dispatchingTimeoutNanos);
+        }
+    }
+}
@@ -855,6 +855,7 @@ class RootWindowContainer extends WindowContainer<DisplayContent> {
         for (int j = 0; j < count; ++j) {
             final DisplayContent dc = mChildren.get(j);
             focusDisplayed |= dc.applySurfaceChangesTransaction(recoveringMemory);
+            mService.mWindowPlacerLocked.onWindowsVisited(dc.mSurfacePlacementVisitedWindows);
         }
 
         if (focusDisplayed) {
@@ -50,6 +50,7 @@ import android.view.IWindowId;
 import android.view.IWindowSession;
 import android.view.IWindowSessionCallback;
 import android.view.InputChannel;
+import android.view.InputLatencyStats;
 import android.view.Surface;
 import android.view.SurfaceControl;
 import android.view.SurfaceSession;
@@ -79,6 +80,8 @@ public class Session extends IWindowSession.Stub
     private final String mStringName;
     SurfaceSession mSurfaceSession;
     private int mNumWindow = 0;
+    // Whether a window was ever added through this session, which input latency reports need.
+    private boolean mWindowAdded;
     // Set of visible application overlay window surfaces connected to this session.
     private final Set<WindowSurfaceController> mAppOverlaySurfaces = new HashSet<>();
     // Set of visible alert window surfaces connected to this session.
@@ -576,6 +579,22 @@ public class Session extends IWindowSession.Stub
         }
     }
 
+    @Override
+    public void reportInputLatency(IWindow window, InputLatencyStats stats) {
+        if (stats == null || window == null || !stats.isPlausibleReport()) {
+            return;
+        }
+        synchronized (mService.mWindowMap) {
+            // Checked against the session rather than the window: the report is oneway and
+            // a window's last one is sent right before remove(), which may well run first.
+            // It is counted against the session's own uid either way.
+            if (!mWindowAdded) {
+                return;
+            }
+        }
+        mService.mInputManager.reportInputLatency(mUid, stats);
+    }
+
     @Override
     public void updatePointerIcon(IWindow window) {
         final long identity = Binder.clearCallingIdentity();
@@ -601,6 +620,7 @@ public class Session extends IWindowSession.Stub
             }
         }
         mNumWindow++;
+        mWindowAdded = true;
     }
 
     void windowRemovedLocked() {
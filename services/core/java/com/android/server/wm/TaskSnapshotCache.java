@@ -16,11 +16,23 @@
 
 package com.android.server.wm;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
 import android.annotation.Nullable;
+import android.app.ActivityManager;
 import android.app.ActivityManager.TaskSnapshot;
+import android.graphics.GraphicBuffer;
+import android.graphics.PixelFormat;
+import android.os.Handler;
 import android.util.ArrayMap;
 import android.util.LruCache;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
 import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,28 +40,103 @@ import java.util.Map.Entry;
 /**
  * Caches snapshots. See {@link TaskSnapshotController}.
  * <p>
+ * The snapshots in memory are limited to a byte budget. When it is exceeded, or memory is
+ * trimmed, the least recently used snapshots are evicted, and their tasks are served with the
+ * reduced resolution snapshot on disk from then on.
+ * <p>
  * Access to this class should be guarded by the global window manager lock.
  */
 class TaskSnapshotCache {
 
+    /** The bytes of snapshots kept in memory. Low ram devices only store reduced snapshots. */
+    @VisibleForTesting
+    static final int MAX_CACHE_BYTES = ActivityManager.isLowRamDeviceStatic()
+            ? 12 * 1024 * 1024
+            : 48 * 1024 * 1024;
+
     private final WindowManagerService mService;
     private final TaskSnapshotLoader mLoader;
+    private final int mMaxBytes;
     private final ArrayMap<AppWindowToken, Integer> mAppTaskMap = new ArrayMap<>();
-    private final ArrayMap<Integer, CacheEntry> mRunningCache = new ArrayMap<>();
+    private final LruCache<Integer, CacheEntry> mRunningCache;
+
+    /**
+     * The app token that was on top by task id, for tasks whose snapshot was evicted. Their
+     * snapshot is restored from the reduced resolution file until a new one is taken.
+     */
+    private final ArrayMap<Integer, AppWindowToken> mDowngraded = new ArrayMap<>();
+
+    private int mHits;
+    private int mMisses;
+    private int mDowngradedLoads;
+
+    /**
+     * The number of snapshots {@link #prefetchSnapshots} keeps loaded ahead of Recents. Loads
+     * that run further ahead than this evict the oldest prefetched snapshot.
+     */
+    @VisibleForTesting
+    static final int MAX_PREFETCHED = 8;
+
+    private final Handler mPrefetchHandler;
+
+    /** Snapshots loaded from disk ahead of being asked for; taken out when returned. */
+    @GuardedBy("mService.mWindowMap")
+    private final LruCache<Integer, PrefetchEntry> mPrefetched =
+            new LruCache<Integer, PrefetchEntry>(MAX_PREFETCHED) {
+                @Override
+                protected void entryRemoved(boolean evicted, Integer taskId,
+                        PrefetchEntry oldValue, PrefetchEntry newValue) {
+                    if (evicted || newValue != null) {
+                        // Never handed out, so nobody else holds the buffer.
+                        oldValue.snapshot.getSnapshot().destroy();
+                    }
+                }
+            };
+
+    /** The loads in flight by task id; a load only stores its result if it is still here. */
+    @GuardedBy("mService.mWindowMap")
+    private final ArrayMap<Integer, Object> mPrefetching = new ArrayMap<>();
+
+    private int mPrefetchHits;
+    private int mPrefetchMisses;
 
     TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader) {
+        this(service, loader, MAX_CACHE_BYTES);
+    }
+
+    @VisibleForTesting
+    TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader, int maxBytes) {
         mService = service;
         mLoader = loader;
+        mMaxBytes = maxBytes;
+        mPrefetchHandler = BackgroundThread.getHandler();
+        mRunningCache = new LruCache<Integer, CacheEntry>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer taskId, CacheEntry entry) {
+                return entry.bytes;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer taskId, CacheEntry oldValue,
+                    CacheEntry newValue) {
+                if (evicted) {
+                    // Keep the app token mapped, so that the downgrade is undone with the task.
+                    mDowngraded.put(taskId, oldValue.topApp);
+                } else {
+                    mAppTaskMap.remove(oldValue.topApp);
+                }
+            }
+        };
     }
 
     void putSnapshot(Task task, TaskSnapshot snapshot) {
-        final CacheEntry entry = mRunningCache.get(task.mTaskId);
-        if (entry != null) {
-            mAppTaskMap.remove(entry.topApp);
-        }
+        // The snapshot on disk is about to be replaced.
+        removePrefetchedEntry(task.mTaskId);
+        removeDowngradedEntry(task.mTaskId);
         final AppWindowToken top = task.getTopChild();
+        // Replacing an entry unmaps its app token, so put the new entry first.
+        mRunningCache.put(task.mTaskId, new CacheEntry(snapshot, top));
         mAppTaskMap.put(top, task.mTaskId);
-        mRunningCache.put(task.mTaskId, new CacheEntry(snapshot, task.getTopChild()));
     }
 
     /**
@@ -62,8 +149,27 @@ class TaskSnapshotCache {
             // Try the running cache.
             final CacheEntry entry = mRunningCache.get(taskId);
             if (entry != null) {
+                mHits++;
                 return entry.snapshot;
             }
+            mMisses++;
+            if (mDowngraded.containsKey(taskId)) {
+                reducedResolution = true;
+                if (restoreFromDisk) {
+                    mDowngradedLoads++;
+                }
+            }
+
+            // Try the snapshots loaded ahead of Recents.
+            if (restoreFromDisk) {
+                final PrefetchEntry prefetched = mPrefetched.get(taskId);
+                if (prefetched != null && prefetched.reducedResolution == reducedResolution) {
+                    mPrefetched.remove(taskId);
+                    mPrefetchHits++;
+                    return prefetched.snapshot;
+                }
+                mPrefetchMisses++;
+            }
         }
 
         // Try to restore from disk if asked.
@@ -73,6 +179,63 @@ class TaskSnapshotCache {
         return tryRestoreFromDisk(taskId, userId, reducedResolution);
     }
 
+    /**
+     * Loads the snapshots of the given tasks from disk in the background, so that a following
+     * {@link #getSnapshot} with {@code restoreFromDisk} doesn't have to wait for them to be
+     * decoded. Tasks with a snapshot in memory already are skipped.
+     *
+     * @param taskIds The tasks to load, in the order they will likely be asked for.
+     * @param userIds The ids of the users the tasks belong to.
+     */
+    void prefetchSnapshots(int[] taskIds, int[] userIds, boolean reducedResolution) {
+        synchronized (mService.mWindowMap) {
+            final int count = Math.min(taskIds.length, MAX_PREFETCHED);
+            for (int i = 0; i < count; i++) {
+                final int taskId = taskIds[i];
+                final boolean reduced = reducedResolution || mDowngraded.containsKey(taskId);
+                final PrefetchEntry prefetched = mPrefetched.get(taskId);
+                // Looking the snapshot up also marks it as recently used, which it is about to be.
+                if (mRunningCache.get(taskId) != null || mPrefetching.containsKey(taskId)
+                        || (prefetched != null && prefetched.reducedResolution == reduced)) {
+                    continue;
+                }
+                final int userId = userIds[i];
+                final Object token = new Object();
+                mPrefetching.put(taskId, token);
+                mPrefetchHandler.post(() -> prefetchSnapshot(taskId, userId, reduced, token));
+            }
+        }
+    }
+
+    /**
+     * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
+     */
+    private void prefetchSnapshot(int taskId, int userId, boolean reducedResolution,
+            Object token) {
+        final TaskSnapshot snapshot = tryRestoreFromDisk(taskId, userId, reducedResolution);
+        synchronized (mService.mWindowMap) {
+            if (mPrefetching.get(taskId) != token) {
+                // The snapshot was replaced or the task removed while loading.
+                if (snapshot != null) {
+                    snapshot.getSnapshot().destroy();
+                }
+                return;
+            }
+            mPrefetching.remove(taskId);
+            if (snapshot != null) {
+                mPrefetched.put(taskId, new PrefetchEntry(snapshot, reducedResolution));
+            }
+        }
+    }
+
+    private void removePrefetchedEntry(int taskId) {
+        mPrefetching.remove(taskId);
+        final PrefetchEntry prefetched = mPrefetched.remove(taskId);
+        if (prefetched != null) {
+            prefetched.snapshot.getSnapshot().destroy();
+        }
+    }
+
     /**
      * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
      */
@@ -106,26 +269,67 @@ class TaskSnapshotCache {
 
     void onTaskRemoved(int taskId) {
         removeRunningEntry(taskId);
+        removePrefetchedEntry(taskId);
     }
 
     private void removeRunningEntry(int taskId) {
-        final CacheEntry entry = mRunningCache.get(taskId);
-        if (entry != null) {
-            mAppTaskMap.remove(entry.topApp);
-            mRunningCache.remove(taskId);
+        // Unmaps the app token, see entryRemoved.
+        mRunningCache.remove(taskId);
+        removeDowngradedEntry(taskId);
+    }
+
+    private void removeDowngradedEntry(int taskId) {
+        final AppWindowToken topApp = mDowngraded.remove(taskId);
+        if (topApp != null) {
+            mAppTaskMap.remove(topApp);
         }
     }
 
+    /**
+     * Called when the system asks system_server to trim its memory. See
+     * {@link android.content.ComponentCallbacks2}.
+     */
+    void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Memory is tight, the snapshots on disk will have to do.
+            mRunningCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mRunningCache.trimToSize(mMaxBytes / 4);
+        } else {
+            mRunningCache.trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    @VisibleForTesting
+    int getCachedBytes() {
+        return mRunningCache.size();
+    }
+
     void dump(PrintWriter pw, String prefix) {
         final String doublePrefix = prefix + "  ";
         final String triplePrefix = doublePrefix + "  ";
         pw.println(prefix + "SnapshotCache");
-        for (int i = mRunningCache.size() - 1; i >= 0; i--) {
-            final CacheEntry entry = mRunningCache.valueAt(i);
-            pw.println(doublePrefix + "Entry taskId=" + mRunningCache.keyAt(i));
+        pw.println(doublePrefix + "bytes=" + mRunningCache.size() + "/" + mMaxBytes
+                + " hits=" + mHits + " misses=" + mMisses
+                + " evictions=" + mRunningCache.evictionCount()
+                + " downgradedLoads=" + mDowngradedLoads);
+        // From least to most recently used.
+        for (Entry<Integer, CacheEntry> e : mRunningCache.snapshot().entrySet()) {
+            final CacheEntry entry = e.getValue();
+            pw.println(doublePrefix + "Entry taskId=" + e.getKey());
             pw.println(triplePrefix + "topApp=" + entry.topApp);
             pw.println(triplePrefix + "snapshot=" + entry.snapshot);
+            pw.println(triplePrefix + "bytes=" + entry.bytes);
+        }
+        if (!mDowngraded.isEmpty()) {
+            pw.println(doublePrefix + "Downgraded taskIds=" + mDowngraded.keySet());
         }
+        pw.println(doublePrefix + "Prefetched taskIds=" + mPrefetched.snapshot().keySet()
+                + " loading=" + mPrefetching.keySet()
+                + " hits=" + mPrefetchHits + " misses=" + mPrefetchMisses);
     }
 
     private static final class CacheEntry {
@@ -136,9 +340,36 @@ class TaskSnapshotCache {
         /** The app token that was on top of the task when the snapshot was taken */
         final AppWindowToken topApp;
 
+        /** The size of the snapshot's buffer. */
+        final int bytes;
+
         CacheEntry(TaskSnapshot snapshot, AppWindowToken topApp) {
             this.snapshot = snapshot;
             this.topApp = topApp;
+            this.bytes = getBytes(snapshot.getSnapshot());
+        }
+
+        private static int getBytes(GraphicBuffer buffer) {
+            final PixelFormat info = new PixelFormat();
+            try {
+                PixelFormat.getPixelFormatInfo(buffer.getFormat(), info);
+            } catch (IllegalArgumentException e) {
+                info.bytesPerPixel = 4;
+            }
+            return buffer.getWidth() * buffer.getHeight() * info.bytesPerPixel;
+        }
+    }
+
+    private static final class PrefetchEntry {
+
+        /** The snapshot, which is owned by the cache until it is returned. */
+        final TaskSnapshot snapshot;
+
+        final boolean reducedResolution;
+
+        PrefetchEntry(TaskSnapshot snapshot, boolean reducedResolution) {
+            this.snapshot = snapshot;
+            this.reducedResolution = reducedResolution;
         }
     }
 }
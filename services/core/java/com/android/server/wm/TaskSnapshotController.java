@@ -27,7 +27,9 @@ import android.annotation.Nullable;
 import android.app.ActivityManager;
 import android.app.ActivityManager.StackId;
 import android.app.ActivityManager.TaskSnapshot;
+import android.content.ComponentCallbacks2;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.GraphicBuffer;
 import android.graphics.Rect;
@@ -122,6 +124,23 @@ class TaskSnapshotController {
 
     void systemReady() {
         mPersister.start();
+        mService.mContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                synchronized (mService.mWindowMap) {
+                    mCache.onTrimMemory(level);
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                onTrimMemory(TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
     }
 
     void onTransitionStarting() {
@@ -194,6 +213,14 @@ class TaskSnapshotController {
                 || DISABLE_FULL_SIZED_BITMAPS);
     }
 
+    /**
+     * Loads snapshots that are about to be retrieved from disk in the background. See
+     * {@link TaskSnapshotCache#prefetchSnapshots}.
+     */
+    void prefetchSnapshots(int[] taskIds, int[] userIds, boolean reducedResolution) {
+        mCache.prefetchSnapshots(taskIds, userIds, reducedResolution || DISABLE_FULL_SIZED_BITMAPS);
+    }
+
     /**
      * Creates a starting surface for {@param token} with {@param snapshot}. DO NOT HOLD THE WINDOW
      * MANAGER LOCK WHEN CALLING THIS METHOD!
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapFactory.Options;
+import android.os.SystemProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The file format task snapshot bitmaps are stored in. Compressed formats are small but slow to
+ * decode; the raw formats store the pixels with a fast deflate pass and decode with a copy.
+ * <p>
+ * The format is chosen with the {@link #FORMAT_PROPERTY} system property and takes effect on the
+ * next boot. Snapshots stored in another format are still loaded.
+ * <p>
+ * Test class: {@link TaskSnapshotPersisterLoaderTest}
+ */
+abstract class TaskSnapshotFormat {
+
+    static final String FORMAT_PROPERTY = "persist.wm.snapshot_format";
+
+    static final TaskSnapshotFormat JPEG = new Compressed("jpeg", ".jpg", CompressFormat.JPEG);
+    static final TaskSnapshotFormat WEBP = new Compressed("webp", ".webp", CompressFormat.WEBP);
+    static final TaskSnapshotFormat RAW = new Raw("raw", ".raw", Config.ARGB_8888);
+    static final TaskSnapshotFormat RAW_565 = new Raw("raw565", ".raw565", Config.RGB_565);
+
+    /** All formats, in the order they are tried when the current one has no file. */
+    static final TaskSnapshotFormat[] ALL = { JPEG, WEBP, RAW, RAW_565 };
+
+    private static final int QUALITY = 95;
+
+    final String name;
+    final String extension;
+
+    private TaskSnapshotFormat(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * @return The format selected by {@link #FORMAT_PROPERTY}, or {@link #JPEG}.
+     */
+    static TaskSnapshotFormat fromSystemProperties() {
+        final String name = SystemProperties.get(FORMAT_PROPERTY, JPEG.name);
+        for (TaskSnapshotFormat format : ALL) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        return JPEG;
+    }
+
+    /**
+     * Writes a software bitmap to {@param file}.
+     */
+    abstract void write(Bitmap bitmap, File file) throws IOException;
+
+    /**
+     * Reads a bitmap written by {@link #write}.
+     *
+     * @return A {@link Config#HARDWARE} bitmap, or {@code null} if the file couldn't be decoded.
+     */
+    abstract Bitmap read(File file) throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Compressed extends TaskSnapshotFormat {
+        private final CompressFormat mCompressFormat;
+
+        Compressed(String name, String extension, CompressFormat compressFormat) {
+            super(name, extension);
+            mCompressFormat = compressFormat;
+        }
+
+        @Override
+        void write(Bitmap bitmap, File file) throws IOException {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                bitmap.compress(mCompressFormat, QUALITY, fos);
+            }
+        }
+
+        @Override
+        Bitmap read(File file) {
+            final Options options = new Options();
+            options.inPreferredConfig = Config.HARDWARE;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Stores a header with the dimensions followed by the deflated pixels.
+     */
+    private static final class Raw extends TaskSnapshotFormat {
+        private static final int MAGIC = 0x54534e50; // "TSNP"
+        private static final int VERSION = 1;
+
+        private final Config mConfig;
+
+        Raw(String name, String extension, Config config) {
+            super(name, extension);
+            mConfig = config;
+        }
+
+        @Override
+        void write(Bitmap bitmap, File file) throws IOException {
+            final Bitmap converted = bitmap.getConfig() == mConfig
+                    ? bitmap
+                    : bitmap.copy(mConfig, false /* isMutable */);
+            final ByteBuffer pixels = ByteBuffer.allocate(converted.getByteCount());
+            converted.copyPixelsToBuffer(pixels);
+            if (converted != bitmap) {
+                converted.recycle();
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(bitmap.getWidth());
+                out.writeInt(bitmap.getHeight());
+                out.flush();
+                final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    final DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
+                    dos.write(pixels.array(), 0, pixels.capacity());
+                    dos.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+        }
+
+        @Override
+        Bitmap read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                final int width = in.readInt();
+                final int height = in.readInt();
+                if (width <= 0 || height <= 0) {
+                    return null;
+                }
+                final Bitmap bitmap = Bitmap.createBitmap(width, height, mConfig);
+                final byte[] pixels = new byte[bitmap.getByteCount()];
+                final Inflater inflater = new Inflater();
+                try {
+                    new DataInputStream(new InflaterInputStream(in, inflater)).readFully(pixels);
+                } finally {
+                    inflater.end();
+                }
+                bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+                final Bitmap hwBitmap = bitmap.copy(Config.HARDWARE, false /* isMutable */);
+                bitmap.recycle();
+                return hwBitmap;
+            }
+        }
+    }
+}
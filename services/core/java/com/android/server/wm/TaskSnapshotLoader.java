@@ -22,9 +22,6 @@ import static com.android.server.wm.WindowManagerDebugConfig.TAG_WM;
 
 import android.app.ActivityManager.TaskSnapshot;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapFactory.Options;
 import android.graphics.GraphicBuffer;
 import android.graphics.Rect;
 import android.util.Slog;
@@ -65,18 +62,15 @@ class TaskSnapshotLoader {
      */
     TaskSnapshot loadTask(int taskId, int userId, boolean reducedResolution) {
         final File protoFile = mPersister.getProtoFile(taskId, userId);
-        final File bitmapFile = reducedResolution
-                ? mPersister.getReducedResolutionBitmapFile(taskId, userId)
-                : mPersister.getBitmapFile(taskId, userId);
-        if (bitmapFile == null || !protoFile.exists() || !bitmapFile.exists()) {
+        final TaskSnapshotFormat format = findFormat(taskId, userId, reducedResolution);
+        if (format == null || !protoFile.exists()) {
             return null;
         }
+        final File bitmapFile = getBitmapFile(taskId, userId, reducedResolution, format);
         try {
             final byte[] bytes = Files.readAllBytes(protoFile.toPath());
             final TaskSnapshotProto proto = TaskSnapshotProto.parseFrom(bytes);
-            final Options options = new Options();
-            options.inPreferredConfig = Config.HARDWARE;
-            final Bitmap bitmap = BitmapFactory.decodeFile(bitmapFile.getPath(), options);
+            final Bitmap bitmap = format.read(bitmapFile);
             if (bitmap == null) {
                 Slog.w(TAG, "Failed to load bitmap: " + bitmapFile.getPath());
                 return null;
@@ -95,4 +89,34 @@ class TaskSnapshotLoader {
             return null;
         }
     }
+
+    /**
+     * @return The format the bitmap of a task is stored in, preferring the current one, or
+     *         {@code null} if there is no bitmap.
+     */
+    private TaskSnapshotFormat findFormat(int taskId, int userId, boolean reducedResolution) {
+        final TaskSnapshotFormat current = mPersister.getFormat();
+        if (fileExists(getBitmapFile(taskId, userId, reducedResolution, current))) {
+            return current;
+        }
+        // The format was changed since the snapshot was stored.
+        for (TaskSnapshotFormat format : TaskSnapshotFormat.ALL) {
+            if (format != current
+                    && fileExists(getBitmapFile(taskId, userId, reducedResolution, format))) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private File getBitmapFile(int taskId, int userId, boolean reducedResolution,
+            TaskSnapshotFormat format) {
+        return reducedResolution
+                ? mPersister.getReducedResolutionBitmapFile(taskId, userId, format)
+                : mPersister.getBitmapFile(taskId, userId, format);
+    }
+
+    private static boolean fileExists(File file) {
+        return file != null && file.exists();
+    }
 }
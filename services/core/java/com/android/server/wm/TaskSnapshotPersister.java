@@ -16,7 +16,6 @@
 
 package com.android.server.wm;
 
-import static android.graphics.Bitmap.CompressFormat.*;
 import static com.android.server.wm.WindowManagerDebugConfig.TAG_WITH_CLASS_NAME;
 import static com.android.server.wm.WindowManagerDebugConfig.TAG_WM;
 
@@ -24,7 +23,6 @@ import android.annotation.TestApi;
 import android.app.ActivityManager;
 import android.app.ActivityManager.TaskSnapshot;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Bitmap.Config;
 import android.graphics.GraphicBuffer;
 import android.os.Process;
@@ -56,9 +54,7 @@ class TaskSnapshotPersister {
     static final float REDUCED_SCALE = ActivityManager.isLowRamDeviceStatic() ? 0.6f : 0.5f;
     static final boolean DISABLE_FULL_SIZED_BITMAPS = ActivityManager.isLowRamDeviceStatic();
     private static final long DELAY_MS = 100;
-    private static final int QUALITY = 95;
     private static final String PROTO_EXTENSION = ".proto";
-    private static final String BITMAP_EXTENSION = ".jpg";
     private static final int MAX_STORE_QUEUE_DEPTH = 2;
 
     @GuardedBy("mLock")
@@ -72,6 +68,7 @@ class TaskSnapshotPersister {
     private boolean mStarted;
     private final Object mLock = new Object();
     private final DirectoryResolver mDirectoryResolver;
+    private final TaskSnapshotFormat mFormat;
 
     /**
      * The list of ids of the tasks that have been persisted since {@link #removeObsoleteFiles} was
@@ -81,7 +78,20 @@ class TaskSnapshotPersister {
     private final ArraySet<Integer> mPersistedTaskIdsSinceLastRemoveObsolete = new ArraySet<>();
 
     TaskSnapshotPersister(DirectoryResolver resolver) {
+        this(resolver, TaskSnapshotFormat.fromSystemProperties());
+    }
+
+    @VisibleForTesting
+    TaskSnapshotPersister(DirectoryResolver resolver, TaskSnapshotFormat format) {
         mDirectoryResolver = resolver;
+        mFormat = format;
+    }
+
+    /**
+     * @return The format new snapshots are stored in.
+     */
+    TaskSnapshotFormat getFormat() {
+        return mFormat;
     }
 
     /**
@@ -185,16 +195,24 @@ class TaskSnapshotPersister {
     }
 
     File getBitmapFile(int taskId, int userId) {
+        return getBitmapFile(taskId, userId, mFormat);
+    }
+
+    File getBitmapFile(int taskId, int userId, TaskSnapshotFormat format) {
         // Full sized bitmaps are disabled on low ram devices
         if (DISABLE_FULL_SIZED_BITMAPS) {
             Slog.wtf(TAG, "This device does not support full sized resolution bitmaps.");
             return null;
         }
-        return new File(getDirectory(userId), taskId + BITMAP_EXTENSION);
+        return new File(getDirectory(userId), taskId + format.extension);
     }
 
     File getReducedResolutionBitmapFile(int taskId, int userId) {
-        return new File(getDirectory(userId), taskId + REDUCED_POSTFIX + BITMAP_EXTENSION);
+        return getReducedResolutionBitmapFile(taskId, userId, mFormat);
+    }
+
+    File getReducedResolutionBitmapFile(int taskId, int userId, TaskSnapshotFormat format) {
+        return new File(getDirectory(userId), taskId + REDUCED_POSTFIX + format.extension);
     }
 
     private boolean createDirectory(int userId) {
@@ -204,14 +222,24 @@ class TaskSnapshotPersister {
 
     private void deleteSnapshot(int taskId, int userId) {
         final File protoFile = getProtoFile(taskId, userId);
-        final File bitmapReducedFile = getReducedResolutionBitmapFile(taskId, userId);
         protoFile.delete();
-        bitmapReducedFile.delete();
+        deleteBitmaps(taskId, userId, null /* keepFormat */);
+    }
+
+    /**
+     * Deletes the bitmaps of a task in every format but {@param keepFormat}.
+     */
+    private void deleteBitmaps(int taskId, int userId, TaskSnapshotFormat keepFormat) {
+        for (TaskSnapshotFormat format : TaskSnapshotFormat.ALL) {
+            if (format == keepFormat) {
+                continue;
+            }
+            getReducedResolutionBitmapFile(taskId, userId, format).delete();
 
-        // Low ram devices do not have a full sized file to delete
-        if (!DISABLE_FULL_SIZED_BITMAPS) {
-            final File bitmapFile = getBitmapFile(taskId, userId);
-            bitmapFile.delete();
+            // Low ram devices do not have a full sized file to delete
+            if (!DISABLE_FULL_SIZED_BITMAPS) {
+                getBitmapFile(taskId, userId, format).delete();
+            }
         }
     }
 
@@ -306,6 +334,9 @@ class TaskSnapshotPersister {
             }
             if (failed) {
                 deleteSnapshot(mTaskId, mUserId);
+            } else {
+                // Don't leave a stale copy in a previously used format around for the loader.
+                deleteBitmaps(mTaskId, mUserId, mFormat);
             }
         }
 
@@ -347,9 +378,7 @@ class TaskSnapshotPersister {
                             (int) (bitmap.getWidth() * REDUCED_SCALE),
                             (int) (bitmap.getHeight() * REDUCED_SCALE), true /* filter */);
             try {
-                FileOutputStream reducedFos = new FileOutputStream(reducedFile);
-                reduced.compress(JPEG, QUALITY, reducedFos);
-                reducedFos.close();
+                mFormat.write(reduced, reducedFile);
             } catch (IOException e) {
                 Slog.e(TAG, "Unable to open " + reducedFile +" for persisting.", e);
                 return false;
@@ -362,9 +391,7 @@ class TaskSnapshotPersister {
 
             final File file = getBitmapFile(mTaskId, mUserId);
             try {
-                FileOutputStream fos = new FileOutputStream(file);
-                swBitmap.compress(JPEG, QUALITY, fos);
-                fos.close();
+                mFormat.write(swBitmap, file);
             } catch (IOException e) {
                 Slog.e(TAG, "Unable to open " + file + " for persisting.", e);
                 return false;
@@ -424,7 +451,7 @@ class TaskSnapshotPersister {
 
         @VisibleForTesting
         int getTaskId(String fileName) {
-            if (!fileName.endsWith(PROTO_EXTENSION) && !fileName.endsWith(BITMAP_EXTENSION)) {
+            if (!fileName.endsWith(PROTO_EXTENSION) && !isBitmapFileName(fileName)) {
                 return -1;
             }
             final int end = fileName.lastIndexOf('.');
@@ -441,5 +468,14 @@ class TaskSnapshotPersister {
                 return -1;
             }
         }
+
+        private boolean isBitmapFileName(String fileName) {
+            for (TaskSnapshotFormat format : TaskSnapshotFormat.ALL) {
+                if (fileName.endsWith(format.extension)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 }
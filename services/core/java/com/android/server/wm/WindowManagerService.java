@@ -3814,6 +3814,17 @@ public class WindowManagerService extends IWindowManager.Stub
                 reducedResolution);
     }
 
+    /**
+     * Starts loading the snapshots of tasks that Recents is about to ask for with
+     * {@link #getTaskSnapshot}, so that it doesn't have to wait for them to be decoded.
+     *
+     * @param taskIds The tasks, in the order they will likely be asked for.
+     * @param userIds The ids of the users the tasks belong to.
+     */
+    public void prefetchTaskSnapshots(int[] taskIds, int[] userIds, boolean reducedResolution) {
+        mTaskSnapshotController.prefetchSnapshots(taskIds, userIds, reducedResolution);
+    }
+
     /**
      * In case a task write/delete operation was lost because the system crashed, this makes sure to
      * clean up the directory to remove obsolete files.
@@ -4729,10 +4740,12 @@ public class WindowManagerService extends IWindowManager.Stub
         }
     }
 
+    /**
+     * @return The window with input focus as of the last input window update. Doesn't take the
+     *         window manager lock, so it may briefly lag behind {@link #mCurrentFocus}.
+     */
     private WindowState getFocusedWindow() {
-        synchronized (mWindowMap) {
-            return getFocusedWindowLocked();
-        }
+        return mInputMonitor.getSnapshot().focusedWindow;
     }
 
     private WindowState getFocusedWindowLocked() {
@@ -7222,7 +7235,7 @@ public class WindowManagerService extends IWindowManager.Stub
         try {
             WindowState focusedWindow = getFocusedWindow();
             if (focusedWindow != null && focusedWindow.mClient != null) {
-                getFocusedWindow().mClient.requestAppKeyboardShortcuts(receiver, deviceId);
+                focusedWindow.mClient.requestAppKeyboardShortcuts(receiver, deviceId);
             }
         } catch (RemoteException e) {
         }
@@ -7465,13 +7478,7 @@ public class WindowManagerService extends IWindowManager.Stub
 
         @Override
         public IBinder getFocusedWindowToken() {
-            synchronized (mWindowMap) {
-                WindowState windowState = getFocusedWindowLocked();
-                if (windowState != null) {
-                    return windowState.mClient.asBinder();
-                }
-                return null;
-            }
+            return mInputMonitor.getSnapshot().focusedWindowToken;
         }
 
         @Override
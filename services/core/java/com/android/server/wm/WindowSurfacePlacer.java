@@ -100,6 +100,12 @@ class WindowSurfacePlacer {
 
     private final Runnable mPerformSurfacePlacement;
 
+    // Windows gone over by surface placement, to see how much of the hierarchy passes touch.
+    private int mVisitedWindows;
+    private int mLastVisitedWindows;
+    private long mTotalVisitedWindows;
+    private long mPlacementCount;
+
     public WindowSurfacePlacer(WindowManagerService service) {
         mService = service;
         mWallpaperControllerLocked = mService.mRoot.mWallpaperController;
@@ -194,7 +200,11 @@ class WindowSurfacePlacer {
         }
 
         try {
+            mVisitedWindows = 0;
             mService.mRoot.performSurfacePlacement(recoveringMemory);
+            mLastVisitedWindows = mVisitedWindows;
+            mTotalVisitedWindows += mVisitedWindows;
+            mPlacementCount++;
 
             mInLayout = false;
 
@@ -221,6 +231,15 @@ class WindowSurfacePlacer {
         Trace.traceEnd(Trace.TRACE_TAG_WINDOW_MANAGER);
     }
 
+    /**
+     * Called when the surfaces of a display were placed in the current pass.
+     *
+     * @param visitedWindows The number of windows of the display that were gone over.
+     */
+    void onWindowsVisited(int visitedWindows) {
+        mVisitedWindows += visitedWindows;
+    }
+
     void debugLayoutRepeats(final String msg, int pendingLayoutChanges) {
         if (mLayoutRepeatCount >= LAYOUT_REPEAT_THRESHOLD) {
             Slog.v(TAG, "Layouts looping: " + msg +
@@ -786,5 +805,8 @@ class WindowSurfacePlacer {
         pw.println(prefix + "mTraversalScheduled=" + mTraversalScheduled);
         pw.println(prefix + "mHoldScreenWindow=" + mService.mRoot.mHoldScreenWindow);
         pw.println(prefix + "mObscuringWindow=" + mService.mRoot.mObscuringWindow);
+        pw.println(prefix + "windowsVisited last=" + mLastVisitedWindows
+                + " avg=" + (mPlacementCount > 0 ? mTotalVisitedWindows / mPlacementCount : 0)
+                + " passes=" + mPlacementCount);
     }
 }
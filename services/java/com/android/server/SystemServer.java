@@ -59,7 +59,6 @@ import com.android.internal.logging.MetricsLogger;
 import com.android.internal.notification.SystemNotificationChannels;
 import com.android.internal.os.BinderInternal;
 import com.android.internal.util.EmergencyAffordanceManager;
-import com.android.internal.util.ConcurrentUtils;
 import com.android.internal.widget.ILockSettings;
 import com.android.server.accessibility.AccessibilityManagerService;
 import com.android.server.am.ActivityManagerService;
@@ -129,7 +128,6 @@ import java.lang.reflect.Method;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Future;
 
 import lineageos.providers.LineageSettings;
 
@@ -251,12 +249,17 @@ public final class SystemServer {
     private boolean mFirstBoot;
     private final boolean mRuntimeRestart;
 
+    private static final String READING_SYSTEM_CONFIG = "ReadingSystemConfig";
+    private static final String START_PACKAGE_MANAGER_SERVICE = "StartPackageManagerService";
     private static final String START_SENSOR_SERVICE = "StartSensorService";
     private static final String START_HIDL_SERVICES = "StartHidlServices";
+    private static final String START_WEBVIEW_UPDATE_SERVICE = "StartWebViewUpdateService";
+    private static final String SECONDARY_ZYGOTE_PRELOAD = "SecondaryZygotePreload";
+    private static final String WEBVIEW_PREPARATION = "WebViewFactoryPreparation";
 
-
-    private Future<?> mSensorServiceStart;
-    private Future<?> mZygotePreload;
+    // Declares what each step of startup depends on, and runs the independent ones on the
+    // init thread pool.
+    private SystemServiceGraph mServiceGraph;
 
     /**
      * Start the sensor service. This is a blocking call and can take time.
@@ -401,6 +404,9 @@ public final class SystemServer {
             LocalServices.addService(SystemServiceManager.class, mSystemServiceManager);
             // Prepare the thread pool for init tasks that can be parallelized
             SystemServerInitThreadPool.get();
+            mServiceGraph = new SystemServiceGraph(BOOT_TIMINGS_TRACE_LOG,
+                    SYSTEM_SERVER_TIMING_ASYNC_TAG);
+            mSystemServiceManager.setServiceGraph(mServiceGraph);
         } finally {
             traceEnd();  // InitBeforeStartServices
         }
@@ -411,6 +417,7 @@ public final class SystemServer {
             startBootstrapServices();
             startCoreServices();
             startOtherServices();
+            mServiceGraph.waitForAll();
             SystemServerInitThreadPool.shutdown();
         } catch (Throwable ex) {
             Slog.e("System", "******************************************");
@@ -520,10 +527,7 @@ public final class SystemServer {
      */
     private void startBootstrapServices() {
         Slog.i(TAG, "Reading configuration...");
-        final String TAG_SYSTEM_CONFIG = "ReadingSystemConfig";
-        traceBeginAndSlog(TAG_SYSTEM_CONFIG);
-        SystemServerInitThreadPool.get().submit(SystemConfig::getInstance, TAG_SYSTEM_CONFIG);
-        traceEnd();
+        mServiceGraph.runAsync(READING_SYSTEM_CONFIG, SystemConfig::getInstance);
 
         // Wait for installd to finish starting up so that it has a chance to
         // create critical directories such as /data/user with the appropriate
@@ -603,12 +607,12 @@ public final class SystemServer {
             MetricsLogger.histogram(null, "boot_package_manager_init_start",
                     (int) SystemClock.elapsedRealtime());
         }
-        traceBeginAndSlog("StartPackageManagerService");
-        mPackageManagerService = PackageManagerService.main(mSystemContext, installer,
-                mFactoryTestMode != FactoryTest.FACTORY_TEST_OFF, mOnlyCore);
-        mFirstBoot = mPackageManagerService.isFirstBoot();
-        mPackageManager = mSystemContext.getPackageManager();
-        traceEnd();
+        mServiceGraph.run(START_PACKAGE_MANAGER_SERVICE, () -> {
+            mPackageManagerService = PackageManagerService.main(mSystemContext, installer,
+                    mFactoryTestMode != FactoryTest.FACTORY_TEST_OFF, mOnlyCore);
+            mFirstBoot = mPackageManagerService.isFirstBoot();
+            mPackageManager = mSystemContext.getPackageManager();
+        }, READING_SYSTEM_CONFIG);
         if (!mRuntimeRestart && !isFirstBootOrUpgrade()) {
             MetricsLogger.histogram(null, "boot_package_manager_init_ready",
                     (int) SystemClock.elapsedRealtime());
@@ -663,13 +667,8 @@ public final class SystemServer {
         // service, and permissions service, therefore we start it after them.
         // Start sensor service in a separate thread. Completion should be checked
         // before using it.
-        mSensorServiceStart = SystemServerInitThreadPool.get().submit(() -> {
-            TimingsTraceLog traceLog = new TimingsTraceLog(
-                    SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-            traceLog.traceBegin(START_SENSOR_SERVICE);
-            startSensorService();
-            traceLog.traceEnd();
-        }, START_SENSOR_SERVICE);
+        mServiceGraph.runAsync(START_SENSOR_SERVICE, SystemServer::startSensorService,
+                START_PACKAGE_MANAGER_SERVICE);
     }
 
     /**
@@ -694,9 +693,11 @@ public final class SystemServer {
         traceEnd();
 
         // Tracks whether the updatable WebView is in a ready state and watches for update installs.
-        traceBeginAndSlog("StartWebViewUpdateService");
-        mWebViewUpdateService = mSystemServiceManager.startService(WebViewUpdateService.class);
-        traceEnd();
+        // Started serially like the services around it: it has not been audited for Handlers
+        // bound to the creating thread, and keeps its place in the boot phase order.
+        mServiceGraph.run(START_WEBVIEW_UPDATE_SERVICE, () -> {
+            mWebViewUpdateService = mSystemServiceManager.startService(WebViewUpdateService.class);
+        });
     }
 
     /**
@@ -757,25 +758,19 @@ public final class SystemServer {
                 org.lineageos.platform.internal.R.string.config_externalSystemServer);
 
         try {
-            final String SECONDARY_ZYGOTE_PRELOAD = "SecondaryZygotePreload";
             // We start the preload ~1s before the webview factory preparation, to
             // ensure that it completes before the 32 bit relro process is forked
             // from the zygote. In the event that it takes too long, the webview
             // RELRO process will block, but it will do so without holding any locks.
-            mZygotePreload = SystemServerInitThreadPool.get().submit(() -> {
+            mServiceGraph.runAsync(SECONDARY_ZYGOTE_PRELOAD, () -> {
                 try {
-                    Slog.i(TAG, SECONDARY_ZYGOTE_PRELOAD);
-                    TimingsTraceLog traceLog = new TimingsTraceLog(
-                            SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                    traceLog.traceBegin(SECONDARY_ZYGOTE_PRELOAD);
                     if (!Process.zygoteProcess.preloadDefault(Build.SUPPORTED_32_BIT_ABIS[0])) {
                         Slog.e(TAG, "Unable to preload default resources");
                     }
-                    traceLog.traceEnd();
                 } catch (Exception ex) {
                     Slog.e(TAG, "Exception preloading default resources", ex);
                 }
-            }, SECONDARY_ZYGOTE_PRELOAD);
+            });
 
             traceBeginAndSlog("StartKeyAttestationApplicationIdProviderService");
             ServiceManager.addService("sec_key_att_app_id_provider",
@@ -845,8 +840,7 @@ public final class SystemServer {
 
             traceBeginAndSlog("StartWindowManagerService");
             // WMS needs sensor service ready
-            ConcurrentUtils.waitForFutureNoInterrupt(mSensorServiceStart, START_SENSOR_SERVICE);
-            mSensorServiceStart = null;
+            mServiceGraph.waitFor(START_SENSOR_SERVICE);
             wm = WindowManagerService.main(context, inputManager,
                     mFactoryTestMode != FactoryTest.FACTORY_TEST_LOW_LEVEL,
                     !mFirstBoot, mOnlyCore, new PhoneWindowManager());
@@ -857,13 +851,8 @@ public final class SystemServer {
             // Start receiving calls from HIDL services. Start in in a separate thread
             // because it need to connect to SensorManager. This have to start
             // after START_SENSOR_SERVICE is done.
-            SystemServerInitThreadPool.get().submit(() -> {
-                TimingsTraceLog traceLog = new TimingsTraceLog(
-                        SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                traceLog.traceBegin(START_HIDL_SERVICES);
-                startHidlServices();
-                traceLog.traceEnd();
-            }, START_HIDL_SERVICES);
+            mServiceGraph.runAsync(START_HIDL_SERVICES, SystemServer::startHidlServices,
+                    START_SENSOR_SERVICE);
 
             if (!disableVrManager) {
                 traceBeginAndSlog("StartVrManagerService");
@@ -1311,14 +1300,13 @@ public final class SystemServer {
                 traceEnd();
             }
 
-            traceBeginAndSlog("StartTwilightService");
-            mSystemServiceManager.startService(TwilightService.class);
-            traceEnd();
+            // Both only create Handlers for the main Looper, and nothing uses them before the
+            // next boot phase, so they start on the init thread pool.
+            mSystemServiceManager.startServiceAsync(TwilightService.class);
 
             if (NightDisplayController.isAvailable(context)) {
-                traceBeginAndSlog("StartNightDisplay");
-                mSystemServiceManager.startService(NightDisplayService.class);
-                traceEnd();
+                mSystemServiceManager.startServiceAsync(NightDisplayService.class,
+                        TwilightService.class.getName());
             }
 
             traceBeginAndSlog("StartJobScheduler");
@@ -1362,9 +1350,8 @@ public final class SystemServer {
                     mSystemServiceManager.startService(GestureLauncherService.class);
                     traceEnd();
                 }
-                traceBeginAndSlog("StartSensorNotification");
-                mSystemServiceManager.startService(SensorNotificationService.class);
-                traceEnd();
+                // Creates no Handlers and only publishes a local service.
+                mSystemServiceManager.startServiceAsync(SensorNotificationService.class);
 
                 traceBeginAndSlog("StartContextHubSystemService");
                 mSystemServiceManager.startService(ContextHubSystemService.class);
@@ -1483,9 +1470,8 @@ public final class SystemServer {
             }
 
             if (mPackageManager.hasSystemFeature(PackageManager.FEATURE_PICTURE_IN_PICTURE)) {
-                traceBeginAndSlog("StartMediaResourceMonitor");
-                mSystemServiceManager.startService(MediaResourceMonitorService.class);
-                traceEnd();
+                // Creates no Handlers and only publishes its binder.
+                mSystemServiceManager.startServiceAsync(MediaResourceMonitorService.class);
             }
 
             if (mPackageManager.hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
@@ -1565,9 +1551,10 @@ public final class SystemServer {
         }
 
         if (!disableCameraService) {
-            traceBeginAndSlog("StartCameraServiceProxy");
-            mSystemServiceManager.startService(CameraServiceProxy.class);
-            traceEnd();
+            // Runs its Handler on a thread of its own, and registers receivers through the
+            // system context, which dispatches them on the main thread regardless.
+            mSystemServiceManager.startServiceAsync(CameraServiceProxy.class,
+                    UserManagerService.LifeCycle.class.getName());
         }
 
         // Make sure the ADB_ENABLED setting value matches the secure property value
@@ -1751,19 +1738,12 @@ public final class SystemServer {
 
             // No dependency on Webview preparation in system server. But this should
             // be completed before allowring 3rd party
-            final String WEBVIEW_PREPARATION = "WebViewFactoryPreparation";
-            Future<?> webviewPrep = null;
             if (!mOnlyCore) {
-                webviewPrep = SystemServerInitThreadPool.get().submit(() -> {
-                    Slog.i(TAG, WEBVIEW_PREPARATION);
-                    TimingsTraceLog traceLog = new TimingsTraceLog(
-                            SYSTEM_SERVER_TIMING_ASYNC_TAG, Trace.TRACE_TAG_SYSTEM_SERVER);
-                    traceLog.traceBegin(WEBVIEW_PREPARATION);
-                    ConcurrentUtils.waitForFutureNoInterrupt(mZygotePreload, "Zygote preload");
-                    mZygotePreload = null;
-                    mWebViewUpdateService.prepareWebViewInSystemServer();
-                    traceLog.traceEnd();
-                }, WEBVIEW_PREPARATION);
+                mServiceGraph.runAsync(WEBVIEW_PREPARATION,
+                        () -> mWebViewUpdateService.prepareWebViewInSystemServer(),
+                        SECONDARY_ZYGOTE_PRELOAD, START_WEBVIEW_UPDATE_SERVICE);
+                mServiceGraph.requireBeforePhase(SystemService.PHASE_THIRD_PARTY_APPS_CAN_START,
+                        WEBVIEW_PREPARATION);
             }
 
             if (mPackageManager.hasSystemFeature(PackageManager.FEATURE_AUTOMOTIVE)) {
@@ -1832,10 +1812,7 @@ public final class SystemServer {
             // It is now okay to let the various system services start their
             // third party code...
             traceBeginAndSlog("PhaseThirdPartyAppsCanStart");
-            // confirm webview completion before starting 3rd party
-            if (webviewPrep != null) {
-                ConcurrentUtils.waitForFutureNoInterrupt(webviewPrep, WEBVIEW_PREPARATION);
-            }
+            // Waits for webview preparation before starting 3rd party
             mSystemServiceManager.startBootPhase(
                     SystemService.PHASE_THIRD_PARTY_APPS_CAN_START);
             traceEnd();
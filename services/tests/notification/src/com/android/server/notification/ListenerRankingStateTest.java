@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_DEFAULT;
+import static android.service.notification.NotificationRankingUpdate.NO_BASE_VERSION;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.os.UserHandle;
+import android.service.notification.StatusBarNotification;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ListenerRankingStateTest extends NotificationTestCase {
+    private static final String PKG = "com.example.listened";
+
+    private final ListenerRankingState mState = new ListenerRankingState();
+    private final ArrayList<NotificationRecord> mRecords = new ArrayList<>();
+    private NotificationChannel mChannel;
+
+    @Before
+    public void setUp() {
+        mChannel = new NotificationChannel("channel", "channel", IMPORTANCE_DEFAULT);
+        for (int id = 0; id < 10; id++) {
+            mRecords.add(createRecord(id));
+        }
+    }
+
+    private NotificationRecord createRecord(int id) {
+        final Notification notification = new Notification.Builder(getContext(), "channel")
+                .setSmallIcon(android.R.drawable.sym_def_app_icon)
+                .build();
+        final StatusBarNotification sbn = new StatusBarNotification(PKG, PKG, id, null, 10000,
+                0, notification, UserHandle.of(0), null, 0);
+        return new NotificationRecord(getContext(), sbn, mChannel);
+    }
+
+    /** @return the number of entries that the update would carry. */
+    private int sendUpdate(int expectedBaseVersion) {
+        assertEquals(expectedBaseVersion, mState.beginUpdate());
+        int changed = 0;
+        for (NotificationRecord record : mRecords) {
+            if (mState.update(record)) {
+                changed++;
+            }
+        }
+        mState.finishUpdate();
+        return changed;
+    }
+
+    @Test
+    public void testFirstUpdateIsFull() {
+        assertEquals(mRecords.size(), sendUpdate(NO_BASE_VERSION));
+        assertEquals(0, sendUpdate(1));
+    }
+
+    @Test
+    public void testOnlyChangedEntriesSent() {
+        sendUpdate(NO_BASE_VERSION);
+        mRecords.get(3).setSuppressedVisualEffects(1);
+        mRecords.get(7).setShowBadge(!mRecords.get(7).canShowBadge());
+        assertEquals(2, sendUpdate(1));
+        assertEquals(0, sendUpdate(2));
+    }
+
+    @Test
+    public void testNewAndReplacedRecordsSent() {
+        sendUpdate(NO_BASE_VERSION);
+        mRecords.add(createRecord(42));
+        // An update with the same ranking has nothing to send.
+        mRecords.set(0, createRecord(0));
+        assertEquals(1, sendUpdate(1));
+
+        // A record that is gone and comes back is sent again.
+        final NotificationRecord removed = mRecords.remove(5);
+        sendUpdate(2);
+        mRecords.add(removed);
+        assertEquals(1, sendUpdate(3));
+    }
+
+    @Test
+    public void testChannelModifiedInPlace() {
+        sendUpdate(NO_BASE_VERSION);
+        mChannel.setLockscreenVisibility(Notification.VISIBILITY_SECRET);
+        assertEquals(mRecords.size(), sendUpdate(1));
+    }
+
+    @Test
+    public void testResetSendsFullUpdate() {
+        sendUpdate(NO_BASE_VERSION);
+        mState.reset();
+        assertEquals(mRecords.size(), sendUpdate(NO_BASE_VERSION));
+        assertEquals(0, sendUpdate(2));
+    }
+}
@@ -17,6 +17,9 @@
 package com.android.server.notification;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import android.app.NotificationChannel;
 import android.content.Intent;
@@ -63,6 +66,61 @@ public class NotificationListenerServiceTest extends NotificationTestCase {
         }
     }
 
+    @Test
+    public void testDeltaRanking() throws Exception {
+        TestListenerService service = new TestListenerService();
+        final NotificationRankingUpdate full = generateUpdate();
+        service.applyUpdateLocked(full);
+
+        // key1 changed, key3 is gone and the others are as before.
+        final String[] keys = new String[] { "key2", "key1", "key" };
+        final Bundle explanation = new Bundle();
+        explanation.putString("key1", "changed");
+        final Bundle showBadge = new Bundle();
+        showBadge.putBoolean("key1", true);
+        final Bundle channels = new Bundle();
+        final NotificationChannel channel = new NotificationChannel("key1", "new", 4);
+        channels.putParcelable("key1", channel);
+        final NotificationRankingUpdate delta = new NotificationRankingUpdate(1, 0,
+                new String[] { "key1" }, keys, new String[0], new Bundle(), new Bundle(),
+                new int[] { 2, 4, 0 }, explanation, new Bundle(), channels, new Bundle(),
+                new Bundle(), showBadge);
+        assertTrue(delta.canApplyTo(full));
+        service.applyUpdateLocked(delta);
+
+        final NotificationListenerService.RankingMap map = service.getCurrentRanking();
+        assertEquals(keys.length, map.getOrderedKeys().length);
+        Ranking ranking = new Ranking();
+        assertTrue(map.getRanking("key1", ranking));
+        assertEquals("changed", ranking.getImportanceExplanation());
+        assertEquals(channel, ranking.getChannel());
+        assertEquals(4, ranking.getImportance());
+        assertTrue(ranking.canShowBadge());
+        assertEquals(Ranking.VISIBILITY_NO_OVERRIDE, ranking.getVisibilityOverride());
+        assertNull(ranking.getOverrideGroupKey());
+        assertTrue(ranking.matchesInterruptionFilter());
+
+        assertTrue(map.getRanking("key2", ranking));
+        assertEquals(getExplanation("key2"), ranking.getImportanceExplanation());
+        assertEquals(getChannel("key2", 2), ranking.getChannel());
+        assertEquals(getPeople("key2", 2), ranking.getAdditionalPeople());
+        assertEquals(getSnoozeCriteria("key2", 2), ranking.getSnoozeCriteria());
+
+        assertFalse(map.getRanking("key3", ranking));
+    }
+
+    @Test
+    public void testDeltaOnWrongBase() throws Exception {
+        final NotificationRankingUpdate full = generateUpdate();
+        final NotificationRankingUpdate delta = new NotificationRankingUpdate(5, 4,
+                new String[0], mKeys, new String[0], new Bundle(), new Bundle(),
+                new int[mKeys.length], new Bundle(), new Bundle(), new Bundle(), new Bundle(),
+                new Bundle(), new Bundle());
+        assertFalse(delta.canApplyTo(full));
+        assertFalse(delta.canApplyTo(null));
+        assertTrue(full.canApplyTo(delta));
+    }
+
     private NotificationRankingUpdate generateUpdate() {
         List<String> interceptedKeys = new ArrayList<>();
         Bundle visibilityOverrides = new Bundle();
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_DEFAULT;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.service.notification.StatusBarNotification;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.TextUtils;
+import android.util.ArraySet;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationRecordIndexTest extends NotificationTestCase {
+    private static final String TAG = "NotificationRecordIndexTest";
+
+    private static final int PACKAGE_COUNT = 20;
+    private static final int IDS_PER_PACKAGE = 200;
+    private static final int OPERATION_COUNT = 5000;
+    private static final int[] USERS = { 0, 10, UserHandle.USER_ALL };
+
+    private static final NotificationChannel[] CHANNELS = {
+            new NotificationChannel("a", "a", IMPORTANCE_DEFAULT),
+            new NotificationChannel("b", "b", IMPORTANCE_DEFAULT),
+            new NotificationChannel("c", "c", IMPORTANCE_DEFAULT),
+    };
+
+    private final ArrayList<NotificationRecord> mList = new ArrayList<>();
+    private final NotificationRecordIndex mIndex = new NotificationRecordIndex(mList);
+
+    private NotificationRecord createRecord(int pkg, int id, String tag, int userId,
+            String group, NotificationChannel channel) {
+        final String packageName = "com.example.app" + pkg;
+        final Notification.Builder builder = new Notification.Builder(getContext(),
+                channel.getId())
+                .setSmallIcon(android.R.drawable.sym_def_app_icon);
+        if (group != null) {
+            builder.setGroup(group);
+        }
+        final StatusBarNotification sbn = new StatusBarNotification(packageName, packageName,
+                id, tag, 10000 + pkg, 0, builder.build(), UserHandle.of(userId), null, 0);
+        return new NotificationRecord(getContext(), sbn, channel);
+    }
+
+    private NotificationRecord createRandomRecord(Random random) {
+        final int id = random.nextInt(IDS_PER_PACKAGE);
+        return createRecord(random.nextInt(PACKAGE_COUNT), id, id % 5 == 0 ? "tag" : null,
+                USERS[random.nextInt(USERS.length)], "group" + (id % 8),
+                CHANNELS[random.nextInt(CHANNELS.length)]);
+    }
+
+    private void add(NotificationRecord r) {
+        mList.add(r);
+        mIndex.add(r);
+    }
+
+    private void remove(NotificationRecord r) {
+        mList.remove(r);
+        mIndex.remove(r);
+    }
+
+    private static boolean matchesUser(NotificationRecord r, int userId) {
+        return userId == UserHandle.USER_ALL || r.getUserId() == UserHandle.USER_ALL
+                || r.getUserId() == userId;
+    }
+
+    private NotificationRecord findLinear(String pkg, String tag, int id, int userId) {
+        for (NotificationRecord r : mList) {
+            if (matchesUser(r, userId) && r.sbn.getId() == id
+                    && TextUtils.equals(r.sbn.getTag(), tag)
+                    && r.sbn.getPackageName().equals(pkg)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private NotificationRecord findByKeyLinear(String key) {
+        for (NotificationRecord r : mList) {
+            if (r.getKey().equals(key)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private ArraySet<NotificationRecord> packageLinear(String pkg, String channelId,
+            int userId) {
+        final ArraySet<NotificationRecord> records = new ArraySet<>();
+        for (NotificationRecord r : mList) {
+            if (matchesUser(r, userId) && r.sbn.getPackageName().equals(pkg)
+                    && (channelId == null || channelId.equals(r.getChannel().getId()))) {
+                records.add(r);
+            }
+        }
+        return records;
+    }
+
+    private ArraySet<NotificationRecord> groupLinear(String groupKey) {
+        final ArraySet<NotificationRecord> records = new ArraySet<>();
+        for (NotificationRecord r : mList) {
+            if (r.getGroupKey().equals(groupKey)) {
+                records.add(r);
+            }
+        }
+        return records;
+    }
+
+    private void assertQueriesMatch(NotificationRecord probe) {
+        final String pkg = probe.sbn.getPackageName();
+        for (int userId : USERS) {
+            assertSame(findLinear(pkg, probe.sbn.getTag(), probe.sbn.getId(), userId),
+                    mIndex.find(pkg, probe.sbn.getTag(), probe.sbn.getId(), userId));
+
+            final ArraySet<NotificationRecord> byPackage = new ArraySet<>();
+            mIndex.collectByPackage(pkg, userId, byPackage);
+            assertEquals(packageLinear(pkg, null, userId), byPackage);
+
+            final String channelId = probe.getChannel().getId();
+            final ArraySet<NotificationRecord> byChannel = new ArraySet<>();
+            mIndex.collectByChannel(pkg, channelId, userId, byChannel);
+            assertEquals(packageLinear(pkg, channelId, userId), byChannel);
+        }
+        assertSame(findByKeyLinear(probe.getKey()), mIndex.getByKey(probe.getKey()));
+
+        final ArraySet<NotificationRecord> group = mIndex.getGroup(probe.getGroupKey());
+        final ArraySet<NotificationRecord> expected = groupLinear(probe.getGroupKey());
+        if (expected.isEmpty()) {
+            assertNull(group);
+        } else {
+            assertEquals(expected, group);
+        }
+    }
+
+    @Test
+    public void testDuplicateKeysResolveInListOrder() {
+        final NotificationRecord first = createRecord(0, 1, null, 0, null, CHANNELS[0]);
+        final NotificationRecord second = createRecord(0, 1, null, 0, null, CHANNELS[0]);
+        add(first);
+        add(second);
+        assertSame(first, mIndex.getByKey(first.getKey()));
+        assertSame(first, mIndex.find(first.sbn.getPackageName(), null, 1, 0));
+        remove(first);
+        assertSame(second, mIndex.getByKey(first.getKey()));
+        remove(second);
+        assertNull(mIndex.getByKey(first.getKey()));
+    }
+
+    @Test
+    public void testUserAllMatchesAnyUser() {
+        final NotificationRecord all =
+                createRecord(0, 1, null, UserHandle.USER_ALL, null, CHANNELS[0]);
+        final NotificationRecord user10 = createRecord(0, 1, null, 10, null, CHANNELS[0]);
+        add(user10);
+        add(all);
+        // Both match a query for user 10; the one listed first wins.
+        assertSame(user10, mIndex.find(all.sbn.getPackageName(), null, 1, 10));
+        assertSame(all, mIndex.find(all.sbn.getPackageName(), null, 1, 0));
+    }
+
+    @Test
+    public void testGroupFollowsOverride() {
+        final NotificationRecord r = createRecord(0, 1, null, 0, "group", CHANNELS[0]);
+        add(r);
+        final String groupKey = r.getGroupKey();
+        r.setOverrideGroupKey(GroupHelper.AUTOGROUP_KEY);
+        assertNull(mIndex.getGroup(groupKey));
+        assertEquals(1, mIndex.getGroup(r.getGroupKey()).size());
+
+        // Records that left the index are no longer followed.
+        final String autogroupKey = r.getGroupKey();
+        remove(r);
+        r.setOverrideGroupKey(null);
+        assertNull(mIndex.getGroup(autogroupKey));
+        assertNull(mIndex.getGroup(groupKey));
+    }
+
+    @LargeTest
+    @Test
+    public void testPostAndCancelStress() {
+        final Random random = new Random(17);
+        long indexedNanos = 0;
+        long linearNanos = 0;
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            final NotificationRecord r = createRandomRecord(random);
+            final int op = random.nextInt(10);
+            if (op < 6) {
+                // Post, replacing the current record for the key as NMS does.
+                final NotificationRecord old = mIndex.getByKey(r.getKey());
+                if (old != null) {
+                    remove(old);
+                }
+                add(r);
+            } else if (op < 8) {
+                final NotificationRecord existing = mIndex.getByKey(r.getKey());
+                if (existing != null) {
+                    remove(existing);
+                }
+            } else if (op < 9) {
+                final NotificationRecord existing = mIndex.getByKey(r.getKey());
+                if (existing != null) {
+                    existing.setOverrideGroupKey(random.nextBoolean()
+                            ? GroupHelper.AUTOGROUP_KEY : null);
+                }
+            } else {
+                // Cancel everything a package posted for a user, timing both ways of finding it.
+                final String pkg = r.sbn.getPackageName();
+                final int userId = r.getUserId();
+                long start = SystemClock.elapsedRealtimeNanos();
+                final ArraySet<NotificationRecord> linear = packageLinear(pkg, null, userId);
+                linearNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                final ArraySet<NotificationRecord> indexed = new ArraySet<>();
+                mIndex.collectByPackage(pkg, userId, indexed);
+                indexedNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                assertEquals(linear, indexed);
+                for (int j = 0; j < indexed.size(); j++) {
+                    remove(indexed.valueAt(j));
+                }
+            }
+            assertQueriesMatch(r);
+        }
+        Log.i(TAG, mList.size() + " notifications left; package lookups took "
+                + linearNanos / 1000 + "us scanning, " + indexedNanos / 1000 + "us indexed");
+
+        for (int i = mList.size() - 1; i >= 0; i--) {
+            remove(mList.get(i));
+        }
+        for (int pkg = 0; pkg < PACKAGE_COUNT; pkg++) {
+            final ArraySet<NotificationRecord> left = new ArraySet<>();
+            mIndex.collectByPackage("com.example.app" + pkg, UserHandle.USER_ALL, left);
+            assertEquals(0, left.size());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.notification;
+
+import static android.app.NotificationManager.IMPORTANCE_DEFAULT;
+import static android.app.NotificationManager.IMPORTANCE_HIGH;
+import static android.app.NotificationManager.IMPORTANCE_LOW;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.service.notification.StatusBarNotification;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.ArraySet;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that incremental ranking matches a full sort, and compares their cost when chatty
+ * apps keep updating their notifications in a full shade.
+ * <p>Run with:<pre>
+ * bit FrameworksNotificationTests:com.android.server.notification.RankingHelperIncrementalSortTest
+ * </pre>
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class RankingHelperIncrementalSortTest extends NotificationTestCase {
+    private static final String TAG = "RankingHelperIncrementalSortTest";
+
+    private static final int APP_COUNT = 5;
+    private static final int NOTIFICATIONS_PER_APP = 50;
+    private static final int UPDATE_COUNT = 2000;
+    private static final int FIRST_UID = 10000;
+
+    private static final NotificationChannel[] CHANNELS = {
+            new NotificationChannel("low", "low", IMPORTANCE_LOW),
+            new NotificationChannel("default", "default", IMPORTANCE_DEFAULT),
+            new NotificationChannel("high", "high", IMPORTANCE_HIGH),
+    };
+
+    @Mock NotificationUsageStats mUsageStats;
+    @Mock RankingHandler mHandler;
+    @Mock PackageManager mPm;
+
+    private RankingHelper mHelper;
+    private long mNextPostTime = 1000;
+    // Whether new records all get the same post time, so that many of them rank the same.
+    private boolean mSamePostTime;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mHelper = new RankingHelper(getContext(), mPm, mHandler, mUsageStats, new String[0]);
+    }
+
+    private NotificationRecord createRecord(int app, int id) {
+        final String pkg = "com.example.chatty" + app;
+        final long postTime = mSamePostTime ? mNextPostTime : mNextPostTime++;
+        final Notification.Builder builder = new Notification.Builder(getContext(), "channel")
+                .setSmallIcon(android.R.drawable.sym_def_app_icon)
+                .setContentTitle("message " + id)
+                .setWhen(postTime);
+        if (id % 3 != 0) {
+            builder.setGroup("conversations");
+            builder.setGroupSummary(id == 1);
+        }
+        if (id % 7 == 0) {
+            builder.setSortKey(Integer.toString(id % 4));
+        }
+        final StatusBarNotification sbn = new StatusBarNotification(pkg, pkg, id, null,
+                FIRST_UID + app, 0, builder.build(), UserHandle.of(0), null, postTime);
+        return new NotificationRecord(getContext(), sbn, CHANNELS[(app + id) % CHANNELS.length]);
+    }
+
+    private ArrayList<NotificationRecord> createShade() {
+        final ArrayList<NotificationRecord> list = new ArrayList<>();
+        for (int id = 0; id < NOTIFICATIONS_PER_APP; id++) {
+            for (int app = 0; app < APP_COUNT; app++) {
+                list.add(createRecord(app, id));
+            }
+        }
+        mHelper.sort(list);
+        return list;
+    }
+
+    private static int indexOfKey(ArrayList<NotificationRecord> list, String key) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getKey().equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Replaces a notification the way NotificationManagerService does when it is updated. */
+    private NotificationRecord update(ArrayList<NotificationRecord> list, Random random) {
+        final int app = random.nextInt(APP_COUNT);
+        final int id = random.nextInt(NOTIFICATIONS_PER_APP);
+        final NotificationRecord record = createRecord(app, id);
+        final int index = indexOfKey(list, record.getKey());
+        if (index < 0) {
+            list.add(record);
+        } else {
+            list.set(index, record);
+        }
+        return record;
+    }
+
+    /**
+     * Sorts fresh records for the same notifications, so that the ranks and sort keys the
+     * incremental sorts kept on the records in the list are left alone and drift between
+     * steps shows.
+     */
+    private void assertSameOrderAsFullSort(ArrayList<NotificationRecord> list) {
+        final ArrayList<NotificationRecord> fresh = new ArrayList<>(list.size());
+        for (NotificationRecord record : list) {
+            fresh.add(new NotificationRecord(getContext(), record.sbn, record.getChannel()));
+        }
+        mHelper.sort(fresh);
+        for (int i = 0; i < fresh.size(); i++) {
+            assertEquals(fresh.get(i).getKey(), list.get(i).getKey());
+        }
+    }
+
+    @Test
+    public void testIncrementalSortMatchesFullSort() {
+        assertIncrementalSortMatchesFullSort();
+    }
+
+    @Test
+    public void testIncrementalSortMatchesFullSortWithTies() {
+        // Records of the same channel now only differ by key.
+        mSamePostTime = true;
+        assertIncrementalSortMatchesFullSort();
+    }
+
+    private void assertIncrementalSortMatchesFullSort() {
+        final ArrayList<NotificationRecord> list = createShade();
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            if (random.nextInt(10) == 0) {
+                // Cancellations leave gaps in the ranks of the remaining records.
+                list.remove(random.nextInt(list.size()));
+            }
+            final NotificationRecord record = update(list, random);
+            final ArraySet<String> moved = mHelper.sortIncrementally(list, record);
+            assertTrue(moved.contains(record.getKey()));
+            assertSameOrderAsFullSort(list);
+        }
+    }
+
+    @Test
+    public void testUnchangedOrderReportsNoMoves() {
+        final ArrayList<NotificationRecord> list = createShade();
+        final NotificationRecord record = list.get(list.size() / 2);
+        assertTrue(mHelper.sortIncrementally(list, record).isEmpty());
+    }
+
+    @Test
+    public void testPostingIntoFullShade() {
+        final ArrayList<NotificationRecord> fullList = createShade();
+        final ArrayList<NotificationRecord> incrementalList = createShade();
+
+        Random random = new Random(7);
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            update(fullList, random);
+            mHelper.sort(fullList);
+        }
+        final long fullNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        random = new Random(7);
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            mHelper.sortIncrementally(incrementalList, update(incrementalList, random));
+        }
+        final long incrementalNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "Shade of " + fullList.size() + ": full sort "
+                + fullNanos / UPDATE_COUNT / 1000 + "us per post, incremental "
+                + incrementalNanos / UPDATE_COUNT / 1000 + "us per post");
+        assertSameOrderAsFullSort(incrementalList);
+    }
+}
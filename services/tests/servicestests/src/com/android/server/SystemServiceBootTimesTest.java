@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static com.android.server.SystemServiceBootTimes.KEY_START;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.server.SystemServiceBootTimes.Boot;
+import com.android.server.SystemServiceBootTimes.Regression;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for {@link SystemServiceBootTimes}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SystemServiceBootTimesTest {
+
+    private static final String SERVICE = "com.android.server.FooService";
+
+    private static Boot boot(boolean runtimeRestart, long startMs) {
+        final Boot boot = new Boot("fingerprint", 0, runtimeRestart);
+        boot.add(SERVICE, KEY_START, startMs);
+        return boot;
+    }
+
+    @Test
+    public void testRegressionAgainstMedian() {
+        final ArrayList<Boot> history = new ArrayList<>();
+        history.add(boot(false, 100));
+        history.add(boot(false, 1000));
+        history.add(boot(false, 110));
+
+        final ArrayList<Regression> regressions =
+                SystemServiceBootTimes.findRegressions(boot(false, 200), history, 50);
+        assertEquals(1, regressions.size());
+        assertEquals(SERVICE, regressions.get(0).service);
+        assertEquals(KEY_START, regressions.get(0).key);
+        assertEquals(110, regressions.get(0).baselineMs);
+
+        assertTrue(SystemServiceBootTimes.findRegressions(boot(false, 160), history, 50)
+                .isEmpty());
+    }
+
+    @Test
+    public void testSmallRegressionsAreIgnored() {
+        final ArrayList<Boot> history = new ArrayList<>();
+        history.add(boot(false, 5));
+        history.add(boot(false, 5));
+
+        assertTrue(SystemServiceBootTimes.findRegressions(
+                boot(false, 5 + SystemServiceBootTimes.MIN_REGRESSION_MS - 1), history, 50)
+                .isEmpty());
+    }
+
+    @Test
+    public void testOnlyComparesBootsOfTheSameKind() {
+        final ArrayList<Boot> history = new ArrayList<>();
+        history.add(boot(true, 100));
+        history.add(boot(true, 100));
+        history.add(boot(false, 100));
+
+        // Only one full boot to compare with.
+        assertTrue(SystemServiceBootTimes.findRegressions(boot(false, 500), history, 50)
+                .isEmpty());
+        assertEquals(1, SystemServiceBootTimes.findRegressions(boot(true, 500), history, 50)
+                .size());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.TimingsTraceLog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for {@link SystemServiceGraph}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SystemServiceGraphTest {
+
+    private SystemServiceGraph mGraph;
+
+    @Before
+    public void setUp() {
+        mGraph = new SystemServiceGraph(
+                new TimingsTraceLog("SystemServiceGraphTest", Trace.TRACE_TAG_SYSTEM_SERVER),
+                "SystemServiceGraphTestAsync");
+    }
+
+    @Test
+    public void testStepsRunAfterTheirDependencies() {
+        final AtomicBoolean asyncDone = new AtomicBoolean();
+        final AtomicBoolean dependentRan = new AtomicBoolean();
+        mGraph.runAsync("async", () -> {
+            SystemClock.sleep(50);
+            asyncDone.set(true);
+        });
+        mGraph.runAsync("dependent", () -> dependentRan.set(asyncDone.get()), "async");
+        mGraph.run("serial", () -> assertTrue(asyncDone.get()), "async");
+
+        mGraph.waitFor("dependent");
+        assertTrue(dependentRan.get());
+    }
+
+    @Test
+    public void testFailureReachesDependents() {
+        final AtomicBoolean dependentRan = new AtomicBoolean();
+        mGraph.runAsync("failing", () -> {
+            throw new RuntimeException("expected");
+        });
+        mGraph.runAsync("dependent", () -> dependentRan.set(true), "failing");
+
+        try {
+            mGraph.waitFor("dependent");
+            fail("Expected the failure of the dependency");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(dependentRan.get());
+
+        try {
+            mGraph.run("serial", () -> dependentRan.set(true), "failing");
+            fail("Expected the failure of the dependency");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(dependentRan.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() {
+        mGraph.run("serial", () -> {}, "unknown");
+    }
+
+    @Test
+    public void testPhasePrerequisites() {
+        mGraph.runAsync("early", () -> {});
+        mGraph.runAsync("late", () -> {});
+        mGraph.requireBeforePhase(SystemService.PHASE_LOCK_SETTINGS_READY, "early");
+        mGraph.requireBeforePhase(SystemService.PHASE_THIRD_PARTY_APPS_CAN_START, "late");
+
+        assertEquals(0, mGraph.getPhasePrerequisites(
+                SystemService.PHASE_WAIT_FOR_DEFAULT_DISPLAY).length);
+        assertArrayEquals(new String[] { "early" },
+                mGraph.getPhasePrerequisites(SystemService.PHASE_SYSTEM_SERVICES_READY));
+        assertArrayEquals(new String[] { "early", "late" },
+                mGraph.getPhasePrerequisites(SystemService.PHASE_BOOT_COMPLETED));
+        mGraph.waitForAll();
+    }
+
+    @Test
+    public void testCriticalPath() {
+        mGraph.run("first", () -> {});
+        mGraph.runAsync("slow", () -> SystemClock.sleep(50));
+        mGraph.run("fast", () -> {});
+        mGraph.run("last", () -> {}, "slow");
+
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        mGraph.dump(pw, "");
+        pw.flush();
+        final String dump = sw.toString();
+        final String path = dump.substring(dump.indexOf("Critical path"));
+        // The last step waited on the slow one, not on the serial step before it.
+        assertTrue(path, path.indexOf("first") < path.indexOf("slow"));
+        assertTrue(path, path.indexOf("slow") < path.indexOf("last"));
+        assertFalse(path, path.contains("fast"));
+    }
+}
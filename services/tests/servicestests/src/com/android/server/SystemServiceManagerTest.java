@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.TimingsTraceLog;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link SystemServiceManager}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SystemServiceManagerTest {
+
+    private static final ArrayList<String> sBootPhaseCalls = new ArrayList<>();
+
+    public abstract static class RecordingService extends SystemService {
+        public RecordingService(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onBootPhase(int phase) {
+            synchronized (sBootPhaseCalls) {
+                sBootPhaseCalls.add(getClass().getSimpleName());
+            }
+        }
+    }
+
+    public static class SlowService extends RecordingService {
+        public SlowService(Context context) {
+            super(context);
+            SystemClock.sleep(100);
+        }
+    }
+
+    public static class FastService extends RecordingService {
+        public FastService(Context context) {
+            super(context);
+        }
+    }
+
+    public static class SerialService extends RecordingService {
+        public SerialService(Context context) {
+            super(context);
+        }
+    }
+
+    @Test
+    public void testAsyncServicesKeepTheirOrder() {
+        final SystemServiceManager manager =
+                new SystemServiceManager(InstrumentationRegistry.getContext());
+        manager.setServiceGraph(new SystemServiceGraph(
+                new TimingsTraceLog("SystemServiceManagerTest", Trace.TRACE_TAG_SYSTEM_SERVER),
+                "SystemServiceManagerTestAsync"));
+        sBootPhaseCalls.clear();
+
+        manager.startServiceAsync(SlowService.class);
+        // Likely to start before SlowService, but gets lifecycle events after it.
+        manager.startServiceAsync(FastService.class);
+        manager.startService(SerialService.class);
+        // Waits for the services started on the init thread pool.
+        manager.startBootPhase(SystemService.PHASE_WAIT_FOR_DEFAULT_DISPLAY);
+
+        assertEquals(Arrays.asList("SlowService", "FastService", "SerialService"),
+                sBootPhaseCalls);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.server.content.ContentService.ObserverCall;
+import com.android.server.content.ContentService.ObserverNode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bit FrameworksServicesTests:com.android.server.content.ObserverBatcherTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ObserverBatcherTest {
+    private static final int USER_ID = 0;
+
+    static class BatchObserver extends ContentObserver {
+        final LinkedBlockingQueue<ArrayList<Uri>> mBatches = new LinkedBlockingQueue<>();
+        final LinkedBlockingQueue<Integer> mUsers = new LinkedBlockingQueue<>();
+
+        BatchObserver() {
+            super(null);
+        }
+
+        @Override
+        public boolean deliverBatchedNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Collection<Uri> uris, int userId) {
+            mUsers.add(userId);
+            mBatches.add(new ArrayList<>(uris));
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            fail("Expected batched notifications only");
+        }
+
+        ArrayList<Uri> nextBatch() throws InterruptedException {
+            final ArrayList<Uri> batch = mBatches.poll(5, TimeUnit.SECONDS);
+            if (batch == null) {
+                fail("Timed out waiting for a batch");
+            }
+            return batch;
+        }
+    }
+
+    private final ObserverNode mNode = new ObserverNode("");
+    private HandlerThread mThread;
+    private ObserverBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("ObserverBatcherTest");
+        mThread.start();
+        mBatcher = new ObserverBatcher(mThread.getLooper(), (node, observer) -> {
+            fail("Observer should not die");
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    private ObserverCall call(BatchObserver observer) {
+        return new ObserverCall(mNode, observer.getContentObserver(), false, USER_ID, true);
+    }
+
+    private static Uri uri(int i) {
+        return Uri.parse("content://test/items/" + i);
+    }
+
+    @Test
+    public void testCoalescesRepeatedChanges() throws Exception {
+        final BatchObserver observer = new BatchObserver();
+        final ObserverCall call = call(observer);
+        for (int i = 0; i < 1000; i++) {
+            mBatcher.add(call, uri(i % 10), USER_ID);
+        }
+
+        final ArrayList<Uri> batch = observer.nextBatch();
+        assertEquals(10, batch.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(uri(i), batch.get(i));
+        }
+        assertEquals(USER_ID, (int) observer.mUsers.take());
+        assertEquals(0, mBatcher.getPendingObserverCount());
+    }
+
+    @Test
+    public void testFullBatchDeliveredEarly() throws Exception {
+        final BatchObserver observer = new BatchObserver();
+        final ObserverCall call = call(observer);
+        for (int i = 0; i <= ObserverBatcher.MAX_BATCH_SIZE; i++) {
+            mBatcher.add(call, uri(i), USER_ID);
+        }
+
+        assertEquals(ObserverBatcher.MAX_BATCH_SIZE, observer.nextBatch().size());
+        final ArrayList<Uri> rest = observer.nextBatch();
+        assertEquals(1, rest.size());
+        assertEquals(uri(ObserverBatcher.MAX_BATCH_SIZE), rest.get(0));
+    }
+
+    @Test
+    public void testUsersBatchedSeparately() throws Exception {
+        final BatchObserver observer = new BatchObserver();
+        final ObserverCall call = call(observer);
+        mBatcher.add(call, uri(0), USER_ID);
+        mBatcher.add(call, uri(0), USER_ID + 10);
+
+        assertEquals(1, observer.nextBatch().size());
+        assertEquals(1, observer.nextBatch().size());
+        final int first = observer.mUsers.take();
+        final int second = observer.mUsers.take();
+        assertTrue(first != second);
+    }
+
+    @Test
+    public void testRemovedObserverNotNotified() throws Exception {
+        final BatchObserver observer = new BatchObserver();
+        mBatcher.add(call(observer), uri(0), USER_ID);
+        mBatcher.removeObserver(observer.getContentObserver());
+        assertEquals(0, mBatcher.getPendingObserverCount());
+
+        SystemClock.sleep(ObserverBatcher.BATCH_WINDOW_MILLIS * 4);
+        assertTrue(observer.mBatches.isEmpty());
+    }
+}
@@ -15,6 +15,8 @@ import android.util.Pair;
 import com.android.server.job.JobStore.JobSet;
 import com.android.server.job.controllers.JobStatus;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Iterator;
 
 /**
@@ -128,6 +130,70 @@ public class JobStoreTest extends AndroidTestCase {
 
     }
 
+    public void testJournalReplaysAddAndRemove() throws Exception {
+        final JobInfo task1 = new Builder(8, mComponent)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        final JobInfo task2 = new Builder(12, mComponent)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build();
+        final JobStatus taskStatus1 = JobStatus.createFromJobInfo(task1, SOME_UID, null, -1, null);
+        final JobStatus taskStatus2 = JobStatus.createFromJobInfo(task2, SOME_UID, null, -1, null);
+        mTaskStoreUnderTest.add(taskStatus1);
+        mTaskStoreUnderTest.add(taskStatus2);
+        mTaskStoreUnderTest.remove(taskStatus1, true);
+        Thread.sleep(IO_WAIT);
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Removed task was not dropped from the journal.", 1, jobStatusSet.size());
+        assertTasksEqual(task2, jobStatusSet.getAllJobs().get(0).getJob());
+    }
+
+    public void testStaleJournalIsNotReplayed() throws Exception {
+        final JobInfo task = new Builder(8, mComponent)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        mTaskStoreUnderTest.add(JobStatus.createFromJobInfo(task, SOME_UID, null, -1, null));
+        Thread.sleep(IO_WAIT);
+        final File journal = new File(mTestContext.getFilesDir(), "system/job/jobs.journal");
+        final byte[] staleJournal = Files.readAllBytes(journal.toPath());
+
+        // A full write folds the journal into the jobs file. Put the journal back, as if we
+        // crashed before it was deleted.
+        mTaskStoreUnderTest.clear();
+        Thread.sleep(IO_WAIT);
+        Files.write(journal.toPath(), staleJournal);
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Stale journal was replayed.", 0, jobStatusSet.size());
+        journal.delete();
+    }
+
+    public void testJournalCompaction() throws Exception {
+        final int numJobs = JobStore.MAX_JOURNAL_RECORDS * 2;
+        for (int i = 0; i < numJobs; i++) {
+            final JobInfo task = new Builder(i, mComponent)
+                    .setRequiresCharging(true)
+                    .setPersisted(true)
+                    .build();
+            mTaskStoreUnderTest.add(JobStatus.createFromJobInfo(task, SOME_UID, null, -1, null));
+        }
+        Thread.sleep(IO_WAIT);
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet, true);
+        assertEquals("Incorrect # of persisted tasks after compaction.", numJobs,
+                jobStatusSet.size());
+        for (int i = 0; i < numJobs; i++) {
+            assertNotNull("Missing task " + i, jobStatusSet.get(SOME_UID, i));
+        }
+    }
+
     public void testWritingTaskWithExtras() throws Exception {
         JobInfo.Builder b = new Builder(8, mComponent)
                 .setRequiresDeviceIdle(true)
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job.controllers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.INetworkPolicyListener;
+import android.net.NetworkInfo;
+import android.net.NetworkPolicyManager;
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.server.job.StateChangedListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that connectivity changes only re-evaluate the affected UIDs, with a large number of
+ * persisted jobs.
+ * <p>Run with:<pre>
+ * m FrameworksServicesTests &&
+ * adb install -r out/target/product/$TARGET_PRODUCT/data/app/FrameworksServicesTests/FrameworksServicesTests.apk &&
+ * adb shell am instrument -e class com.android.server.job.controllers.ConnectivityControllerTest \
+ * -w com.android.frameworks.servicestests/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ConnectivityControllerTest {
+    private static final String TAG = "ConnectivityControllerTest";
+
+    private static final int JOB_COUNT = 5000;
+    private static final int UID_COUNT = 50;
+    private static final int FIRST_UID = 10000;
+
+    @Mock private Context mContext;
+    @Mock private ConnectivityManager mConnManager;
+    @Mock private NetworkPolicyManager mNetPolicyManager;
+    @Mock private StateChangedListener mStateChangedListener;
+    @Mock private NetworkInfo mNetworkInfo;
+
+    private ConnectivityController mController;
+    private INetworkPolicyListener mPolicyListener;
+    private final ArrayList<JobStatus> mJobs = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemServiceName(ConnectivityManager.class))
+                .thenReturn(Context.CONNECTIVITY_SERVICE);
+        when(mContext.getSystemService(eq(Context.CONNECTIVITY_SERVICE)))
+                .thenReturn(mConnManager);
+        when(mContext.getSystemServiceName(NetworkPolicyManager.class))
+                .thenReturn(Context.NETWORK_POLICY_SERVICE);
+        when(mContext.getSystemService(eq(Context.NETWORK_POLICY_SERVICE)))
+                .thenReturn(mNetPolicyManager);
+        when(mConnManager.getActiveNetworkInfoForUid(anyInt(), anyBoolean()))
+                .thenReturn(mNetworkInfo);
+        when(mNetworkInfo.isConnected()).thenReturn(false);
+
+        mController = ConnectivityController.getForTesting(mStateChangedListener, mContext);
+        final ArgumentCaptor<INetworkPolicyListener> listenerCaptor =
+                ArgumentCaptor.forClass(INetworkPolicyListener.class);
+        verify(mNetPolicyManager).registerListener(listenerCaptor.capture());
+        mPolicyListener = listenerCaptor.getValue();
+
+        final ComponentName service = new ComponentName("android", "JobService");
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final JobInfo job = new JobInfo.Builder(i, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPersisted(true)
+                    .build();
+            final JobStatus js = JobStatus.createFromJobInfo(job, FIRST_UID + (i % UID_COUNT),
+                    null, -1, null);
+            mController.maybeStartTrackingJobLocked(js, null);
+            mJobs.add(js);
+        }
+        reset(mConnManager);
+        when(mConnManager.getActiveNetworkInfoForUid(anyInt(), anyBoolean()))
+                .thenReturn(mNetworkInfo);
+    }
+
+    @Test
+    public void testUidRulesChangeOnlyUpdatesThatUid() throws Exception {
+        when(mNetworkInfo.isConnected()).thenReturn(true);
+        final long start = SystemClock.elapsedRealtimeNanos();
+        mPolicyListener.onUidRulesChanged(FIRST_UID, 0);
+        Log.i(TAG, "onUidRulesChanged took "
+                + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+
+        verify(mConnManager, times(1)).getActiveNetworkInfoForUid(anyInt(), anyBoolean());
+        verify(mConnManager, times(1)).getActiveNetworkInfoForUid(eq(FIRST_UID), eq(false));
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final JobStatus js = mJobs.get(i);
+            assertTrue(js.isConstraintSatisfied(JobStatus.CONSTRAINT_NOT_ROAMING)
+                    == (js.getSourceUid() == FIRST_UID));
+        }
+    }
+
+    @Test
+    public void testGlobalChangeQueriesOncePerUid() throws Exception {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        mPolicyListener.onRestrictBackgroundChanged(true);
+        Log.i(TAG, "onRestrictBackgroundChanged took "
+                + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+
+        verify(mConnManager, times(UID_COUNT))
+                .getActiveNetworkInfoForUid(anyInt(), anyBoolean());
+        verify(mConnManager, never()).getNetworkCapabilities(any());
+    }
+
+    @Test
+    public void testStopTrackingRemovesFromUidIndex() throws Exception {
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final JobStatus js = mJobs.get(i);
+            if (js.getSourceUid() == FIRST_UID) {
+                mController.maybeStopTrackingJobLocked(js, null, false);
+            }
+        }
+        mPolicyListener.onUidRulesChanged(FIRST_UID, 0);
+        verify(mConnManager, never()).getActiveNetworkInfoForUid(anyInt(), anyBoolean());
+        assertFalse(mJobs.get(0).isConstraintSatisfied(JobStatus.CONSTRAINT_NOT_ROAMING));
+    }
+}
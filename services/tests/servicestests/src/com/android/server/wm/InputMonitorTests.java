@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.wm;
+
+import static android.view.Display.DEFAULT_DISPLAY;
+import static android.view.WindowManager.INPUT_CONSUMER_WALLPAPER;
+import static android.view.WindowManager.LayoutParams.TYPE_APPLICATION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.platform.test.annotations.Presubmit;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.InputChannel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the {@link InputMonitor} and {@link InputWindowsSnapshot} classes.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.wm.InputMonitorTests
+ */
+@SmallTest
+@Presubmit
+@RunWith(AndroidJUnit4.class)
+public class InputMonitorTests extends WindowTestsBase {
+
+    private InputWindowsSnapshot updateInputWindows() {
+        synchronized (sWm.mWindowMap) {
+            sWm.mInputMonitor.updateInputWindowsLw(true /* force */);
+        }
+        return sWm.mInputMonitor.getSnapshot();
+    }
+
+    @Test
+    public void testUnchangedWindowsNotPublished() throws Exception {
+        final InputWindowsSnapshot snapshot = updateInputWindows();
+        assertSame(snapshot, updateInputWindows());
+    }
+
+    @Test
+    public void testChangedWindowsPublished() throws Exception {
+        final InputMonitor monitor = sWm.mInputMonitor;
+        final InputChannel channel = new InputChannel();
+        synchronized (sWm.mWindowMap) {
+            monitor.createInputConsumer(INPUT_CONSUMER_WALLPAPER, channel);
+        }
+        try {
+            final InputWindowsSnapshot added = monitor.getSnapshot();
+            assertSame(added, updateInputWindows());
+
+            // Handles are modified in place; the snapshot must notice.
+            final InputConsumerImpl consumer =
+                    monitor.getInputConsumer(INPUT_CONSUMER_WALLPAPER, DEFAULT_DISPLAY);
+            consumer.mWindowHandle.frameRight++;
+            final InputWindowsSnapshot moved = updateInputWindows();
+            assertNotSame(added, moved);
+            assertEquals(added.sequence + 1, moved.sequence);
+            assertEquals(added.getWindowCount(), moved.getWindowCount());
+            assertSame(moved, updateInputWindows());
+        } finally {
+            synchronized (sWm.mWindowMap) {
+                monitor.destroyInputConsumer(INPUT_CONSUMER_WALLPAPER);
+            }
+        }
+    }
+
+    @Test
+    public void testFocusPublished() throws Exception {
+        final WindowState window = createWindow(null, TYPE_APPLICATION, "window");
+        final InputWindowsSnapshot before = updateInputWindows();
+        synchronized (sWm.mWindowMap) {
+            sWm.mInputMonitor.setInputFocusLw(window, true /* updateInputWindows */);
+        }
+        try {
+            final InputWindowsSnapshot focused = sWm.mInputMonitor.getSnapshot();
+            assertNotSame(before, focused);
+            assertSame(window, focused.focusedWindow);
+            assertSame(window.mClient.asBinder(), focused.focusedWindowToken);
+        } finally {
+            synchronized (sWm.mWindowMap) {
+                sWm.mInputMonitor.setInputFocusLw(before.focusedWindow,
+                        true /* updateInputWindows */);
+            }
+        }
+    }
+}
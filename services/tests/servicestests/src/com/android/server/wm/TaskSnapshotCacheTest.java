@@ -16,14 +16,23 @@
 
 package com.android.server.wm;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
 import static android.view.WindowManager.LayoutParams.FIRST_APPLICATION_WINDOW;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 
+import android.app.ActivityManager.TaskSnapshot;
 import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.android.internal.os.BackgroundThread;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -108,4 +117,118 @@ public class TaskSnapshotCacheTest extends TaskSnapshotPersisterTestBase {
         assertNotNull(mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
                 true /* restoreFromDisk */, false /* reducedResolution */));
     }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+
+        mCache.prefetchSnapshots(new int[] { taskId }, new int[] { sWm.mCurrentUserId },
+                true /* reducedResolution */);
+        waitForPrefetch();
+
+        // The prefetched snapshot is handed out once, then loaded from disk again.
+        final TaskSnapshot prefetched = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */);
+        assertNotNull(prefetched);
+        final TaskSnapshot loaded = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */);
+        assertNotNull(loaded);
+        assertNotSame(prefetched, loaded);
+    }
+
+    @Test
+    public void testPrefetch_droppedOnTaskRemoved() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+
+        mCache.prefetchSnapshots(new int[] { taskId }, new int[] { sWm.mCurrentUserId },
+                true /* reducedResolution */);
+        waitForPrefetch();
+        mCache.onTaskRemoved(taskId);
+        mPersister.onTaskRemovedFromRecents(taskId, sWm.mCurrentUserId);
+        mPersister.waitForQueueEmpty();
+        assertNull(mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+    }
+
+    @Test
+    public void testPrefetch_skipsRunningSnapshots() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final TaskSnapshot snapshot = createSnapshot();
+        mCache.putSnapshot(window.getTask(), snapshot);
+        mCache.prefetchSnapshots(new int[] { window.getTask().mTaskId },
+                new int[] { sWm.mCurrentUserId }, false /* reducedResolution */);
+        waitForPrefetch();
+        assertSame(snapshot, mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */));
+    }
+
+    @Test
+    public void testBudget_evictsLeastRecentlyUsed() throws Exception {
+        // Room for two of the 100x100 RGBA test snapshots.
+        final TaskSnapshotCache cache = new TaskSnapshotCache(sWm, mLoader, 2 * 100 * 100 * 4);
+        final WindowState first = createWindow(null, FIRST_APPLICATION_WINDOW, "first");
+        final WindowState second = createWindow(null, FIRST_APPLICATION_WINDOW, "second");
+        final WindowState third = createWindow(null, FIRST_APPLICATION_WINDOW, "third");
+        cache.putSnapshot(first.getTask(), createSnapshot());
+        cache.putSnapshot(second.getTask(), createSnapshot());
+
+        // Using the first snapshot makes the second one the least recently used.
+        assertNotNull(cache.getSnapshot(first.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        cache.putSnapshot(third.getTask(), createSnapshot());
+        assertEquals(2 * 100 * 100 * 4, cache.getCachedBytes());
+        assertNotNull(cache.getSnapshot(first.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        assertNull(cache.getSnapshot(second.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        assertNotNull(cache.getSnapshot(third.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+    }
+
+    @Test
+    public void testEvicted_restoresReducedFromDisk() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final int taskId = window.getTask().mTaskId;
+        final TaskSnapshot snapshot = createSnapshot();
+        mCache.putSnapshot(window.getTask(), snapshot);
+        mPersister.persistSnapshot(taskId, sWm.mCurrentUserId, snapshot);
+        mPersister.waitForQueueEmpty();
+
+        mCache.onTrimMemory(TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(0, mCache.getCachedBytes());
+        final TaskSnapshot restored = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */);
+        assertNotNull(restored);
+        assertTrue(restored.isReducedResolution());
+
+        // Once the app is gone the full snapshot on disk is used again.
+        mCache.onAppRemoved(window.mAppToken);
+        final TaskSnapshot full = mCache.getSnapshot(taskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, false /* reducedResolution */);
+        assertNotNull(full);
+        assertFalse(full.isReducedResolution());
+    }
+
+    @Test
+    public void testNewSnapshotUndoesDowngrade() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        mCache.putSnapshot(window.getTask(), createSnapshot());
+        mCache.onTrimMemory(TRIM_MEMORY_RUNNING_CRITICAL);
+        final TaskSnapshot snapshot = createSnapshot();
+        mCache.putSnapshot(window.getTask(), snapshot);
+        assertSame(snapshot, mCache.getSnapshot(window.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        mCache.onAppRemoved(window.mAppToken);
+        assertEquals(0, mCache.getCachedBytes());
+    }
+
+    private static void waitForPrefetch() {
+        BackgroundThread.getHandler().runWithScissors(() -> { }, 0 /* timeout */);
+    }
 }
@@ -31,6 +31,7 @@ import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.MediumTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.ArraySet;
+import android.util.Log;
 
 import com.android.internal.util.Predicate;
 import com.android.server.wm.TaskSnapshotPersister.RemoveObsoleteFilesQueueItem;
@@ -50,7 +51,9 @@ import java.io.File;
 @RunWith(AndroidJUnit4.class)
 public class TaskSnapshotPersisterLoaderTest extends TaskSnapshotPersisterTestBase {
 
+    private static final String TAG = "TaskSnapshotPersisterLoaderTest";
     private static final Rect TEST_INSETS = new Rect(10, 20, 30, 40);
+    private static final int LOAD_COUNT = 20;
 
     @Test
     public void testPersistAndLoadSnapshot() {
@@ -138,6 +141,62 @@ public class TaskSnapshotPersisterLoaderTest extends TaskSnapshotPersisterTestBa
         assertEquals(12, removeObsoleteFilesQueueItem.getTaskId("12.proto"));
         assertEquals(1, removeObsoleteFilesQueueItem.getTaskId("1.jpg"));
         assertEquals(1, removeObsoleteFilesQueueItem.getTaskId("1_reduced.jpg"));
+        assertEquals(12, removeObsoleteFilesQueueItem.getTaskId("12.webp"));
+        assertEquals(3, removeObsoleteFilesQueueItem.getTaskId("3_reduced.raw565"));
+    }
+
+    @Test
+    public void testPersistAndLoadAllFormats() {
+        for (TaskSnapshotFormat format : TaskSnapshotFormat.ALL) {
+            final TaskSnapshotPersister persister =
+                    new TaskSnapshotPersister(userId -> sFilesDir, format);
+            final TaskSnapshotLoader loader = new TaskSnapshotLoader(persister);
+            persister.start();
+            persister.persistSnapshot(1, mTestUserId, createSnapshot());
+            persister.waitForQueueEmpty();
+            final File file = persister.getBitmapFile(1, mTestUserId);
+            final File reducedFile = persister.getReducedResolutionBitmapFile(1, mTestUserId);
+            assertTrue(file.getName() + " must exist", file.exists());
+            assertTrue(reducedFile.getName() + " must exist", reducedFile.exists());
+
+            final TaskSnapshot snapshot = loader.loadTask(1, mTestUserId, false /* reduced */);
+            assertNotNull(format.name, snapshot);
+            assertEquals(100, snapshot.getSnapshot().getWidth());
+            assertEquals(TEST_INSETS, snapshot.getContentInsets());
+
+            // Recents loads the reduced snapshots while scrolling, so that is what is timed.
+            final long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < LOAD_COUNT; i++) {
+                final TaskSnapshot reduced = loader.loadTask(1, mTestUserId, true /* reduced */);
+                assertNotNull(format.name, reduced);
+                assertTrue(reduced.isReducedResolution());
+                reduced.getSnapshot().destroy();
+            }
+            Log.i(TAG, format.name + ": " + file.length() + " bytes, "
+                    + (SystemClock.elapsedRealtimeNanos() - start) / LOAD_COUNT / 1000
+                    + "us per reduced load");
+        }
+    }
+
+    @Test
+    public void testLoadAfterFormatChange() {
+        mPersister.persistSnapshot(1, mTestUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+
+        // Snapshots stored before the format changed can still be loaded.
+        final TaskSnapshotPersister persister =
+                new TaskSnapshotPersister(userId -> sFilesDir, TaskSnapshotFormat.RAW);
+        final TaskSnapshotLoader loader = new TaskSnapshotLoader(persister);
+        assertNotNull(loader.loadTask(1, mTestUserId, false /* reduced */));
+
+        // Storing in the new format removes the old files.
+        persister.start();
+        persister.persistSnapshot(1, mTestUserId, createSnapshot());
+        persister.waitForQueueEmpty();
+        assertFalse(new File(sFilesDir.getPath() + "/snapshots/1.jpg").exists());
+        assertFalse(new File(sFilesDir.getPath() + "/snapshots/1_reduced.jpg").exists());
+        assertTrue(new File(sFilesDir.getPath() + "/snapshots/1.raw").exists());
+        assertNotNull(loader.loadTask(1, mTestUserId, true /* reduced */));
     }
 
     @Test
@@ -37,6 +37,7 @@ import android.os.RemoteException;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * Mock implementation of ContentProvider.  All methods are non-functional and throw
@@ -66,6 +67,23 @@ public class MockContentProvider extends ContentProvider {
             return MockContentProvider.this.bulkInsert(url, initialValues);
         }
 
+        @Override
+        public int bulkInsertStreaming(String callingPackage, Uri url,
+                Iterator<ContentValues> values) throws RemoteException {
+            return MockContentProvider.this.bulkInsertStreaming(url, values);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatchStreaming(String callingPackage,
+                Iterator<ContentProviderOperation> operations)
+                throws RemoteException, OperationApplicationException {
+            final ArrayList<ContentProviderOperation> list = new ArrayList<>();
+            while (operations.hasNext()) {
+                list.add(operations.next());
+            }
+            return MockContentProvider.this.applyBatch(list);
+        }
+
         @Override
         public int delete(String callingPackage, Uri url, String selection, String[] selectionArgs)
                 throws RemoteException {
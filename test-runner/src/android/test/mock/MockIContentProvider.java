@@ -33,6 +33,7 @@ import android.os.RemoteException;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * Mock implementation of IContentProvider.  All methods are non-functional and throw
@@ -47,6 +48,12 @@ public class MockIContentProvider implements IContentProvider {
         throw new UnsupportedOperationException("unimplemented mock method");
     }
 
+    @Override
+    public int bulkInsertStreaming(String callingPackage, Uri url,
+            Iterator<ContentValues> values) {
+        throw new UnsupportedOperationException("unimplemented mock method");
+    }
+
     @Override
     @SuppressWarnings("unused")
     public int delete(String callingPackage, Uri url, String selection, String[] selectionArgs)
@@ -85,6 +92,12 @@ public class MockIContentProvider implements IContentProvider {
         throw new UnsupportedOperationException("unimplemented mock method");
     }
 
+    @Override
+    public ContentProviderResult[] applyBatchStreaming(String callingPackage,
+            Iterator<ContentProviderOperation> operations) {
+        throw new UnsupportedOperationException("unimplemented mock method");
+    }
+
     @Override
     public Cursor query(String callingPackage, Uri url, @Nullable String[] projection,
             @Nullable Bundle queryArgs, @Nullable ICancellationSignal cancellationSignal) {
@@ -60,6 +60,8 @@ import java.util.Set;
  * apps - A list of applications to start and their corresponding result keys
  * in the following format:
  * -e apps <app name>^<result key>|<app name>^<result key>
+ * To compare cold starts with and without processes the zygote forked ahead of time, run
+ * the test once with -e zygote_pool_size 0 and once with a pool, e.g. -e zygote_pool_size 3.
  */
 public class AppLaunch extends InstrumentationTestCase {
 
@@ -81,6 +83,9 @@ public class AppLaunch extends InstrumentationTestCase {
     private static final String KEY_TRACE_CATEGORY = "trace_categories";
     private static final String KEY_TRACE_BUFFERSIZE = "trace_bufferSize";
     private static final String KEY_TRACE_DUMPINTERVAL = "tracedump_interval";
+    // optional parameter: number of processes the zygote keeps forked ahead of time during
+    // the launches
+    private static final String KEY_ZYGOTE_POOL_SIZE = "zygote_pool_size";
     private static final String WEARABLE_ACTION_GOOGLE =
             "com.google.android.wearable.action.GOOGLE";
     private static final int INITIAL_LAUNCH_IDLE_TIMEOUT = 60000; //60s to allow app to idle
@@ -107,6 +112,7 @@ public class AppLaunch extends InstrumentationTestCase {
     private static final String LAUNCH_ORDER_CYCLIC = "cyclic";
     private static final String LAUNCH_ORDER_SEQUENTIAL = "sequential";
     private static final String SPEED_PROFILE_CMD = "cmd package compile -f -m speed-profile %s";
+    private static final String ZYGOTE_POOL_SIZE_CMD = "setprop persist.zygote.pool_size %s";
 
 
 
@@ -154,6 +160,10 @@ public class AppLaunch extends InstrumentationTestCase {
         mSimplePerfCmd = args.getString(KEY_SIMPLEPPERF_CMD);
         mLaunchOrder = args.getString(KEY_LAUNCH_ORDER, LAUNCH_ORDER_CYCLIC);
         mSimulateMaintanance =  Boolean.parseBoolean(args.getString(KEY_SIMULATE_MAINTANANCE));
+        String zygotePoolSize = args.getString(KEY_ZYGOTE_POOL_SIZE);
+        if (zygotePoolSize != null) {
+            setZygotePoolSize(Integer.parseInt(zygotePoolSize));
+        }
 
         createMappings();
         parseArgs(args);
@@ -336,6 +346,23 @@ public class AppLaunch extends InstrumentationTestCase {
         }
     }
 
+    /**
+     * Sets the number of processes the zygote keeps forked ahead of time. The zygote fills
+     * or trims the pool after the next process it starts, so the trial launch takes care of
+     * the pool being ready for the measured launches.
+     */
+    private void setZygotePoolSize(int size) throws IOException {
+        Log.i(TAG, "Setting the zygote pool size to " + size);
+        try (ParcelFileDescriptor result = getInstrumentation().getUiAutomation().
+                executeShellCommand(String.format(ZYGOTE_POOL_SIZE_CMD, size));
+                InputStream inputStream = new FileInputStream(result.getFileDescriptor())) {
+            // Wait for the command to complete.
+            byte[] buffer = new byte[256];
+            while (inputStream.read(buffer) != -1) {
+            }
+        }
+    }
+
     /**
      * If launch order is "cyclic" then apps will be launched one after the
      * other for each iteration count.
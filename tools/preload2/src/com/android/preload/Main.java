@@ -28,6 +28,7 @@ import com.android.preload.actions.ReloadListAction;
 import com.android.preload.actions.RunMonkeyAction;
 import com.android.preload.actions.ScanAllPackagesAction;
 import com.android.preload.actions.ScanPackageAction;
+import com.android.preload.actions.ScanProfilesAction;
 import com.android.preload.actions.ShowDataAction;
 import com.android.preload.actions.WritePreloadedClassesAction;
 import com.android.preload.classdataretrieval.ClassDataRetriever;
@@ -94,6 +95,7 @@ public class Main {
 
     public final static String SCAN_ALL_CMD = "scan-all";
     public final static String SCAN_PACKAGE_CMD = "scan";
+    public final static String SCAN_PROFILES_CMD = "scan-profiles";
     public final static String COMPUTE_FILE_CMD = "comp";
     public final static String EXPORT_CMD = "export";
     public final static String IMPORT_CMD = "import";
@@ -128,6 +130,7 @@ public class Main {
         actions.add(new RunMonkeyAction(null, dataTableModel));
         actions.add(new ScanPackageAction(clientUtils, null, dataTableModel));
         actions.add(new ScanAllPackagesAction(clientUtils, null, dataTableModel));
+        actions.add(new ScanProfilesAction(null, dataTableModel));
         actions.add(new ComputeThresholdAction("Compute preloaded-classes", dataTableModel, 2,
                 CLASS_PRELOAD_BLACKLIST));
         actions.add(new ComputeThresholdAction("Compute compiled-classes", dataTableModel, 1,
@@ -175,6 +178,10 @@ public class Main {
                 } else if (SCAN_ALL_CMD.equals(op)) {
                     System.out.println("Scanning all packages.");
                     ui.action(ScanAllPackagesAction.class);
+                // Operation: Scan the profiles of all packages
+                } else if (SCAN_PROFILES_CMD.equals(op)) {
+                    System.out.println("Scanning profiles.");
+                    ui.action(ScanProfilesAction.class);
                 // Operation: Export the output to a file
                 } else if (EXPORT_CMD.equals(op)) {
                     System.out.println("Exporting data.");
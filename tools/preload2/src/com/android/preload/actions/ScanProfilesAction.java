@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.preload.actions;
+
+import com.android.ddmlib.IDevice;
+import com.android.preload.DeviceUtils;
+import com.android.preload.DumpData;
+import com.android.preload.DumpTableModel;
+import com.android.preload.Main;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the boot classpath classes recorded in the ART profiles of all packages on the
+ * device. Unlike a heap scan this does not need the apps to be running, and covers everything
+ * the apps loaded since their profiles were last compiled. Every profile becomes one data set,
+ * so the usual threshold actions can compute a preloaded-classes list from them.
+ * <p>
+ * Needs a userdebug or eng build with adb running as root, and boot classpath profiling
+ * enabled (dalvik.vm.profilebootclasspath) so that the profiles record framework classes.
+ */
+public class ScanProfilesAction extends AbstractThreadedDeviceSpecificAction {
+
+    private static final String PROFILES_DIR = "/data/misc/profiles/cur/0";
+    private static final String PROFILE_NAME = "primary.prof";
+
+    private DumpTableModel dataTableModel;
+
+    public ScanProfilesAction(IDevice device, DumpTableModel dataTableModel) {
+        super("Scan profiles", device);
+        this.dataTableModel = dataTableModel;
+    }
+
+    @Override
+    public void run() {
+        Main.getUI().showWaitDialog();
+
+        try {
+            String bootClassPath = DeviceUtils.doShellReturnString(device,
+                    "echo $BOOTCLASSPATH", 1, TimeUnit.SECONDS).trim();
+            if (bootClassPath.isEmpty()) {
+                Main.getUI().showMessageDialog("Could not read the boot classpath.");
+                return;
+            }
+            StringBuilder dexArgs = new StringBuilder();
+            for (String jar : bootClassPath.split(":")) {
+                dexArgs.append(" --apk=").append(jar).append(" --dex-location=").append(jar);
+            }
+
+            String packages = DeviceUtils.doShellReturnString(device, "ls " + PROFILES_DIR,
+                    5, TimeUnit.SECONDS);
+            for (String pkg : packages.split("\\s+")) {
+                if (pkg.isEmpty()) {
+                    continue;
+                }
+                Main.getUI().updateWaitDialog("Reading profile of " + pkg);
+
+                String profile = PROFILES_DIR + "/" + pkg + "/" + PROFILE_NAME;
+                String dump = DeviceUtils.doShellReturnString(device, "profman --dump-classes"
+                        + " --profile-file=" + profile + dexArgs, 30, TimeUnit.SECONDS);
+                Map<String, String> classes = parseDump(dump);
+                if (!classes.isEmpty()) {
+                    dataTableModel.addData(new DumpData(pkg, classes, new Date()));
+                }
+            }
+        } finally {
+            Main.getUI().hideWaitDialog();
+        }
+    }
+
+    /**
+     * Turns the class descriptors profman printed into a map of class names to a null class
+     * loader, which is how boot classpath classes are represented in {@link DumpData}.
+     */
+    private static Map<String, String> parseDump(String dump) {
+        Map<String, String> ret = new HashMap<>();
+        for (String line : dump.split("\n")) {
+            for (String descriptor : line.trim().split(",")) {
+                descriptor = descriptor.trim();
+                if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+                    ret.put(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'),
+                            null);
+                }
+            }
+        }
+        return ret;
+    }
+}